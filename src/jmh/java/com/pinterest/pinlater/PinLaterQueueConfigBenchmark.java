@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ``PinLaterQueueConfig.allowDequeue``, which runs on every dequeue request, with many
+ * threads hitting the same queues concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class PinLaterQueueConfigBenchmark {
+
+  private static final String QUEUE_CONFIG =
+      "{\"queues\": ["
+          + "{\"name\": \"rate_limited_queue\", \"queueConfig\": {\"maxJobsPerSecond\": 1000}},"
+          + "{\"name\": \"unlimited_queue\", \"queueConfig\": {\"maxJobsPerSecond\": 1000000000}}"
+          + "]}";
+
+  private final PinLaterQueueConfig queueConfig = new PinLaterQueueConfig("", "", false);
+
+  @Setup
+  public void setUp() throws Exception {
+    queueConfig.getQueueConfigSchemaRef().set(
+        PinLaterQueueConfig.QueueConfigSchema.load(QUEUE_CONFIG.getBytes()));
+    queueConfig.rebuild();
+  }
+
+  @Benchmark
+  public boolean allowDequeueNotConfigured() {
+    return queueConfig.allowDequeue("queue_not_in_config", 10);
+  }
+
+  @Benchmark
+  public boolean allowDequeueRateLimited() {
+    return queueConfig.allowDequeue("rate_limited_queue", 10);
+  }
+
+  @Benchmark
+  public boolean allowDequeueUnlimited() {
+    return queueConfig.allowDequeue("unlimited_queue", 10);
+  }
+}
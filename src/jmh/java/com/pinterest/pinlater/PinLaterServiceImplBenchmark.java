@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater;
+
+import com.pinterest.pinlater.backends.memory.PinLaterMemoryBackend;
+import com.pinterest.pinlater.thrift.PinLaterDequeueRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueRequest;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobAckRequest;
+import com.pinterest.pinlater.thrift.RequestContext;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the dequeue and ack path of ``PinLaterServiceImpl`` (rate limiting, stats, request
+ * handling) against the in-memory backend, so that the numbers include the backend base but no
+ * network or storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinLaterServiceImplBenchmark {
+
+  private static final String QUEUE_NAME = "benchmark_queue";
+
+  @Param({"1", "100"})
+  public int numJobs;
+
+  private final RequestContext context = new RequestContext("benchmark");
+  private PinLaterMemoryBackend backend;
+  private PinLaterServiceImpl service;
+  private PinLaterDequeueRequest dequeueRequest;
+  private PinLaterDequeueRequest dryRunDequeueRequest;
+
+  @Setup
+  public void setUp() throws Exception {
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.memory.test.properties"));
+    backend = new PinLaterMemoryBackend(configuration, "localhost", System.currentTimeMillis());
+    backend.createQueue(QUEUE_NAME).get();
+
+    // The jobs can be retried forever, so failing them puts them back for the next invocation.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    for (int i = 0; i < numJobs; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(new byte[256]));
+      job.setNumAttemptsAllowed(Integer.MAX_VALUE);
+      enqueueRequest.addToJobs(job);
+    }
+    backend.enqueueJobs(enqueueRequest).get();
+
+    PinLaterQueueConfig queueConfig = new PinLaterQueueConfig("", "", false);
+    queueConfig.initialize();
+    service = new PinLaterServiceImpl(backend, queueConfig);
+    dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, numJobs);
+    dryRunDequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, numJobs);
+    dryRunDequeueRequest.setDryRun(true);
+  }
+
+  @TearDown
+  public void tearDown() {
+    backend.deleteQueue(QUEUE_NAME).get();
+  }
+
+  @Benchmark
+  public PinLaterDequeueResponse dryRunDequeue() throws Exception {
+    return service.dequeueJobs(context, dryRunDequeueRequest).get();
+  }
+
+  @Benchmark
+  public int dequeueAndAck() throws Exception {
+    PinLaterDequeueResponse response = service.dequeueJobs(context, dequeueRequest).get();
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    for (String jobDescriptor : response.getJobs().keySet()) {
+      ackRequest.addToJobsFailed(new PinLaterJobAckInfo(jobDescriptor));
+    }
+    service.ackDequeuedJobs(context, ackRequest).get();
+    return ackRequest.getJobsFailedSize();
+  }
+}
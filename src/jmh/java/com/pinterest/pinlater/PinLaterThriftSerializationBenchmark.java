@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater;
+
+import com.pinterest.pinlater.backends.common.PinLaterJobDescriptor;
+import com.pinterest.pinlater.thrift.PinLaterDequeueMetadata;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the thrift binary serialization of a full ``PinLaterDequeueResponse``, which is the
+ * largest response the server sends, for different job body sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinLaterThriftSerializationBenchmark {
+
+  private static final int NUM_JOBS = 100;
+
+  @Param({"64", "1024", "16384"})
+  public int bodySizeBytes;
+
+  private final TSerializer serializer = new TSerializer(new TBinaryProtocol.Factory());
+  private final TDeserializer deserializer = new TDeserializer(new TBinaryProtocol.Factory());
+
+  private PinLaterDequeueResponse response;
+  private byte[] serializedResponse;
+
+  @Setup
+  public void setUp() throws TException {
+    Random random = new Random(0);
+    response = new PinLaterDequeueResponse();
+    for (int i = 0; i < NUM_JOBS; i++) {
+      String jobDescriptor = new PinLaterJobDescriptor("benchmark_queue", "1", 1, i).toString();
+      byte[] body = new byte[bodySizeBytes];
+      random.nextBytes(body);
+      response.putToJobs(jobDescriptor, ByteBuffer.wrap(body));
+      PinLaterDequeueMetadata metadata = new PinLaterDequeueMetadata();
+      metadata.setAttemptsAllowed(3);
+      metadata.setAttemptsRemaining(2);
+      response.putToJobMetadata(jobDescriptor, metadata);
+    }
+    serializedResponse = serializer.serialize(response);
+  }
+
+  @Benchmark
+  public byte[] serialize() throws TException {
+    return serializer.serialize(response);
+  }
+
+  @Benchmark
+  public PinLaterDequeueResponse deserialize() throws TException {
+    PinLaterDequeueResponse deserialized = new PinLaterDequeueResponse();
+    deserializer.deserialize(deserialized, serializedResponse);
+    return deserialized;
+  }
+}
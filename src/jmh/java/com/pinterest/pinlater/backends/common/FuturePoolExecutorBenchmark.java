@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.collect.Lists;
+import com.twitter.util.ExceptionalFunction0;
+import com.twitter.util.ExecutorServiceFuturePool;
+import com.twitter.util.Future;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the future pool strategies of ``FuturePoolExecutor`` on a burst of ``numRequests``
+ * concurrent blocking calls, spread evenly over the shards.
+ *
+ * The backend starts with ``initialShards`` shards, then a config update brings the total to
+ * ``numShards``. Each call holds one of the ``BACKEND_CONNECTIONS_PER_SHARD`` connections of its
+ * shard, simulated by a semaphore, for ``callLatencyMicros``. The ``fixed`` pool keeps the threads
+ * of the initial shards, so the added connections sit idle; the ``resizable`` pool grows to one
+ * thread per connection. SampleTime reports the distribution of the time to drain a burst, i.e.
+ * the latency of its slowest calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FuturePoolExecutorBenchmark {
+
+  private static final int CONNECTIONS_PER_SHARD = 10;
+
+  @Param({FuturePoolExecutor.FIXED, FuturePoolExecutor.RESIZABLE})
+  public String strategy;
+
+  @Param({"10000"})
+  public int numRequests;
+
+  @Param({"4"})
+  public int initialShards;
+
+  @Param({"8"})
+  public int numShards;
+
+  @Param({"1000"})
+  public int callLatencyMicros;
+
+  private FuturePoolExecutor executor;
+  private ExecutorServiceFuturePool futurePool;
+  private Semaphore[] shardConnections;
+
+  @Setup
+  public void setUp() {
+    executor = new FuturePoolExecutor("benchmark", strategy, CONNECTIONS_PER_SHARD, initialShards);
+    executor.resize(numShards);
+    futurePool = new ExecutorServiceFuturePool(executor.getExecutorService());
+    shardConnections = new Semaphore[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shardConnections[i] = new Semaphore(CONNECTIONS_PER_SHARD);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.getExecutorService().shutdownNow();
+  }
+
+  @Benchmark
+  public int burst() {
+    List<Future<Integer>> futures = Lists.newArrayListWithCapacity(numRequests);
+    for (int i = 0; i < numRequests; i++) {
+      final Semaphore connections = shardConnections[i % numShards];
+      futures.add(futurePool.apply(new ExceptionalFunction0<Integer>() {
+        @Override
+        public Integer applyE() throws Throwable {
+          connections.acquire();
+          try {
+            TimeUnit.MICROSECONDS.sleep(callLatencyMicros);
+          } finally {
+            connections.release();
+          }
+          return 1;
+        }
+      }));
+    }
+    return Future.collect(futures).get().size();
+  }
+}
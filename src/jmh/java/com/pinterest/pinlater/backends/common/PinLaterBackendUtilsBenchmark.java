@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+
+import com.google.common.collect.Lists;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the helpers in ``PinLaterBackendUtils`` that run on every batched request (ack,
+ * checkpoint, lookup) and on every scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinLaterBackendUtilsBenchmark {
+
+  private static final Function<List<Integer>, Future<Integer>> SIZE_OF_BATCH =
+      new Function<List<Integer>, Future<Integer>>() {
+        @Override
+        public Future<Integer> apply(List<Integer> batch) {
+          return Future.value(batch.size());
+        }
+      };
+
+  @Param({"10", "1000"})
+  public int numRequests;
+
+  @Param({"1", "10"})
+  public int numShards;
+
+  private List<Integer> requests;
+  private List<List<PinLaterJobInfo>> shardJobInfos;
+
+  @Setup
+  public void setUp() {
+    requests = Lists.newArrayListWithCapacity(numRequests);
+    for (int i = 0; i < numRequests; i++) {
+      requests.add(i);
+    }
+
+    // Each shard returns its jobs sorted descending by runAfter, like a scan does.
+    shardJobInfos = Lists.newArrayListWithCapacity(numShards);
+    for (int shard = 0; shard < numShards; shard++) {
+      List<PinLaterJobInfo> jobInfos = Lists.newArrayListWithCapacity(numRequests);
+      for (int i = numRequests - 1; i >= 0; i--) {
+        PinLaterJobInfo jobInfo = new PinLaterJobInfo();
+        jobInfo.setJobDescriptor(
+            new PinLaterJobDescriptor("benchmark_queue", String.valueOf(shard), 1, i).toString());
+        jobInfo.setRunAfterTimestampMillis(i * numShards + shard);
+        jobInfos.add(jobInfo);
+      }
+      shardJobInfos.add(jobInfos);
+    }
+  }
+
+  @Benchmark
+  public List<Integer> executePartitioned() throws Exception {
+    return Future.collect(PinLaterBackendUtils.executePartitioned(requests, 5, SIZE_OF_BATCH))
+        .get();
+  }
+
+  @Benchmark
+  public List<PinLaterJobInfo> mergeIntoList() {
+    return PinLaterBackendUtils.mergeIntoList(
+        shardJobInfos, PinLaterBackendUtils.JobInfoComparator.getInstance());
+  }
+
+  @Benchmark
+  public List<PinLaterJobInfo> mergeIntoListWithLimit() {
+    return PinLaterBackendUtils.mergeIntoList(
+        shardJobInfos, PinLaterBackendUtils.JobInfoComparator.getInstance(), numRequests / 10);
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ``PinLaterJobDescriptor`` formatting and parsing against the previous implementation
+ * based on String.format and String.split. Run with ``-Djmh.args="PinLaterJobDescriptor -prof gc"``
+ * to also see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinLaterJobDescriptorBenchmark {
+
+  private static final String QUEUE_NAME = "pinlater_benchmark_queue";
+  private static final String SHARD_NAME = "1d12";
+  private static final int PRIORITY = 2;
+  private static final long LOCAL_ID = 1234567890L;
+
+  private final String jobDescriptor =
+      new PinLaterJobDescriptor(QUEUE_NAME, SHARD_NAME, PRIORITY, LOCAL_ID).toString();
+
+  @Benchmark
+  public String format() {
+    return new PinLaterJobDescriptor(QUEUE_NAME, SHARD_NAME, PRIORITY, LOCAL_ID).toString();
+  }
+
+  @Benchmark
+  public String formatLegacy() {
+    return LegacyJobDescriptor.format(QUEUE_NAME, SHARD_NAME, PRIORITY, LOCAL_ID);
+  }
+
+  @Benchmark
+  public long parse() {
+    PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobDescriptor);
+    return jobDesc.getLocalId() + jobDesc.getPriority() + jobDesc.getShardName().length();
+  }
+
+  @Benchmark
+  public long parseLegacy() {
+    LegacyJobDescriptor jobDesc = new LegacyJobDescriptor(jobDescriptor);
+    return jobDesc.localId + jobDesc.priority + jobDesc.shardName.length();
+  }
+
+  @Benchmark
+  public long roundTrip() {
+    String formatted =
+        new PinLaterJobDescriptor(QUEUE_NAME, SHARD_NAME, PRIORITY, LOCAL_ID).toString();
+    return new PinLaterJobDescriptor(formatted).getLocalId();
+  }
+
+  /**
+   * The implementation ``PinLaterJobDescriptor`` used to have, kept as the baseline.
+   */
+  private static class LegacyJobDescriptor {
+
+    private final String queueName;
+    private final String shardName;
+    private final int priority;
+    private final long localId;
+
+    LegacyJobDescriptor(String jobDescriptor) {
+      String[] tokens = jobDescriptor.split(":");
+      this.queueName = tokens[0];
+      this.shardName = tokens[1].substring(1);
+      this.priority = Integer.parseInt(tokens[2].substring(1));
+      this.localId = Long.parseLong(tokens[3]);
+    }
+
+    static String format(String queueName, String shardName, int priority, long localId) {
+      return String.format("%s:s%s:p%d:%d", queueName, shardName, priority, localId);
+    }
+  }
+}
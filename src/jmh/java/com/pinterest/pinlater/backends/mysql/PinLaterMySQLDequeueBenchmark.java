@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.mysql;
+
+import com.pinterest.pinlater.PinLaterQueueConfig;
+import com.pinterest.pinlater.thrift.PinLaterDequeueRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueRequest;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobAckRequest;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the dequeue throughput of the MySQL backend with ordered dequeues (oldest run_after
+ * first) against the default unordered claim, to help pick the mode of a queue.
+ *
+ * This is an integration benchmark: it needs the local MySQL used by the MySQL backend tests, and
+ * fails in setup if there is none. Every dequeue acks the jobs of the previous one as failed, so
+ * they are retried right away and the number of pending jobs stays constant, with run_after
+ * spread over the past ``PENDING_JOBS_SPREAD_MILLIS``.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+public class PinLaterMySQLDequeueBenchmark {
+
+  private static final String QUEUE_NAME = "pinlater_mysql_dequeue_benchmark";
+  private static final int ENQUEUE_BATCH_SIZE = 1000;
+  private static final long PENDING_JOBS_SPREAD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  @Param({"false", "true"})
+  public boolean orderedDequeue;
+
+  @Param({"100000"})
+  public int numPendingJobs;
+
+  @Param({"10"})
+  public int dequeueLimit;
+
+  private PinLaterMySQLBackend backend;
+
+  @Setup
+  public void setUp() throws Exception {
+    if (!LocalMySQLChecker.isRunning()) {
+      throw new IllegalStateException("This benchmark needs a local MySQL server");
+    }
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.test.properties"));
+    System.setProperty("backend_config", "mysql.local.json");
+    backend = new PinLaterMySQLBackend(configuration, "localhost", System.currentTimeMillis());
+    backend.setQueueConfig(new PinLaterQueueConfig("", "", false) {
+      @Override
+      public boolean isDequeueOrdered(String queueName) {
+        return orderedDequeue;
+      }
+    });
+
+    backend.deleteQueue(QUEUE_NAME).get();
+    backend.createQueue(QUEUE_NAME).get();
+    Random random = new Random(0);
+    long nowMillis = System.currentTimeMillis();
+    for (int i = 0; i < numPendingJobs; i += ENQUEUE_BATCH_SIZE) {
+      PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+      enqueueRequest.setQueueName(QUEUE_NAME);
+      for (int j = i; j < Math.min(i + ENQUEUE_BATCH_SIZE, numPendingJobs); j++) {
+        PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(("job_body_" + j).getBytes()));
+        job.setNumAttemptsAllowed(Integer.MAX_VALUE);
+        job.setRunAfterTimestampMillis(
+            nowMillis - (long) (random.nextDouble() * PENDING_JOBS_SPREAD_MILLIS));
+        enqueueRequest.addToJobs(job);
+      }
+      backend.enqueueJobs(enqueueRequest).get();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    backend.deleteQueue(QUEUE_NAME).get();
+  }
+
+  @State(Scope.Thread)
+  public static class DequeueState {
+
+    // Jobs dequeued by the previous invocation of this thread, acked by the next one.
+    private PinLaterJobAckRequest pendingAckRequest;
+  }
+
+  @Benchmark
+  public int dequeue(DequeueState state) {
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, dequeueLimit);
+    if (state.pendingAckRequest != null) {
+      dequeueRequest.setJobAckRequest(state.pendingAckRequest);
+    }
+    PinLaterDequeueResponse dequeueResponse =
+        backend.dequeueJobs("benchmark", dequeueRequest).get();
+
+    state.pendingAckRequest = null;
+    if (dequeueResponse.getJobsSize() == 0) {
+      return 0;
+    }
+    state.pendingAckRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    for (String jobDescriptor : dequeueResponse.getJobs().keySet()) {
+      state.pendingAckRequest.addToJobsFailed(new PinLaterJobAckInfo(jobDescriptor));
+    }
+    return dequeueResponse.getJobsSize();
+  }
+}
@@ -16,8 +16,15 @@
  */
 package com.pinterest.pinlater;
 
+import com.pinterest.pinlater.backends.common.AdaptiveConcurrencyLimiter;
+import com.pinterest.pinlater.backends.common.DequeueWaiters;
+import com.pinterest.pinlater.backends.common.EmptyShardHints;
+import com.pinterest.pinlater.backends.common.FuturePoolExecutor;
 import com.pinterest.pinlater.backends.common.PinLaterBackendUtils;
 import com.pinterest.pinlater.backends.common.PinLaterJobDescriptor;
+import com.pinterest.pinlater.backends.common.RequestHedger;
+import com.pinterest.pinlater.backends.common.ShardBulkheads;
+import com.pinterest.pinlater.backends.common.ShardLatencyTracker;
 import com.pinterest.pinlater.commons.config.ConfigFileWatcher;
 import com.pinterest.pinlater.thrift.Constants;
 import com.pinterest.pinlater.thrift.ErrorCode;
@@ -42,6 +49,7 @@ import com.pinterest.pinlater.thrift.PinLaterScanJobsRequest;
 import com.pinterest.pinlater.thrift.PinLaterScanJobsResponse;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -52,6 +60,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.collections.Pair;
@@ -62,6 +71,7 @@ import com.twitter.util.ExceptionalFunction;
 import com.twitter.util.ExceptionalFunction0;
 import com.twitter.util.ExecutorServiceFuturePool;
 import com.twitter.util.Function;
+import com.twitter.util.Function0;
 import com.twitter.util.Future;
 import com.twitter.util.Try;
 import org.apache.commons.configuration.PropertiesConfiguration;
@@ -78,6 +88,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -85,9 +96,9 @@ import java.util.concurrent.atomic.AtomicLong;
  * service API. The operations to the backend should be implemented in the class which inherits
  * this base class.
  *
- * This base class is intended for backend class which does blocking operations to its backend. If
- * the request to the backend is async itself, then the backend class should not inherit this base
- * class.
+ * This base class is intended for backend class which does blocking operations to its backend.
+ * Backends with an asynchronous client can still inherit it and override the non-blocking versions
+ * of the shard operations on the request hot paths, see ``isNonBlocking``.
  */
 public abstract class PinLaterBackendBase implements PinLaterBackendIface {
 
@@ -98,16 +109,43 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
   private final String serverHostName;
   private final long serverStartTimeMillis;
   private final int queryParallelism;
+  // Maximum number of jobs of a queue, shard and priority looked up with a single shard call.
+  private final int lookupBatchSize;
   private final int numAutoRetries;
   private final String backendName;
   private final String shardConfigFilePath;
+  // Number of shards that a dequeue request is sent to concurrently. 1 means that shards are
+  // dequeued from one at a time, in priority order.
+  private final int dequeueFanout;
+  private final EmptyShardHints emptyShardHints;
+  private final DequeueWaiters dequeueWaiters;
+  private final long maxDequeueWaitTimeMillis;
+  private final long dequeueWaitPollMillis;
+  // Moves the shards that are much slower than the rest to the back of dequeue requests.
+  private final ShardLatencyTracker shardLatencyTracker;
+  // Re-issues read-only calls that are slower than usual.
+  private final RequestHedger requestHedger;
+  // Bounds the blocking calls in flight to each shard on the request hot paths.
+  private final ShardBulkheads shardBulkheads;
+  // Per-queue dynamic configuration of the server, if it was set. Null means queue defaults.
+  private volatile PinLaterQueueConfig queueConfig;
+  // Used by the queues that do not configure their own priority scheduling.
+  private final QueuePriorityScheduler defaultPriorityScheduler;
   // All the queues in the same cluster share the priority levels. Priority level starts from
   // 1 (highest) to ``NUM_PRIORITY_LEVELS`` (lowest). The number of priority levels should be kept
   // as small as possible to make backend best performance. Typically it should not be greater
   // than 3.
   protected final int numPriorityLevels;
   protected ExecutorServiceFuturePool futurePool;
+  // Volatile since the config file watcher resizes it from its own thread.
+  private volatile FuturePoolExecutor futurePoolExecutor;
+  // Runs the administrative calls (job counts, scans, retries and deletes of failed jobs), so that
+  // they do not compete with dequeues and acks for the threads of ``futurePool``.
+  private ExecutorServiceFuturePool adminFuturePool;
   private LoadingCache<String, AsyncSemaphore> dequeueSemaphoreMap;
+  // Per (queue, shard) adaptive dequeue concurrency limits, which replace ``dequeueSemaphoreMap``
+  // if BACKEND_DEQUEUE_CONCURRENCY_LIMIT is "adaptive". Null otherwise.
+  private LoadingCache<Pair<String, String>, AdaptiveConcurrencyLimiter> dequeueLimiterMap;
 
   public PinLaterBackendBase(PropertiesConfiguration configuration,
                              String backendName,
@@ -119,10 +157,108 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
     this.serverStartTimeMillis = serverStartTimeMillis;
     this.queryParallelism = configuration.getInt("BACKEND_QUERY_PARALLELISM");
     Preconditions.checkArgument(queryParallelism > 0);
+    this.lookupBatchSize = configuration.getInt("BACKEND_LOOKUP_BATCH_SIZE", 500);
+    Preconditions.checkArgument(lookupBatchSize > 0);
     this.numAutoRetries = configuration.getInt("BACKEND_NUM_AUTO_RETRIES");
     this.numPriorityLevels = configuration.getInt("NUM_PRIORITY_LEVELS");
     Preconditions.checkArgument(numPriorityLevels >= 1);
+    this.defaultPriorityScheduler = QueuePriorityScheduler.strict(numPriorityLevels);
     this.shardConfigFilePath = System.getProperty("backend_config");
+    this.dequeueFanout = configuration.getInt("BACKEND_DEQUEUE_FANOUT", 1);
+    Preconditions.checkArgument(dequeueFanout >= 1);
+    this.emptyShardHints = new EmptyShardHints(
+        configuration.getLong("BACKEND_DEQUEUE_EMPTY_HINT_TTL_MILLIS", 0));
+    this.dequeueWaiters = new DequeueWaiters(backendName);
+    this.maxDequeueWaitTimeMillis =
+        configuration.getLong("BACKEND_DEQUEUE_MAX_WAIT_TIME_MILLIS", 20000);
+    this.dequeueWaitPollMillis = configuration.getLong("BACKEND_DEQUEUE_WAIT_POLL_MILLIS", 1000);
+    Preconditions.checkArgument(dequeueWaitPollMillis > 0);
+    this.shardLatencyTracker = new ShardLatencyTracker(
+        configuration.getDouble("BACKEND_SHARD_LATENCY_EWMA_ALPHA", 0.2),
+        configuration.getDouble("BACKEND_SLOW_SHARD_FACTOR", 0),
+        configuration.getInt("BACKEND_SLOW_SHARD_MIN_SAMPLES", 20),
+        configuration.getDouble("BACKEND_SLOW_SHARD_PROBE_RATIO", 0.05),
+        RANDOM);
+    this.requestHedger = new RequestHedger(
+        backendName,
+        configuration.getDouble("BACKEND_HEDGE_PERCENTILE", 0),
+        configuration.getInt("BACKEND_HEDGE_WINDOW_SIZE", 1000),
+        configuration.getLong("BACKEND_HEDGE_MIN_DELAY_MILLIS", 1));
+    this.shardBulkheads = new ShardBulkheads(
+        backendName,
+        configuration.getInt("BACKEND_BULKHEAD_MAX_CONCURRENT_PER_SHARD", 0),
+        configuration.getInt("BACKEND_BULKHEAD_MAX_QUEUED_PER_SHARD", 100));
+  }
+
+  /**
+   * Sets the per-queue dynamic configuration that the backend consults for queue specific
+   * behavior, e.g. ordered dequeues. Backends use queue defaults until this is called.
+   */
+  public void setQueueConfig(PinLaterQueueConfig queueConfig) {
+    this.queueConfig = Preconditions.checkNotNull(queueConfig);
+  }
+
+  /**
+   * Releases the threads and connections that the backend holds outside of the future pool, once
+   * the server has stopped serving requests. Backends that override this have to call it.
+   */
+  public Future<Void> close() {
+    requestHedger.shutdown();
+    return Future.Void();
+  }
+
+  /*
+   * Returns whether jobs of the given queue should be dequeued in order of run_after. See
+   * ``PinLaterQueueConfig.isDequeueOrdered``.
+   */
+  protected boolean isDequeueOrdered(String queueName) {
+    PinLaterQueueConfig config = queueConfig;
+    return config != null && config.isDequeueOrdered(queueName);
+  }
+
+  /*
+   * Returns the priority scheduler of the given queue: the one in the queue config, or strict
+   * scheduling over all the priority levels of the backend if the queue has none or it uses more
+   * priority levels than the backend has.
+   */
+  private QueuePriorityScheduler getPriorityScheduler(String queueName) {
+    PinLaterQueueConfig config = queueConfig;
+    QueuePriorityScheduler scheduler =
+        config == null ? null : config.getPriorityScheduler(queueName);
+    if (scheduler == null) {
+      return defaultPriorityScheduler;
+    }
+    if (scheduler.getNumPriorityLevels() > numPriorityLevels) {
+      Stats.incr(String.format("%s-priority-config-invalid", backendName));
+      return defaultPriorityScheduler;
+    }
+    return scheduler;
+  }
+
+  /*
+   * Returns the passes of a dequeue request over the priority levels of the given queue, as
+   * (priority, target) pairs. A pass dequeues from its priority until the request holds ``target``
+   * jobs. The first sweep visits the priorities in order with targets that add up their shares of
+   * the request, so that jobs a priority cannot supply roll over to the next one. With weighted
+   * scheduling, a second sweep then hands whatever the lower priorities could not supply back to
+   * the higher ones. Shards that come back short are not asked again by the same request, and
+   * the empty shard hints let later requests skip priorities that are known to be empty.
+   */
+  private List<Pair<Integer, Integer>> getDequeuePasses(String queueName, int limit) {
+    QueuePriorityScheduler scheduler = getPriorityScheduler(queueName);
+    int[] quotas = scheduler.allocate(limit);
+    List<Pair<Integer, Integer>> passes = Lists.newArrayListWithCapacity(2 * quotas.length);
+    int target = 0;
+    for (int i = 0; i < quotas.length; i++) {
+      target += quotas[i];
+      passes.add(new Pair<Integer, Integer>(i + 1, target));
+    }
+    if (scheduler.isWeighted()) {
+      for (int priority = 1; priority <= quotas.length; priority++) {
+        passes.add(new Pair<Integer, Integer>(priority, limit));
+      }
+    }
+    return passes;
   }
 
   /*
@@ -138,6 +274,10 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
         @Override
         public synchronized Void applyE(byte[] bytes) throws Exception {
           processConfigUpdate(bytes);
+          // The first update arrives before the future pool is created, which sizes it then.
+          if (futurePoolExecutor != null) {
+            futurePoolExecutor.resize(getShards().size());
+          }
           return null;
         }
       });
@@ -145,11 +285,21 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
 
     // Initialize the future pool we will use to make blocking calls to Redis.
     // We size the future pool such that there is one thread for every available connection.
-    int futurePoolSize = configuration.getInt("BACKEND_CONNECTIONS_PER_SHARD") * getShards().size();
-    this.futurePool = new ExecutorServiceFuturePool(Executors.newFixedThreadPool(
-        futurePoolSize,
-        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(
-            backendName + "FuturePool-%d").build()));
+    this.futurePoolExecutor = new FuturePoolExecutor(
+        backendName,
+        configuration.getString("BACKEND_FUTURE_POOL_STRATEGY", FuturePoolExecutor.FIXED),
+        configuration.getInt("BACKEND_CONNECTIONS_PER_SHARD"),
+        getShards().size());
+    this.futurePool = new ExecutorServiceFuturePool(futurePoolExecutor.getExecutorService());
+    int adminFuturePoolSize = configuration.getInt("BACKEND_ADMIN_FUTURE_POOL_SIZE", 0);
+    if (adminFuturePoolSize > 0) {
+      this.adminFuturePool = new ExecutorServiceFuturePool(Executors.newFixedThreadPool(
+          adminFuturePoolSize,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat(
+              backendName + "AdminFuturePool-%d").build()));
+    } else {
+      this.adminFuturePool = futurePool;
+    }
 
     // Create a map of queueName -> aync semaphore to control dequeue concurrency.
     // We configure the map to create entries on demand since queues can be created at any time.
@@ -169,6 +319,27 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
             return asyncSemaphore;
           }
         });
+
+    if (configuration.getString("BACKEND_DEQUEUE_CONCURRENCY_LIMIT", "fixed").equals("adaptive")) {
+      final int initialLimit =
+          configuration.getInt("BACKEND_DEQUEUE_CONCURRENCY_PER_QUEUE_PER_SHARD");
+      final int maxLimit = configuration.getInt(
+          "BACKEND_DEQUEUE_MAX_CONCURRENCY_PER_QUEUE_PER_SHARD", 4 * initialLimit);
+      final double backoffRatio =
+          configuration.getDouble("BACKEND_DEQUEUE_CONCURRENCY_BACKOFF_RATIO", 0.9);
+      final double latencyTolerance =
+          configuration.getDouble("BACKEND_DEQUEUE_CONCURRENCY_LATENCY_TOLERANCE", 2);
+      this.dequeueLimiterMap = CacheBuilder.newBuilder().build(
+          new CacheLoader<Pair<String, String>, AdaptiveConcurrencyLimiter>() {
+            @Override
+            public AdaptiveConcurrencyLimiter load(Pair<String, String> queueAndShard) {
+              return new AdaptiveConcurrencyLimiter(
+                  "dequeue-concurrency-%s-" + queueAndShard.getFirst() + "-"
+                      + queueAndShard.getSecond(),
+                  initialLimit, 1, maxLimit, maxWaiters, backoffRatio, latencyTolerance);
+            }
+          });
+    }
   }
 
   /*
@@ -194,6 +365,23 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
       final PinLaterJob job,
       final int numAutoRetries) throws Exception;
 
+  /*
+   * Enqueue a batch of jobs which all have the same ``priority`` to the given queue. Returns the
+   * job descriptors in the same order as ``jobs``. The default implementation enqueues the jobs
+   * one at a time; backends that can write several jobs in a single round trip should override it.
+   */
+  protected List<String> enqueueJobsWithPriority(
+      final String queueName,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) throws Exception {
+    List<String> jobDescriptors = Lists.newArrayListWithCapacity(jobs.size());
+    for (PinLaterJob job : jobs) {
+      jobDescriptors.add(enqueueSingleJob(queueName, job, numAutoRetries));
+    }
+    return jobDescriptors;
+  }
+
   /*
    * Dequeue up to ``jobsNeeded`` number of jobs from the ``priority`` queue in the given shard.
    */
@@ -206,6 +394,18 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
       final int numAutoRetries,
       final boolean dryRun) throws Exception;
 
+  /*
+   * Returns the earliest run_after timestamp of the pending jobs in the ``priority`` queue in the
+   * given shard, or null if there are no pending jobs or the backend does not support it. Only used
+   * to decide how long the shard can be skipped on dequeue after it was found to be empty.
+   */
+  protected Long getNextRunAfterFromShard(
+      final String queueName,
+      final String shardName,
+      final int priority) throws Exception {
+    return null;
+  }
+
   /*
    * Ack a single job from the given queue.
    */
@@ -215,6 +415,21 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
       final PinLaterJobAckInfo jobAckInfo,
       final int numAutoRetries) throws Exception;
 
+  /*
+   * Ack a batch of jobs from the given queue, all of which either succeeded or failed. The default
+   * implementation acks the jobs one at a time; backends that can ack several jobs in a single
+   * round trip should override it.
+   */
+  protected void ackJobs(
+      final String queueName,
+      final boolean succeeded,
+      final List<PinLaterJobAckInfo> jobAckInfos,
+      final int numAutoRetries) throws Exception {
+    for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+      ackSingleJob(queueName, succeeded, jobAckInfo, numAutoRetries);
+    }
+  }
+
   /*
    * Checkpoint a single job from the given queue.
    */
@@ -234,6 +449,135 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
       final long localId,
       final boolean isIncludeBody) throws Exception;
 
+  /*
+   * Look up several jobs from the ``priority`` queue in the given shard. Returns the info of the
+   * jobs that were found, keyed by local id. By default the jobs are looked up one at a time with
+   * ``lookupJobFromShard``; backends that can fetch several jobs at once should override it.
+   */
+  protected Map<Long, PinLaterJobInfo> lookupJobsFromShard(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final List<Long> localIds,
+      final boolean isIncludeBody) throws Exception {
+    Map<Long, PinLaterJobInfo> jobInfoMap = Maps.newHashMap();
+    for (long localId : localIds) {
+      PinLaterJobInfo jobInfo =
+          lookupJobFromShard(queueName, shardName, priority, localId, isIncludeBody);
+      if (jobInfo != null) {
+        jobInfoMap.put(localId, jobInfo);
+      }
+    }
+    return jobInfoMap;
+  }
+
+  /*
+   * The non-blocking versions of the shard operations on the enqueue, dequeue, ack and lookup
+   * paths. By default they run the blocking operations above in the future pool, within the
+   * bulkhead of the shard if it is known upfront. Backends whose client is asynchronous should
+   * override them together with ``isNonBlocking``, so that these requests neither hold nor wait
+   * for a future pool thread.
+   */
+  protected boolean isNonBlocking() {
+    return false;
+  }
+
+  protected Future<List<String>> enqueueJobsWithPriorityAsync(
+      final String queueName,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) {
+    return futurePool.apply(new ExceptionalFunction0<List<String>>() {
+      @Override
+      public List<String> applyE() throws Throwable {
+        return enqueueJobsWithPriority(queueName, priority, jobs, numAutoRetries);
+      }
+    });
+  }
+
+  protected Future<PinLaterDequeueResponse> dequeueJobsFromShardAsync(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final String claimDescriptor,
+      final int jobsNeeded,
+      final int numAutoRetries,
+      final boolean dryRun) {
+    return applyInShard(shardName, new ExceptionalFunction0<PinLaterDequeueResponse>() {
+      @Override
+      public PinLaterDequeueResponse applyE() throws Throwable {
+        return dequeueJobsFromShard(queueName, shardName, priority, claimDescriptor, jobsNeeded,
+            numAutoRetries, dryRun);
+      }
+    });
+  }
+
+  protected Future<Long> getNextRunAfterFromShardAsync(
+      final String queueName,
+      final String shardName,
+      final int priority) {
+    return applyInShard(shardName, new ExceptionalFunction0<Long>() {
+      @Override
+      public Long applyE() throws Throwable {
+        return getNextRunAfterFromShard(queueName, shardName, priority);
+      }
+    });
+  }
+
+  protected Future<Void> ackJobsAsync(
+      final String queueName,
+      final boolean succeeded,
+      final List<PinLaterJobAckInfo> jobAckInfos,
+      final int numAutoRetries) {
+    if (!shardBulkheads.isEnabled()) {
+      return futurePool.apply(new ExceptionalFunction0<Void>() {
+        @Override
+        public Void applyE() throws Throwable {
+          ackJobs(queueName, succeeded, jobAckInfos, numAutoRetries);
+          return null;
+        }
+      });
+    }
+
+    // Split the acks by shard so that each part goes through the bulkhead of its shard.
+    Map<String, List<PinLaterJobAckInfo>> jobAckInfosByShard = Maps.newLinkedHashMap();
+    for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+      String shardName = new PinLaterJobDescriptor(jobAckInfo.getJobDescriptor()).getShardName();
+      List<PinLaterJobAckInfo> shardJobAckInfos = jobAckInfosByShard.get(shardName);
+      if (shardJobAckInfos == null) {
+        shardJobAckInfos = Lists.newArrayList();
+        jobAckInfosByShard.put(shardName, shardJobAckInfos);
+      }
+      shardJobAckInfos.add(jobAckInfo);
+    }
+    List<Future<Void>> futures = Lists.newArrayListWithCapacity(jobAckInfosByShard.size());
+    for (final Map.Entry<String, List<PinLaterJobAckInfo>> entry
+        : jobAckInfosByShard.entrySet()) {
+      futures.add(applyInShard(entry.getKey(), new ExceptionalFunction0<Void>() {
+        @Override
+        public Void applyE() throws Throwable {
+          ackJobs(queueName, succeeded, entry.getValue(), numAutoRetries);
+          return null;
+        }
+      }));
+    }
+    return Future.collect(futures).voided();
+  }
+
+  protected Future<Map<Long, PinLaterJobInfo>> lookupJobsFromShardAsync(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final List<Long> localIds,
+      final boolean isIncludeBody) {
+    return applyInShard(shardName, new ExceptionalFunction0<Map<Long, PinLaterJobInfo>>() {
+      @Override
+      public Map<Long, PinLaterJobInfo> applyE() throws Throwable {
+        return lookupJobsFromShard(queueName, shardName, priority, localIds, isIncludeBody);
+      }
+    });
+  }
+
   /*
    * Get the count of jobs from the ``priorities`` queue with ``jobState`` in the given shard.
    */
@@ -351,7 +695,7 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
     // Execute count query on each shard in parallel.
     List<Future<Integer>> futures = Lists.newArrayListWithCapacity(getShards().size());
     for (final String shardName : getShards()) {
-      futures.add(futurePool.apply(new ExceptionalFunction0<Integer>() {
+      futures.add(applyHedged("count", new ExceptionalFunction0<Integer>() {
         @Override
         public Integer applyE() throws Throwable {
           return getJobCountFromShard(
@@ -381,33 +725,81 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
   public Future<PinLaterEnqueueResponse> enqueueJobs(final PinLaterEnqueueRequest request) {
     // Partition the jobs in the enqueue request such that there are roughly
     // <queryParallelism> partitions. Then execute those in parallel. Within each partition,
-    // enqueues are executed serially.
+    // jobs are grouped by priority and each group is handed to the backend as one batch.
     List<Future<PinLaterEnqueueResponse>> futures = PinLaterBackendUtils.executePartitioned(
         request.getJobs(),
         queryParallelism,
         new Function<List<PinLaterJob>, Future<PinLaterEnqueueResponse>>() {
           @Override
           public Future<PinLaterEnqueueResponse> apply(final List<PinLaterJob> jobs) {
-            return futurePool.apply(new ExceptionalFunction0<PinLaterEnqueueResponse>() {
-              @Override
-              public PinLaterEnqueueResponse applyE() throws Throwable {
-                PinLaterEnqueueResponse response = new PinLaterEnqueueResponse();
-                for (PinLaterJob job : jobs) {
-                  // Collect stats around job body size.
-                  Stats.addMetric("job_body_size_" + request.getQueueName(), job.getBody().length);
-                  Stats.addMetric("job-body-size", job.getBody().length);
-                  // Check whether the priority is supported.
-                  if (job.getPriority() > numPriorityLevels || job.getPriority() < 1) {
-                    Stats.incr(String.format("%s-priority-not-supported-enqueue", backendName));
-                    throw new PinLaterException(ErrorCode.PRIORITY_NOT_SUPPORTED,
-                        String.valueOf(job.getPriority()));
-                  }
-                  response.addToJobDescriptors(enqueueSingleJob(
-                      request.getQueueName(), job, numAutoRetries));
-                }
-                return response;
+            int queuePriorityLevels =
+                getPriorityScheduler(request.getQueueName()).getNumPriorityLevels();
+            // Group the jobs by priority, remembering the position of each job so that the
+            // descriptors in the response are in the same order as the request.
+            Map<Integer, List<Integer>> jobIndicesByPriority = Maps.newTreeMap();
+            for (int i = 0; i < jobs.size(); i++) {
+              PinLaterJob job = jobs.get(i);
+              // Collect stats around job body size.
+              Stats.addMetric("job_body_size_" + request.getQueueName(), job.getBody().length);
+              Stats.addMetric("job-body-size", job.getBody().length);
+              // Check whether the priority is supported.
+              if (job.getPriority() > queuePriorityLevels || job.getPriority() < 1) {
+                Stats.incr(String.format("%s-priority-not-supported-enqueue", backendName));
+                return Future.exception(new PinLaterException(ErrorCode.PRIORITY_NOT_SUPPORTED,
+                    String.valueOf(job.getPriority())));
               }
-            });
+              int priority = job.getPriority();
+              if (!jobIndicesByPriority.containsKey(priority)) {
+                jobIndicesByPriority.put(priority, Lists.<Integer>newArrayList());
+              }
+              jobIndicesByPriority.get(priority).add(i);
+            }
+
+            final String[] jobDescriptors = new String[jobs.size()];
+            List<Future<Void>> priorityFutures =
+                Lists.newArrayListWithCapacity(jobIndicesByPriority.size());
+            for (Map.Entry<Integer, List<Integer>> entry : jobIndicesByPriority.entrySet()) {
+              final int priority = entry.getKey();
+              final List<Integer> jobIndices = entry.getValue();
+              List<PinLaterJob> priorityJobs = Lists.newArrayListWithCapacity(jobIndices.size());
+              for (int jobIndex : jobIndices) {
+                priorityJobs.add(jobs.get(jobIndex));
+              }
+              priorityFutures.add(enqueueJobsWithPriorityAsync(
+                  request.getQueueName(), priority, priorityJobs, numAutoRetries).map(
+                  new Function<List<String>, Void>() {
+                    @Override
+                    public Void apply(List<String> priorityJobDescriptors) {
+                      Preconditions.checkState(
+                          priorityJobDescriptors.size() == jobIndices.size());
+                      long currentTimeMillis = System.currentTimeMillis();
+                      for (int i = 0; i < jobIndices.size(); i++) {
+                        jobDescriptors[jobIndices.get(i)] = priorityJobDescriptors.get(i);
+                        if (emptyShardHints.isEnabled()) {
+                          PinLaterJob job = jobs.get(jobIndices.get(i));
+                          emptyShardHints.onJobPending(
+                              request.getQueueName(),
+                              new PinLaterJobDescriptor(priorityJobDescriptors.get(i))
+                                  .getShardName(),
+                              priority,
+                              job.isSetRunAfterTimestampMillis()
+                              ? job.getRunAfterTimestampMillis() : currentTimeMillis,
+                              currentTimeMillis);
+                        }
+                      }
+                      return null;
+                    }
+                  }));
+            }
+            return Future.collect(priorityFutures).map(
+                new Function<List<Void>, PinLaterEnqueueResponse>() {
+                  @Override
+                  public PinLaterEnqueueResponse apply(List<Void> voids) {
+                    // Wake up the long-polling dequeue requests waiting on this queue.
+                    dequeueWaiters.signal(request.getQueueName());
+                    return new PinLaterEnqueueResponse(Lists.newArrayList(jobDescriptors));
+                  }
+                });
           }
         });
 
@@ -428,29 +820,12 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
   public Future<PinLaterDequeueResponse> dequeueJobs(final String source,
                                                      final PinLaterDequeueRequest request) {
     Future<PinLaterDequeueResponse> dequeueFuture;
-    try {
-      dequeueFuture = dequeueSemaphoreMap.get(request.getQueueName()).acquire().flatMap(
-          new Function<Permit, Future<PinLaterDequeueResponse>>() {
-            @Override
-            public Future<PinLaterDequeueResponse> apply(final Permit permit) {
-              return futurePool.apply(new ExceptionalFunction0<PinLaterDequeueResponse>() {
-                @Override
-                public PinLaterDequeueResponse applyE() throws Throwable {
-                  return dequeueJobsImpl(source, request, numAutoRetries);
-                }
-              }).respond(new Function<Try<PinLaterDequeueResponse>, BoxedUnit>() {
-                @Override
-                public BoxedUnit apply(Try<PinLaterDequeueResponse> responseTry) {
-                  permit.release();
-                  return BoxedUnit.UNIT;
-                }
-              });
-            }
-          });
-    } catch (ExecutionException e) {
-      // The dequeueSemaphoreMap's get() can in theory throw an ExecutionException, but we
-      // never expect it in practice since our load method is simply new'ing up an AsyncSemaphore.
-      dequeueFuture = Future.exception(e);
+    if (request.isSetWaitTimeMillis() && request.getWaitTimeMillis() > 0 && !request.isDryRun()) {
+      long waitTimeMillis = Math.min(request.getWaitTimeMillis(), maxDequeueWaitTimeMillis);
+      dequeueFuture = dequeueJobsWithWait(
+          source, request, System.currentTimeMillis() + waitTimeMillis);
+    } else {
+      dequeueFuture = dequeueJobsOnce(source, request);
     }
 
     // Dequeue requests can contain ack requests as payloads. If so, we execute both in parallel.
@@ -467,35 +842,41 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
   }
 
   public Future<Map<String, PinLaterJobInfo>> lookupJobs(final PinLaterLookupJobRequest request) {
-    List<Future<Pair<String, PinLaterJobInfo>>> lookupJobFutures =
-        Lists.newArrayListWithCapacity(request.getJobDescriptorsSize());
-    for (final String jobDescriptor : request.getJobDescriptors()) {
-      Future<Pair<String, PinLaterJobInfo>> lookupJobFuture = futurePool.apply(
-          new ExceptionalFunction0<Pair<String, PinLaterJobInfo>>() {
-            @Override
-            public Pair<String, PinLaterJobInfo> applyE() throws Throwable {
-              PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobDescriptor);
-              PinLaterJobInfo jobInfo = lookupJobFromShard(
-                  jobDesc.getQueueName(),
-                  jobDesc.getShardName(),
-                  jobDesc.getPriority(),
-                  jobDesc.getLocalId(),
-                  request.isIncludeBody());
-              return new Pair<String, PinLaterJobInfo>(jobDescriptor, jobInfo);
-            }
-          });
-      lookupJobFutures.add(lookupJobFuture);
+    // Group the jobs by the queue, shard and priority they live in, so that each group can be
+    // looked up in batches instead of one job at a time.
+    Map<LookupBatchKey, List<String>> jobDescriptorsByKey = Maps.newLinkedHashMap();
+    for (String jobDescriptor : request.getJobDescriptors()) {
+      PinLaterJobDescriptor jobDesc;
+      try {
+        jobDesc = new PinLaterJobDescriptor(jobDescriptor);
+      } catch (IllegalArgumentException e) {
+        return Future.exception(e);
+      }
+      LookupBatchKey key = new LookupBatchKey(
+          jobDesc.getQueueName(), jobDesc.getShardName(), jobDesc.getPriority());
+      List<String> jobDescriptors = jobDescriptorsByKey.get(key);
+      if (jobDescriptors == null) {
+        jobDescriptors = Lists.newArrayList();
+        jobDescriptorsByKey.put(key, jobDescriptors);
+      }
+      jobDescriptors.add(jobDescriptor);
     }
 
-    return Future.collect(lookupJobFutures).map(
-        new Function<List<Pair<String, PinLaterJobInfo>>, Map<String, PinLaterJobInfo>>() {
+    List<Future<Map<String, PinLaterJobInfo>>> futures = Lists.newArrayList();
+    for (Map.Entry<LookupBatchKey, List<String>> entry : jobDescriptorsByKey.entrySet()) {
+      for (List<String> batch : Lists.partition(entry.getValue(), lookupBatchSize)) {
+        futures.add(lookupJobBatch(entry.getKey(), batch, request.isIncludeBody()));
+      }
+    }
+
+    return Future.collect(futures).map(
+        new Function<List<Map<String, PinLaterJobInfo>>, Map<String, PinLaterJobInfo>>() {
           @Override
-          public Map<String, PinLaterJobInfo> apply(List<Pair<String, PinLaterJobInfo>> jobPairs) {
+          public Map<String, PinLaterJobInfo> apply(
+              List<Map<String, PinLaterJobInfo>> batchJobInfoMaps) {
             Map<String, PinLaterJobInfo> lookupJobMap = Maps.newHashMap();
-            for (Pair<String, PinLaterJobInfo> jobPair : jobPairs) {
-              if (jobPair.getSecond() != null) {
-                lookupJobMap.put(jobPair.getFirst(), jobPair.getSecond());
-              }
+            for (Map<String, PinLaterJobInfo> batchJobInfoMap : batchJobInfoMaps) {
+              lookupJobMap.putAll(batchJobInfoMap);
             }
             return lookupJobMap;
           }
@@ -524,6 +905,13 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
                   for (PinLaterCheckpointJobRequest checkpointRequest : checkpointRequests) {
                     checkpointSingleJob(source, request.getQueueName(), checkpointRequest,
                         numAutoRetries);
+                    if (checkpointRequest.isMoveToPending()) {
+                      long currentTimeMillis = System.currentTimeMillis();
+                      onJobPending(request.getQueueName(), checkpointRequest.getJobDescriptor(),
+                          checkpointRequest.isSetRunAfterTimestampMillis()
+                          ? checkpointRequest.getRunAfterTimestampMillis() : currentTimeMillis,
+                          currentTimeMillis);
+                    }
                   }
                   return null;
                 }
@@ -562,7 +950,7 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
     List<Future<List<PinLaterJobInfo>>> futures =
         Lists.newArrayListWithCapacity(getShards().size());
     for (final String shardName : getShards()) {
-      futures.add(futurePool.apply(new ExceptionalFunction0<List<PinLaterJobInfo>>() {
+      futures.add(applyHedged("scan", new ExceptionalFunction0<List<PinLaterJobInfo>>() {
         @Override
         public List<PinLaterJobInfo> applyE() throws Throwable {
           return scanJobsFromShard(
@@ -598,7 +986,7 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
 
   public Future<Integer> retryFailedJobs(final PinLaterRetryFailedJobsRequest request) {
     // Execute retryFailedJobs query on each shard until we have updated 'limit' number of jobs.
-    return futurePool.apply(new ExceptionalFunction0<Integer>() {
+    return adminFuturePool.apply(new ExceptionalFunction0<Integer>() {
       @Override
       public Integer applyE() throws Throwable {
         long currentTimeMillis = System.currentTimeMillis();
@@ -618,6 +1006,7 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
             break;
           }
         }
+        emptyShardHints.invalidateQueue(request.getQueueName());
         return request.getLimit() - remainingLimit;
       }
     });
@@ -625,7 +1014,7 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
 
   public Future<Integer> deleteJobs(final PinLaterDeleteJobsRequest request) {
     // Execute deleteJobs query on each shard until we have updated 'limit' number of jobs.
-    return futurePool.apply(new ExceptionalFunction0<Integer>() {
+    return adminFuturePool.apply(new ExceptionalFunction0<Integer>() {
       @Override
       public Integer applyE() throws Throwable {
         int remainingLimit = request.getLimit();
@@ -653,18 +1042,35 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
       final String source,
       final PinLaterDequeueRequest request,
       int numAutoRetries) throws Exception {
-    List<String> shardNames = getRandomShardShuffle().subList(
+    List<String> shardNames = getDequeueShardOrder().subList(
         0, (int) Math.round(getShards().size() * request.getCoverage()));
     PinLaterDequeueResponse response = new PinLaterDequeueResponse();
     String claimDescriptor = constructClaimDescriptor(source);
-    int jobsNeeded = request.getLimit();
+    // Shards that ran out of jobs of a priority during this request, so later passes skip them.
+    Set<String> exhaustedShards = Sets.newHashSet();
 
-    // Dequeue jobs in priority order, iterating over all shards till the desired number of
-    // jobs have been retrieved.
-    for (int priority = 1; priority <= numPriorityLevels; priority++) {
+    // Dequeue jobs pass by pass over the priorities, iterating over all shards till each pass
+    // has reached its target.
+    for (Pair<Integer, Integer> pass : getDequeuePasses(request.getQueueName(),
+        request.getLimit())) {
+      int priority = pass.getFirst();
       for (final String shardName : shardNames) {
-        PinLaterDequeueResponse shardResponse = dequeueJobsFromShard(request.getQueueName(),
-            shardName, priority, claimDescriptor, jobsNeeded, numAutoRetries, request.isDryRun());
+        int jobsNeeded = pass.getSecond() - response.getJobsSize();
+        if (jobsNeeded <= 0) {
+          break;
+        }
+        String exhaustedShardKey = constructExhaustedShardKey(shardName, priority);
+        if (exhaustedShards.contains(exhaustedShardKey)) {
+          continue;
+        }
+        PinLaterDequeueResponse shardResponse = dequeueJobsFromShardWithHints(
+            request.getQueueName(), shardName, priority, claimDescriptor, jobsNeeded,
+            request.isDryRun());
+        // A dry run does not claim jobs, so asking the same shard again would return the same
+        // jobs.
+        if (request.isDryRun() || shardResponse.getJobsSize() < jobsNeeded) {
+          exhaustedShards.add(exhaustedShardKey);
+        }
 
         // Add this shard's response fields into the local response variable.
         Map<String, ByteBuffer> jobToBody = shardResponse.getJobs();
@@ -680,20 +1086,506 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
             response.putToJobMetadata(jobAndMetadata.getKey(), jobAndMetadata.getValue());
           }
         }
+      }
+      if (response.getJobsSize() >= request.getLimit()) {
+        return response;
+      }
+    }
 
-        jobsNeeded -= shardResponse.getJobsSize();
-        if (jobsNeeded <= 0) {
-          return response;
+    return response;
+  }
+
+  private static String constructExhaustedShardKey(String shardName, int priority) {
+    return shardName + ":" + priority;
+  }
+
+  /*
+   * Runs a single dequeue pass over the shards, holding one of the queue's dequeue permits for the
+   * duration of the pass. With adaptive concurrency limits, permits are taken per shard instead.
+   */
+  private Future<PinLaterDequeueResponse> dequeueJobsOnce(final String source,
+                                                          final PinLaterDequeueRequest request) {
+    if (dequeueLimiterMap != null) {
+      return dequeueJobsParallel(source, request).onSuccess(
+          new Function<PinLaterDequeueResponse, BoxedUnit>() {
+            @Override
+            public BoxedUnit apply(PinLaterDequeueResponse response) {
+              signalIfFullBatch(request, response);
+              return BoxedUnit.UNIT;
+            }
+          });
+    }
+    try {
+      return dequeueSemaphoreMap.get(request.getQueueName()).acquire().flatMap(
+          new Function<Permit, Future<PinLaterDequeueResponse>>() {
+            @Override
+            public Future<PinLaterDequeueResponse> apply(final Permit permit) {
+              Future<PinLaterDequeueResponse> responseFuture;
+              // Non-blocking backends and bulkheads need the per-shard calls of the future based
+              // dequeue, which with a fanout of 1 visits the shards one at a time just like
+              // ``dequeueJobsImpl``.
+              if (dequeueFanout > 1 || isNonBlocking() || shardBulkheads.isEnabled()) {
+                responseFuture = dequeueJobsParallel(source, request);
+              } else {
+                responseFuture = futurePool.apply(
+                    new ExceptionalFunction0<PinLaterDequeueResponse>() {
+                      @Override
+                      public PinLaterDequeueResponse applyE() throws Throwable {
+                        return dequeueJobsImpl(source, request, numAutoRetries);
+                      }
+                    });
+              }
+              return responseFuture.respond(
+                  new Function<Try<PinLaterDequeueResponse>, BoxedUnit>() {
+                    @Override
+                    public BoxedUnit apply(Try<PinLaterDequeueResponse> responseTry) {
+                      permit.release();
+                      if (responseTry.isReturn()) {
+                        signalIfFullBatch(request, responseTry.get());
+                      }
+                      return BoxedUnit.UNIT;
+                    }
+                  });
+            }
+          });
+    } catch (ExecutionException e) {
+      // The dequeueSemaphoreMap's get() can in theory throw an ExecutionException, but we
+      // never expect it in practice since our load method is simply new'ing up an AsyncSemaphore.
+      return Future.exception(e);
+    }
+  }
+
+  /*
+   * A full batch suggests that there are more jobs to be had, so let the requests waiting on the
+   * queue try again.
+   */
+  private void signalIfFullBatch(PinLaterDequeueRequest request,
+                                 PinLaterDequeueResponse response) {
+    if (!request.isDryRun() && response.getJobsSize() >= request.getLimit()) {
+      dequeueWaiters.signal(request.getQueueName());
+    }
+  }
+
+  /*
+   * Long-polling dequeue. If a pass comes back empty, the request is parked until the queue is
+   * signaled (an enqueue or retry through this server, or another dequeue finding a full batch),
+   * for at most ``dequeueWaitPollMillis`` and until ``deadlineMillis``, and then polls again.
+   * Signals only come from this server, so the periodic polls are what pick up the jobs enqueued
+   * through other servers and the delayed jobs that come due. The dequeue permit is only held
+   * while polling, not while parked.
+   */
+  private Future<PinLaterDequeueResponse> dequeueJobsWithWait(
+      final String source,
+      final PinLaterDequeueRequest request,
+      final long deadlineMillis) {
+    final long version = dequeueWaiters.getVersion(request.getQueueName());
+    return dequeueJobsOnce(source, request).flatMap(
+        new Function<PinLaterDequeueResponse, Future<PinLaterDequeueResponse>>() {
+          @Override
+          public Future<PinLaterDequeueResponse> apply(PinLaterDequeueResponse response) {
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (response.getJobsSize() > 0 || remainingMillis <= 0) {
+              return Future.value(response);
+            }
+            long waitMillis = Math.min(remainingMillis, dequeueWaitPollMillis);
+            return dequeueWaiters.await(request.getQueueName(), version, waitMillis).flatMap(
+                new Function<Void, Future<PinLaterDequeueResponse>>() {
+                  @Override
+                  public Future<PinLaterDequeueResponse> apply(Void v) {
+                    return dequeueJobsWithWait(source, request, deadlineMillis);
+                  }
+                });
+          }
+        });
+  }
+
+  /*
+   * Dequeues jobs by sending requests to up to ``dequeueFanout`` shards at a time. The shards
+   * are visited in rounds: for each pass over the priority levels (see ``getDequeuePasses``), the
+   * shuffled shards are split into groups of ``dequeueFanout``, and the jobs still needed to reach
+   * the target of the pass are split evenly between the shards of a group, see
+   * ``getJobsPerShard``. A round is repeated while it falls short of its target and some shards of
+   * its group still have jobs. Rounds run one after another until the limit has been reached,
+   * skipping the shards that already ran out of jobs of the round's priority.
+   */
+  private Future<PinLaterDequeueResponse> dequeueJobsParallel(
+      final String source,
+      final PinLaterDequeueRequest request) {
+    List<String> shardNames = getDequeueShardOrder().subList(
+        0, (int) Math.round(getShards().size() * request.getCoverage()));
+    List<DequeueRound> rounds = Lists.newArrayList();
+    for (Pair<Integer, Integer> pass : getDequeuePasses(request.getQueueName(),
+        request.getLimit())) {
+      for (List<String> shardGroup : Lists.partition(shardNames, dequeueFanout)) {
+        rounds.add(new DequeueRound(pass.getFirst(), pass.getSecond(), shardGroup));
+      }
+    }
+    return dequeueRounds(request, constructClaimDescriptor(source), rounds, 0,
+        Collections.synchronizedSet(Sets.<String>newHashSet()), new PinLaterDequeueResponse());
+  }
+
+  private Future<PinLaterDequeueResponse> dequeueRounds(
+      final PinLaterDequeueRequest request,
+      final String claimDescriptor,
+      final List<DequeueRound> rounds,
+      final int roundIndex,
+      final Set<String> exhaustedShards,
+      final PinLaterDequeueResponse response) {
+    if (response.getJobsSize() >= request.getLimit() || roundIndex >= rounds.size()) {
+      return Future.value(response);
+    }
+
+    DequeueRound round = rounds.get(roundIndex);
+    final int priority = round.priority;
+    final int target = round.target;
+    final int jobsNeeded = target - response.getJobsSize();
+    final List<String> shardGroup = Lists.newArrayListWithCapacity(round.shardNames.size());
+    if (jobsNeeded > 0) {
+      for (String shardName : round.shardNames) {
+        if (!exhaustedShards.contains(constructExhaustedShardKey(shardName, priority))) {
+          shardGroup.add(shardName);
         }
       }
     }
+    if (shardGroup.isEmpty()) {
+      return dequeueRounds(
+          request, claimDescriptor, rounds, roundIndex + 1, exhaustedShards, response);
+    }
 
-    return response;
+    final int[] jobsPerShard = getJobsPerShard(jobsNeeded, shardGroup.size());
+    final List<String> askedShards = Lists.newArrayListWithCapacity(shardGroup.size());
+    List<Future<PinLaterDequeueResponse>> futures =
+        Lists.newArrayListWithCapacity(shardGroup.size());
+    for (int i = 0; i < shardGroup.size() && jobsPerShard[i] > 0; i++) {
+      askedShards.add(shardGroup.get(i));
+      futures.add(dequeueJobsFromShardWithHintsAsync(request.getQueueName(), shardGroup.get(i),
+          priority, claimDescriptor, jobsPerShard[i], request.isDryRun()));
+    }
+
+    return Future.collect(futures).flatMap(
+        new Function<List<PinLaterDequeueResponse>, Future<PinLaterDequeueResponse>>() {
+          @Override
+          public Future<PinLaterDequeueResponse> apply(List<PinLaterDequeueResponse> responses) {
+            for (int i = 0; i < responses.size(); i++) {
+              PinLaterDequeueResponse shardResponse = responses.get(i);
+              // A dry run does not claim jobs, so asking the same shard again would return the
+              // same jobs.
+              if (request.isDryRun() || shardResponse == null
+                  || shardResponse.getJobsSize() < jobsPerShard[i]) {
+                exhaustedShards.add(constructExhaustedShardKey(askedShards.get(i), priority));
+              }
+              if (shardResponse == null || shardResponse.getJobs() == null) {
+                continue;
+              }
+              for (Map.Entry<String, ByteBuffer> jobAndBody : shardResponse.getJobs().entrySet()) {
+                response.putToJobs(jobAndBody.getKey(), jobAndBody.getValue());
+              }
+              if (shardResponse.getJobMetadata() != null) {
+                for (Map.Entry<String, PinLaterDequeueMetadata> jobAndMetadata :
+                    shardResponse.getJobMetadata().entrySet()) {
+                  response.putToJobMetadata(jobAndMetadata.getKey(), jobAndMetadata.getValue());
+                }
+              }
+            }
+            // Shards that came back short leave the others of the group with jobs to spare, so
+            // run the round again over those until it reaches its target or they run out too.
+            int nextRoundIndex = roundIndex + 1;
+            if (response.getJobsSize() < target) {
+              for (String shardName : shardGroup) {
+                if (!exhaustedShards.contains(constructExhaustedShardKey(shardName, priority))) {
+                  nextRoundIndex = roundIndex;
+                  break;
+                }
+              }
+            }
+            return dequeueRounds(request, claimDescriptor, rounds, nextRoundIndex,
+                exhaustedShards, response);
+          }
+        });
+  }
+
+  /*
+   * Splits ``jobsNeeded`` jobs between ``numShards`` shards: every shard gets the same share, and
+   * the remainder goes to the first shards, one job each. The shares add up to ``jobsNeeded``, so
+   * a round never claims more jobs than the request needs, and the shards with a share of 0 are
+   * not asked at all.
+   */
+  @VisibleForTesting
+  static int[] getJobsPerShard(int jobsNeeded, int numShards) {
+    int[] jobsPerShard = new int[numShards];
+    for (int i = 0; i < numShards; i++) {
+      jobsPerShard[i] = jobsNeeded / numShards + (i < jobsNeeded % numShards ? 1 : 0);
+    }
+    return jobsPerShard;
+  }
+
+  /*
+   * A round of ``dequeueJobsParallel``: dequeues from ``priority`` on ``shardNames`` until the
+   * request holds ``target`` jobs.
+   */
+  private static class DequeueRound {
+
+    private final int priority;
+    private final int target;
+    private final List<String> shardNames;
+
+    private DequeueRound(int priority, int target, List<String> shardNames) {
+      this.priority = priority;
+      this.target = target;
+      this.shardNames = shardNames;
+    }
+  }
+
+  /*
+   * Identifies the jobs of a lookup request that can be looked up with a single shard call: the
+   * jobs in the same queue, shard and priority.
+   */
+  private static final class LookupBatchKey {
+
+    private final String queueName;
+    private final String shardName;
+    private final int priority;
+
+    private LookupBatchKey(String queueName, String shardName, int priority) {
+      this.queueName = queueName;
+      this.shardName = shardName;
+      this.priority = priority;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof LookupBatchKey)) {
+        return false;
+      }
+      LookupBatchKey that = (LookupBatchKey) o;
+      return priority == that.priority
+          && queueName.equals(that.queueName)
+          && shardName.equals(that.shardName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(queueName, shardName, priority);
+    }
+  }
+
+  /*
+   * Dequeues jobs from a shard unless the shard is known to have no jobs ready to run. If the
+   * shard turns out to be empty, remembers it so that following dequeue requests can skip it.
+   */
+  private PinLaterDequeueResponse dequeueJobsFromShardWithHints(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final String claimDescriptor,
+      final int jobsNeeded,
+      final boolean dryRun) throws Exception {
+    if (emptyShardHints.isKnownEmpty(
+        queueName, shardName, priority, System.currentTimeMillis())) {
+      return new PinLaterDequeueResponse();
+    }
+    long hintVersion = emptyShardHints.getVersion(queueName, shardName, priority);
+    long startNanos = System.nanoTime();
+    PinLaterDequeueResponse shardResponse = dequeueJobsFromShard(
+        queueName, shardName, priority, claimDescriptor, jobsNeeded, numAutoRetries, dryRun);
+    recordShardLatency(shardName, startNanos);
+    if (emptyShardHints.isEnabled()
+        && (shardResponse == null || shardResponse.getJobsSize() == 0)) {
+      emptyShardHints.markEmpty(queueName, shardName, priority, hintVersion,
+          getNextRunAfterFromShard(queueName, shardName, priority), System.currentTimeMillis());
+    }
+    return shardResponse;
+  }
+
+  /*
+   * The future based version of ``dequeueJobsFromShardWithHints``.
+   */
+  private Future<PinLaterDequeueResponse> dequeueJobsFromShardWithHintsAsync(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final String claimDescriptor,
+      final int jobsNeeded,
+      final boolean dryRun) {
+    if (emptyShardHints.isKnownEmpty(
+        queueName, shardName, priority, System.currentTimeMillis())) {
+      return Future.value(new PinLaterDequeueResponse());
+    }
+    final long hintVersion = emptyShardHints.getVersion(queueName, shardName, priority);
+    Future<PinLaterDequeueResponse> responseFuture;
+    if (dequeueLimiterMap == null) {
+      responseFuture = dequeueJobsFromShardTimed(
+          queueName, shardName, priority, claimDescriptor, jobsNeeded, dryRun, null);
+    } else {
+      final AdaptiveConcurrencyLimiter limiter =
+          dequeueLimiterMap.getUnchecked(new Pair<String, String>(queueName, shardName));
+      responseFuture = limiter.acquire().flatMap(
+          new Function<Void, Future<PinLaterDequeueResponse>>() {
+            @Override
+            public Future<PinLaterDequeueResponse> apply(Void v) {
+              return dequeueJobsFromShardTimed(
+                  queueName, shardName, priority, claimDescriptor, jobsNeeded, dryRun, limiter);
+            }
+          });
+    }
+    return responseFuture.flatMap(
+        new Function<PinLaterDequeueResponse, Future<PinLaterDequeueResponse>>() {
+          @Override
+          public Future<PinLaterDequeueResponse> apply(
+              final PinLaterDequeueResponse shardResponse) {
+            if (!emptyShardHints.isEnabled()
+                || (shardResponse != null && shardResponse.getJobsSize() > 0)) {
+              return Future.value(shardResponse);
+            }
+            return getNextRunAfterFromShardAsync(queueName, shardName, priority).map(
+                new Function<Long, PinLaterDequeueResponse>() {
+                  @Override
+                  public PinLaterDequeueResponse apply(Long nextRunAfterMillis) {
+                    emptyShardHints.markEmpty(queueName, shardName, priority, hintVersion,
+                        nextRunAfterMillis, System.currentTimeMillis());
+                    return shardResponse;
+                  }
+                });
+          }
+        });
+  }
+
+  /*
+   * Dequeues from a shard, recording its latency with the shard latency tracker and, if it is not
+   * null, releasing ``limiter`` with the outcome of the call.
+   */
+  private Future<PinLaterDequeueResponse> dequeueJobsFromShardTimed(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final String claimDescriptor,
+      final int jobsNeeded,
+      final boolean dryRun,
+      final AdaptiveConcurrencyLimiter limiter) {
+    final long startNanos = System.nanoTime();
+    Future<PinLaterDequeueResponse> responseFuture;
+    try {
+      responseFuture = dequeueJobsFromShardAsync(
+          queueName, shardName, priority, claimDescriptor, jobsNeeded, numAutoRetries, dryRun);
+    } catch (RuntimeException e) {
+      responseFuture = Future.exception(e);
+    }
+    return responseFuture.respond(new Function<Try<PinLaterDequeueResponse>, BoxedUnit>() {
+      @Override
+      public BoxedUnit apply(Try<PinLaterDequeueResponse> responseTry) {
+        if (responseTry.isReturn()) {
+          recordShardLatency(shardName, startNanos);
+        }
+        if (limiter != null) {
+          limiter.release(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos),
+              responseTry.isThrow());
+        }
+        return BoxedUnit.UNIT;
+      }
+    });
+  }
+
+  /*
+   * Called by backends when a dequeue from the given queue and shard ran into contention in the
+   * storage, e.g. a deadlock or a lock wait timeout, and then succeeded on retry. This shrinks the
+   * adaptive concurrency limit of the queue in that shard. Dequeues that fail are already counted
+   * as failed calls by the limiter, so they must not be reported here as well.
+   */
+  protected void recordDequeueContention(String queueName, String shardName) {
+    if (dequeueLimiterMap != null) {
+      dequeueLimiterMap.getUnchecked(new Pair<String, String>(queueName, shardName))
+          .onContention();
+    }
+  }
+
+  /*
+   * Looks up a batch of jobs of the same queue, shard and priority with a single hedged call to
+   * the shard, recording its latency. Returns the jobs that were found, keyed by the descriptors
+   * of the request.
+   */
+  private Future<Map<String, PinLaterJobInfo>> lookupJobBatch(final LookupBatchKey key,
+                                                              final List<String> jobDescriptors,
+                                                              final boolean includeBody) {
+    final List<Long> localIds = Lists.newArrayListWithCapacity(jobDescriptors.size());
+    for (String jobDescriptor : jobDescriptors) {
+      localIds.add(new PinLaterJobDescriptor(jobDescriptor).getLocalId());
+    }
+    return requestHedger.apply("lookup", new Function0<Future<Map<Long, PinLaterJobInfo>>>() {
+      @Override
+      public Future<Map<Long, PinLaterJobInfo>> apply() {
+        final long startNanos = System.nanoTime();
+        return lookupJobsFromShardAsync(
+            key.queueName, key.shardName, key.priority, localIds, includeBody).onSuccess(
+            new Function<Map<Long, PinLaterJobInfo>, BoxedUnit>() {
+              @Override
+              public BoxedUnit apply(Map<Long, PinLaterJobInfo> jobInfoMap) {
+                recordShardLatency(key.shardName, startNanos);
+                return BoxedUnit.UNIT;
+              }
+            });
+      }
+    }).map(new Function<Map<Long, PinLaterJobInfo>, Map<String, PinLaterJobInfo>>() {
+      @Override
+      public Map<String, PinLaterJobInfo> apply(Map<Long, PinLaterJobInfo> jobInfoMap) {
+        Map<String, PinLaterJobInfo> lookupJobMap = Maps.newHashMap();
+        for (int i = 0; i < jobDescriptors.size(); i++) {
+          PinLaterJobInfo jobInfo = jobInfoMap.get(localIds.get(i));
+          if (jobInfo != null) {
+            lookupJobMap.put(jobDescriptors.get(i), jobInfo);
+          }
+        }
+        return lookupJobMap;
+      }
+    });
+  }
+
+  /*
+   * Runs the administrative ``function`` in the admin future pool, hedged as ``operation``.
+   */
+  private <T> Future<T> applyHedged(String operation, final ExceptionalFunction0<T> function) {
+    return requestHedger.apply(operation, new Function0<Future<T>>() {
+      @Override
+      public Future<T> apply() {
+        return adminFuturePool.apply(function);
+      }
+    });
+  }
+
+  /*
+   * Runs a blocking call to the given shard in the future pool, once the bulkhead of the shard
+   * lets it through.
+   */
+  private <T> Future<T> applyInShard(String shardName, final ExceptionalFunction0<T> function) {
+    return shardBulkheads.apply(shardName, new Function0<Future<T>>() {
+      @Override
+      public Future<T> apply() {
+        return futurePool.apply(function);
+      }
+    });
+  }
+
+  /*
+   * Called when a job is moved back to pending through this server, e.g. by a failed ack or a
+   * checkpoint request.
+   */
+  private void onJobPending(String queueName, String jobDescriptor, long runAfterMillis,
+                            long currentTimeMillis) {
+    if (emptyShardHints.isEnabled()) {
+      PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobDescriptor);
+      emptyShardHints.onJobPending(queueName, jobDesc.getShardName(), jobDesc.getPriority(),
+          runAfterMillis, currentTimeMillis);
+    }
+    if (runAfterMillis <= currentTimeMillis) {
+      dequeueWaiters.signal(queueName);
+    }
   }
 
   private Future<Void> ackDequeuedJobsImpl(final PinLaterJobAckRequest request) {
     // Partition the jobs such that there are roughly <queryParallelism> partitions. Then execute
-    // those in parallel. Within each partition, acks are executed serially.
+    // those in parallel. Within each partition, acks are handed to the backend as one batch.
 
     List<Future<Void>> futures = Lists.newArrayList();
 
@@ -704,16 +1596,8 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
           queryParallelism,
           new Function<List<PinLaterJobAckInfo>, Future<Void>>() {
             @Override
-            public Future<Void> apply(final List<PinLaterJobAckInfo> jobAckInfos) {
-              return futurePool.apply(new ExceptionalFunction0<Void>() {
-                @Override
-                public Void applyE() throws Throwable {
-                  for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
-                    ackSingleJob(request.getQueueName(), true, jobAckInfo, numAutoRetries);
-                  }
-                  return null;
-                }
-              });
+            public Future<Void> apply(List<PinLaterJobAckInfo> jobAckInfos) {
+              return ackJobsAsync(request.getQueueName(), true, jobAckInfos, numAutoRetries);
             }
           }));
     }
@@ -726,15 +1610,20 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
           new Function<List<PinLaterJobAckInfo>, Future<Void>>() {
             @Override
             public Future<Void> apply(final List<PinLaterJobAckInfo> jobAckInfos) {
-              return futurePool.apply(new ExceptionalFunction0<Void>() {
-                @Override
-                public Void applyE() throws Throwable {
-                  for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
-                    ackSingleJob(request.getQueueName(), false, jobAckInfo, numAutoRetries);
-                  }
-                  return null;
-                }
-              });
+              return ackJobsAsync(request.getQueueName(), false, jobAckInfos, numAutoRetries)
+                  .map(new Function<Void, Void>() {
+                    @Override
+                    public Void apply(Void v) {
+                      // The jobs go back to pending unless they have run out of attempts.
+                      long currentTimeMillis = System.currentTimeMillis();
+                      for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+                        onJobPending(request.getQueueName(), jobAckInfo.getJobDescriptor(),
+                            currentTimeMillis + jobAckInfo.getRetryDelayMillis(),
+                            currentTimeMillis);
+                      }
+                      return null;
+                    }
+                  });
             }
           }));
     }
@@ -749,6 +1638,20 @@ public abstract class PinLaterBackendBase implements PinLaterBackendIface {
     return shards;
   }
 
+  /*
+   * Returns the order in which a dequeue request visits the shards: random, except that the
+   * shards which are much slower than the rest come last, so that requests which do not cover
+   * every shard skip them.
+   */
+  private List<String> getDequeueShardOrder() {
+    return shardLatencyTracker.deprioritizeSlowShards(getRandomShardShuffle());
+  }
+
+  private void recordShardLatency(String shardName, long startNanos) {
+    shardLatencyTracker.record(
+        shardName, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+  }
+
   private String constructClaimDescriptor(String source) {
     return String.format("%s:%d:%d:%s:%d",
         serverHostName,
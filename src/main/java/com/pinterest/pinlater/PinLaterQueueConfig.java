@@ -51,6 +51,12 @@ public class PinLaterQueueConfig {
   private final AtomicInteger numPinLaterServers = new AtomicInteger(1);
   private final AtomicReference<ImmutableMap<String, QueueRateLimiter.IFace>> queueRateLimitMapRef =
       new AtomicReference<ImmutableMap<String, QueueRateLimiter.IFace>>();
+  private final AtomicReference<ImmutableSet<String>> orderedDequeueQueuesRef =
+      new AtomicReference<ImmutableSet<String>>(ImmutableSet.<String>of());
+  private final AtomicReference<ImmutableMap<String, QueuePriorityScheduler>>
+      queuePrioritySchedulerMapRef =
+      new AtomicReference<ImmutableMap<String, QueuePriorityScheduler>>(
+          ImmutableMap.<String, QueuePriorityScheduler>of());
 
   private final String queueConfigFilePath;
   private final String pinlaterServerSetPath;
@@ -116,6 +122,7 @@ public class PinLaterQueueConfig {
           @Override
           public Void applyE(byte[] bytes) throws Exception {
             QueueConfigSchema queueConfigSchema = QueueConfigSchema.load(bytes);
+            validate(queueConfigSchema);
             LOG.info("Queue config update, new value: {}", queueConfigSchema);
             queueConfigSchemaRef.set(queueConfigSchema);
             rebuild();
@@ -143,6 +150,31 @@ public class PinLaterQueueConfig {
     }
   }
 
+  /**
+   * Determines whether jobs of a queue should be dequeued in order of run_after, i.e. oldest
+   * eligible job first, instead of in whatever order the backend finds them. Ordered dequeues
+   * keep delayed and retried jobs from being starved by a steady stream of new jobs, at some
+   * cost in dequeue throughput on backends that do not keep jobs sorted anyway.
+   *
+   * @param queueName  name of the queue.
+   * @return whether to dequeue in order of run_after. False for queues not in the config.
+   */
+  public boolean isDequeueOrdered(String queueName) {
+    return orderedDequeueQueuesRef.get().contains(queueName);
+  }
+
+  /**
+   * Returns how dequeues of a queue are split across its priority levels, and how many priority
+   * levels it uses.
+   *
+   * @param queueName  name of the queue.
+   * @return the scheduler of the queue, or null if the queue does not configure its priorities,
+   *         in which case the backend defaults apply.
+   */
+  public QueuePriorityScheduler getPriorityScheduler(String queueName) {
+    return queuePrioritySchedulerMapRef.get().get(queueName);
+  }
+
   @VisibleForTesting
   double getDequeueRate(String queueName) {
     MorePreconditions.checkNotBlank(queueName);
@@ -170,12 +202,70 @@ public class PinLaterQueueConfig {
 
     ImmutableMap.Builder<String, QueueRateLimiter.IFace> builder =
         new ImmutableMap.Builder<String, QueueRateLimiter.IFace>();
+    ImmutableSet.Builder<String> orderedDequeueQueuesBuilder = new ImmutableSet.Builder<String>();
+    ImmutableMap.Builder<String, QueuePriorityScheduler> prioritySchedulerBuilder =
+        new ImmutableMap.Builder<String, QueuePriorityScheduler>();
+    ImmutableMap<String, QueuePriorityScheduler> oldPrioritySchedulerMap =
+        queuePrioritySchedulerMapRef.get();
     for (QueueConfigSchema.Queue queue : queueConfigSchema.queues) {
       builder.put(queue.name,
           QueueRateLimiter.create(queue.queueConfig.maxJobsPerSecond / numServers));
+      if (queue.queueConfig.orderedDequeue) {
+        orderedDequeueQueuesBuilder.add(queue.name);
+      }
+      QueuePriorityScheduler priorityScheduler = createPriorityScheduler(queue);
+      // Keep the scheduler of an unchanged queue, along with the credits it has built up, so that
+      // reloads do not skew the weighted split.
+      QueuePriorityScheduler oldPriorityScheduler = oldPrioritySchedulerMap.get(queue.name);
+      if (priorityScheduler != null && priorityScheduler.hasSameSettings(oldPriorityScheduler)) {
+        priorityScheduler = oldPriorityScheduler;
+      }
+      if (priorityScheduler != null) {
+        prioritySchedulerBuilder.put(queue.name, priorityScheduler);
+      }
     }
 
     queueRateLimitMapRef.set(builder.build());
+    orderedDequeueQueuesRef.set(orderedDequeueQueuesBuilder.build());
+    queuePrioritySchedulerMapRef.set(prioritySchedulerBuilder.build());
+  }
+
+  /**
+   * Checks the settings that ``rebuild`` cannot apply. An invalid config update is rejected as a
+   * whole, and the previous config stays in effect.
+   *
+   * @throws IllegalArgumentException if a queue has an invalid priority config.
+   */
+  @VisibleForTesting
+  static void validate(QueueConfigSchema queueConfigSchema) {
+    if (queueConfigSchema.queues == null) {
+      return;
+    }
+    for (QueueConfigSchema.Queue queue : queueConfigSchema.queues) {
+      try {
+        createPriorityScheduler(queue);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid priority config of queue " + queue.name, e);
+      }
+    }
+  }
+
+  /*
+   * Returns the priority scheduler configured for a queue, or null if the queue uses the backend
+   * defaults.
+   */
+  private static QueuePriorityScheduler createPriorityScheduler(QueueConfigSchema.Queue queue) {
+    int numPriorityLevels = queue.queueConfig.numPriorityLevels;
+    List<Integer> priorityWeights = queue.queueConfig.priorityWeights;
+    if (priorityWeights != null && !priorityWeights.isEmpty()) {
+      Preconditions.checkArgument(
+          numPriorityLevels == 0 || numPriorityLevels == priorityWeights.size(),
+          "numPriorityLevels does not match the number of priorityWeights");
+      return QueuePriorityScheduler.weighted(priorityWeights);
+    } else if (numPriorityLevels != 0) {
+      return QueuePriorityScheduler.strict(numPriorityLevels);
+    }
+    return null;
   }
 
   @VisibleForTesting
@@ -207,6 +297,13 @@ public class PinLaterQueueConfig {
     public static class QueueConfig {
 
       public double maxJobsPerSecond;
+      // Whether to dequeue jobs in order of run_after, see ``isDequeueOrdered``.
+      public boolean orderedDequeue;
+      // Number of priority levels used by the queue, at most NUM_PRIORITY_LEVELS. 0 means all.
+      public int numPriorityLevels;
+      // Dequeue shares of the priority levels, highest priority first, e.g. [70, 20, 10]. Null
+      // means strict priority order. See ``QueuePriorityScheduler``.
+      public List<Integer> priorityWeights;
     }
 
     public static QueueConfigSchema load(byte[] bytes) throws IOException {
@@ -220,6 +317,9 @@ public class PinLaterQueueConfig {
       for (Queue q : queues) {
         out.append("\nQueue: ").append(q.name);
         out.append(" maxJobsPerSecond: ").append(q.queueConfig.maxJobsPerSecond);
+        out.append(" orderedDequeue: ").append(q.queueConfig.orderedDequeue);
+        out.append(" numPriorityLevels: ").append(q.queueConfig.numPriorityLevels);
+        out.append(" priorityWeights: ").append(q.queueConfig.priorityWeights);
       }
       return out.toString();
     }
@@ -16,7 +16,10 @@
  */
 package com.pinterest.pinlater;
 
+import com.pinterest.pinlater.backends.log.PinLaterLogBackend;
+import com.pinterest.pinlater.backends.memory.PinLaterMemoryBackend;
 import com.pinterest.pinlater.backends.mysql.PinLaterMySQLBackend;
+import com.pinterest.pinlater.backends.redis.PinLaterAsyncRedisBackend;
 import com.pinterest.pinlater.backends.redis.PinLaterRedisBackend;
 import com.pinterest.pinlater.commons.ostrich.OstrichAdminService;
 import com.pinterest.pinlater.commons.serviceframework.ServiceShutdownHook;
@@ -27,6 +30,8 @@ import com.twitter.finagle.stats.OstrichStatsReceiver;
 import com.twitter.finagle.thrift.ThriftServerFramedCodec;
 import com.twitter.ostrich.stats.Stats;
 import com.twitter.util.Duration;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.thrift.protocol.TBinaryProtocol;
@@ -57,13 +62,22 @@ public class PinLaterServer {
     }
   }
 
-  private static PinLaterBackendIface getBackendIface(String backend, String serverHostName)
+  private static PinLaterBackendBase getBackend(String backend, String serverHostName)
       throws Exception {
+    // The memory and log backends have no backend config.
+    if (backend != null && backend.equals("memory")) {
+      return new PinLaterMemoryBackend(CONFIGURATION, serverHostName, SERVER_START_TIME_MILLIS);
+    } else if (backend != null && backend.equals("log")) {
+      return new PinLaterLogBackend(CONFIGURATION, serverHostName, SERVER_START_TIME_MILLIS);
+    }
     InputStream backendConfigStream = ClassLoader.getSystemResourceAsStream(
         System.getProperty("backend_config"));
     if (backend != null && backend.equals("redis")) {
       return new PinLaterRedisBackend(
           CONFIGURATION, backendConfigStream, serverHostName, SERVER_START_TIME_MILLIS);
+    } else if (backend != null && backend.equals("redis_async")) {
+      return new PinLaterAsyncRedisBackend(
+          CONFIGURATION, backendConfigStream, serverHostName, SERVER_START_TIME_MILLIS);
     } else {
       return new PinLaterMySQLBackend(
           CONFIGURATION, serverHostName, SERVER_START_TIME_MILLIS);
@@ -76,8 +90,9 @@ public class PinLaterServer {
       PinLaterQueueConfig queueConfig = new PinLaterQueueConfig(CONFIGURATION);
       queueConfig.initialize();
       String backend = CONFIGURATION.getString("PINLATER_BACKEND");
-      PinLaterBackendIface backendIFace = getBackendIface(backend, serverHostName);
-      PinLaterServiceImpl serviceImpl = new PinLaterServiceImpl(backendIFace, queueConfig);
+      final PinLaterBackendBase backendBase = getBackend(backend, serverHostName);
+      backendBase.setQueueConfig(queueConfig);
+      PinLaterServiceImpl serviceImpl = new PinLaterServiceImpl(backendBase, queueConfig);
       PinLater.Service service = new PinLater.Service(serviceImpl, new TBinaryProtocol.Factory());
       ServiceShutdownHook.register(ServerBuilder.safeBuild(
           service,
@@ -88,7 +103,13 @@ public class PinLaterServer {
                   CONFIGURATION.getInt("SERVER_CONN_MAX_IDLE_TIME_MINUTES"), TimeUnit.MINUTES))
               .maxConcurrentRequests(CONFIGURATION.getInt("MAX_CONCURRENT_REQUESTS"))
               .reportTo(new OstrichStatsReceiver(Stats.get("")))
-              .bindTo(new InetSocketAddress(CONFIGURATION.getInt("THRIFT_PORT")))));
+              .bindTo(new InetSocketAddress(CONFIGURATION.getInt("THRIFT_PORT")))),
+          new Function0<Future<Void>>() {
+            @Override
+            public Future<Void> apply() {
+              return backendBase.close();
+            }
+          });
       new OstrichAdminService(CONFIGURATION.getInt("OSTRICH_PORT")).start();
 
       LOG.info("\n#######################################"
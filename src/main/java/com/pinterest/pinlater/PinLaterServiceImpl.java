@@ -267,6 +267,8 @@ public class PinLaterServiceImpl implements PinLater.ServiceIface {
         return "INTERNAL_ERROR";
       case SHARD_CONNECTION_FAILED:
         return "SHARD_CONNECTION_FAILED";
+      case SHARD_OVERLOADED:
+        return "SHARD_OVERLOADED";
       case UNKNOWN:
         return "UNKNOWN";
       default:
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides how the jobs of a dequeue request are split across the priority levels of a queue.
+ *
+ * With strict scheduling every request asks the highest priority for all of its jobs, and lower
+ * priorities only get what is left over, so a busy priority 1 starves the others. With weighted
+ * scheduling each priority gets a share of every request proportional to its weight, e.g. 70/20/10.
+ * Shares are carried over between requests as credits, so the weights also hold for requests that
+ * dequeue a single job at a time. Either way the shares are only a first claim: jobs that a
+ * priority cannot supply are given to the other priorities by the backend.
+ */
+public final class QueuePriorityScheduler {
+
+  private final int numPriorityLevels;
+  // Null for strict scheduling.
+  private final int[] weights;
+  private final long totalWeight;
+  private final long[] credits;
+
+  private QueuePriorityScheduler(int numPriorityLevels, int[] weights) {
+    this.numPriorityLevels = numPriorityLevels;
+    this.weights = weights;
+    long total = 0;
+    if (weights != null) {
+      for (int weight : weights) {
+        total += weight;
+      }
+    }
+    this.totalWeight = total;
+    this.credits = new long[numPriorityLevels];
+  }
+
+  /**
+   * Creates a scheduler that always dequeues from the highest priority first.
+   */
+  public static QueuePriorityScheduler strict(int numPriorityLevels) {
+    Preconditions.checkArgument(numPriorityLevels >= 1);
+    return new QueuePriorityScheduler(numPriorityLevels, null);
+  }
+
+  /**
+   * Creates a scheduler that shares each dequeue request between the priorities according to
+   * ``weights``, where the first weight is that of priority 1. A priority with a weight of 0 only
+   * gets the jobs that the other priorities cannot supply.
+   */
+  public static QueuePriorityScheduler weighted(List<Integer> weights) {
+    Preconditions.checkArgument(weights != null && !weights.isEmpty());
+    int[] weightArray = Ints.toArray(weights);
+    long total = 0;
+    for (int weight : weightArray) {
+      Preconditions.checkArgument(weight >= 0, "Negative priority weight: %s", weight);
+      total += weight;
+    }
+    Preconditions.checkArgument(total > 0, "Priority weights must not all be 0");
+    return new QueuePriorityScheduler(weightArray.length, weightArray);
+  }
+
+  public int getNumPriorityLevels() {
+    return numPriorityLevels;
+  }
+
+  public boolean isWeighted() {
+    return weights != null;
+  }
+
+  /**
+   * Returns whether ``other`` schedules the same priority levels with the same weights. Only the
+   * settings are compared, not the credits carried over between requests.
+   */
+  public boolean hasSameSettings(QueuePriorityScheduler other) {
+    return other != null && numPriorityLevels == other.numPriorityLevels
+        && Arrays.equals(weights, other.weights);
+  }
+
+  /**
+   * Splits ``numJobs`` between the priority levels.
+   *
+   * @param numJobs number of jobs requested.
+   * @return the number of jobs to ask of each priority, indexed by priority - 1. The counts add
+   *         up to ``numJobs``.
+   */
+  public int[] allocate(int numJobs) {
+    Preconditions.checkArgument(numJobs >= 0);
+    int[] quotas = new int[numPriorityLevels];
+    if (weights == null) {
+      quotas[0] = numJobs;
+      return quotas;
+    }
+
+    synchronized (credits) {
+      // Each priority earns its weighted share of the request, in units of 1 / totalWeight jobs,
+      // and spends a whole job's worth of credit for every job it is given.
+      int allocated = 0;
+      for (int i = 0; i < numPriorityLevels; i++) {
+        credits[i] += (long) numJobs * weights[i];
+        quotas[i] = (int) Math.max(0, credits[i] / totalWeight);
+        allocated += quotas[i];
+      }
+      // The rounding leaves fewer jobs than priorities unallocated. Hand them out to the
+      // priorities with the most credit left.
+      while (allocated < numJobs) {
+        int best = -1;
+        for (int i = 0; i < numPriorityLevels; i++) {
+          if (weights[i] > 0
+              && (best < 0 || remainingCredit(i, quotas) > remainingCredit(best, quotas))) {
+            best = i;
+          }
+        }
+        quotas[best]++;
+        allocated++;
+      }
+      for (int i = 0; i < numPriorityLevels; i++) {
+        credits[i] -= (long) quotas[i] * totalWeight;
+      }
+    }
+    return quotas;
+  }
+
+  private long remainingCredit(int index, int[] quotas) {
+    return credits[index] - (long) quotas[index] * totalWeight;
+  }
+
+  @Override
+  public String toString() {
+    return weights == null
+           ? "strict(" + numPriorityLevels + ")"
+           : "weighted(" + Arrays.toString(weights) + ")";
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import scala.runtime.BoxedUnit;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An async semaphore whose number of permits adapts to the latency of the calls it guards, with
+ * additive increase and multiplicative decrease (AIMD).
+ *
+ * The limit starts at ``initialLimit``. A call that is slower than ``latencyTolerance`` times the
+ * baseline latency, fails, or reports contention (e.g. a MySQL deadlock or lock wait timeout)
+ * multiplies the limit by ``backoffRatio``. Any other call grows the limit by 1 / limit, i.e. by
+ * about one per limit's worth of calls, as long as the limit is actually being used. The baseline
+ * is the lowest latency seen, drifting slowly up towards recent latencies so that it can follow a
+ * lasting change in the storage.
+ *
+ * The limit backs off at most once per round trip: a call that started before the last decrease
+ * saw the old limit, so its slowness or failure does not decrease the limit again. Otherwise a
+ * latency spike that hits all the calls in flight would shrink the limit once per call.
+ * Contention reports count as calls that took the baseline latency.
+ *
+ * The limit, the calls in flight and the waiters are exported as gauges named after
+ * ``statFormat`` with "limit", "in-flight" and "waiters".
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final double BASELINE_DRIFT = 0.01;
+
+  private final String statFormat;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxWaiters;
+  private final double backoffRatio;
+  private final double latencyTolerance;
+  private final Queue<Promise<Void>> waiters = new ArrayDeque<Promise<Void>>();
+  private double limit;
+  private int inFlight;
+  private double baselineLatencyMicros = -1;
+  // System.nanoTime() of the last decrease, if there was one.
+  private boolean decreased = false;
+  private long lastDecreaseNanos;
+
+  public AdaptiveConcurrencyLimiter(String statFormat,
+                                    int initialLimit,
+                                    int minLimit,
+                                    int maxLimit,
+                                    int maxWaiters,
+                                    double backoffRatio,
+                                    double latencyTolerance) {
+    Preconditions.checkArgument(minLimit >= 1);
+    Preconditions.checkArgument(minLimit <= initialLimit && initialLimit <= maxLimit);
+    Preconditions.checkArgument(maxWaiters >= 0);
+    Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1);
+    Preconditions.checkArgument(latencyTolerance > 1);
+    this.statFormat = Preconditions.checkNotNull(statFormat);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.maxWaiters = maxWaiters;
+    this.backoffRatio = backoffRatio;
+    this.latencyTolerance = latencyTolerance;
+    this.limit = initialLimit;
+    updateGauges();
+  }
+
+  /**
+   * Returns a future that is satisfied once the call can go ahead. The caller must call
+   * ``release`` when the call is done. Fails with a RejectedExecutionException if ``maxWaiters``
+   * calls are already waiting. Like with ``AsyncSemaphore``, interrupting the future of a waiting
+   * call fails it with the interrupt and gives up its place in line, so it never gets a permit.
+   */
+  public synchronized Future<Void> acquire() {
+    if (inFlight < getPermits()) {
+      inFlight++;
+      updateGauges();
+      return Future.value(null);
+    }
+    if (waiters.size() >= maxWaiters) {
+      return Future.exception(new RejectedExecutionException("Max waiters exceeded"));
+    }
+    final Promise<Void> waiter = new Promise<Void>();
+    waiter.setInterruptHandler(new Function<Throwable, BoxedUnit>() {
+      @Override
+      public BoxedUnit apply(Throwable t) {
+        boolean removed;
+        synchronized (AdaptiveConcurrencyLimiter.this) {
+          removed = waiters.remove(waiter);
+          updateGauges();
+        }
+        // A waiter that was already granted a permit keeps it, and the caller must release it.
+        if (removed) {
+          waiter.setException(t);
+        }
+        return BoxedUnit.UNIT;
+      }
+    });
+    waiters.add(waiter);
+    updateGauges();
+    return waiter;
+  }
+
+  /**
+   * Ends a call that was let through by ``acquire``, adjusting the limit with its outcome.
+   *
+   * @param latencyMicros how long the call took.
+   * @param failed whether the call failed, in which case its latency is ignored.
+   */
+  public void release(long latencyMicros, boolean failed) {
+    List<Promise<Void>> granted;
+    synchronized (this) {
+      long startNanos = System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+      boolean limited = inFlight * 2 >= getPermits();
+      inFlight--;
+      if (failed) {
+        decrease(startNanos);
+      } else {
+        if (baselineLatencyMicros < 0 || latencyMicros < baselineLatencyMicros) {
+          baselineLatencyMicros = latencyMicros;
+        } else {
+          baselineLatencyMicros += (latencyMicros - baselineLatencyMicros) * BASELINE_DRIFT;
+        }
+        if (latencyMicros > latencyTolerance * baselineLatencyMicros) {
+          decrease(startNanos);
+        } else if (limited) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      }
+      granted = grantWaiters();
+      updateGauges();
+    }
+    // Satisfy the waiters outside of the lock, since this runs their continuations.
+    for (Promise<Void> waiter : granted) {
+      waiter.setValue(null);
+    }
+  }
+
+  /**
+   * Reports contention seen by a call, e.g. a deadlock that it retried, which shrinks the limit
+   * just like a failed call.
+   */
+  public synchronized void onContention() {
+    decrease(System.nanoTime()
+        - TimeUnit.MICROSECONDS.toNanos((long) Math.max(baselineLatencyMicros, 0)));
+    updateGauges();
+  }
+
+  @VisibleForTesting
+  synchronized int getPermits() {
+    return (int) limit;
+  }
+
+  @VisibleForTesting
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /*
+   * Backs off the limit for a call that started at ``startNanos``, unless the limit was already
+   * decreased since then.
+   */
+  private void decrease(long startNanos) {
+    if (decreased && startNanos - lastDecreaseNanos < 0) {
+      return;
+    }
+    limit = Math.max(minLimit, limit * backoffRatio);
+    decreased = true;
+    lastDecreaseNanos = System.nanoTime();
+  }
+
+  private List<Promise<Void>> grantWaiters() {
+    List<Promise<Void>> granted = Lists.newArrayList();
+    while (inFlight < getPermits() && !waiters.isEmpty()) {
+      inFlight++;
+      granted.add(waiters.poll());
+    }
+    return granted;
+  }
+
+  private void updateGauges() {
+    Stats.setGauge(String.format(statFormat, "limit"), limit);
+    Stats.setGauge(String.format(statFormat, "in-flight"), inFlight);
+    Stats.setGauge(String.format(statFormat, "waiters"), waiters.size());
+  }
+}
@@ -19,19 +19,58 @@ package com.pinterest.pinlater.backends.common;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The base class of backend queue monitor. It implements a scheduled task used by the
  * PinLaterBackendBase for various types of job queue cleanup, including ACK timeouts and GC'ing
  * finished jobs. The detailed logic of the cleanup operations specific to each backend should be
  * implemented in the subclass. T is the type of datastore pool used by PinLaterBackendBase.
+ *
+ * Each run of the monitor is one task per (shard, queue, priority) table. The tasks are grouped
+ * into lanes by data store, i.e. by the value of the shard map, which several logical shards may
+ * share (e.g. the MYSQL_NUM_DB_PER_QUEUE databases of a MySQL host share one set of connection
+ * pools). Lanes are processed in parallel on a pool of ``BACKEND_MONITOR_PARALLELISM`` threads,
+ * while the tasks of a single lane, including listing the queues of its shards, run one at a time
+ * so that a data store never needs more than one monitor connection. A table whose cleanup hit
+ * ``BACKEND_MONITOR_UPDATE_MAX_SIZE`` is queued again behind the other tables of its lane, for up
+ * to ``BACKEND_MONITOR_DRAIN_TIME_SECONDS`` after the run started, so that heavy tables keep
+ * draining while idle tables are only visited once per run.
+ *
+ * Tables with a large backlog of finished jobs are drained a few paced chunks per visit, and
+ * queued again the same way, see ``DoneJobsGCDrainer`` and
+ * ``BACKEND_MONITOR_GC_BACKLOG_THRESHOLD``.
  */
 public abstract class BackendQueueMonitorBase<T> implements Runnable {
 
+  private static final Logger LOG = LoggerFactory.getLogger(BackendQueueMonitorBase.class);
+
+  private static final int DEFAULT_PARALLELISM = 4;
+  private static final long DEFAULT_DRAIN_TIME_MILLIS = TimeUnit.SECONDS.toMillis(60);
+  private static final int DEFAULT_GC_MAX_CHUNK_SIZE = 1000;
+  private static final long DEFAULT_GC_TARGET_CHUNK_LATENCY_MILLIS = 100;
+
   private final ImmutableMap<String, T> shardMap;
   private final int updateMaxSize;
   private final int maxAutoRetries;
@@ -39,6 +78,10 @@ public abstract class BackendQueueMonitorBase<T> implements Runnable {
   private final long jobClaimedTimeoutMillis;
   private final long jobSucceededGCTimeoutMillis;
   private final long jobFailedGCTimeoutMillis;
+  private final int parallelism;
+  private final long drainTimeMillis;
+  private final DoneJobsGCDrainer doneJobsGCDrainer;
+  private final AtomicInteger logCount = new AtomicInteger(0);
   protected final int numPriorityLevels;
 
   protected ImmutableMap<String, T> getShardMap() {
@@ -69,6 +112,14 @@ public abstract class BackendQueueMonitorBase<T> implements Runnable {
     return jobFailedGCTimeoutMillis;
   }
 
+  protected final long getDrainTimeMillis() {
+    return drainTimeMillis;
+  }
+
+  protected final DoneJobsGCDrainer getDoneJobsGCDrainer() {
+    return doneJobsGCDrainer;
+  }
+
   public BackendQueueMonitorBase(ImmutableMap<String, T> shardMap,
                                  PropertiesConfiguration configuration) {
     this(shardMap,
@@ -81,7 +132,15 @@ public abstract class BackendQueueMonitorBase<T> implements Runnable {
             "BACKEND_MONITOR_JOB_SUCCEEDED_GC_TTL_HOURS")),
         TimeUnit.HOURS.toMillis(configuration.getInt(
             "BACKEND_MONITOR_JOB_FAILED_GC_TTL_HOURS")),
-        configuration.getInt("NUM_PRIORITY_LEVELS"));
+        configuration.getInt("NUM_PRIORITY_LEVELS"),
+        configuration.getInt("BACKEND_MONITOR_PARALLELISM", DEFAULT_PARALLELISM),
+        TimeUnit.SECONDS.toMillis(configuration.getLong(
+            "BACKEND_MONITOR_DRAIN_TIME_SECONDS",
+            TimeUnit.MILLISECONDS.toSeconds(DEFAULT_DRAIN_TIME_MILLIS))),
+        configuration.getLong("BACKEND_MONITOR_GC_BACKLOG_THRESHOLD", 0),
+        configuration.getInt("BACKEND_MONITOR_GC_MAX_CHUNK_SIZE", DEFAULT_GC_MAX_CHUNK_SIZE),
+        configuration.getLong("BACKEND_MONITOR_GC_TARGET_CHUNK_LATENCY_MILLIS",
+            DEFAULT_GC_TARGET_CHUNK_LATENCY_MILLIS));
   }
 
   @VisibleForTesting
@@ -90,6 +149,22 @@ public abstract class BackendQueueMonitorBase<T> implements Runnable {
                                  long jobClaimedTimeoutMillis, long jobSucceededGCTimeoutMillis,
                                  long jobFailedGCTimeoutMillis,
                                  int numPriorityLevels) {
+    this(shardMap, updateMaxSize, maxAutoRetries, logInterval, jobClaimedTimeoutMillis,
+        jobSucceededGCTimeoutMillis, jobFailedGCTimeoutMillis, numPriorityLevels,
+        DEFAULT_PARALLELISM, DEFAULT_DRAIN_TIME_MILLIS, 0, DEFAULT_GC_MAX_CHUNK_SIZE,
+        DEFAULT_GC_TARGET_CHUNK_LATENCY_MILLIS);
+  }
+
+  private BackendQueueMonitorBase(ImmutableMap<String, T> shardMap,
+                                  int updateMaxSize, int maxAutoRetries, int logInterval,
+                                  long jobClaimedTimeoutMillis, long jobSucceededGCTimeoutMillis,
+                                  long jobFailedGCTimeoutMillis,
+                                  int numPriorityLevels,
+                                  int parallelism,
+                                  long drainTimeMillis,
+                                  long gcBacklogThreshold,
+                                  int gcMaxChunkSize,
+                                  long gcTargetChunkLatencyMillis) {
     this.shardMap = Preconditions.checkNotNull(shardMap);
     this.updateMaxSize = updateMaxSize;
     this.maxAutoRetries = maxAutoRetries;
@@ -98,17 +173,176 @@ public abstract class BackendQueueMonitorBase<T> implements Runnable {
     this.jobSucceededGCTimeoutMillis = jobSucceededGCTimeoutMillis;
     this.jobFailedGCTimeoutMillis = jobFailedGCTimeoutMillis;
     this.numPriorityLevels = numPriorityLevels;
+    Preconditions.checkArgument(parallelism > 0);
+    this.parallelism = parallelism;
+    Preconditions.checkArgument(drainTimeMillis >= 0);
+    this.drainTimeMillis = drainTimeMillis;
+    this.doneJobsGCDrainer = new DoneJobsGCDrainer(
+        updateMaxSize, gcBacklogThreshold, gcMaxChunkSize, gcTargetChunkLatencyMillis);
   }
 
   @Override
   public void run() {
+    if (shardMap.isEmpty()) {
+      return;
+    }
     final long runStartMillis = System.currentTimeMillis();
-    for (ImmutableMap.Entry<String, T> shard : shardMap.entrySet()) {
-      jobMonitorImpl(runStartMillis, shard, maxAutoRetries);
+    Map<T, List<Map.Entry<String, T>>> shardsByLane = groupShardsByLane();
+    // The pool only lives for the duration of a run, so that a monitor which is replaced (e.g.
+    // on a backend config update) does not leave idle threads behind.
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(parallelism, shardsByLane.size()),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("BackendQueueMonitor-%d")
+            .build());
+    try {
+      Map<T, LinkedList<TableTask>> tableTasksByLane = listTableTasks(executor, shardsByLane);
+
+      CompletionService<TableTask> completionService =
+          new ExecutorCompletionService<TableTask>(executor);
+      int numInFlight = 0;
+      for (LinkedList<TableTask> laneTableTasks : tableTasksByLane.values()) {
+        if (!laneTableTasks.isEmpty()) {
+          completionService.submit(laneTableTasks.poll());
+          numInFlight++;
+        }
+      }
+      long drainDeadlineMillis = runStartMillis + drainTimeMillis;
+      while (numInFlight > 0) {
+        TableTask tableTask = completionService.take().get();
+        numInFlight--;
+        LinkedList<TableTask> laneTableTasks = tableTasksByLane.get(tableTask.shard.getValue());
+        if (tableTask.hitUpdateMaxSize && System.currentTimeMillis() < drainDeadlineMillis) {
+          // The table has more work than a single pass allows, run it again after the other
+          // tables of the lane.
+          Stats.incr("monitor-table-requeued");
+          laneTableTasks.add(tableTask);
+        }
+        if (!laneTableTasks.isEmpty()) {
+          completionService.submit(laneTableTasks.poll());
+          numInFlight++;
+        }
+      }
+    } catch (InterruptedException e) {
+      // The monitor is being cancelled.
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      LOG.error("Exception in JobQueueMonitor task", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    Stats.addMetric("monitor-run-duration-ms",
+        (int) (System.currentTimeMillis() - runStartMillis));
+  }
+
+  /*
+   * Groups the shards by the data store they share, compared by identity since that is how the
+   * backends share them between logical shards.
+   */
+  private Map<T, List<Map.Entry<String, T>>> groupShardsByLane() {
+    Map<T, List<Map.Entry<String, T>>> shardsByLane = Maps.newIdentityHashMap();
+    for (Map.Entry<String, T> shard : shardMap.entrySet()) {
+      List<Map.Entry<String, T>> laneShards = shardsByLane.get(shard.getValue());
+      if (laneShards == null) {
+        laneShards = Lists.newArrayList();
+        shardsByLane.put(shard.getValue(), laneShards);
+      }
+      laneShards.add(shard);
     }
+    return shardsByLane;
   }
 
-  protected abstract void jobMonitorImpl(long runStartMillis,
-                                         Map.Entry<String, T> shard,
-                                         int numAutoRetries);
+  /*
+   * Lists the queues of all lanes in parallel, the shards of a lane one after another, and
+   * returns the table tasks of each lane. A shard whose queues could not be listed gets no tasks
+   * for this run.
+   */
+  private Map<T, LinkedList<TableTask>> listTableTasks(
+      ExecutorService executor, Map<T, List<Map.Entry<String, T>>> shardsByLane)
+      throws InterruptedException, ExecutionException {
+    Map<T, Future<LinkedList<TableTask>>> tableTasksFutures = Maps.newIdentityHashMap();
+    for (final Map.Entry<T, List<Map.Entry<String, T>>> lane : shardsByLane.entrySet()) {
+      tableTasksFutures.put(lane.getKey(), executor.submit(new Callable<LinkedList<TableTask>>() {
+        @Override
+        public LinkedList<TableTask> call() {
+          LinkedList<TableTask> laneTableTasks = Lists.newLinkedList();
+          for (Map.Entry<String, T> shard : lane.getValue()) {
+            Set<String> queueNames;
+            try {
+              queueNames = getQueueNames(shard);
+            } catch (Exception e) {
+              LOG.error("Exception listing queues of shard " + shard.getKey(), e);
+              queueNames = Collections.emptySet();
+            }
+            for (String queueName : queueNames) {
+              for (int priority = 1; priority <= numPriorityLevels; priority++) {
+                laneTableTasks.add(new TableTask(shard, queueName, priority));
+              }
+            }
+          }
+          return laneTableTasks;
+        }
+      }));
+    }
+
+    Map<T, LinkedList<TableTask>> tableTasksByLane = Maps.newIdentityHashMap();
+    for (Map.Entry<T, Future<LinkedList<TableTask>>> tableTasksFuture :
+        tableTasksFutures.entrySet()) {
+      tableTasksByLane.put(tableTasksFuture.getKey(), tableTasksFuture.getValue().get());
+    }
+    return tableTasksByLane;
+  }
+
+  /**
+   * Returns whether the monitor should log the counts of the table it just processed, which it
+   * does once every ``logInterval`` tables.
+   */
+  protected final boolean shouldLog() {
+    return logCount.incrementAndGet() % logInterval == 0;
+  }
+
+  /**
+   * Returns the names of the queues in the given shard, or an empty set if the shard should be
+   * skipped.
+   */
+  protected abstract Set<String> getQueueNames(Map.Entry<String, T> shard) throws Exception;
+
+  /**
+   * Runs the timeout and GC cleanup of a single (queue, priority) table in the given shard.
+   * Implementations are called from several threads at once, but never concurrently for shards
+   * that share the same value in the shard map.
+   *
+   * @return whether any of the cleanup operations hit ``updateMaxSize``, i.e. the table may have
+   *         more work left.
+   */
+  protected abstract boolean monitorTable(long runStartMillis,
+                                          Map.Entry<String, T> shard,
+                                          String queueName,
+                                          int priority,
+                                          int numAutoRetries);
+
+  private class TableTask implements Callable<TableTask> {
+
+    private final Map.Entry<String, T> shard;
+    private final String queueName;
+    private final int priority;
+    private boolean hitUpdateMaxSize;
+
+    TableTask(Map.Entry<String, T> shard, String queueName, int priority) {
+      this.shard = shard;
+      this.queueName = queueName;
+      this.priority = priority;
+    }
+
+    @Override
+    public TableTask call() {
+      try {
+        hitUpdateMaxSize = monitorTable(
+            System.currentTimeMillis(), shard, queueName, priority, maxAutoRetries);
+      } catch (RuntimeException e) {
+        LOG.error("Exception in JobQueueMonitor task", e);
+        hitUpdateMaxSize = false;
+      }
+      return this;
+    }
+  }
 }
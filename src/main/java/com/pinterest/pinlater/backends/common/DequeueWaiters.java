@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parks long-polling dequeue requests per queue until jobs may have become available or their
+ * wait time expires. A parked request is just a promise, so it holds neither a future pool thread
+ * nor a dequeue permit while waiting.
+ *
+ * Each queue has a version that is bumped every time the queue is signaled. Callers read the
+ * version before polling the backend and pass it to ``await``, so that a signal which arrives
+ * between the poll and the call to ``await`` is not lost.
+ */
+public class DequeueWaiters {
+
+  private final ScheduledThreadPoolExecutor timer;
+  private final ConcurrentMap<String, QueueWaiters> queueWaitersMap =
+      new ConcurrentHashMap<String, QueueWaiters>();
+
+  public DequeueWaiters(String name) {
+    this.timer = new ScheduledThreadPoolExecutor(
+        1,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "DequeueWaiters-%d")
+            .build());
+    // Waiters are usually woken up by a signal before their timeout fires, so avoid keeping the
+    // cancelled timeout tasks around until they expire.
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the current version of the given queue, to be passed to ``await``.
+   */
+  public long getVersion(String queueName) {
+    return getQueueWaiters(queueName).version.get();
+  }
+
+  /**
+   * Returns a future that is satisfied when the queue is signaled after ``version`` or when
+   * ``waitTimeMillis`` has elapsed, whichever comes first. The future never fails.
+   */
+  public Future<Void> await(String queueName, long version, long waitTimeMillis) {
+    final QueueWaiters queueWaiters = getQueueWaiters(queueName);
+    final Waiter waiter = new Waiter();
+    queueWaiters.waiters.add(waiter);
+    if (queueWaiters.version.get() != version) {
+      // Signaled since the caller last polled.
+      queueWaiters.wake(waiter);
+      return waiter.promise;
+    }
+
+    Stats.incr("dequeue-wait-parked");
+    waiter.timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (queueWaiters.waiters.remove(waiter)) {
+          Stats.incr("dequeue-wait-timeout");
+          waiter.promise.setValue(null);
+        }
+      }
+    }, waitTimeMillis, TimeUnit.MILLISECONDS);
+    return waiter.promise;
+  }
+
+  /**
+   * Wakes up all the requests waiting on the given queue.
+   */
+  public void signal(String queueName) {
+    QueueWaiters queueWaiters = queueWaitersMap.get(queueName);
+    if (queueWaiters == null) {
+      return;
+    }
+    queueWaiters.version.incrementAndGet();
+    for (Waiter waiter : queueWaiters.waiters) {
+      if (queueWaiters.wake(waiter)) {
+        Stats.incr("dequeue-wait-woken");
+      }
+    }
+  }
+
+  private QueueWaiters getQueueWaiters(String queueName) {
+    QueueWaiters queueWaiters = queueWaitersMap.get(queueName);
+    if (queueWaiters == null) {
+      queueWaitersMap.putIfAbsent(queueName, new QueueWaiters());
+      queueWaiters = queueWaitersMap.get(queueName);
+    }
+    return queueWaiters;
+  }
+
+  private static class Waiter {
+    private final Promise<Void> promise = new Promise<Void>();
+    private volatile ScheduledFuture<?> timeout;
+  }
+
+  private static class QueueWaiters {
+    private final AtomicLong version = new AtomicLong(0);
+    private final Set<Waiter> waiters =
+        Collections.newSetFromMap(new ConcurrentHashMap<Waiter, Boolean>());
+
+    /*
+     * Removes the waiter and satisfies its promise. Returns false if the waiter has already been
+     * woken up by someone else.
+     */
+    private boolean wake(Waiter waiter) {
+      if (!waiters.remove(waiter)) {
+        return false;
+      }
+      ScheduledFuture<?> timeout = waiter.timeout;
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      waiter.promise.setValue(null);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.twitter.ostrich.stats.Stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Garbage collects the SUCCEEDED or FAILED jobs of a single queue table for the queue monitors.
+ *
+ * By default, a monitor pass deletes at most ``updateMaxSize`` jobs per table. When a backlog
+ * threshold is configured, the drainer tracks the table's GC backlog, i.e. the number of finished
+ * jobs past their GC TTL. If the backlog exceeds the threshold, each visit of the table deletes up
+ * to ``MAX_CHUNKS_PER_VISIT`` chunks and reports that there is more to delete, so that the monitor
+ * queues the table again behind the other tables of its shard instead of the drain holding the
+ * shard's monitor connection until the deadline. The chunks of a visit are separated by a pause as
+ * long as the previous chunk took, so that the GC never keeps a table busy for more than half of
+ * the time. There is no pause after the last chunk, as the visit then leaves the shard to other
+ * tables anyway. The chunk size is halved when a chunk takes longer than the target latency and
+ * doubled, up to the max chunk size, when it takes less than half of it.
+ *
+ * Counting the backlog is expensive, so the count is kept between visits and runs, and only
+ * repeated every ``BACKLOG_COUNT_INTERVAL_MILLIS``. In between, the deleted jobs are subtracted
+ * from it.
+ *
+ * The backlog of each table and the drain rate are reported as the ``<queue>_<state>_gc_backlog``
+ * and ``<queue>_<state>_gc_drain_rate`` (jobs per second) metrics.
+ */
+public class DoneJobsGCDrainer {
+
+  private static final int MIN_CHUNK_SIZE = 10;
+  @VisibleForTesting
+  static final int MAX_CHUNKS_PER_VISIT = 4;
+  @VisibleForTesting
+  static final long BACKLOG_COUNT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final int updateMaxSize;
+  private final long backlogThreshold;
+  private final int maxChunkSize;
+  private final long targetChunkLatencyMillis;
+  // The backlog estimate and chunk size of each table, dropped for tables that are no longer
+  // visited, e.g. because their queue was deleted.
+  private final Cache<String, DrainState> drainStates = CacheBuilder.newBuilder()
+      .expireAfterAccess(1, TimeUnit.HOURS)
+      .build();
+
+  /**
+   * @param updateMaxSize            max number of jobs deleted by a regular GC pass.
+   * @param backlogThreshold         backlog above which the table is drained in chunks, or 0 to
+   *                                 disable draining.
+   * @param maxChunkSize             max number of jobs deleted by a single chunk.
+   * @param targetChunkLatencyMillis chunk latency above which the chunk size is reduced.
+   */
+  public DoneJobsGCDrainer(int updateMaxSize, long backlogThreshold, int maxChunkSize,
+                           long targetChunkLatencyMillis) {
+    Preconditions.checkArgument(backlogThreshold >= 0);
+    Preconditions.checkArgument(maxChunkSize >= MIN_CHUNK_SIZE);
+    Preconditions.checkArgument(targetChunkLatencyMillis > 0);
+    this.updateMaxSize = updateMaxSize;
+    this.backlogThreshold = backlogThreshold;
+    this.maxChunkSize = maxChunkSize;
+    this.targetChunkLatencyMillis = targetChunkLatencyMillis;
+  }
+
+  public boolean isEnabled() {
+    return backlogThreshold > 0;
+  }
+
+  /**
+   * Runs one visit of the GC of a table.
+   *
+   * @param statPrefix     prefix of the metrics, typically ``<queue>_<state>``.
+   * @param tableKey       identifies the table across runs, e.g. by shard, queue, priority and
+   *                       state.
+   * @param table          the table to garbage collect.
+   * @param deadlineMillis time after which no more chunks are deleted.
+   * @return the number of jobs deleted, and whether the table has more jobs to delete.
+   */
+  public Result gc(String statPrefix, String tableKey, Table table, long deadlineMillis)
+      throws Exception {
+    if (!isEnabled()) {
+      return regularGC(table);
+    }
+
+    long nowMillis = System.currentTimeMillis();
+    DrainState state = drainStates.getIfPresent(tableKey);
+    if (state == null || nowMillis - state.countedAtMillis >= BACKLOG_COUNT_INTERVAL_MILLIS) {
+      state = new DrainState(table.countBacklog(), nowMillis,
+          state == null ? maxChunkSize : state.chunkSize);
+      drainStates.put(tableKey, state);
+      Stats.addMetric(statPrefix + "_gc_backlog",
+          (int) Math.min(state.backlog, Integer.MAX_VALUE));
+    }
+    if (state.backlog <= backlogThreshold) {
+      Result result = regularGC(table);
+      state.backlog = Math.max(state.backlog - result.getNumDeleted(), 0);
+      return result;
+    }
+
+    Stats.incr("monitor-gc-drain");
+    long startMillis = System.currentTimeMillis();
+    int numDeleted = 0;
+    for (int numChunks = 0; numChunks < MAX_CHUNKS_PER_VISIT
+        && state.backlog > backlogThreshold
+        && System.currentTimeMillis() < deadlineMillis; numChunks++) {
+      long chunkStartMillis = System.currentTimeMillis();
+      int numChunkDeleted = table.deleteChunk(state.chunkSize);
+      long chunkLatencyMillis = System.currentTimeMillis() - chunkStartMillis;
+      Stats.incr("monitor-gc-drain-chunks");
+      if (numChunkDeleted == 0) {
+        // The count was higher than what is left to delete.
+        state.backlog = 0;
+        break;
+      }
+      numDeleted += numChunkDeleted;
+      state.backlog = Math.max(state.backlog - numChunkDeleted, 0);
+      state.chunkSize = nextChunkSize(state.chunkSize, chunkLatencyMillis);
+      if (numChunks + 1 >= MAX_CHUNKS_PER_VISIT
+          || state.backlog <= backlogThreshold
+          || System.currentTimeMillis() + chunkLatencyMillis >= deadlineMillis) {
+        break;
+      }
+      try {
+        Thread.sleep(chunkLatencyMillis);
+      } catch (InterruptedException e) {
+        // The monitor is being cancelled.
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    long elapsedMillis = Math.max(System.currentTimeMillis() - startMillis, 1);
+    Stats.addMetric(statPrefix + "_gc_drain_rate", (int) (numDeleted * 1000L / elapsedMillis));
+    return new Result(numDeleted, state.backlog > backlogThreshold);
+  }
+
+  private Result regularGC(Table table) throws Exception {
+    int numDeleted = table.deleteJobs(updateMaxSize);
+    return new Result(numDeleted, numDeleted >= updateMaxSize);
+  }
+
+  /*
+   * Returns the size of the chunk following one of ``chunkSize`` jobs that took
+   * ``chunkLatencyMillis``.
+   */
+  @VisibleForTesting
+  int nextChunkSize(int chunkSize, long chunkLatencyMillis) {
+    if (chunkLatencyMillis > targetChunkLatencyMillis) {
+      return Math.max(chunkSize / 2, MIN_CHUNK_SIZE);
+    } else if (chunkLatencyMillis < targetChunkLatencyMillis / 2) {
+      return Math.min(chunkSize * 2, maxChunkSize);
+    }
+    return chunkSize;
+  }
+
+  /**
+   * The outcome of one visit of a table.
+   */
+  public static class Result {
+
+    private final int numDeleted;
+    private final boolean hasMoreToDelete;
+
+    public Result(int numDeleted, boolean hasMoreToDelete) {
+      this.numDeleted = numDeleted;
+      this.hasMoreToDelete = hasMoreToDelete;
+    }
+
+    /**
+     * Returns the number of jobs deleted.
+     */
+    public int getNumDeleted() {
+      return numDeleted;
+    }
+
+    /**
+     * Returns whether the table may have jobs left to delete, in which case the monitor should
+     * visit it again.
+     */
+    public boolean hasMoreToDelete() {
+      return hasMoreToDelete;
+    }
+  }
+
+  /*
+   * What the drainer remembers about a table between visits. Only touched by the visits of its
+   * table, which never run concurrently.
+   */
+  private static class DrainState {
+
+    private volatile long backlog;
+    private final long countedAtMillis;
+    private volatile int chunkSize;
+
+    private DrainState(long backlog, long countedAtMillis, int chunkSize) {
+      this.backlog = backlog;
+      this.countedAtMillis = countedAtMillis;
+      this.chunkSize = chunkSize;
+    }
+  }
+
+  /**
+   * The finished jobs of a single state in a queue table.
+   */
+  public abstract static class Table {
+
+    /**
+     * Returns the number of jobs past their GC TTL. Backends may cap the count if counting is
+     * expensive.
+     */
+    public abstract long countBacklog() throws Exception;
+
+    /**
+     * Deletes up to ``limit`` jobs past their GC TTL, and returns the number of jobs deleted.
+     */
+    public abstract int deleteJobs(int limit) throws Exception;
+
+    /**
+     * Deletes one chunk of up to ``chunkSize`` jobs past their GC TTL while the table is being
+     * drained, and returns the number of jobs deleted. Defaults to ``deleteJobs``.
+     */
+    public int deleteChunk(int chunkSize) throws Exception {
+      return deleteJobs(chunkSize);
+    }
+  }
+}
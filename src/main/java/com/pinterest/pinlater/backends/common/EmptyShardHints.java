@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.base.Preconditions;
+import com.twitter.ostrich.stats.Stats;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which (queue, shard, priority) combinations recently had no jobs to dequeue, so that
+ * dequeue requests can skip them instead of querying the shard.
+ *
+ * A hint says "empty until time T". T is the earliest run_after of the pending jobs in that queue
+ * if the backend knows it, capped by ``ttlMillis``. The TTL bounds how long this server can miss
+ * jobs that were made available by other servers (enqueues, retries, monitor timeouts), while jobs
+ * made available through this server invalidate the hint right away.
+ *
+ * A dequeue that finds a shard empty may race with a job made pending through this server, whose
+ * invalidation would then be overwritten by the new hint. To avoid that, each combination has a
+ * version that ``onJobPending`` bumps. Dequeues read it with ``getVersion`` before querying the
+ * shard, and ``markEmpty`` drops the hint if the version has changed since.
+ *
+ * A TTL of 0 disables the hints, in which case every method is a no-op.
+ */
+public class EmptyShardHints {
+
+  private final long ttlMillis;
+  // Versions are unique across keys, so that a key that is removed and added again does not reuse
+  // a version that an in-flight dequeue may have read.
+  private final AtomicLong lastVersion = new AtomicLong(0);
+  private final ConcurrentMap<String, Hint> hintMap = new ConcurrentHashMap<String, Hint>();
+
+  public EmptyShardHints(long ttlMillis) {
+    Preconditions.checkArgument(ttlMillis >= 0);
+    this.ttlMillis = ttlMillis;
+  }
+
+  public boolean isEnabled() {
+    return ttlMillis > 0;
+  }
+
+  /**
+   * Returns whether the given queue is known to have no jobs ready to run in the given shard and
+   * priority at ``currentTimeMillis``.
+   */
+  public boolean isKnownEmpty(String queueName, String shardName, int priority,
+                              long currentTimeMillis) {
+    if (!isEnabled()) {
+      return false;
+    }
+    String key = constructKey(queueName, shardName, priority);
+    Hint hint = hintMap.get(key);
+    if (hint == null || hint.emptyUntilMillis == 0) {
+      Stats.incr("dequeue-empty-hint-miss");
+      return false;
+    }
+    if (hint.emptyUntilMillis <= currentTimeMillis) {
+      hintMap.replace(key, hint, new Hint(hint.version, 0));
+      Stats.incr("dequeue-empty-hint-expired");
+      return false;
+    }
+    Stats.incr("dequeue-empty-hint-hit");
+    return true;
+  }
+
+  /**
+   * Returns the current version of the given queue, shard and priority, to be passed to
+   * ``markEmpty`` if the dequeue that follows finds no jobs.
+   */
+  public long getVersion(String queueName, String shardName, int priority) {
+    if (!isEnabled()) {
+      return 0;
+    }
+    String key = constructKey(queueName, shardName, priority);
+    while (true) {
+      Hint hint = hintMap.get(key);
+      if (hint != null) {
+        return hint.version;
+      }
+      hintMap.putIfAbsent(key, new Hint(lastVersion.incrementAndGet(), 0));
+    }
+  }
+
+  /**
+   * Records that a dequeue found no jobs in the given queue, shard and priority, unless a job was
+   * made pending there since the dequeue read ``version``.
+   *
+   * @param version the version returned by ``getVersion`` before the dequeue.
+   * @param nextRunAfterMillis earliest run_after of the pending jobs, or null if it is unknown or
+   *                           there are no pending jobs at all.
+   */
+  public void markEmpty(String queueName, String shardName, int priority, long version,
+                        Long nextRunAfterMillis, long currentTimeMillis) {
+    if (!isEnabled()) {
+      return;
+    }
+    long emptyUntilMillis = currentTimeMillis + ttlMillis;
+    if (nextRunAfterMillis != null) {
+      emptyUntilMillis = Math.min(emptyUntilMillis, nextRunAfterMillis);
+    }
+    if (emptyUntilMillis <= currentTimeMillis) {
+      return;
+    }
+    String key = constructKey(queueName, shardName, priority);
+    while (true) {
+      Hint hint = hintMap.get(key);
+      if (hint == null || hint.version != version) {
+        Stats.incr("dequeue-empty-hint-stale");
+        return;
+      }
+      if (hintMap.replace(key, hint, new Hint(version, emptyUntilMillis))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Records that a job becomes runnable at ``runAfterMillis`` in the given queue, shard and
+   * priority, e.g. because it was enqueued, retried or checkpointed back to pending through this
+   * server. Shortens or removes the existing hint accordingly, and keeps the dequeues in flight
+   * from adding one.
+   */
+  public void onJobPending(String queueName, String shardName, int priority,
+                           long runAfterMillis, long currentTimeMillis) {
+    if (!isEnabled()) {
+      return;
+    }
+    String key = constructKey(queueName, shardName, priority);
+    while (true) {
+      Hint hint = hintMap.get(key);
+      if (hint == null) {
+        // No dequeue has read a version since the key was last removed.
+        return;
+      }
+      long emptyUntilMillis = hint.emptyUntilMillis;
+      boolean invalidated = emptyUntilMillis > runAfterMillis;
+      if (invalidated) {
+        emptyUntilMillis = runAfterMillis <= currentTimeMillis ? 0 : runAfterMillis;
+      }
+      if (hintMap.replace(key, hint, new Hint(lastVersion.incrementAndGet(), emptyUntilMillis))) {
+        if (invalidated) {
+          Stats.incr("dequeue-empty-hint-invalidated");
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes all the hints of the given queue.
+   */
+  public void invalidateQueue(String queueName) {
+    if (!isEnabled()) {
+      return;
+    }
+    String keyPrefix = queueName + ":";
+    Iterator<String> iterator = hintMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().startsWith(keyPrefix)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static String constructKey(String queueName, String shardName, int priority) {
+    return queueName + ":" + shardName + ":" + priority;
+  }
+
+  /*
+   * The hint of a key and its version, replaced as a whole so that both change together. An
+   * ``emptyUntilMillis`` of 0 means that there is no hint.
+   */
+  private static class Hint {
+
+    private final long version;
+    private final long emptyUntilMillis;
+
+    private Hint(long version, long emptyUntilMillis) {
+      this.version = version;
+      this.emptyUntilMillis = emptyUntilMillis;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread pool behind the future pool of a backend, which runs the blocking calls to the
+ * storage. It holds ``threadsPerShard`` threads for every shard, i.e. one thread for every
+ * connection the backend can open.
+ *
+ * Two strategies are supported:
+ *   - ``fixed``: the pool keeps the size it was created with, even when shards are added later.
+ *   - ``resizable``: ``resize`` follows the number of shards, so that shards added by a config
+ *     update get their share of threads instead of competing for the existing ones.
+ */
+public class FuturePoolExecutor {
+
+  public static final String FIXED = "fixed";
+  public static final String RESIZABLE = "resizable";
+
+  private final String name;
+  private final boolean resizable;
+  private final int threadsPerShard;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Creates the thread pool.
+   *
+   * @param name name of the backend, used for the thread names and the stats.
+   * @param strategy ``fixed`` or ``resizable``.
+   * @param threadsPerShard number of threads for each shard.
+   * @param numShards initial number of shards.
+   */
+  public FuturePoolExecutor(String name, String strategy, int threadsPerShard, int numShards) {
+    Preconditions.checkArgument(FIXED.equals(strategy) || RESIZABLE.equals(strategy),
+        "Unknown future pool strategy: %s", strategy);
+    Preconditions.checkArgument(threadsPerShard > 0);
+    this.name = Preconditions.checkNotNull(name);
+    this.resizable = RESIZABLE.equals(strategy);
+    this.threadsPerShard = threadsPerShard;
+    int poolSize = getPoolSize(numShards);
+    this.executor = new ThreadPoolExecutor(
+        poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "FuturePool-%d").build());
+
+    Stats.setGauge(name + "-future-pool-size", poolSize);
+  }
+
+  public ExecutorService getExecutorService() {
+    return executor;
+  }
+
+  /**
+   * Sizes the pool for ``numShards`` shards. A no-op for the ``fixed`` strategy. Threads that are
+   * no longer needed exit once they finish their current task.
+   */
+  public synchronized void resize(int numShards) {
+    if (!resizable) {
+      return;
+    }
+    int poolSize = getPoolSize(numShards);
+    if (poolSize == executor.getMaximumPoolSize()) {
+      return;
+    }
+    // The core size can never exceed the maximum size, so the order depends on the direction.
+    if (poolSize > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(poolSize);
+      executor.setCorePoolSize(poolSize);
+    } else {
+      executor.setCorePoolSize(poolSize);
+      executor.setMaximumPoolSize(poolSize);
+    }
+    Stats.incr(name + "-future-pool-resized");
+    Stats.setGauge(name + "-future-pool-size", poolSize);
+  }
+
+  private int getPoolSize(int numShards) {
+    // Keep at least one thread so that the pool can run tasks while the shard map is empty.
+    return Math.max(1, threadsPerShard * numShards);
+  }
+}
@@ -17,14 +17,27 @@
 package com.pinterest.pinlater.backends.common;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.twitter.common.base.MorePreconditions;
 
 /**
  * Helper class used by the different backends to encapsulate routines dealing
  * with job descriptors.
+ *
+ * Job descriptors are formatted and parsed at least once for every job that is enqueued, dequeued,
+ * acked, checkpointed or looked up, so both directions are hand-rolled to avoid the intermediate
+ * arrays, regexes and format strings of the obvious implementation. Queue and shard names repeat
+ * across almost all descriptors and are interned, so that parsed descriptors share them.
  */
 public class PinLaterJobDescriptor {
 
+  private static final char SEPARATOR = ':';
+  private static final char SHARD_PREFIX = 's';
+  private static final char PRIORITY_PREFIX = 'p';
+
+  private static final Interner<String> NAME_INTERNER = Interners.newWeakInterner();
+
   private final String queueName;
   private final String shardName;
   private final int priority;
@@ -41,20 +54,63 @@ public class PinLaterJobDescriptor {
 
     // NOTE: Queue names are restricted to alphanumeric + underscores by API contract, enforced
     // above the backend layer. We don't re-enforce in this class for performance reasons.
-    this.formattedString = String.format("%s:s%s:p%d:%d", queueName, shardName, priority, localId);
+    // The extra capacity covers the separators, the prefixes and the longest int and long.
+    this.formattedString = new StringBuilder(queueName.length() + shardName.length() + 34)
+        .append(queueName)
+        .append(SEPARATOR).append(SHARD_PREFIX).append(shardName)
+        .append(SEPARATOR).append(PRIORITY_PREFIX).append(priority)
+        .append(SEPARATOR).append(localId)
+        .toString();
   }
 
   public PinLaterJobDescriptor(String jobDescriptor) {
     this.formattedString = MorePreconditions.checkNotBlank(jobDescriptor);
 
-    String[] tokens = jobDescriptor.split(":");
-    Preconditions.checkArgument(tokens.length == 4);
+    // Format: <queue>:s<shard>:p<priority>:<localId>
+    int shardStart = jobDescriptor.indexOf(SEPARATOR) + 1;
+    int priorityStart = jobDescriptor.indexOf(SEPARATOR, shardStart) + 1;
+    int localIdStart = priorityStart > 0 ? jobDescriptor.indexOf(SEPARATOR, priorityStart) + 1 : 0;
+    if (shardStart <= 1
+        || priorityStart <= shardStart + 2
+        || localIdStart <= priorityStart + 2
+        || localIdStart >= jobDescriptor.length()
+        || jobDescriptor.indexOf(SEPARATOR, localIdStart) >= 0
+        || jobDescriptor.charAt(shardStart) != SHARD_PREFIX
+        || jobDescriptor.charAt(priorityStart) != PRIORITY_PREFIX) {
+      throw malformed(jobDescriptor);
+    }
 
-    this.queueName = tokens[0];
-    this.shardName = tokens[1].substring(1);
-    this.priority = Integer.parseInt(tokens[2].substring(1));
-    this.localId = Long.parseLong(tokens[3]);
+    this.queueName = NAME_INTERNER.intern(jobDescriptor.substring(0, shardStart - 1));
+    this.shardName = NAME_INTERNER.intern(
+        jobDescriptor.substring(shardStart + 1, priorityStart - 1));
+    long parsedPriority = parseDigits(jobDescriptor, priorityStart + 1, localIdStart - 1);
+    if (parsedPriority > Integer.MAX_VALUE) {
+      throw malformed(jobDescriptor);
+    }
+    this.priority = (int) parsedPriority;
+    this.localId = parseDigits(jobDescriptor, localIdStart, jobDescriptor.length());
+  }
+
+  /*
+   * Parses the non-negative decimal number in ``str`` between ``start`` (inclusive) and ``end``
+   * (exclusive) without creating a substring. The precondition checks are spelled out rather than
+   * using ``Preconditions`` so that no varargs array is allocated per call. Numbers that do not
+   * fit in a long are rejected.
+   */
+  private static long parseDigits(String str, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = str.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+        throw malformed(str);
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
 
+  private static IllegalArgumentException malformed(String jobDescriptor) {
+    return new IllegalArgumentException("Malformed job descriptor: " + jobDescriptor);
   }
 
   public String toString() {
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Function;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import com.twitter.util.Try;
+import scala.runtime.BoxedUnit;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedges read-only backend calls: if a call has not completed after the ``percentile``-th
+ * percentile of the recent latencies of the same operation, the call is issued a second time and
+ * whichever attempt completes first wins. This bounds the tail latency that a single stalled
+ * connection or a backlog in the future pool adds to a request, at the cost of roughly
+ * ``100 - percentile`` percent more calls.
+ *
+ * That cost is also a hard cap: each call of an operation earns ``(100 - percentile) / 100``
+ * hedge tokens, up to as many as a window of calls would earn, and a hedge is skipped unless it
+ * can spend a whole token. When the backend slows down as a whole, most calls exceed the delay,
+ * and without the cap hedging would double the load on it.
+ *
+ * Latencies are measured from when a call is issued, so that they include the time spent waiting
+ * for a future pool thread or a connection, and only the first attempt of each call is recorded,
+ * so that hedges do not pull the delay down. No call is hedged until a tenth of the window has
+ * been filled.
+ *
+ * Only calls that are safe to repeat may be hedged. A percentile of 0 disables hedging, in which
+ * case calls go straight to the future pool.
+ */
+public class RequestHedger {
+
+  private final double percentile;
+  private final int windowSize;
+  private final long minDelayMillis;
+  private final ScheduledThreadPoolExecutor timer;
+  private final ConcurrentMap<String, LatencyWindow> latencyWindowMap =
+      new ConcurrentHashMap<String, LatencyWindow>();
+
+  public RequestHedger(String name, double percentile, int windowSize, long minDelayMillis) {
+    Preconditions.checkArgument(percentile >= 0 && percentile < 100);
+    Preconditions.checkArgument(windowSize >= 10);
+    Preconditions.checkArgument(minDelayMillis >= 0);
+    this.percentile = percentile;
+    this.windowSize = windowSize;
+    this.minDelayMillis = minDelayMillis;
+    this.timer = new ScheduledThreadPoolExecutor(
+        1,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "RequestHedger-%d")
+            .build());
+    // Most calls complete before their hedge is due, so avoid keeping the cancelled hedges around
+    // until they expire.
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  public boolean isEnabled() {
+    return percentile > 0;
+  }
+
+  /**
+   * Stops the hedge timer. Calls issued afterwards are no longer hedged.
+   */
+  public void shutdown() {
+    timer.shutdownNow();
+  }
+
+  /**
+   * Issues ``call``, and issues it again if it is slower than usual for ``operation``. The returned
+   * future is satisfied by the first attempt that completes, even if it failed.
+   */
+  public <T> Future<T> apply(final String operation, final Function0<Future<T>> call) {
+    if (!isEnabled()) {
+      return call.apply();
+    }
+    final LatencyWindow latencyWindow = getLatencyWindow(operation);
+    final long startNanos = System.nanoTime();
+    final Promise<T> promise = new Promise<T>();
+    call.apply().respond(new Function<Try<T>, BoxedUnit>() {
+      @Override
+      public BoxedUnit apply(Try<T> result) {
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        long delayMicros = latencyWindow.record(latencyMicros);
+        if (delayMicros >= 0) {
+          Stats.setGauge("hedge-" + operation + "-delay-ms", delayMicros / 1000.0);
+        }
+        promise.updateIfEmpty(result);
+        return BoxedUnit.UNIT;
+      }
+    });
+
+    latencyWindow.earnHedgeTokens();
+    long delayMicros = latencyWindow.getDelayMicros();
+    if (delayMicros < 0 || promise.isDefined() || timer.isShutdown()) {
+      return promise;
+    }
+    final ScheduledFuture<?> hedge = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (promise.isDefined()) {
+          return;
+        }
+        if (!latencyWindow.spendHedgeToken()) {
+          Stats.incr("hedge-" + operation + "-over-budget");
+          return;
+        }
+        Stats.incr("hedge-" + operation + "-sent");
+        call.apply().respond(new Function<Try<T>, BoxedUnit>() {
+          @Override
+          public BoxedUnit apply(Try<T> result) {
+            if (promise.updateIfEmpty(result)) {
+              Stats.incr("hedge-" + operation + "-won");
+            }
+            return BoxedUnit.UNIT;
+          }
+        });
+      }
+    }, Math.max(delayMicros, TimeUnit.MILLISECONDS.toMicros(minDelayMillis)),
+        TimeUnit.MICROSECONDS);
+    promise.respond(new Function<Try<T>, BoxedUnit>() {
+      @Override
+      public BoxedUnit apply(Try<T> result) {
+        hedge.cancel(false);
+        return BoxedUnit.UNIT;
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * Returns the current hedge delay of the given operation in microseconds, or -1 if the operation
+   * does not have enough samples yet.
+   */
+  @VisibleForTesting
+  long getDelayMicros(String operation) {
+    return getLatencyWindow(operation).getDelayMicros();
+  }
+
+  @VisibleForTesting
+  void record(String operation, long latencyMicros) {
+    getLatencyWindow(operation).record(latencyMicros);
+  }
+
+  private LatencyWindow getLatencyWindow(String operation) {
+    LatencyWindow latencyWindow = latencyWindowMap.get(operation);
+    if (latencyWindow == null) {
+      latencyWindowMap.putIfAbsent(operation, new LatencyWindow(windowSize, percentile));
+      latencyWindow = latencyWindowMap.get(operation);
+    }
+    return latencyWindow;
+  }
+
+  /*
+   * The last ``windowSize`` latencies of an operation in a ring buffer, and its hedge tokens. The
+   * percentile is recomputed every tenth of the window rather than on every call, as it requires a
+   * sort.
+   */
+  private static class LatencyWindow {
+
+    private final long[] latenciesMicros;
+    private final double percentile;
+    private final int recomputeInterval;
+    private final double hedgeTokensPerCall;
+    private final double maxHedgeTokens;
+    private long numSamples = 0;
+    private volatile long delayMicros = -1;
+    // Guarded by the window. Starts full, so that the first slow calls can be hedged.
+    private double hedgeTokens;
+
+    private LatencyWindow(int windowSize, double percentile) {
+      this.latenciesMicros = new long[windowSize];
+      this.percentile = percentile;
+      this.recomputeInterval = windowSize / 10;
+      this.hedgeTokensPerCall = (100 - percentile) / 100;
+      this.maxHedgeTokens = Math.max(1, hedgeTokensPerCall * windowSize);
+      this.hedgeTokens = maxHedgeTokens;
+    }
+
+    private synchronized void earnHedgeTokens() {
+      hedgeTokens = Math.min(maxHedgeTokens, hedgeTokens + hedgeTokensPerCall);
+    }
+
+    private synchronized boolean spendHedgeToken() {
+      if (hedgeTokens < 1) {
+        return false;
+      }
+      hedgeTokens--;
+      return true;
+    }
+
+    /*
+     * Records a latency and returns the new delay if it was recomputed, or -1 otherwise.
+     */
+    private synchronized long record(long latencyMicros) {
+      latenciesMicros[(int) (numSamples % latenciesMicros.length)] = latencyMicros;
+      numSamples++;
+      if (numSamples % recomputeInterval != 0) {
+        return -1;
+      }
+      int size = (int) Math.min(numSamples, latenciesMicros.length);
+      long[] sorted = Arrays.copyOf(latenciesMicros, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * size) - 1;
+      delayMicros = sorted[Math.max(0, Math.min(index, size - 1))];
+      return delayMicros;
+    }
+
+    private long getDelayMicros() {
+      return delayMicros;
+    }
+  }
+}
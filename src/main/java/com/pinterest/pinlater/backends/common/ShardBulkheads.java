@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.pinterest.pinlater.thrift.ErrorCode;
+import com.pinterest.pinlater.thrift.PinLaterException;
+
+import com.google.common.base.Preconditions;
+import com.twitter.concurrent.AsyncSemaphore;
+import com.twitter.concurrent.Permit;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Function;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
+import com.twitter.util.Try;
+import scala.runtime.BoxedUnit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounds the calls in flight to each shard, so that a slow shard cannot take every thread of the
+ * future pool and starve the healthy ones.
+ *
+ * Each shard gets ``maxConcurrentPerShard`` permits. Calls beyond that wait for a permit in a
+ * queue of at most ``maxQueuedPerShard`` calls, outside of the future pool. Calls that find the
+ * queue full fail right away with SHARD_OVERLOADED instead of adding to the pile up.
+ *
+ * A ``maxConcurrentPerShard`` of 0 disables the bulkheads, in which case calls are made directly.
+ */
+public class ShardBulkheads {
+
+  private final String name;
+  private final int maxConcurrentPerShard;
+  private final int maxQueuedPerShard;
+  private final ConcurrentMap<String, AsyncSemaphore> semaphoreMap =
+      new ConcurrentHashMap<String, AsyncSemaphore>();
+
+  public ShardBulkheads(String name, int maxConcurrentPerShard, int maxQueuedPerShard) {
+    Preconditions.checkArgument(maxConcurrentPerShard >= 0);
+    Preconditions.checkArgument(maxQueuedPerShard >= 0);
+    this.name = Preconditions.checkNotNull(name);
+    this.maxConcurrentPerShard = maxConcurrentPerShard;
+    this.maxQueuedPerShard = maxQueuedPerShard;
+  }
+
+  public boolean isEnabled() {
+    return maxConcurrentPerShard > 0;
+  }
+
+  /**
+   * Makes ``call`` to the given shard once the shard has a free permit, and holds the permit until
+   * the returned future is satisfied.
+   */
+  public <T> Future<T> apply(final String shardName, final Function0<Future<T>> call) {
+    if (!isEnabled()) {
+      return call.apply();
+    }
+    final AsyncSemaphore semaphore = getSemaphore(shardName);
+    Future<Permit> permitFuture = semaphore.acquire();
+    updateGauges(shardName, semaphore);
+    return permitFuture.rescue(new Function<Throwable, Future<Permit>>() {
+      @Override
+      public Future<Permit> apply(Throwable t) {
+        if (!(t instanceof RejectedExecutionException)) {
+          return Future.exception(t);
+        }
+        Stats.incr(String.format("%s-bulkhead-rejected-%s", name, shardName));
+        return Future.exception(new PinLaterException(ErrorCode.SHARD_OVERLOADED,
+            String.format("Too many calls queued for shard %s", shardName)));
+      }
+    }).flatMap(new Function<Permit, Future<T>>() {
+      @Override
+      public Future<T> apply(final Permit permit) {
+        updateGauges(shardName, semaphore);
+        Future<T> future;
+        try {
+          future = call.apply();
+        } catch (RuntimeException e) {
+          future = Future.exception(e);
+        }
+        return future.respond(new Function<Try<T>, BoxedUnit>() {
+          @Override
+          public BoxedUnit apply(Try<T> t) {
+            permit.release();
+            updateGauges(shardName, semaphore);
+            return BoxedUnit.UNIT;
+          }
+        });
+      }
+    });
+  }
+
+  private AsyncSemaphore getSemaphore(String shardName) {
+    AsyncSemaphore semaphore = semaphoreMap.get(shardName);
+    if (semaphore == null) {
+      // Shards can be added at any time by a config update, so semaphores are created on demand.
+      semaphoreMap.putIfAbsent(
+          shardName, new AsyncSemaphore(maxConcurrentPerShard, maxQueuedPerShard));
+      semaphore = semaphoreMap.get(shardName);
+    }
+    return semaphore;
+  }
+
+  private void updateGauges(String shardName, AsyncSemaphore semaphore) {
+    Stats.setGauge(String.format("%s-bulkhead-in-flight-%s", name, shardName),
+        maxConcurrentPerShard - semaphore.numPermitsAvailable());
+    Stats.setGauge(String.format("%s-bulkhead-queued-%s", name, shardName),
+        semaphore.numWaiters());
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.twitter.ostrich.stats.Stats;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks an exponentially weighted moving average (EWMA) of the latency of the calls to each
+ * shard, so that dequeues can visit the shards that are much slower than the rest last.
+ *
+ * A shard is slow when its EWMA is more than ``slowShardFactor`` times the median EWMA of the
+ * shards. Shards need ``minSamples`` calls before they are judged or count towards the median.
+ * Moving slow shards to the back of a dequeue means they are only visited when the faster shards
+ * cannot fill the request, and not at all when the request covers fewer shards than there are.
+ * To keep a slow shard from being starved of dequeues, and to notice when it recovers, a
+ * ``probeRatio`` share of the requests leave the shards in their random order.
+ *
+ * A factor of 0 disables the tracking, in which case every method is a no-op.
+ */
+public class ShardLatencyTracker {
+
+  private final double ewmaAlpha;
+  private final double slowShardFactor;
+  private final int minSamples;
+  private final double probeRatio;
+  private final Random random;
+  private final ConcurrentMap<String, ShardLatency> shardLatencyMap =
+      new ConcurrentHashMap<String, ShardLatency>();
+
+  public ShardLatencyTracker(double ewmaAlpha,
+                             double slowShardFactor,
+                             int minSamples,
+                             double probeRatio,
+                             Random random) {
+    Preconditions.checkArgument(ewmaAlpha > 0 && ewmaAlpha <= 1);
+    Preconditions.checkArgument(slowShardFactor == 0 || slowShardFactor > 1);
+    Preconditions.checkArgument(minSamples >= 1);
+    Preconditions.checkArgument(probeRatio >= 0 && probeRatio <= 1);
+    this.ewmaAlpha = ewmaAlpha;
+    this.slowShardFactor = slowShardFactor;
+    this.minSamples = minSamples;
+    this.probeRatio = probeRatio;
+    this.random = Preconditions.checkNotNull(random);
+  }
+
+  public boolean isEnabled() {
+    return slowShardFactor > 0;
+  }
+
+  /**
+   * Records the latency of a call to the given shard.
+   */
+  public void record(String shardName, long latencyMicros) {
+    if (!isEnabled()) {
+      return;
+    }
+    ShardLatency shardLatency = shardLatencyMap.get(shardName);
+    if (shardLatency == null) {
+      shardLatencyMap.putIfAbsent(shardName, new ShardLatency());
+      shardLatency = shardLatencyMap.get(shardName);
+    }
+    double ewmaMicros = shardLatency.update(latencyMicros, ewmaAlpha);
+    Stats.setGauge("shard-latency-ewma-ms-" + shardName, ewmaMicros / 1000);
+  }
+
+  /**
+   * Returns the given shards, in the same order but with the slow ones moved to the back.
+   */
+  public List<String> deprioritizeSlowShards(List<String> shardNames) {
+    if (!isEnabled()) {
+      return shardNames;
+    }
+    if (probeRatio > 0 && random.nextDouble() < probeRatio) {
+      Stats.incr("shard-latency-probe");
+      return shardNames;
+    }
+    double medianMicros = getMedianEwmaMicros();
+    if (medianMicros < 0) {
+      return shardNames;
+    }
+    List<String> fastShards = Lists.newArrayListWithCapacity(shardNames.size());
+    List<String> slowShards = Lists.newArrayList();
+    for (String shardName : shardNames) {
+      if (isSlow(shardName, medianMicros)) {
+        slowShards.add(shardName);
+        Stats.incr("shard-latency-deprioritized-" + shardName);
+      } else {
+        fastShards.add(shardName);
+      }
+    }
+    fastShards.addAll(slowShards);
+    return fastShards;
+  }
+
+  @VisibleForTesting
+  boolean isSlow(String shardName) {
+    double medianMicros = getMedianEwmaMicros();
+    return medianMicros >= 0 && isSlow(shardName, medianMicros);
+  }
+
+  private boolean isSlow(String shardName, double medianMicros) {
+    ShardLatency shardLatency = shardLatencyMap.get(shardName);
+    return shardLatency != null && shardLatency.getNumSamples() >= minSamples
+        && shardLatency.getEwmaMicros() > slowShardFactor * medianMicros;
+  }
+
+  /*
+   * Returns the median EWMA of the shards with enough samples, or -1 if there are fewer than
+   * two such shards to compare.
+   */
+  private double getMedianEwmaMicros() {
+    List<Double> ewmas = Lists.newArrayListWithCapacity(shardLatencyMap.size());
+    for (ShardLatency shardLatency : shardLatencyMap.values()) {
+      if (shardLatency.getNumSamples() >= minSamples) {
+        ewmas.add(shardLatency.getEwmaMicros());
+      }
+    }
+    if (ewmas.size() < 2) {
+      return -1;
+    }
+    Collections.sort(ewmas);
+    int middle = ewmas.size() / 2;
+    return ewmas.size() % 2 == 1 ? ewmas.get(middle)
+                                 : (ewmas.get(middle - 1) + ewmas.get(middle)) / 2;
+  }
+
+  private static class ShardLatency {
+
+    private long numSamples = 0;
+    private double ewmaMicros = 0;
+
+    private synchronized double update(long latencyMicros, double alpha) {
+      // Start from the first sample rather than from 0, so that new shards are not judged fast.
+      ewmaMicros = numSamples == 0
+          ? latencyMicros : ewmaMicros + alpha * (latencyMicros - ewmaMicros);
+      numSamples++;
+      return ewmaMicros;
+    }
+
+    private synchronized long getNumSamples() {
+      return numSamples;
+    }
+
+    private synchronized double getEwmaMicros() {
+      return ewmaMicros;
+    }
+  }
+}
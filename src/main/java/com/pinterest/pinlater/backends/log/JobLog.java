@@ -0,0 +1,416 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A segmented, append-only log of records, kept in memory-mapped files in a directory.
+ *
+ * Each segment is a file preallocated to ``segmentSizeBytes`` and mapped into memory. Records are
+ * appended to the last segment as frames of (length, CRC32, payload), and a new segment is started
+ * when a record does not fit. A record is addressed by its location, the segment id in the high
+ * 32 bits and the offset in the segment in the low ones, so locations grow in log order.
+ *
+ * Appends only write to the mapped memory. ``sync`` flushes them to disk, and concurrent callers
+ * share a single flush (group commit): a caller whose records were covered by a flush that
+ * started after they were appended returns without flushing again.
+ *
+ * The log also counts the live records and the tombstones of each segment, as told by its owner,
+ * so that the owner can compact the segments that are mostly dead by moving their live records to
+ * the end of the log and deleting them. Tombstones have to be moved as well, except out of the
+ * oldest segment, where the records they supersede are known to be gone with them.
+ */
+public class JobLog {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JobLog.class);
+
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+  private static final String SEGMENT_FILE_SUFFIX = ".log";
+  // Length and CRC32 of the payload.
+  private static final int FRAME_HEADER_BYTES = 8;
+
+  /**
+   * Receives the records of the log, in log order.
+   */
+  public interface RecordHandler {
+
+    void handle(long location, byte[] payload) throws Exception;
+  }
+
+  private final File directory;
+  private final int segmentSizeBytes;
+  private final TreeMap<Integer, Segment> segments = Maps.newTreeMap();
+  private Segment activeSegment;
+
+  private final Object syncLock = new Object();
+  // Location up to which the log is known to be on disk. Guarded by syncLock.
+  private long syncedLocation = -1;
+
+  /**
+   * Opens the log in the given directory, creating it if needed, and replays the records of the
+   * existing segments to ``recoveryHandler``. The replayed records are counted as dead until
+   * ``markLive`` or ``markTombstone`` is called for them.
+   *
+   * A frame that is cut short or does not match its checksum ends the last segment: that is the
+   * tail of an append interrupted by a crash, and it is overwritten by the next append. Earlier
+   * segments were flushed before the next one was started, so such a frame in one of them means
+   * the file is corrupt, and an ``IOException`` is thrown rather than losing the records after it.
+   */
+  public JobLog(File directory,
+                int segmentSizeBytes,
+                RecordHandler recoveryHandler) throws Exception {
+    Preconditions.checkArgument(segmentSizeBytes > FRAME_HEADER_BYTES);
+    this.directory = Preconditions.checkNotNull(directory);
+    this.segmentSizeBytes = segmentSizeBytes;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create log directory: " + directory);
+    }
+
+    File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      String name = file.getName();
+      if (name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX)) {
+        int segmentId = Integer.parseInt(name.substring(
+            SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+        segments.put(segmentId, Segment.open(segmentId, file));
+      }
+    }
+    for (Segment segment : segments.values()) {
+      segment.recover(recoveryHandler, segment.segmentId == segments.lastKey());
+    }
+
+    if (segments.isEmpty()) {
+      activeSegment = createSegment(0, segmentSizeBytes);
+    } else {
+      activeSegment = segments.lastEntry().getValue();
+      activeSegment.clearTail();
+    }
+  }
+
+  /**
+   * Appends a live record to the log and returns its location.
+   */
+  public long append(byte[] payload) throws IOException {
+    return appendFrame(payload, false);
+  }
+
+  /**
+   * Appends a tombstone to the log and returns its location.
+   */
+  public long appendTombstone(byte[] payload) throws IOException {
+    return appendFrame(payload, true);
+  }
+
+  private synchronized long appendFrame(byte[] payload, boolean isTombstone) throws IOException {
+    int frameBytes = FRAME_HEADER_BYTES + payload.length;
+    if (activeSegment.endOffset + frameBytes > activeSegment.sizeBytes) {
+      // Flush the full segment before moving on, so that ``sync`` only ever needs to flush the
+      // active one.
+      activeSegment.buffer.force();
+      activeSegment = createSegment(
+          activeSegment.segmentId + 1, Math.max(segmentSizeBytes, frameBytes));
+    }
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    int offset = activeSegment.endOffset;
+    ByteBuffer buffer = activeSegment.buffer;
+    buffer.position(offset);
+    buffer.putInt(payload.length);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(payload);
+    activeSegment.endOffset += frameBytes;
+    activeSegment.numRecords++;
+    if (isTombstone) {
+      activeSegment.numTombstones++;
+    } else {
+      activeSegment.numLiveRecords++;
+    }
+    return toLocation(activeSegment.segmentId, offset);
+  }
+
+  /**
+   * Flushes the records appended so far to disk, unless a concurrent flush already did.
+   */
+  public void sync() throws IOException {
+    long endLocation = getEndLocation();
+    synchronized (syncLock) {
+      if (syncedLocation >= endLocation) {
+        return;
+      }
+      Segment segment;
+      synchronized (this) {
+        segment = activeSegment;
+        endLocation = getEndLocation();
+      }
+      segment.buffer.force();
+      syncedLocation = endLocation;
+    }
+  }
+
+  /**
+   * Marks the record at ``location`` as live, e.g. a record replayed at recovery that is still
+   * part of the state.
+   */
+  public synchronized void markLive(long location) {
+    Segment segment = segments.get(getSegmentId(location));
+    if (segment != null) {
+      segment.numLiveRecords++;
+    }
+  }
+
+  /**
+   * Marks the record at ``location`` as a tombstone, e.g. a tombstone replayed at recovery.
+   */
+  public synchronized void markTombstone(long location) {
+    Segment segment = segments.get(getSegmentId(location));
+    if (segment != null) {
+      segment.numTombstones++;
+    }
+  }
+
+  /**
+   * Marks the live record at ``location`` as dead, i.e. superseded by a later record.
+   */
+  public synchronized void markDead(long location) {
+    Segment segment = segments.get(getSegmentId(location));
+    if (segment != null) {
+      segment.numLiveRecords--;
+    }
+  }
+
+  /**
+   * Returns the ids of the full segments where the share of the records that compaction would
+   * have to move is below ``maxLiveRatio``, oldest first.
+   */
+  public synchronized List<Integer> getSegmentsToCompact(double maxLiveRatio) {
+    List<Integer> segmentIds = Lists.newArrayList();
+    int oldestSegmentId = segments.firstKey();
+    for (Segment segment : segments.values()) {
+      int numToMove = segment.numLiveRecords
+          + (segment.segmentId == oldestSegmentId ? 0 : segment.numTombstones);
+      if (segment != activeSegment && numToMove < maxLiveRatio * segment.numRecords) {
+        segmentIds.add(segment.segmentId);
+      }
+    }
+    return segmentIds;
+  }
+
+  /**
+   * Returns whether the given segment is the first one of the log.
+   */
+  public synchronized boolean isOldestSegment(int segmentId) {
+    return segments.firstKey() == segmentId;
+  }
+
+  /**
+   * Reads the records of a full segment, in order. Throws an ``IOException`` if the segment is
+   * corrupt.
+   */
+  public void readSegment(int segmentId, RecordHandler handler) throws Exception {
+    Segment segment;
+    synchronized (this) {
+      segment = segments.get(segmentId);
+      Preconditions.checkArgument(segment != null && segment != activeSegment,
+          "Not a full segment: %s", segmentId);
+    }
+    segment.read(handler, false);
+  }
+
+  /**
+   * Deletes a full segment, once its live records have been appended again. The log is synced
+   * first, so that the moved records are on disk before the originals are gone.
+   */
+  public void deleteSegment(int segmentId) throws IOException {
+    sync();
+    Segment segment;
+    synchronized (this) {
+      segment = segments.get(segmentId);
+      Preconditions.checkArgument(segment != null && segment != activeSegment,
+          "Not a full segment: %s", segmentId);
+      segments.remove(segmentId);
+    }
+    // The mapping stays valid until the buffer is garbage collected, which is fine since no one
+    // reads the segment any more.
+    if (!segment.file.delete()) {
+      LOG.warn("Could not delete log segment: {}", segment.file);
+    }
+  }
+
+  /**
+   * Returns the ids of the segments of the log, oldest first.
+   */
+  public synchronized List<Integer> getSegmentIds() {
+    return ImmutableList.copyOf(segments.keySet());
+  }
+
+  public static int getSegmentId(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private long getEndLocation() {
+    synchronized (this) {
+      return toLocation(activeSegment.segmentId, activeSegment.endOffset);
+    }
+  }
+
+  private Segment createSegment(int segmentId, int sizeBytes) throws IOException {
+    File file = new File(directory,
+        String.format("%s%010d%s", SEGMENT_FILE_PREFIX, segmentId, SEGMENT_FILE_SUFFIX));
+    Segment segment = new Segment(segmentId, file, map(file, sizeBytes), sizeBytes);
+    segments.put(segmentId, segment);
+    return segment;
+  }
+
+  private static MappedByteBuffer map(File file, long sizeBytes) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      if (randomAccessFile.length() < sizeBytes) {
+        randomAccessFile.setLength(sizeBytes);
+      }
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+    } finally {
+      // The mapping outlives the file handle.
+      randomAccessFile.close();
+    }
+  }
+
+  private static long toLocation(int segmentId, int offset) {
+    return ((long) segmentId << 32) | offset;
+  }
+
+  /*
+   * A segment file of the log. The counters are guarded by the log.
+   */
+  private static class Segment {
+
+    private final int segmentId;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int sizeBytes;
+    private int endOffset;
+    private int numRecords;
+    private int numLiveRecords;
+    private int numTombstones;
+
+    private Segment(int segmentId, File file, MappedByteBuffer buffer, int sizeBytes) {
+      this.segmentId = segmentId;
+      this.file = file;
+      this.buffer = buffer;
+      this.sizeBytes = sizeBytes;
+    }
+
+    private static Segment open(int segmentId, File file) throws IOException {
+      Preconditions.checkState(file.length() <= Integer.MAX_VALUE, "Segment too large: %s", file);
+      int sizeBytes = (int) file.length();
+      return new Segment(segmentId, file, map(file, sizeBytes), sizeBytes);
+    }
+
+    /*
+     * Replays the segment and sets its end to the end of its last valid frame. Only the last
+     * segment of the log may end with an invalid frame.
+     */
+    private void recover(final RecordHandler handler, boolean isLast) throws Exception {
+      endOffset = read(new RecordHandler() {
+        @Override
+        public void handle(long location, byte[] payload) throws Exception {
+          numRecords++;
+          handler.handle(location, payload);
+        }
+      }, isLast);
+    }
+
+    /*
+     * Reads the valid frames of the segment and returns where they end. Unless ``allowTornTail``
+     * is set, the frames have to run up to the zeroed, preallocated space at the end of the
+     * segment.
+     */
+    private int read(RecordHandler handler, boolean allowTornTail) throws Exception {
+      ByteBuffer view = buffer.duplicate();
+      int offset = 0;
+      while (true) {
+        byte[] payload = readFrame(view, offset, allowTornTail);
+        if (payload == null) {
+          return offset;
+        }
+        handler.handle(toLocation(segmentId, offset), payload);
+        offset += FRAME_HEADER_BYTES + payload.length;
+      }
+    }
+
+    /*
+     * Zeroes whatever follows the last valid frame, so that the remains of a torn append can not
+     * be mistaken for frames once new ones are appended before them.
+     */
+    private void clearTail() {
+      if (endOffset + FRAME_HEADER_BYTES > sizeBytes || buffer.getInt(endOffset) == 0) {
+        return;
+      }
+      LOG.warn("Truncating log segment {} at offset {}", file, endOffset);
+      for (int offset = endOffset; offset < sizeBytes; offset++) {
+        buffer.put(offset, (byte) 0);
+      }
+      buffer.force();
+    }
+
+    /*
+     * Returns the payload of the frame at ``offset``, or null if the frames end there. An invalid
+     * frame ends them as well if ``allowTornTail`` is set, and is reported as corruption otherwise.
+     */
+    private byte[] readFrame(ByteBuffer view, int offset, boolean allowTornTail)
+        throws IOException {
+      if (offset + FRAME_HEADER_BYTES > sizeBytes) {
+        return null;
+      }
+      int length = view.getInt(offset);
+      if (length == 0) {
+        return null;
+      }
+      if (length > 0 && length <= sizeBytes - offset - FRAME_HEADER_BYTES) {
+        int checksum = view.getInt(offset + 4);
+        byte[] payload = new byte[length];
+        view.position(offset + FRAME_HEADER_BYTES);
+        view.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() == checksum) {
+          return payload;
+        }
+      }
+      if (allowTornTail) {
+        return null;
+      }
+      throw new IOException(String.format(
+          "Corrupt frame in log segment %s at offset %d", file, offset));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.backends.memory.MemoryJobTable;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Writes the changes to the jobs of one memory table to the ``JobLog``, and tracks where the
+ * latest record of each job is so that superseded records can be counted as dead.
+ *
+ * A failure to append fails the request that made the change. The change is then only in memory
+ * and is lost on restart, as if the request had never been made.
+ */
+class LogJournal implements MemoryJobTable.Journal {
+
+  private final JobLog log;
+  private final long incarnation;
+  private final String shardName;
+  private final int priority;
+  // Location of the latest record of each job, by local id.
+  private final Map<Long, Long> locations = Maps.newHashMap();
+  private boolean closed = false;
+
+  LogJournal(JobLog log, long incarnation, String shardName, int priority) {
+    this.log = log;
+    this.incarnation = incarnation;
+    this.shardName = shardName;
+    this.priority = priority;
+  }
+
+  long getIncarnation() {
+    return incarnation;
+  }
+
+  @Override
+  public synchronized void jobWritten(long localId, PinLaterJobInfo jobInfo) {
+    if (closed) {
+      return;
+    }
+    try {
+      long location = log.append(
+          LogRecord.jobWritten(incarnation, shardName, priority, localId, jobInfo).encode());
+      Long previousLocation = locations.put(localId, location);
+      if (previousLocation != null) {
+        log.markDead(previousLocation);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public synchronized void jobRemoved(long localId) {
+    if (closed) {
+      return;
+    }
+    try {
+      log.appendTombstone(
+          LogRecord.jobRemoved(incarnation, shardName, priority, localId).encode());
+      Long previousLocation = locations.remove(localId);
+      if (previousLocation != null) {
+        log.markDead(previousLocation);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Records that the job was recovered from the record at ``location``.
+   */
+  synchronized void jobRestored(long localId, long location) {
+    locations.put(localId, location);
+    log.markLive(location);
+  }
+
+  /**
+   * Appends a copy of the record at ``location`` if it is still the latest record of its job,
+   * so that the segment it is in can be compacted. Returns whether the record was copied.
+   */
+  synchronized boolean relocate(long localId, long location, byte[] payload) throws Exception {
+    Long currentLocation = locations.get(localId);
+    if (closed || currentLocation == null || currentLocation != location) {
+      return false;
+    }
+    locations.put(localId, log.append(payload));
+    log.markDead(location);
+    return true;
+  }
+
+  /**
+   * Stops writing to the log once the queue is deleted, and counts all of its records as dead.
+   */
+  synchronized void close() {
+    closed = true;
+    for (long location : locations.values()) {
+      log.markDead(location);
+    }
+    locations.clear();
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+
+import com.google.common.base.Preconditions;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A record of the ``JobLog`` of the log backend.
+ *
+ * Queues are identified by an incarnation, a number that is never reused, so that the records
+ * of a deleted queue can not be mistaken for those of a later queue with the same name. Records
+ * are keyed, by the incarnation for queue records and by the job for job records, and the last
+ * record in log order with a key wins. Deletions are tombstones that supersede the earlier
+ * records with their key.
+ */
+class LogRecord {
+
+  static final byte QUEUE_CREATED = 1;
+  static final byte QUEUE_DELETED = 2;
+  static final byte JOB_WRITTEN = 3;
+  static final byte JOB_REMOVED = 4;
+
+  private final byte type;
+  private final long incarnation;
+  private final String queueName;
+  private final String shardName;
+  private final int priority;
+  private final long localId;
+  private final PinLaterJobInfo jobInfo;
+
+  private LogRecord(byte type, long incarnation, String queueName, String shardName,
+                    int priority, long localId, PinLaterJobInfo jobInfo) {
+    this.type = type;
+    this.incarnation = incarnation;
+    this.queueName = queueName;
+    this.shardName = shardName;
+    this.priority = priority;
+    this.localId = localId;
+    this.jobInfo = jobInfo;
+  }
+
+  static LogRecord queueCreated(long incarnation, String queueName) {
+    return new LogRecord(QUEUE_CREATED, incarnation, queueName, null, 0, 0, null);
+  }
+
+  static LogRecord queueDeleted(long incarnation, String queueName) {
+    return new LogRecord(QUEUE_DELETED, incarnation, queueName, null, 0, 0, null);
+  }
+
+  static LogRecord jobWritten(long incarnation, String shardName, int priority, long localId,
+                              PinLaterJobInfo jobInfo) {
+    return new LogRecord(JOB_WRITTEN, incarnation, null, shardName, priority, localId,
+        Preconditions.checkNotNull(jobInfo));
+  }
+
+  static LogRecord jobRemoved(long incarnation, String shardName, int priority, long localId) {
+    return new LogRecord(JOB_REMOVED, incarnation, null, shardName, priority, localId, null);
+  }
+
+  byte getType() {
+    return type;
+  }
+
+  boolean isQueueRecord() {
+    return type == QUEUE_CREATED || type == QUEUE_DELETED;
+  }
+
+  boolean isTombstone() {
+    return type == QUEUE_DELETED || type == JOB_REMOVED;
+  }
+
+  long getIncarnation() {
+    return incarnation;
+  }
+
+  String getQueueName() {
+    return queueName;
+  }
+
+  String getShardName() {
+    return shardName;
+  }
+
+  int getPriority() {
+    return priority;
+  }
+
+  long getLocalId() {
+    return localId;
+  }
+
+  PinLaterJobInfo getJobInfo() {
+    return jobInfo;
+  }
+
+  /**
+   * Returns the key of a job record, which identifies the job across queue incarnations.
+   */
+  String getJobKey() {
+    Preconditions.checkState(!isQueueRecord());
+    return String.format("%d:%s:%d:%d", incarnation, shardName, priority, localId);
+  }
+
+  byte[] encode() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(type);
+    out.writeLong(incarnation);
+    if (isQueueRecord()) {
+      out.writeUTF(queueName);
+    } else {
+      out.writeUTF(shardName);
+      out.writeInt(priority);
+      out.writeLong(localId);
+      if (type == JOB_WRITTEN) {
+        out.write(new TSerializer(new TBinaryProtocol.Factory()).serialize(jobInfo));
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  static LogRecord decode(byte[] payload) throws Exception {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = in.readByte();
+    long incarnation = in.readLong();
+    switch (type) {
+      case QUEUE_CREATED:
+        return queueCreated(incarnation, in.readUTF());
+      case QUEUE_DELETED:
+        return queueDeleted(incarnation, in.readUTF());
+      case JOB_WRITTEN:
+      case JOB_REMOVED:
+        String shardName = in.readUTF();
+        int priority = in.readInt();
+        long localId = in.readLong();
+        if (type == JOB_REMOVED) {
+          return jobRemoved(incarnation, shardName, priority, localId);
+        }
+        byte[] jobInfoBytes = new byte[in.available()];
+        in.readFully(jobInfoBytes);
+        PinLaterJobInfo jobInfo = new PinLaterJobInfo();
+        new TDeserializer(new TBinaryProtocol.Factory()).deserialize(jobInfo, jobInfoBytes);
+        return jobWritten(incarnation, shardName, priority, localId, jobInfo);
+      default:
+        throw new IOException("Unknown log record type: " + type);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.backends.memory.MemoryJobTable;
+import com.pinterest.pinlater.backends.memory.MemoryShard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.common.collections.Pair;
+import com.twitter.ostrich.stats.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The state of the log backend: memory shards whose tables journal every change to a
+ * ``JobLog``, which is replayed into the shards when the store is opened.
+ *
+ * Compaction moves the live records of the segments that are mostly dead to the end of the log
+ * and deletes the segments. A tombstone can only be dropped from the oldest segment, since only
+ * then are all the records it supersedes known to be gone with it; elsewhere it is moved as well.
+ * That relies on keys never being reused while a record of theirs is in the log, which is why
+ * recovery reserves every incarnation and local id it sees.
+ */
+public class LogStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogStore.class);
+
+  /**
+   * When the log is flushed to disk. ``ALWAYS`` flushes before replying to each request that
+   * changed jobs, sharing flushes between concurrent requests. ``INTERVAL`` leaves it to a
+   * background task, so a crash loses the last interval of changes, and ``NEVER`` to the OS.
+   */
+  public enum FsyncPolicy {
+    ALWAYS,
+    INTERVAL,
+    NEVER
+  }
+
+  private final JobLog log;
+  private final FsyncPolicy fsyncPolicy;
+  private final ImmutableMap<String, MemoryShard> shardMap;
+  // Incarnation of each queue, by queue name.
+  private final ConcurrentMap<String, Long> queueIncarnations =
+      new ConcurrentHashMap<String, Long>();
+  // Name of each queue, by incarnation. Guarded by this.
+  private final Map<Long, String> queueNames = Maps.newHashMap();
+  // Location of the creation record of each queue, by incarnation. Guarded by this.
+  private final Map<Long, Long> queueLocations = Maps.newHashMap();
+  // Guarded by this.
+  private long nextIncarnation;
+
+  /**
+   * Opens the store in ``directory``, recovering the queues and jobs in its log.
+   *
+   * @param directory directory of the log segments.
+   * @param segmentSizeBytes size of the log segments.
+   * @param numShards number of shards, named "1" to "N". Jobs of shards beyond it are dropped.
+   * @param numPriorityLevels number of priority levels. Jobs of lower priorities are dropped.
+   * @param fsyncPolicy when the log is flushed to disk.
+   */
+  public LogStore(File directory,
+                  int segmentSizeBytes,
+                  int numShards,
+                  int numPriorityLevels,
+                  FsyncPolicy fsyncPolicy) throws Exception {
+    Preconditions.checkArgument(numShards > 0);
+    this.fsyncPolicy = Preconditions.checkNotNull(fsyncPolicy);
+    Recovery recovery = new Recovery();
+    this.log = new JobLog(directory, segmentSizeBytes, recovery);
+
+    ImmutableMap.Builder<String, MemoryShard> shardMapBuilder = ImmutableMap.builder();
+    for (int shard = 1; shard <= numShards; shard++) {
+      String shardName = String.valueOf(shard);
+      shardMapBuilder.put(shardName, new LogShard(shardName, numPriorityLevels));
+    }
+    this.shardMap = shardMapBuilder.build();
+    recover(recovery);
+  }
+
+  public ImmutableMap<String, MemoryShard> getShardMap() {
+    return shardMap;
+  }
+
+  public FsyncPolicy getFsyncPolicy() {
+    return fsyncPolicy;
+  }
+
+  /**
+   * Creates the queue in all the shards, unless it already exists.
+   */
+  public synchronized void createQueue(String queueName) throws Exception {
+    if (queueIncarnations.containsKey(queueName)) {
+      return;
+    }
+    long incarnation = nextIncarnation++;
+    queueLocations.put(incarnation,
+        log.append(LogRecord.queueCreated(incarnation, queueName).encode()));
+    queueNames.put(incarnation, queueName);
+    queueIncarnations.put(queueName, incarnation);
+    for (MemoryShard shard : shardMap.values()) {
+      shard.createQueue(queueName);
+    }
+  }
+
+  /**
+   * Deletes the queue and all of its jobs. A no-op if the queue does not exist.
+   */
+  public synchronized void deleteQueue(String queueName) throws Exception {
+    Long incarnation = queueIncarnations.get(queueName);
+    if (incarnation == null) {
+      return;
+    }
+    log.appendTombstone(LogRecord.queueDeleted(incarnation, queueName).encode());
+    log.markDead(queueLocations.remove(incarnation));
+    for (MemoryShard shard : shardMap.values()) {
+      for (int priority = 1; ; priority++) {
+        MemoryJobTable table = shard.getTable(queueName, priority);
+        if (table == null) {
+          break;
+        }
+        ((LogJournal) table.getJournal()).close();
+      }
+      shard.deleteQueue(queueName);
+    }
+    queueNames.remove(incarnation);
+    queueIncarnations.remove(queueName);
+  }
+
+  /**
+   * Called once a request has made its changes. Flushes the log if the policy is ``ALWAYS``.
+   */
+  public void commit() throws Exception {
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      log.sync();
+    }
+  }
+
+  /**
+   * Flushes the log to disk.
+   */
+  public void sync() throws Exception {
+    log.sync();
+  }
+
+  /**
+   * Compacts the full segments of the log whose share of live records is below
+   * ``maxLiveRatio``. Returns the number of segments compacted.
+   */
+  public int compact(double maxLiveRatio) throws Exception {
+    int numCompacted = 0;
+    for (int segmentId : log.getSegmentsToCompact(maxLiveRatio)) {
+      compactSegment(segmentId);
+      numCompacted++;
+    }
+    return numCompacted;
+  }
+
+  JobLog getLog() {
+    return log;
+  }
+
+  private void compactSegment(int segmentId) throws Exception {
+    final boolean isOldestSegment = log.isOldestSegment(segmentId);
+    final int[] numMoved = new int[1];
+    log.readSegment(segmentId, new JobLog.RecordHandler() {
+      @Override
+      public void handle(long location, byte[] payload) throws Exception {
+        LogRecord record = LogRecord.decode(payload);
+        boolean moved;
+        if (record.isTombstone()) {
+          moved = !isOldestSegment;
+          if (moved) {
+            log.appendTombstone(payload);
+          }
+        } else if (record.isQueueRecord()) {
+          moved = relocateQueueRecord(record.getIncarnation(), location, payload);
+        } else {
+          LogJournal journal = getJournal(record);
+          moved = journal != null && journal.relocate(record.getLocalId(), location, payload);
+        }
+        if (moved) {
+          numMoved[0]++;
+        }
+      }
+    });
+    log.deleteSegment(segmentId);
+    Stats.incr("log-segments-compacted");
+    Stats.incr("log-records-moved", numMoved[0]);
+    LOG.info("Compacted log segment {}, moved {} records", segmentId, numMoved[0]);
+  }
+
+  private synchronized boolean relocateQueueRecord(long incarnation,
+                                                   long location,
+                                                   byte[] payload) throws Exception {
+    Long currentLocation = queueLocations.get(incarnation);
+    if (currentLocation == null || currentLocation != location) {
+      return false;
+    }
+    queueLocations.put(incarnation, log.append(payload));
+    log.markDead(location);
+    return true;
+  }
+
+  /*
+   * Returns the journal of the table a job record belongs to, or null if its queue incarnation
+   * is gone.
+   */
+  private LogJournal getJournal(LogRecord record) {
+    String queueName = getQueueName(record.getIncarnation());
+    MemoryShard shard = shardMap.get(record.getShardName());
+    if (queueName == null || shard == null) {
+      return null;
+    }
+    MemoryJobTable table = shard.getTable(queueName, record.getPriority());
+    if (table == null) {
+      return null;
+    }
+    LogJournal journal = (LogJournal) table.getJournal();
+    return journal.getIncarnation() == record.getIncarnation() ? journal : null;
+  }
+
+  private synchronized String getQueueName(long incarnation) {
+    return queueNames.get(incarnation);
+  }
+
+  /*
+   * Puts the state replayed from the log into the shards, and counts the records it came from as
+   * live.
+   */
+  private synchronized void recover(Recovery recovery) {
+    nextIncarnation = recovery.maxIncarnation + 1;
+    for (Map.Entry<Long, Pair<String, Long>> entry : recovery.queues.entrySet()) {
+      String queueName = entry.getValue().getFirst();
+      long location = entry.getValue().getSecond();
+      queueLocations.put(entry.getKey(), location);
+      queueNames.put(entry.getKey(), queueName);
+      queueIncarnations.put(queueName, entry.getKey());
+      log.markLive(location);
+      for (MemoryShard shard : shardMap.values()) {
+        shard.createQueue(queueName);
+      }
+    }
+
+    for (long location : recovery.tombstoneLocations) {
+      log.markTombstone(location);
+    }
+
+    int numDropped = 0;
+    for (Pair<Long, LogRecord> job : recovery.jobs.values()) {
+      LogRecord record = job.getSecond();
+      LogJournal journal = getJournal(record);
+      if (journal == null) {
+        // The queue was deleted, or the shard or priority is no longer configured.
+        numDropped++;
+        continue;
+      }
+      MemoryJobTable table = shardMap.get(record.getShardName()).getTable(
+          getQueueName(record.getIncarnation()), record.getPriority());
+      table.restoreJob(record.getLocalId(), record.getJobInfo());
+      journal.jobRestored(record.getLocalId(), job.getFirst());
+    }
+    for (Map.Entry<String, LogRecord> entry : recovery.maxLocalIds.entrySet()) {
+      LogRecord record = entry.getValue();
+      String queueName = getQueueName(record.getIncarnation());
+      MemoryShard shard = shardMap.get(record.getShardName());
+      MemoryJobTable table = queueName == null || shard == null
+                             ? null : shard.getTable(queueName, record.getPriority());
+      if (table != null) {
+        table.reserveLocalIds(record.getLocalId());
+      }
+    }
+    if (numDropped > 0) {
+      LOG.warn("Dropped {} jobs of queues, shards or priorities that no longer exist", numDropped);
+    }
+    LOG.info("Recovered {} queues and {} jobs from the log",
+        recovery.queues.size(), recovery.jobs.size() - numDropped);
+  }
+
+  /*
+   * Replays the log into the latest record of every queue and job that is still alive.
+   */
+  private static class Recovery implements JobLog.RecordHandler {
+
+    // (queue name, location of the creation record) by incarnation.
+    private final Map<Long, Pair<String, Long>> queues = Maps.newHashMap();
+    // (location, record) by job key.
+    private final Map<String, Pair<Long, LogRecord>> jobs = Maps.newHashMap();
+    // The record with the highest local id of each table, by incarnation, shard and priority,
+    // so that local ids still referenced by the log are not handed out again.
+    private final Map<String, LogRecord> maxLocalIds = Maps.newHashMap();
+    private final List<Long> tombstoneLocations = Lists.newArrayList();
+    private long maxIncarnation = -1;
+
+    @Override
+    public void handle(long location, byte[] payload) throws Exception {
+      LogRecord record = LogRecord.decode(payload);
+      maxIncarnation = Math.max(maxIncarnation, record.getIncarnation());
+      if (record.isTombstone()) {
+        tombstoneLocations.add(location);
+      }
+      switch (record.getType()) {
+        case LogRecord.QUEUE_CREATED:
+          queues.put(record.getIncarnation(),
+              new Pair<String, Long>(record.getQueueName(), location));
+          break;
+        case LogRecord.QUEUE_DELETED:
+          queues.remove(record.getIncarnation());
+          break;
+        case LogRecord.JOB_WRITTEN:
+          jobs.put(record.getJobKey(), new Pair<Long, LogRecord>(location, record));
+          break;
+        case LogRecord.JOB_REMOVED:
+          jobs.remove(record.getJobKey());
+          break;
+        default:
+          break;
+      }
+      if (!record.isQueueRecord()) {
+        String tableKey = String.format(
+            "%d:%s:%d", record.getIncarnation(), record.getShardName(), record.getPriority());
+        LogRecord maxRecord = maxLocalIds.get(tableKey);
+        if (maxRecord == null || maxRecord.getLocalId() < record.getLocalId()) {
+          maxLocalIds.put(tableKey, record);
+        }
+      }
+    }
+  }
+
+  /*
+   * A memory shard whose tables journal to the log under the current incarnation of their
+   * queue.
+   */
+  private class LogShard extends MemoryShard {
+
+    LogShard(String shardName, int numPriorityLevels) {
+      super(shardName, numPriorityLevels);
+    }
+
+    @Override
+    protected MemoryJobTable newTable(String queueName, int priority) {
+      Long incarnation = queueIncarnations.get(queueName);
+      Preconditions.checkState(incarnation != null, "Queue not in the log: %s", queueName);
+      return new MemoryJobTable(queueName, getShardName(), priority,
+          new LogJournal(log, incarnation, getShardName(), priority));
+    }
+  }
+}
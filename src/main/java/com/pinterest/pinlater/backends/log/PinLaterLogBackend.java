@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.backends.memory.PinLaterMemoryBackend;
+import com.pinterest.pinlater.thrift.PinLaterCheckpointJobRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PinLater backend implementation that keeps its jobs on local disk, for deployments that have
+ * neither MySQL nor Redis. It is the memory backend with every change to a job also appended to
+ * a segmented, memory-mapped log in ``LOG_DIRECTORY``, which is replayed on startup.
+ *
+ * Every request that changes jobs ends with a commit, which with the default ``LOG_FSYNC_POLICY``
+ * of ``always`` flushes the log before the reply. Concurrent requests share flushes, and a
+ * request on a batch of jobs, e.g. an enqueue or an ack, flushes once for the whole batch. With
+ * ``interval`` the log is flushed every ``LOG_FSYNC_INTERVAL_MILLIS`` instead, and with ``never``
+ * it is left to the OS. Changes made by the queue monitor, i.e. claim timeouts and GC, are not
+ * flushed on their own since they are simply made again if lost.
+ *
+ * Every ``LOG_COMPACTION_INTERVAL_SECONDS``, the full segments whose share of live records is
+ * below ``LOG_COMPACTION_MAX_LIVE_RATIO`` are compacted. See ``LogStore``.
+ *
+ * Backend specific behavior is that of the memory backend. Lowering ``LOG_NUM_SHARDS`` or
+ * ``NUM_PRIORITY_LEVELS`` drops the jobs of the shards and priorities that are gone.
+ */
+public class PinLaterLogBackend extends PinLaterMemoryBackend {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PinLaterLogBackend.class);
+
+  private final LogStore store;
+
+  /**
+   * Creates an instance of the PinLaterLogBackend, recovering the jobs in its log.
+   *
+   * @param configuration configuration parameters for the backend.
+   * @param serverHostName hostname of the PinLater server.
+   * @param serverStartTimeMillis start time of the PinLater server.
+   */
+  public PinLaterLogBackend(PropertiesConfiguration configuration,
+                            String serverHostName,
+                            long serverStartTimeMillis) throws Exception {
+    this(configuration, serverHostName, serverStartTimeMillis, openStore(configuration));
+  }
+
+  private PinLaterLogBackend(PropertiesConfiguration configuration,
+                             String serverHostName,
+                             long serverStartTimeMillis,
+                             final LogStore store) throws Exception {
+    super(configuration, "Log", serverHostName, serverStartTimeMillis, store.getShardMap());
+    this.store = store;
+
+    ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LogMaintenance-%d").build());
+    if (store.getFsyncPolicy() == LogStore.FsyncPolicy.INTERVAL) {
+      long fsyncIntervalMillis = configuration.getLong("LOG_FSYNC_INTERVAL_MILLIS", 1000);
+      service.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            store.sync();
+          } catch (Exception e) {
+            Stats.incr("log-sync-errors");
+            LOG.error("Exception while syncing the log", e);
+          }
+        }
+      }, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    final double maxLiveRatio = configuration.getDouble("LOG_COMPACTION_MAX_LIVE_RATIO", 0.5);
+    long compactionIntervalSeconds = configuration.getLong("LOG_COMPACTION_INTERVAL_SECONDS", 60);
+    service.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          store.compact(maxLiveRatio);
+        } catch (Exception e) {
+          Stats.incr("log-compaction-errors");
+          LOG.error("Exception while compacting the log", e);
+        }
+      }
+    }, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  LogStore getStore() {
+    return store;
+  }
+
+  @Override
+  protected void createQueueImpl(final String queueName) throws Exception {
+    store.createQueue(queueName);
+    store.commit();
+  }
+
+  @Override
+  protected void deleteQueueImpl(final String queueName) throws Exception {
+    store.deleteQueue(queueName);
+    store.commit();
+  }
+
+  @Override
+  protected List<String> enqueueJobsWithPriority(final String queueName,
+                                                 final int priority,
+                                                 final List<PinLaterJob> jobs,
+                                                 final int numAutoRetries) throws Exception {
+    List<String> jobDescriptors =
+        super.enqueueJobsWithPriority(queueName, priority, jobs, numAutoRetries);
+    store.commit();
+    return jobDescriptors;
+  }
+
+  @Override
+  protected PinLaterDequeueResponse dequeueJobsFromShard(final String queueName,
+                                                         final String shardName,
+                                                         final int priority,
+                                                         final String claimDescriptor,
+                                                         final int jobsNeeded,
+                                                         final int numAutoRetries,
+                                                         final boolean dryRun) throws Exception {
+    PinLaterDequeueResponse response = super.dequeueJobsFromShard(queueName, shardName,
+        priority, claimDescriptor, jobsNeeded, numAutoRetries, dryRun);
+    if (!dryRun && response != null && response.getJobsSize() > 0) {
+      store.commit();
+    }
+    return response;
+  }
+
+  @Override
+  protected void ackJobs(final String queueName,
+                         final boolean succeeded,
+                         final List<PinLaterJobAckInfo> jobAckInfos,
+                         final int numAutoRetries) throws Exception {
+    super.ackJobs(queueName, succeeded, jobAckInfos, numAutoRetries);
+    store.commit();
+  }
+
+  @Override
+  protected void checkpointSingleJob(final String source,
+                                     final String queueName,
+                                     final PinLaterCheckpointJobRequest request,
+                                     final int numAutoRetries) throws Exception {
+    super.checkpointSingleJob(source, queueName, request, numAutoRetries);
+    store.commit();
+  }
+
+  @Override
+  protected int retryFailedJobsFromShard(final String queueName,
+                                         final String shardName,
+                                         final int priority,
+                                         final int attemptsRemaining,
+                                         final long runAfterTimestampMillis,
+                                         final int limit) throws Exception {
+    int numRetried = super.retryFailedJobsFromShard(
+        queueName, shardName, priority, attemptsRemaining, runAfterTimestampMillis, limit);
+    store.commit();
+    return numRetried;
+  }
+
+  @Override
+  protected int deleteJobsFromShard(final String queueName,
+                                    final String shardName,
+                                    final PinLaterJobState jobState,
+                                    final int priority,
+                                    final String bodyRegexToMatch,
+                                    final int limit) throws Exception {
+    int numDeleted = super.deleteJobsFromShard(
+        queueName, shardName, jobState, priority, bodyRegexToMatch, limit);
+    store.commit();
+    return numDeleted;
+  }
+
+  private static LogStore openStore(PropertiesConfiguration configuration) throws Exception {
+    String directory = configuration.getString("LOG_DIRECTORY");
+    Preconditions.checkArgument(directory != null && !directory.isEmpty(),
+        "LOG_DIRECTORY must be set");
+    return new LogStore(
+        new File(directory),
+        configuration.getInt("LOG_SEGMENT_SIZE_BYTES", 64 * 1024 * 1024),
+        configuration.getInt("LOG_NUM_SHARDS", 4),
+        configuration.getInt("NUM_PRIORITY_LEVELS"),
+        LogStore.FsyncPolicy.valueOf(
+            configuration.getString("LOG_FSYNC_POLICY", "always").toUpperCase()));
+  }
+}
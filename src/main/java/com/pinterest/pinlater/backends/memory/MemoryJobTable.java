@@ -0,0 +1,559 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.pinterest.pinlater.backends.common.PinLaterJobDescriptor;
+import com.pinterest.pinlater.thrift.PinLaterCheckpointJobRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueMetadata;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.common.collections.Pair;
+import com.twitter.ostrich.stats.Stats;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * The jobs of a single (queue, shard, priority) in the memory backend, i.e. the in-memory
+ * counterpart of a MySQL jobs table or of the redis sorted sets and hashes of one priority.
+ *
+ * Jobs are kept in a map by local id, and each job state has an index sorted by a timestamp and
+ * then the local id. Like the score in the redis sorted sets, the timestamp is the run_after time
+ * of pending jobs and the time the job entered its state otherwise. The pending index is the delay
+ * heap dequeues poll from, the in progress index orders the claim timeouts and the succeeded and
+ * failed indexes order the GC.
+ *
+ * All the methods lock the table, so requests on different queues, shards or priorities never
+ * contend with each other.
+ *
+ * A table can be given a ``Journal`` that is told about every change to its jobs, which is how
+ * durable backends built on top of it persist them.
+ */
+public class MemoryJobTable {
+
+  public static final int CUSTOM_STATUS_SIZE_BYTES = 5000;
+
+  private static final Comparator<MemoryJob> INDEX_ORDER = new Comparator<MemoryJob>() {
+    @Override
+    public int compare(MemoryJob a, MemoryJob b) {
+      if (a.runAfterMillis != b.runAfterMillis) {
+        return a.runAfterMillis < b.runAfterMillis ? -1 : 1;
+      }
+      return a.localId < b.localId ? -1 : (a.localId == b.localId ? 0 : 1);
+    }
+  };
+
+  private final String queueName;
+  private final String shardName;
+  private final int priority;
+  private final Map<Long, MemoryJob> jobs = Maps.newHashMap();
+  private final EnumMap<PinLaterJobState, TreeSet<MemoryJob>> indexes =
+      new EnumMap<PinLaterJobState, TreeSet<MemoryJob>>(PinLaterJobState.class);
+  private final Journal journal;
+  private long nextLocalId = 1;
+
+  public MemoryJobTable(String queueName, String shardName, int priority) {
+    this(queueName, shardName, priority, null);
+  }
+
+  public MemoryJobTable(String queueName,
+                        String shardName,
+                        int priority,
+                        @Nullable Journal journal) {
+    this.queueName = queueName;
+    this.shardName = shardName;
+    this.priority = priority;
+    this.journal = journal;
+    for (PinLaterJobState jobState : PinLaterJobState.values()) {
+      indexes.put(jobState, new TreeSet<MemoryJob>(INDEX_ORDER));
+    }
+  }
+
+  /**
+   * Adds the jobs to the table as pending, and returns their job descriptors in the same order.
+   */
+  public synchronized List<String> enqueueJobs(List<PinLaterJob> newJobs,
+                                               long currentTimeMillis) {
+    List<String> jobDescriptors = Lists.newArrayListWithCapacity(newJobs.size());
+    for (PinLaterJob newJob : newJobs) {
+      MemoryJob job = new MemoryJob(nextLocalId++);
+      job.body = newJob.getBody();
+      job.attemptsAllowed = newJob.getNumAttemptsAllowed();
+      job.attemptsRemaining = newJob.getNumAttemptsAllowed();
+      job.customStatus = truncateCustomStatus(Strings.nullToEmpty(newJob.getCustomStatus()));
+      job.createdAtMillis = currentTimeMillis;
+      job.updatedAtMillis = currentTimeMillis;
+      jobs.put(job.localId, job);
+      addToIndex(job, PinLaterJobState.PENDING, newJob.isSetRunAfterTimestampMillis()
+                                                 ? newJob.getRunAfterTimestampMillis()
+                                                 : currentTimeMillis);
+      jobDescriptors.add(getJobDescriptor(job));
+      journalWrite(job);
+    }
+    return jobDescriptors;
+  }
+
+  /**
+   * Claims up to ``jobsNeeded`` pending jobs that are ready to run, in order of run_after, by
+   * moving them to in progress with the given claim descriptor. A dry run only returns the jobs.
+   */
+  public synchronized PinLaterDequeueResponse dequeueJobs(String claimDescriptor,
+                                                          int jobsNeeded,
+                                                          boolean dryRun,
+                                                          long currentTimeMillis) {
+    PinLaterDequeueResponse response = new PinLaterDequeueResponse();
+    List<MemoryJob> claimedJobs = Lists.newArrayList();
+    Iterator<MemoryJob> iterator = indexes.get(PinLaterJobState.PENDING).iterator();
+    int numJobs = 0;
+    while (numJobs < jobsNeeded && iterator.hasNext()) {
+      MemoryJob job = iterator.next();
+      if (job.runAfterMillis > currentTimeMillis) {
+        break;
+      }
+      String jobDescriptor = getJobDescriptor(job);
+      response.putToJobs(jobDescriptor, ByteBuffer.wrap(job.body));
+      PinLaterDequeueMetadata metadata = new PinLaterDequeueMetadata();
+      metadata.setAttemptsAllowed(job.attemptsAllowed);
+      metadata.setAttemptsRemaining(job.attemptsRemaining);
+      response.putToJobMetadata(jobDescriptor, metadata);
+      if (!dryRun) {
+        iterator.remove();
+        claimedJobs.add(job);
+      }
+      numJobs++;
+    }
+
+    for (MemoryJob job : claimedJobs) {
+      if (job.attemptsAllowed == job.attemptsRemaining) {
+        Stats.addMetric(String.format("%s_first_dequeue_delay_ms", queueName),
+            (int) (currentTimeMillis - job.createdAtMillis));
+      }
+      Stats.addMetric(String.format("%s_dequeue_delay_ms", queueName),
+          (int) (currentTimeMillis - job.updatedAtMillis));
+      job.claimDescriptor = claimDescriptor;
+      job.updatedAtMillis = currentTimeMillis;
+      addToIndex(job, PinLaterJobState.IN_PROGRESS, currentTimeMillis);
+      journalWrite(job);
+    }
+    return response;
+  }
+
+  /**
+   * Returns the earliest run_after of the pending jobs, or null if there are none.
+   */
+  @Nullable
+  public synchronized Long getNextRunAfterMillis() {
+    TreeSet<MemoryJob> pendingJobs = indexes.get(PinLaterJobState.PENDING);
+    return pendingJobs.isEmpty() ? null : pendingJobs.first().runAfterMillis;
+  }
+
+  /**
+   * Acks an in progress job. A failed job goes back to pending after ``retryDelayMillis`` if it
+   * has attempts remaining, and to failed otherwise. Returns false, without changing anything, if
+   * the job is not in progress.
+   */
+  public synchronized boolean ackJob(long localId,
+                                     boolean succeeded,
+                                     String appendCustomStatus,
+                                     long retryDelayMillis,
+                                     long currentTimeMillis) {
+    MemoryJob job = jobs.get(localId);
+    if (job == null || job.state != PinLaterJobState.IN_PROGRESS) {
+      return false;
+    }
+    removeFromIndex(job);
+    job.customStatus =
+        truncateCustomStatus(job.customStatus + Strings.nullToEmpty(appendCustomStatus));
+    job.updatedAtMillis = currentTimeMillis;
+    if (succeeded) {
+      addToIndex(job, PinLaterJobState.SUCCEEDED, currentTimeMillis);
+    } else if (job.attemptsRemaining > 1) {
+      job.attemptsRemaining--;
+      job.claimDescriptor = null;
+      addToIndex(job, PinLaterJobState.PENDING, currentTimeMillis + retryDelayMillis);
+    } else {
+      job.attemptsRemaining = 0;
+      addToIndex(job, PinLaterJobState.FAILED, currentTimeMillis);
+    }
+    journalWrite(job);
+    return true;
+  }
+
+  /**
+   * Applies a checkpoint request to an in progress job claimed by ``source``. Returns false,
+   * without changing anything, if the job is not in progress or claimed by someone else.
+   */
+  public synchronized boolean checkpointJob(long localId,
+                                            String source,
+                                            PinLaterCheckpointJobRequest request,
+                                            long currentTimeMillis) {
+    MemoryJob job = jobs.get(localId);
+    if (job == null || job.state != PinLaterJobState.IN_PROGRESS
+        || job.claimDescriptor == null || !job.claimDescriptor.contains(source)) {
+      return false;
+    }
+    removeFromIndex(job);
+    if (request.isSetNewBody()) {
+      job.body = request.getNewBody().getBytes(Charsets.UTF_8);
+    }
+    if (request.isSetNumOfAttemptsAllowed()) {
+      job.attemptsAllowed = request.getNumOfAttemptsAllowed();
+      job.attemptsRemaining = request.getNumOfAttemptsAllowed();
+    }
+    if (request.isSetPrependCustomStatus()) {
+      job.customStatus = truncateCustomStatus(request.getPrependCustomStatus() + job.customStatus);
+    }
+    if (request.isMoveToPending()) {
+      job.claimDescriptor = null;
+    }
+    job.updatedAtMillis = currentTimeMillis;
+    addToIndex(job,
+        request.isMoveToPending() ? PinLaterJobState.PENDING : PinLaterJobState.IN_PROGRESS,
+        request.isSetRunAfterTimestampMillis()
+        ? request.getRunAfterTimestampMillis() : currentTimeMillis);
+    journalWrite(job);
+    return true;
+  }
+
+  /**
+   * Returns the job info of the given job, or null if it does not exist.
+   */
+  @Nullable
+  public synchronized PinLaterJobInfo lookupJob(long localId, boolean isIncludeBody) {
+    MemoryJob job = jobs.get(localId);
+    return job == null ? null : toJobInfo(job, isIncludeBody);
+  }
+
+  /**
+   * Counts the jobs in ``jobState`` that are due at ``currentTimeMillis`` or, with
+   * ``countFutureJobs``, the ones that are due later.
+   */
+  public synchronized int countJobs(PinLaterJobState jobState,
+                                    boolean countFutureJobs,
+                                    @Nullable Pattern bodyPattern,
+                                    long currentTimeMillis) {
+    NavigableSet<MemoryJob> jobsInRange = getJobsInRange(jobState, countFutureJobs,
+        currentTimeMillis);
+    if (bodyPattern == null) {
+      return jobsInRange.size();
+    }
+    int count = 0;
+    for (MemoryJob job : jobsInRange) {
+      if (matchesBody(job, bodyPattern)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns up to ``limit`` jobs in ``jobState``, most recent run_after first, split at
+   * ``currentTimeMillis`` in the same way as ``countJobs``.
+   */
+  public synchronized List<PinLaterJobInfo> scanJobs(PinLaterJobState jobState,
+                                                     boolean scanFutureJobs,
+                                                     int limit,
+                                                     @Nullable Pattern bodyPattern,
+                                                     long currentTimeMillis) {
+    List<PinLaterJobInfo> jobInfos = Lists.newArrayList();
+    for (MemoryJob job : getJobsInRange(jobState, scanFutureJobs, currentTimeMillis)
+        .descendingSet()) {
+      if (jobInfos.size() >= limit) {
+        break;
+      }
+      if (bodyPattern == null || matchesBody(job, bodyPattern)) {
+        jobInfos.add(toJobInfo(job, false));
+      }
+    }
+    return jobInfos;
+  }
+
+  /**
+   * Moves up to ``limit`` failed jobs back to pending with the given attempts remaining and
+   * run_after. Returns the number of jobs moved.
+   */
+  public synchronized int retryFailedJobs(int attemptsRemaining,
+                                          long runAfterTimestampMillis,
+                                          int limit,
+                                          long currentTimeMillis) {
+    List<MemoryJob> retriedJobs = Lists.newArrayList();
+    Iterator<MemoryJob> iterator = indexes.get(PinLaterJobState.FAILED).iterator();
+    while (retriedJobs.size() < limit && iterator.hasNext()) {
+      retriedJobs.add(iterator.next());
+      iterator.remove();
+    }
+    for (MemoryJob job : retriedJobs) {
+      job.attemptsRemaining = attemptsRemaining;
+      job.claimDescriptor = null;
+      job.updatedAtMillis = currentTimeMillis;
+      addToIndex(job, PinLaterJobState.PENDING, runAfterTimestampMillis);
+      journalWrite(job);
+    }
+    return retriedJobs.size();
+  }
+
+  /**
+   * Deletes up to ``limit`` jobs in ``jobState`` whose body matches ``bodyPattern``, if given.
+   * Returns the number of jobs deleted.
+   */
+  public synchronized int deleteJobs(PinLaterJobState jobState,
+                                     @Nullable Pattern bodyPattern,
+                                     int limit) {
+    int numDeleted = 0;
+    Iterator<MemoryJob> iterator = indexes.get(jobState).iterator();
+    while (numDeleted < limit && iterator.hasNext()) {
+      MemoryJob job = iterator.next();
+      if (bodyPattern == null || matchesBody(job, bodyPattern)) {
+        iterator.remove();
+        jobs.remove(job.localId);
+        journalRemove(job);
+        numDeleted++;
+      }
+    }
+    return numDeleted;
+  }
+
+  /**
+   * Resurrects up to ``limit`` in progress jobs claimed before ``claimedBeforeMillis``: jobs with
+   * attempts remaining go back to pending, the others to failed. Returns the number of jobs that
+   * failed and the number of jobs that were retried.
+   */
+  public synchronized Pair<Integer, Integer> timeoutClaimedJobs(long claimedBeforeMillis,
+                                                                int limit,
+                                                                long currentTimeMillis) {
+    List<MemoryJob> timedOutJobs = Lists.newArrayList();
+    Iterator<MemoryJob> iterator = indexes.get(PinLaterJobState.IN_PROGRESS).iterator();
+    while (timedOutJobs.size() < limit && iterator.hasNext()) {
+      MemoryJob job = iterator.next();
+      if (job.runAfterMillis >= claimedBeforeMillis) {
+        break;
+      }
+      timedOutJobs.add(job);
+      iterator.remove();
+    }
+
+    int numDone = 0;
+    int numRetried = 0;
+    for (MemoryJob job : timedOutJobs) {
+      job.updatedAtMillis = currentTimeMillis;
+      if (job.attemptsRemaining > 1) {
+        job.attemptsRemaining--;
+        job.claimDescriptor = null;
+        addToIndex(job, PinLaterJobState.PENDING, currentTimeMillis);
+        numRetried++;
+      } else {
+        job.attemptsRemaining = 0;
+        addToIndex(job, PinLaterJobState.FAILED, currentTimeMillis);
+        numDone++;
+      }
+      journalWrite(job);
+    }
+    return new Pair<Integer, Integer>(numDone, numRetried);
+  }
+
+  /**
+   * Counts the jobs in ``jobState`` that entered it before ``doneBeforeMillis``.
+   */
+  public synchronized int countDoneJobs(PinLaterJobState jobState, long doneBeforeMillis) {
+    return indexes.get(jobState).headSet(MemoryJob.probe(doneBeforeMillis - 1), true).size();
+  }
+
+  /**
+   * Deletes up to ``limit`` jobs in ``jobState`` that entered it before ``doneBeforeMillis``.
+   * Returns the number of jobs deleted.
+   */
+  public synchronized int gcDoneJobs(PinLaterJobState jobState, long doneBeforeMillis, int limit) {
+    int numDeleted = 0;
+    Iterator<MemoryJob> iterator = indexes.get(jobState).iterator();
+    while (numDeleted < limit && iterator.hasNext()) {
+      MemoryJob job = iterator.next();
+      if (job.runAfterMillis >= doneBeforeMillis) {
+        break;
+      }
+      iterator.remove();
+      jobs.remove(job.localId);
+      journalRemove(job);
+      numDeleted++;
+    }
+    return numDeleted;
+  }
+
+  /**
+   * Puts back a job as it was when last written to the journal, e.g. when recovering the table
+   * from a log. Does not write to the journal, and replaces the job if it already exists.
+   */
+  public synchronized void restoreJob(long localId, PinLaterJobInfo jobInfo) {
+    MemoryJob job = jobs.remove(localId);
+    if (job != null) {
+      removeFromIndex(job);
+    }
+    job = new MemoryJob(localId);
+    job.body = jobInfo.getBody();
+    job.attemptsAllowed = jobInfo.getAttemptsAllowed();
+    job.attemptsRemaining = jobInfo.getAttemptsRemaining();
+    job.customStatus = Strings.nullToEmpty(jobInfo.getCustomStatus());
+    job.claimDescriptor = jobInfo.getClaimDescriptor();
+    job.createdAtMillis = jobInfo.getCreatedAtTimestampMillis();
+    job.updatedAtMillis = jobInfo.getUpdatedAtTimestampMillis();
+    jobs.put(localId, job);
+    addToIndex(job, jobInfo.getJobState(), jobInfo.getRunAfterTimestampMillis());
+    reserveLocalIds(localId);
+  }
+
+  /**
+   * Makes sure that the table never hands out local ids up to ``maxLocalId``, e.g. the ids of
+   * jobs that were deleted but may still be referenced by a log.
+   */
+  public synchronized void reserveLocalIds(long maxLocalId) {
+    nextLocalId = Math.max(nextLocalId, maxLocalId + 1);
+  }
+
+  @Nullable
+  public Journal getJournal() {
+    return journal;
+  }
+
+  /*
+   * The jobs in ``jobState`` due at ``currentTimeMillis``, or the ones due later if
+   * ``futureJobs`` is set.
+   */
+  private NavigableSet<MemoryJob> getJobsInRange(PinLaterJobState jobState,
+                                                 boolean futureJobs,
+                                                 long currentTimeMillis) {
+    MemoryJob bound = MemoryJob.probe(currentTimeMillis);
+    return futureJobs ? indexes.get(jobState).tailSet(bound, false)
+                      : indexes.get(jobState).headSet(bound, true);
+  }
+
+  private void addToIndex(MemoryJob job, PinLaterJobState jobState, long runAfterMillis) {
+    job.state = jobState;
+    job.runAfterMillis = runAfterMillis;
+    indexes.get(jobState).add(job);
+  }
+
+  private void removeFromIndex(MemoryJob job) {
+    indexes.get(job.state).remove(job);
+  }
+
+  private void journalWrite(MemoryJob job) {
+    if (journal != null) {
+      journal.jobWritten(job.localId, toJobInfo(job, true));
+    }
+  }
+
+  private void journalRemove(MemoryJob job) {
+    if (journal != null) {
+      journal.jobRemoved(job.localId);
+    }
+  }
+
+  private String getJobDescriptor(MemoryJob job) {
+    return new PinLaterJobDescriptor(queueName, shardName, priority, job.localId).toString();
+  }
+
+  private PinLaterJobInfo toJobInfo(MemoryJob job, boolean isIncludeBody) {
+    PinLaterJobInfo jobInfo = new PinLaterJobInfo();
+    jobInfo.setJobDescriptor(getJobDescriptor(job));
+    jobInfo.setJobState(job.state);
+    jobInfo.setAttemptsAllowed(job.attemptsAllowed);
+    jobInfo.setAttemptsRemaining(job.attemptsRemaining);
+    jobInfo.setCreatedAtTimestampMillis(job.createdAtMillis);
+    jobInfo.setRunAfterTimestampMillis(job.runAfterMillis);
+    jobInfo.setUpdatedAtTimestampMillis(job.updatedAtMillis);
+    if (job.claimDescriptor != null) {
+      jobInfo.setClaimDescriptor(job.claimDescriptor);
+    }
+    jobInfo.setCustomStatus(job.customStatus);
+    if (isIncludeBody) {
+      jobInfo.setBody(job.body);
+    }
+    return jobInfo;
+  }
+
+  private static boolean matchesBody(MemoryJob job, Pattern bodyPattern) {
+    return bodyPattern.matcher(new String(job.body, Charsets.UTF_8)).find();
+  }
+
+  private static String truncateCustomStatus(String customStatus) {
+    return customStatus.length() > CUSTOM_STATUS_SIZE_BYTES
+           ? customStatus.substring(0, CUSTOM_STATUS_SIZE_BYTES) : customStatus;
+  }
+
+  /**
+   * Receives the changes made to the jobs of a table. The methods are called while holding the
+   * table lock, so the changes to one table are received in the order they were made.
+   */
+  public interface Journal {
+
+    /**
+     * Called after a job was added or changed, with the whole job including its body.
+     */
+    void jobWritten(long localId, PinLaterJobInfo jobInfo);
+
+    /**
+     * Called after a job was deleted from the table.
+     */
+    void jobRemoved(long localId);
+  }
+
+  /*
+   * A job in the table. Only accessed while holding the table lock. ``runAfterMillis`` is the
+   * index timestamp, so it must only be changed while the job is out of its index.
+   */
+  private static class MemoryJob {
+
+    private final long localId;
+    private PinLaterJobState state;
+    private byte[] body;
+    private int attemptsAllowed;
+    private int attemptsRemaining;
+    private String customStatus;
+    private String claimDescriptor;
+    private long createdAtMillis;
+    private long updatedAtMillis;
+    private long runAfterMillis;
+
+    private MemoryJob(long localId) {
+      this.localId = localId;
+    }
+
+    /*
+     * Returns a job that sorts after every job of the index due at ``runAfterMillis``, to bound
+     * range views of the index.
+     */
+    private static MemoryJob probe(long runAfterMillis) {
+      MemoryJob job = new MemoryJob(Long.MAX_VALUE);
+      job.runAfterMillis = runAfterMillis;
+      return job;
+    }
+  }
+}
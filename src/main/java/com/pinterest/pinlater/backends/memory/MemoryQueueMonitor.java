@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.pinterest.pinlater.backends.common.BackendQueueMonitorBase;
+import com.pinterest.pinlater.backends.common.DoneJobsGCDrainer;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.twitter.common.collections.Pair;
+import com.twitter.ostrich.stats.Stats;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implements a scheduled task used by the PinLaterMemoryBackend for various types of
+ * job queue cleanup, including ACK timeouts and GC'ing finished jobs.
+ */
+public class MemoryQueueMonitor extends BackendQueueMonitorBase<MemoryShard> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MemoryQueueMonitor.class);
+
+  public MemoryQueueMonitor(ImmutableMap<String, MemoryShard> shardMap,
+                            PropertiesConfiguration configuration) {
+    super(shardMap, configuration);
+  }
+
+  @VisibleForTesting
+  public MemoryQueueMonitor(ImmutableMap<String, MemoryShard> shardMap,
+                            int updateMaxSize, int maxAutoRetries, int logInterval,
+                            long jobClaimedTimeoutMillis, long jobSucceededGCTimeoutMillis,
+                            long jobFailedGCTimeoutMillis, int numPriorityLevels) {
+    super(shardMap, updateMaxSize, maxAutoRetries, logInterval, jobClaimedTimeoutMillis,
+        jobSucceededGCTimeoutMillis, jobFailedGCTimeoutMillis, numPriorityLevels);
+  }
+
+  @Override
+  protected Set<String> getQueueNames(Map.Entry<String, MemoryShard> shard) {
+    return shard.getValue().getQueueNames();
+  }
+
+  @Override
+  protected boolean monitorTable(long runStartMillis,
+                                 Map.Entry<String, MemoryShard> shard,
+                                 String queueName,
+                                 int priority,
+                                 int numAutoRetries) {
+    MemoryJobTable table = shard.getValue().getTable(queueName, priority);
+    if (table == null) {
+      // The queue was deleted since the run started.
+      return false;
+    }
+
+    try {
+      // Handle timed out jobs.
+      Pair<Integer, Integer> nums = table.timeoutClaimedJobs(
+          runStartMillis - getJobClaimedTimeoutMillis(), getUpdateMaxSize(), runStartMillis);
+      int numTimeoutDone = nums.getFirst();
+      int numTimeoutRetry = nums.getSecond();
+
+      // Succeeded job GC.
+      long gcDeadlineMillis = runStartMillis + getDrainTimeMillis();
+      String gcTableKey = shard.getKey() + ":" + queueName + ":" + priority;
+      DoneJobsGCDrainer.Result succeededGC = getDoneJobsGCDrainer().gc(
+          queueName + "_succeeded",
+          gcTableKey + ":succeeded",
+          new DoneJobsTable(table, PinLaterJobState.SUCCEEDED,
+              runStartMillis - getJobSucceededGCTimeoutMillis()),
+          gcDeadlineMillis);
+
+      // Failed job GC.
+      DoneJobsGCDrainer.Result failedGC = getDoneJobsGCDrainer().gc(
+          queueName + "_failed",
+          gcTableKey + ":failed",
+          new DoneJobsTable(table, PinLaterJobState.FAILED,
+              runStartMillis - getJobFailedGCTimeoutMillis()),
+          gcDeadlineMillis);
+      int numSucceededGC = succeededGC.getNumDeleted();
+      int numFailedGC = failedGC.getNumDeleted();
+
+      Stats.incr(queueName + "_timeout_done", numTimeoutDone);
+      Stats.incr(queueName + "_timeout_retry", numTimeoutRetry);
+      Stats.incr(queueName + "_succeeded_gc", numSucceededGC);
+      Stats.incr(queueName + "_failed_gc", numFailedGC);
+      if (shouldLog()) {
+        LOG.info(String.format(
+            "JobQueueMonitor: "
+                + "Shard: %s Queue: %s Priority: %d Timeout Done: %d Timeout Retry: %d "
+                + "Succeeded GC: %d Failed GC: %d",
+            shard.getKey(), queueName, priority, numTimeoutDone, numTimeoutRetry,
+            numSucceededGC, numFailedGC));
+      }
+      return numTimeoutDone + numTimeoutRetry >= getUpdateMaxSize()
+          || succeededGC.hasMoreToDelete()
+          || failedGC.hasMoreToDelete();
+    } catch (Exception e) {
+      Stats.incr("PinLater.MemoryQueueMonitor.errors." + e.getClass().getSimpleName());
+      LOG.error("Exception in JobQueueMonitor task", e);
+      return false;
+    }
+  }
+
+  /*
+   * The finished jobs of a single state in a table.
+   */
+  private static class DoneJobsTable extends DoneJobsGCDrainer.Table {
+
+    private final MemoryJobTable table;
+    private final PinLaterJobState jobState;
+    private final long gcTimeMillis;
+
+    DoneJobsTable(MemoryJobTable table, PinLaterJobState jobState, long gcTimeMillis) {
+      this.table = table;
+      this.jobState = jobState;
+      this.gcTimeMillis = gcTimeMillis;
+    }
+
+    @Override
+    public long countBacklog() {
+      return table.countDoneJobs(jobState, gcTimeMillis);
+    }
+
+    @Override
+    public int deleteJobs(int limit) {
+      return table.gcDoneJobs(jobState, gcTimeMillis, limit);
+    }
+  }
+}
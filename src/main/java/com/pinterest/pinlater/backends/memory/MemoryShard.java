@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * One shard of the memory backend: the job tables of every queue in the shard, one per priority.
+ */
+public class MemoryShard {
+
+  private final String shardName;
+  private final int numPriorityLevels;
+  private final ConcurrentMap<String, ImmutableList<MemoryJobTable>> queueTablesMap =
+      new ConcurrentHashMap<String, ImmutableList<MemoryJobTable>>();
+
+  public MemoryShard(String shardName, int numPriorityLevels) {
+    Preconditions.checkArgument(numPriorityLevels >= 1);
+    this.shardName = Preconditions.checkNotNull(shardName);
+    this.numPriorityLevels = numPriorityLevels;
+  }
+
+  /**
+   * Creates the tables of the given queue, unless it already exists.
+   */
+  public void createQueue(String queueName) {
+    if (queueTablesMap.containsKey(queueName)) {
+      return;
+    }
+    ImmutableList.Builder<MemoryJobTable> tables = ImmutableList.builder();
+    for (int priority = 1; priority <= numPriorityLevels; priority++) {
+      tables.add(newTable(queueName, priority));
+    }
+    queueTablesMap.putIfAbsent(queueName, tables.build());
+  }
+
+  /**
+   * Drops the given queue along with all of its jobs. A no-op if the queue does not exist.
+   */
+  public void deleteQueue(String queueName) {
+    queueTablesMap.remove(queueName);
+  }
+
+  public String getShardName() {
+    return shardName;
+  }
+
+  public Set<String> getQueueNames() {
+    return ImmutableSet.copyOf(queueTablesMap.keySet());
+  }
+
+  /**
+   * Returns the table of the given queue and priority, or null if the queue does not exist.
+   */
+  @Nullable
+  public MemoryJobTable getTable(String queueName, int priority) {
+    ImmutableList<MemoryJobTable> tables = queueTablesMap.get(queueName);
+    if (tables == null || priority < 1 || priority > tables.size()) {
+      return null;
+    }
+    return tables.get(priority - 1);
+  }
+
+  /*
+   * Creates the table of the given queue and priority. Subclasses can override it to give the
+   * tables a journal.
+   */
+  protected MemoryJobTable newTable(String queueName, int priority) {
+    return new MemoryJobTable(queueName, shardName, priority);
+  }
+}
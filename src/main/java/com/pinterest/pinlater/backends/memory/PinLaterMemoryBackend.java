@@ -0,0 +1,355 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.pinterest.pinlater.PinLaterBackendBase;
+import com.pinterest.pinlater.backends.common.PinLaterBackendUtils;
+import com.pinterest.pinlater.backends.common.PinLaterJobDescriptor;
+import com.pinterest.pinlater.thrift.ErrorCode;
+import com.pinterest.pinlater.thrift.PinLaterCheckpointJobRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterException;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.ostrich.stats.Stats;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * PinLater backend implementation that keeps all the jobs in the memory of the server. Jobs do
+ * not survive a restart, so it is meant for tests, local development and as the baseline when
+ * measuring the overhead of the server itself, as it needs neither MySQL nor Redis.
+ *
+ * The backend has ``MEMORY_NUM_SHARDS`` shards named "1" to "N". Each (queue, shard, priority) has
+ * its own ``MemoryJobTable`` with its own lock, so concurrent requests only contend when they hit
+ * the same table. Enqueues pick a random shard, like the other backends.
+ *
+ * Backend specific behavior:
+ *  1. Custom status is appended on ack and prepended on checkpoint like the MySQL backend, and
+ *     truncated to ``MemoryJobTable.CUSTOM_STATUS_SIZE_BYTES``.
+ *  2. As in the Redis backend, the run_after timestamp of a job that is not pending is the time it
+ *     entered its current state, and that is what claim timeouts and GC are based on.
+ *  3. Body regexes are Java regexes, matched anywhere in the body as with MySQL REGEXP.
+ */
+public class PinLaterMemoryBackend extends PinLaterBackendBase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PinLaterMemoryBackend.class);
+
+  private final ImmutableMap<String, MemoryShard> shardMap;
+  private final ImmutableList<String> shardNames;
+
+  /**
+   * Creates an instance of the PinLaterMemoryBackend.
+   *
+   * @param configuration configuration parameters for the backend.
+   * @param serverHostName hostname of the PinLater server.
+   * @param serverStartTimeMillis start time of the PinLater server.
+   */
+  public PinLaterMemoryBackend(PropertiesConfiguration configuration,
+                               String serverHostName,
+                               long serverStartTimeMillis) throws Exception {
+    this(configuration, "Memory", serverHostName, serverStartTimeMillis,
+        createShardMap(configuration.getInt("MEMORY_NUM_SHARDS", 4),
+            configuration.getInt("NUM_PRIORITY_LEVELS")));
+  }
+
+  /**
+   * Creates a backend over the given shards, for backends that keep their jobs in memory tables
+   * but manage the shards themselves.
+   *
+   * @param configuration configuration parameters for the backend.
+   * @param backendName name of the backend, used in stats and thread names.
+   * @param serverHostName hostname of the PinLater server.
+   * @param serverStartTimeMillis start time of the PinLater server.
+   * @param shardMap the shards of the backend by shard name.
+   */
+  protected PinLaterMemoryBackend(PropertiesConfiguration configuration,
+                                  String backendName,
+                                  String serverHostName,
+                                  long serverStartTimeMillis,
+                                  ImmutableMap<String, MemoryShard> shardMap) throws Exception {
+    super(configuration, backendName, serverHostName, serverStartTimeMillis);
+    Preconditions.checkArgument(!shardMap.isEmpty());
+    this.shardMap = shardMap;
+    this.shardNames = shardMap.keySet().asList();
+
+    // Start the JobQueueMonitor scheduled task.
+    final int delaySeconds = configuration.getInt("BACKEND_MONITOR_THREAD_DELAY_SECONDS");
+    ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat(backendName + "JobQueueMonitor-%d").build());
+    service.scheduleWithFixedDelay(
+        new MemoryQueueMonitor(shardMap, configuration),
+        delaySeconds,
+        delaySeconds,
+        TimeUnit.SECONDS);
+
+    // Call Base class's initialization function to initialize the futurePool and dequeue
+    // semaphoreMap.
+    initialize();
+  }
+
+  /**
+   * Creates ``numShards`` empty shards named "1" to "N".
+   */
+  public static ImmutableMap<String, MemoryShard> createShardMap(int numShards,
+                                                                 int numPriorityLevels) {
+    Preconditions.checkArgument(numShards > 0);
+    ImmutableMap.Builder<String, MemoryShard> shardMapBuilder = ImmutableMap.builder();
+    for (int shard = 1; shard <= numShards; shard++) {
+      String shardName = String.valueOf(shard);
+      shardMapBuilder.put(shardName, new MemoryShard(shardName, numPriorityLevels));
+    }
+    return shardMapBuilder.build();
+  }
+
+  @VisibleForTesting
+  ImmutableMap<String, MemoryShard> getShardMap() {
+    return shardMap;
+  }
+
+  @Override
+  protected ImmutableSet<String> getShards() {
+    return shardMap.keySet();
+  }
+
+  @Override
+  protected void processConfigUpdate(byte[] bytes) {
+    // The memory backend has no backend config.
+  }
+
+  @Override
+  protected void createQueueImpl(final String queueName) throws Exception {
+    for (MemoryShard shard : shardMap.values()) {
+      shard.createQueue(queueName);
+    }
+  }
+
+  @Override
+  protected void deleteQueueImpl(final String queueName) throws Exception {
+    for (MemoryShard shard : shardMap.values()) {
+      shard.deleteQueue(queueName);
+    }
+  }
+
+  @Override
+  protected String enqueueSingleJob(final String queueName,
+                                    final PinLaterJob job,
+                                    final int numAutoRetries) throws Exception {
+    return enqueueJobsWithPriority(
+        queueName, job.getPriority(), Collections.singletonList(job), numAutoRetries).get(0);
+  }
+
+  @Override
+  protected List<String> enqueueJobsWithPriority(final String queueName,
+                                                 final int priority,
+                                                 final List<PinLaterJob> jobs,
+                                                 final int numAutoRetries) throws Exception {
+    String shardName = shardNames.get(RANDOM.nextInt(shardNames.size()));
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    if (table == null) {
+      Stats.incr("memory-queue-not-found-enqueue");
+      throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+    }
+    return table.enqueueJobs(jobs, System.currentTimeMillis());
+  }
+
+  @Override
+  protected PinLaterDequeueResponse dequeueJobsFromShard(final String queueName,
+                                                         final String shardName,
+                                                         final int priority,
+                                                         final String claimDescriptor,
+                                                         final int jobsNeeded,
+                                                         final int numAutoRetries,
+                                                         final boolean dryRun) throws Exception {
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    if (table == null) {
+      Stats.incr("memory-queue-not-found-dequeue");
+      throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+    }
+    return table.dequeueJobs(claimDescriptor, jobsNeeded, dryRun, System.currentTimeMillis());
+  }
+
+  @Override
+  protected Long getNextRunAfterFromShard(final String queueName,
+                                          final String shardName,
+                                          final int priority) throws Exception {
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    return table == null ? null : table.getNextRunAfterMillis();
+  }
+
+  @Override
+  protected void ackSingleJob(final String queueName,
+                              final boolean succeeded,
+                              final PinLaterJobAckInfo jobAckInfo,
+                              final int numAutoRetries) throws Exception {
+    PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobAckInfo.getJobDescriptor());
+    MemoryJobTable table = getTable(queueName, jobDesc.getShardName(), jobDesc.getPriority());
+    if (table == null) {
+      Stats.incr("memory-queue-not-found-ack");
+      throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+    }
+    // As with the other backends, acking a job that is not in progress is silently ignored,
+    // since clients resend acks they think were lost.
+    table.ackJob(jobDesc.getLocalId(), succeeded, jobAckInfo.getAppendCustomStatus(),
+        jobAckInfo.getRetryDelayMillis(), System.currentTimeMillis());
+  }
+
+  @Override
+  protected void checkpointSingleJob(final String source,
+                                     final String queueName,
+                                     final PinLaterCheckpointJobRequest request,
+                                     final int numAutoRetries) throws Exception {
+    PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(request.getJobDescriptor());
+    MemoryJobTable table = getTable(queueName, jobDesc.getShardName(), jobDesc.getPriority());
+    boolean checkpointed = table != null && table.checkpointJob(
+        jobDesc.getLocalId(), source, request, System.currentTimeMillis());
+
+    // If the checkpoint was not applied, the job was either not in progress or claimed by
+    // another source, in which case we should log and record the discrepancy.
+    if (!checkpointed) {
+      LOG.info("Checkpoint request was treated as a no-op from source: {}. Request: {}",
+          source, request);
+      Stats.incr(queueName + "_checkpoint_noop");
+    }
+  }
+
+  @Override
+  protected PinLaterJobInfo lookupJobFromShard(final String queueName,
+                                               final String shardName,
+                                               final int priority,
+                                               final long localId,
+                                               final boolean isIncludeBody) throws Exception {
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    return table == null ? null : table.lookupJob(localId, isIncludeBody);
+  }
+
+  @Override
+  protected int getJobCountFromShard(final String queueName,
+                                     final String shardName,
+                                     final Set<Integer> priorities,
+                                     final PinLaterJobState jobState,
+                                     final boolean countFutureJobs,
+                                     final String bodyRegexToMatch) throws Exception {
+    Pattern bodyPattern = compileBodyRegex(bodyRegexToMatch);
+    long currentTimeMillis = System.currentTimeMillis();
+    int totalCount = 0;
+    for (int priority : priorities) {
+      MemoryJobTable table = getTable(queueName, shardName, priority);
+      if (table != null) {
+        totalCount += table.countJobs(jobState, countFutureJobs, bodyPattern, currentTimeMillis);
+      }
+    }
+    return totalCount;
+  }
+
+  @Override
+  protected Set<String> getQueueNamesImpl() throws Exception {
+    Set<String> queueNames = Sets.newHashSet();
+    for (MemoryShard shard : shardMap.values()) {
+      queueNames.addAll(shard.getQueueNames());
+    }
+    return queueNames;
+  }
+
+  @Override
+  protected List<PinLaterJobInfo> scanJobsFromShard(final String queueName,
+                                                    final String shardName,
+                                                    final Set<Integer> priorities,
+                                                    final PinLaterJobState jobState,
+                                                    final boolean scanFutureJobs,
+                                                    final String continuation,
+                                                    final int limit,
+                                                    final String bodyRegexToMatch)
+      throws Exception {
+    Pattern bodyPattern = compileBodyRegex(bodyRegexToMatch);
+    long currentTimeMillis = System.currentTimeMillis();
+    List<List<PinLaterJobInfo>> jobsPerPriority =
+        Lists.newArrayListWithCapacity(priorities.size());
+    for (int priority : priorities) {
+      MemoryJobTable table = getTable(queueName, shardName, priority);
+      if (table != null) {
+        jobsPerPriority.add(
+            table.scanJobs(jobState, scanFutureJobs, limit, bodyPattern, currentTimeMillis));
+      }
+    }
+    return PinLaterBackendUtils.mergeIntoList(
+        jobsPerPriority, PinLaterBackendUtils.JobInfoComparator.getInstance(), limit);
+  }
+
+  @Override
+  protected int retryFailedJobsFromShard(final String queueName,
+                                         final String shardName,
+                                         final int priority,
+                                         final int attemptsRemaining,
+                                         final long runAfterTimestampMillis,
+                                         final int limit) throws Exception {
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    if (table == null) {
+      return 0;
+    }
+    return table.retryFailedJobs(
+        attemptsRemaining, runAfterTimestampMillis, limit, System.currentTimeMillis());
+  }
+
+  @Override
+  protected int deleteJobsFromShard(final String queueName,
+                                    final String shardName,
+                                    final PinLaterJobState jobState,
+                                    final int priority,
+                                    final String bodyRegexToMatch,
+                                    final int limit) throws Exception {
+    MemoryJobTable table = getTable(queueName, shardName, priority);
+    if (table == null) {
+      return 0;
+    }
+    return table.deleteJobs(jobState, compileBodyRegex(bodyRegexToMatch), limit);
+  }
+
+  /*
+   * Returns the table of the given queue, shard and priority, or null if there is no such queue
+   * or shard.
+   */
+  private MemoryJobTable getTable(String queueName, String shardName, int priority) {
+    MemoryShard shard = shardMap.get(shardName);
+    return shard == null ? null : shard.getTable(queueName, priority);
+  }
+
+  private static Pattern compileBodyRegex(String bodyRegexToMatch) {
+    return bodyRegexToMatch == null ? null : Pattern.compile(bodyRegexToMatch);
+  }
+}
@@ -35,6 +35,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Encapsulates static utility methods used by the PinLaterMySQLBackend and related classes.
@@ -47,6 +49,11 @@ public final class MySQLBackendUtils {
   private static final int MYSQL_DB_ALREADY_EXISTS_ERROR_CODE = 1007;
   private static final int MYSQL_DB_DOESNT_EXIST_ERROR_CODE = 1146;
 
+  private static final Pattern SERVER_VERSION_PATTERN =
+      Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)");
+  // Prefix that MariaDB adds to its version for compatibility with old MySQL clients.
+  private static final String MARIADB_VERSION_PREFIX = "5.5.5-";
+
   /**
    * MySQL currently only supports 64 characters for certain identifiers, including database
    * names. http://dev.mysql.com/doc/refman/5.5/en/identifiers.html
@@ -119,12 +126,52 @@ public final class MySQLBackendUtils {
     return String.format("%s.jobs_p%1d", constructDBName(queueName, shardName), priority);
   }
 
+  /**
+   * Constructs a comma separated list of ``count`` JDBC placeholders, to be used in an IN clause.
+   *
+   * @param count number of placeholders (must be > 0).
+   * @return placeholder list, e.g. "?, ?, ?" for a count of 3.
+   */
+  public static String constructInClausePlaceholders(int count) {
+    Preconditions.checkArgument(count > 0);
+    StringBuilder builder = new StringBuilder(count * 3);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append('?');
+    }
+    return builder.toString();
+  }
+
   public static boolean isDeadlockException(Exception e) {
     return e instanceof MySQLTransactionRollbackException
         || (e instanceof BatchUpdateException
                 && e.getCause() instanceof MySQLTransactionRollbackException);
   }
 
+  /**
+   * Indicates whether a server of the given version, as returned by ``SELECT VERSION()``, supports
+   * ``SELECT ... FOR UPDATE SKIP LOCKED``, i.e. whether it is MySQL 8.0.1+ or MariaDB 10.6+.
+   */
+  public static boolean isSkipLockedSupported(String serverVersion) {
+    boolean isMariaDB = serverVersion.contains("MariaDB");
+    if (isMariaDB && serverVersion.startsWith(MARIADB_VERSION_PREFIX)) {
+      serverVersion = serverVersion.substring(MARIADB_VERSION_PREFIX.length());
+    }
+    Matcher matcher = SERVER_VERSION_PATTERN.matcher(serverVersion);
+    if (!matcher.find()) {
+      return false;
+    }
+    int major = Integer.parseInt(matcher.group(1));
+    int minor = Integer.parseInt(matcher.group(2));
+    int patch = Integer.parseInt(matcher.group(3));
+    if (isMariaDB) {
+      return major > 10 || (major == 10 && minor >= 6);
+    }
+    return major > 8 || (major == 8 && (minor > 0 || patch >= 1));
+  }
+
   /**
    * Indicates whether an exception is a symptom of MySQL being overloaded or slow.
    * Typical symptoms are connection pool exhaustion or MySQL connection/socket timeouts.
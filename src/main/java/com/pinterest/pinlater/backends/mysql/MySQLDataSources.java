@@ -37,12 +37,15 @@ public class MySQLDataSources {
   private static final Logger LOG = LoggerFactory.getLogger(MySQLDataSources.class);
 
   private final DataSource generalDataSource;
+  private final DataSource dequeueDataSource;
   private final DataSource monitorDataSource;
   private final String host;
   private final int port;
   private final String user;
   private final String passwd;
   private final AtomicBoolean dequeueOnly;
+  // Whether the server supports SKIP LOCKED, or null until it has been checked.
+  private volatile Boolean skipLockedSupported;
 
   public MySQLDataSources(PropertiesConfiguration configuration, String host, int port,
                           String user, String passwd, boolean dequeueOnly) {
@@ -55,10 +58,18 @@ public class MySQLDataSources {
     int maxWaitMillis = configuration.getInt("BACKEND_CONNECTION_MAX_WAIT_MILLIS");
     this.generalDataSource = createDataSource(
         host, port, user, passwd, numGeneralConnections,
-        maxWaitMillis, generalSocketTimeoutMillis);
+        maxWaitMillis, generalSocketTimeoutMillis, false);
+    // Multiple queries per statement are only allowed on a pool of their own, which only runs
+    // the dequeue queries. Those bind all of their parameters, unlike e.g. the body regex of the
+    // scan and count queries.
+    this.dequeueDataSource = isMultiStatementEnabled(configuration)
+                             ? createDataSource(
+                                 host, port, user, passwd, numGeneralConnections,
+                                 maxWaitMillis, generalSocketTimeoutMillis, true)
+                             : generalDataSource;
     this.monitorDataSource = createDataSource(
         host, port, user, passwd, numMonitorConnections,
-        maxWaitMillis, monitorSocketTimeoutMillis);
+        maxWaitMillis, monitorSocketTimeoutMillis, false);
     this.host = host;
     this.port = port;
     this.user = user;
@@ -68,12 +79,20 @@ public class MySQLDataSources {
 
   public DataSource getGeneralDataSource() { return generalDataSource; }
 
+  public DataSource getDequeueDataSource() { return dequeueDataSource; }
+
   public DataSource getMonitorDataSource() { return monitorDataSource; }
 
   public boolean isDequeueOnly() { return dequeueOnly.get(); }
 
   public void setDequeueOnly(Boolean dequeueOnly) { this.dequeueOnly.set(dequeueOnly); }
 
+  public Boolean isSkipLockedSupported() { return skipLockedSupported; }
+
+  public void setSkipLockedSupported(boolean skipLockedSupported) {
+    this.skipLockedSupported = skipLockedSupported;
+  }
+
   // NOTE: We don't check dequeueOnly here because it should be configurable while maintaining
   // the connection.
   public boolean needNewConnection(String host, int port, String user, String passwd) {
@@ -81,11 +100,20 @@ public class MySQLDataSources {
         && this.user.equals(user) && this.passwd.equals(passwd);
   }
 
+  /**
+   * Returns whether dequeues should send their queries as a single multi-statement query. The
+   * dequeue data source then has connections of its own that allow multiple queries per
+   * statement, in addition to the general ones.
+   */
+  public static boolean isMultiStatementEnabled(PropertiesConfiguration configuration) {
+    return configuration.getBoolean("MYSQL_DEQUEUE_MULTI_STATEMENT", false);
+  }
+
   // NOTE: We intentionally clone this method from DataSourceUtil, since we want to carefully
   // control data source and ConnectorJ configuration.
   private static DataSource createDataSource(
       String host, int port, String user, String passwd, int poolSize,
-      int maxWaitMillis, int socketTimeoutMillis) {
+      int maxWaitMillis, int socketTimeoutMillis, boolean allowMultiQueries) {
     BasicDataSource dataSource = new BasicDataSource();
     dataSource.setDriverClassName("com.mysql.jdbc.Driver");
     dataSource.setUrl(String.format(
@@ -94,10 +122,12 @@ public class MySQLDataSources {
             + "socketTimeout=%d&"
             + "enableQueryTimeouts=false&"
             + "cachePrepStmts=true&"
+            + "allowMultiQueries=%b&"
             + "characterEncoding=UTF-8",
         host,
         port,
-        socketTimeoutMillis));
+        socketTimeoutMillis,
+        allowMultiQueries));
     dataSource.setUsername(user);
     dataSource.setPassword(passwd);
     dataSource.setDefaultAutoCommit(true);
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.mysql;
+
+import com.pinterest.pinlater.commons.jdbc.JdbcUtils;
+import com.pinterest.pinlater.commons.jdbc.RowProcessor;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.twitter.common.collections.Pair;
+import com.twitter.ostrich.stats.Stats;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the optional time partitioned layout of the MySQL jobs tables, which is enabled by
+ * setting ``MYSQL_JOBS_TABLE_PARTITION_HOURS``.
+ *
+ * A partitioned jobs table is range partitioned on the ``partitioned_at`` column, which defaults to
+ * the insert time of a job. There is one partition per period, aligned on the epoch and named
+ * after the exclusive upper bound of the period in epoch seconds, followed by a catch-all
+ * ``pmax`` partition. Tables are created with ``MYSQL_JOBS_TABLE_PARTITIONS_AHEAD`` partitions
+ * beyond the current one, and the queue monitor keeps that many partitions ahead of time.
+ *
+ * Finished jobs are garbage collected by dropping whole partitions instead of deleting rows. A
+ * partition is dropped once its upper bound is older than the longest of the succeeded and failed
+ * job GC TTLs. The jobs it still holds that are not due for GC, i.e. jobs that are still pending
+ * or running and jobs that finished too recently, are first moved into the current partition.
+ *
+ * Tables created before the layout was enabled are not partitioned, and keep being garbage
+ * collected row by row.
+ */
+public class MySQLJobsTablePartitioner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MySQLJobsTablePartitioner.class);
+
+  private static final RowProcessor<Pair<String, String>> PARTITION_ROW_PROCESSOR =
+      new RowProcessor<Pair<String, String>>() {
+        @Override
+        public Pair<String, String> process(ResultSet rs) throws IOException, SQLException {
+          return new Pair<String, String>(rs.getString(1), rs.getString(2));
+        }
+      };
+
+  private final long periodSeconds;
+  private final int numPartitionsAhead;
+
+  public MySQLJobsTablePartitioner(PropertiesConfiguration configuration) {
+    this(TimeUnit.HOURS.toSeconds(configuration.getLong("MYSQL_JOBS_TABLE_PARTITION_HOURS", 0)),
+        configuration.getInt("MYSQL_JOBS_TABLE_PARTITIONS_AHEAD", 2));
+  }
+
+  /**
+   * @param periodSeconds      time range of a partition, or 0 to disable partitioning.
+   * @param numPartitionsAhead number of partitions kept beyond the current one.
+   */
+  @VisibleForTesting
+  public MySQLJobsTablePartitioner(long periodSeconds, int numPartitionsAhead) {
+    Preconditions.checkArgument(periodSeconds >= 0);
+    Preconditions.checkArgument(numPartitionsAhead >= 0);
+    this.periodSeconds = periodSeconds;
+    this.numPartitionsAhead = numPartitionsAhead;
+  }
+
+  public boolean isEnabled() {
+    return periodSeconds > 0;
+  }
+
+  /**
+   * Constructs the query to create a jobs table, partitioned if the layout is enabled.
+   *
+   * @param jobsTableName        name of the jobs table.
+   * @param claimDescriptorIndex whether to index the claim_descriptor column.
+   * @param currentTimeMillis    current time.
+   */
+  public String constructCreateJobsTableQuery(String jobsTableName, boolean claimDescriptorIndex,
+                                              long currentTimeMillis) {
+    String indexes = claimDescriptorIndex ? MySQLQueries.JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX : "";
+    if (!isEnabled()) {
+      return String.format(MySQLQueries.CREATE_JOBS_TABLE, jobsTableName, indexes);
+    }
+    return String.format(
+        MySQLQueries.CREATE_PARTITIONED_JOBS_TABLE,
+        jobsTableName,
+        indexes,
+        constructPartitionDefinitions(
+            getUpperBoundsToAdd(null, TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis))));
+  }
+
+  /**
+   * Returns the upper bounds of the partitions of a jobs table in epoch seconds, in increasing
+   * order and excluding ``pmax``, or null if the table is not partitioned or the layout is
+   * disabled.
+   */
+  public List<Long> getPartitionUpperBounds(Connection conn, String jobsTableName)
+      throws IOException, SQLException {
+    if (!isEnabled()) {
+      return null;
+    }
+    String[] tokens = jobsTableName.split("\\.", 2);
+    List<Pair<String, String>> partitions = JdbcUtils.select(
+        conn,
+        MySQLQueries.SELECT_JOBS_TABLE_PARTITIONS,
+        PARTITION_ROW_PROCESSOR,
+        tokens[0],
+        tokens[1]);
+    if (partitions.isEmpty() || partitions.get(0).getFirst() == null) {
+      return null;
+    }
+    List<Long> upperBounds = Lists.newArrayListWithCapacity(partitions.size());
+    for (Pair<String, String> partition : partitions) {
+      if (!MySQLQueries.JOBS_TABLE_MAX_PARTITION_NAME.equals(partition.getFirst())) {
+        upperBounds.add(Long.parseLong(partition.getSecond()));
+      }
+    }
+    return upperBounds;
+  }
+
+  /**
+   * Drops the partitions of a jobs table whose jobs are all due for GC, moving the jobs that are
+   * not out of them first, and then adds the partitions needed ahead of time.
+   *
+   * @param conn                 monitor connection to the shard.
+   * @param queueName            name of the queue, used for stats.
+   * @param jobsTableName        name of the jobs table.
+   * @param upperBounds          as returned by ``getPartitionUpperBounds``.
+   * @param currentTimeMillis    current time.
+   * @param succeededGCTimestamp succeeded jobs that ran before this time are due for GC.
+   * @param failedGCTimestamp    failed jobs that ran before this time are due for GC.
+   * @param updateMaxSize        max number of jobs moved out of a partition at a time.
+   */
+  public Result managePartitions(Connection conn, String queueName, String jobsTableName,
+                                 List<Long> upperBounds, long currentTimeMillis,
+                                 Timestamp succeededGCTimestamp, Timestamp failedGCTimestamp,
+                                 int updateMaxSize) throws IOException, SQLException {
+    long currentTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis);
+    long gcTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(
+        Math.min(succeededGCTimestamp.getTime(), failedGCTimestamp.getTime()));
+    int numDropped = 0;
+    boolean hasMoreToMigrate = false;
+    for (long upperBound : upperBounds) {
+      if (upperBound > gcTimeSeconds) {
+        break;
+      }
+      String partitionName = constructPartitionName(upperBound);
+      // The partitions below this one have been dropped already, so this only matches the jobs of
+      // this partition. NOW() is past the upper bound, so the moved jobs land in a later one.
+      int numMigrated = JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.MIGRATE_JOBS_OUT_OF_PARTITION, jobsTableName),
+          upperBound,
+          PinLaterJobState.PENDING.getValue(),
+          PinLaterJobState.IN_PROGRESS.getValue(),
+          PinLaterJobState.SUCCEEDED.getValue(),
+          succeededGCTimestamp,
+          PinLaterJobState.FAILED.getValue(),
+          failedGCTimestamp,
+          updateMaxSize);
+      Stats.incr(queueName + "_partition_migrated", numMigrated);
+      if (numMigrated >= updateMaxSize) {
+        hasMoreToMigrate = true;
+        break;
+      }
+      // Note: a failed job that is retried through the admin API right after the migration would
+      // be dropped along with the partition. Admin retries of jobs old enough to be in a partition
+      // that is being dropped are expected to be rare.
+      JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.DROP_JOBS_TABLE_PARTITION, jobsTableName, partitionName));
+      Stats.incr(queueName + "_partition_dropped");
+      LOG.info("Dropped partition {} of {}, moved out {} jobs",
+          partitionName, jobsTableName, numMigrated);
+      numDropped++;
+    }
+
+    List<Long> upperBoundsToAdd = getUpperBoundsToAdd(
+        upperBounds.isEmpty() ? null : upperBounds.get(upperBounds.size() - 1),
+        currentTimeSeconds);
+    if (!upperBoundsToAdd.isEmpty()) {
+      JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.ADD_JOBS_TABLE_PARTITIONS, jobsTableName,
+              constructPartitionDefinitions(upperBoundsToAdd)));
+      Stats.incr(queueName + "_partition_added", upperBoundsToAdd.size());
+    }
+    return new Result(numDropped, hasMoreToMigrate);
+  }
+
+  /*
+   * Returns the upper bounds of the partitions to add after ``lastUpperBound`` so that the table
+   * has ``numPartitionsAhead`` partitions beyond the one of ``currentTimeSeconds``.
+   */
+  @VisibleForTesting
+  List<Long> getUpperBoundsToAdd(Long lastUpperBound, long currentTimeSeconds) {
+    long currentUpperBound = (currentTimeSeconds / periodSeconds + 1) * periodSeconds;
+    long targetUpperBound = currentUpperBound + numPartitionsAhead * periodSeconds;
+    // A table whose last partition is far behind, e.g. because the monitor did not run for a
+    // while, resumes from the current period. Jobs inserted in the meantime stay in the partition
+    // that follows the last one.
+    long upperBound = lastUpperBound == null
+                      ? currentUpperBound
+                      : Math.max(lastUpperBound + periodSeconds, currentUpperBound);
+    List<Long> upperBounds = Lists.newArrayList();
+    for (; upperBound <= targetUpperBound; upperBound += periodSeconds) {
+      upperBounds.add(upperBound);
+    }
+    return upperBounds;
+  }
+
+  @VisibleForTesting
+  static String constructPartitionDefinitions(List<Long> upperBounds) {
+    List<String> definitions = Lists.newArrayListWithCapacity(upperBounds.size() + 1);
+    for (long upperBound : upperBounds) {
+      definitions.add(String.format(MySQLQueries.JOBS_TABLE_PARTITION,
+          constructPartitionName(upperBound), upperBound));
+    }
+    definitions.add(MySQLQueries.JOBS_TABLE_MAX_PARTITION);
+    return Joiner.on(", ").join(definitions);
+  }
+
+  private static String constructPartitionName(long upperBound) {
+    return "p" + upperBound;
+  }
+
+  /**
+   * Outcome of a ``managePartitions`` call.
+   */
+  public static class Result {
+
+    private final int numDropped;
+    private final boolean hasMoreToMigrate;
+
+    public Result(int numDropped, boolean hasMoreToMigrate) {
+      this.numDropped = numDropped;
+      this.hasMoreToMigrate = hasMoreToMigrate;
+    }
+
+    /**
+     * Returns the number of partitions dropped.
+     */
+    public int getNumDropped() {
+      return numDropped;
+    }
+
+    /**
+     * Returns whether a partition had more jobs to move out than ``updateMaxSize``, in which case
+     * it is dropped by a later call.
+     */
+    public boolean hasMoreToMigrate() {
+      return hasMoreToMigrate;
+    }
+  }
+}
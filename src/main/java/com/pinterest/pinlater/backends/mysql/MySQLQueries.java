@@ -37,14 +37,15 @@ public final class MySQLQueries {
   private static final String TRUNCATED_PREPEND_CUSTOM_STATUS =
       "SUBSTRING(CONCAT(?, custom_status), 1, " + CUSTOM_STATUS_SIZE_BYTES + ")";
 
+  public static final String JOBS_TABLE_MAX_PARTITION_NAME = "pmax";
+
   public static final String BODY_REGEX_CLAUSE = "AND body REGEXP '%s'";
 
   public static final String CREATE_DATABASE =
       "CREATE DATABASE %s";
 
-  public static final String CREATE_JOBS_TABLE =
-      "CREATE TABLE %s"
-          + "( local_id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT"
+  private static final String JOBS_TABLE_COLUMNS =
+      "( local_id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT"
           + ", state TINYINT NOT NULL"
           + ", claim_descriptor VARCHAR(200)"
           + ", attempts_allowed INT"
@@ -53,33 +54,108 @@ public final class MySQLQueries {
           + ", updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP"
           + ", created_at TIMESTAMP NOT NULL"
           + ", run_after TIMESTAMP NOT NULL"
-          + ", body BLOB NOT NULL"
-          + ", PRIMARY KEY (local_id), INDEX (state, run_after), INDEX (claim_descriptor)"
+          + ", body BLOB NOT NULL";
+
+  public static final String CREATE_JOBS_TABLE =
+      "CREATE TABLE %s"
+          + JOBS_TABLE_COLUMNS
+          + ", PRIMARY KEY (local_id), INDEX (state, run_after)%s"
           + " ) ENGINE=INNODB";
 
+  // Appended to the jobs table definition unless MYSQL_JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX is false.
+  // DEQUEUE_SELECT also works without it, through the (state, run_after) index, by scanning the
+  // jobs that are in progress. It is required when MYSQL_DEQUEUE_MULTI_STATEMENT is set.
+  public static final String JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX =
+      ", INDEX (claim_descriptor)";
+
+  // Layout of the jobs table when MYSQL_JOBS_TABLE_PARTITION_HOURS is set, see
+  // MySQLJobsTablePartitioner. partitioned_at defaults to the insert time and is only updated to
+  // move a job out of a partition that is about to be dropped. It is part of the primary key
+  // because MySQL requires the partitioning column to be part of every unique key.
+  public static final String CREATE_PARTITIONED_JOBS_TABLE =
+      "CREATE TABLE %s"
+          + JOBS_TABLE_COLUMNS
+          + ", partitioned_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP"
+          + ", PRIMARY KEY (local_id, partitioned_at), INDEX (state, run_after)%s"
+          + " ) ENGINE=INNODB"
+          + " PARTITION BY RANGE (UNIX_TIMESTAMP(partitioned_at)) (%s)";
+
+  public static final String JOBS_TABLE_PARTITION =
+      "PARTITION %s VALUES LESS THAN (%d)";
+
+  public static final String JOBS_TABLE_MAX_PARTITION =
+      "PARTITION " + JOBS_TABLE_MAX_PARTITION_NAME + " VALUES LESS THAN MAXVALUE";
+
   public static final String ENQUEUE_INSERT =
       "INSERT INTO %s"
           + " (state, attempts_allowed, attempts_remaining, custom_status, created_at, run_after,"
           + "  body)"
           + " VALUES (?, ?, ?, " + TRUNCATED_CUSTOM_STATUS + ", ?, ?, ?)";
 
+  // Multi-row variant of ENQUEUE_INSERT. The caller appends one ENQUEUE_INSERT_MULTI_ROW_VALUES
+  // per job, separated by commas.
+  public static final String ENQUEUE_INSERT_MULTI_ROW =
+      "INSERT INTO %s"
+          + " (state, attempts_allowed, attempts_remaining, custom_status, created_at, run_after,"
+          + "  body)"
+          + " VALUES ";
+
+  public static final String ENQUEUE_INSERT_MULTI_ROW_VALUES =
+      "(?, ?, ?, " + TRUNCATED_CUSTOM_STATUS + ", ?, ?, ?)";
+
+  // The dequeue queries take DEQUEUE_ORDER_BY_RUN_AFTER or "" before their LIMIT.
   public static final String DEQUEUE_UPDATE =
       "UPDATE %s"
           + " SET claim_descriptor = ?, state = ?"
-          + " WHERE state = ? AND run_after <= NOW()"
+          + " WHERE state = ? AND run_after <= NOW()%s"
           + " LIMIT ?";
 
   public static final String DEQUEUE_SELECT =
       "SELECT local_id, attempts_allowed, attempts_remaining, updated_at, created_at, "
           + "       body FROM %s"
-          + " WHERE claim_descriptor = ?";
+          + " WHERE state = ? AND claim_descriptor = ?";
+
+  // DEQUEUE_UPDATE and DEQUEUE_SELECT in a single round trip, used when
+  // MYSQL_DEQUEUE_MULTI_STATEMENT is set.
+  public static final String DEQUEUE_UPDATE_AND_SELECT =
+      DEQUEUE_UPDATE + "; " + DEQUEUE_SELECT;
+
+  // Used instead of DEQUEUE_UPDATE and DEQUEUE_SELECT when MYSQL_DEQUEUE_SKIP_LOCKED is set and
+  // the server supports it. The candidate jobs are locked in a transaction, skipping the ones
+  // that concurrent dequeues have locked, and then claimed by local_id with DEQUEUE_CLAIM_UPDATE.
+  public static final String DEQUEUE_SKIP_LOCKED_SELECT =
+      "SELECT local_id, attempts_allowed, attempts_remaining, updated_at, created_at, "
+          + "       body FROM %s"
+          + " WHERE state = ? AND run_after <= NOW()%s"
+          + " LIMIT ?"
+          + " FOR UPDATE SKIP LOCKED";
+
+  public static final String DEQUEUE_CLAIM_UPDATE =
+      "UPDATE %s"
+          + " SET claim_descriptor = ?, state = ?"
+          + " WHERE local_id IN (%s)";
+
+  public static final String SELECT_SERVER_VERSION =
+      "SELECT VERSION()";
 
   public static final String DEQUEUE_DRY_RUN_SELECT =
       "SELECT local_id, attempts_allowed, attempts_remaining, updated_at, created_at, "
           + "       body FROM %s"
-          + " WHERE state = ? AND run_after <= NOW()"
+          + " WHERE state = ? AND run_after <= NOW()%s"
           + " LIMIT ?";
 
+  // Makes the dequeue queries claim the pending jobs with the oldest run_after first, for queues
+  // with ordered dequeues (see PinLaterQueueConfig.isDequeueOrdered). The order matches the
+  // (state, run_after) index, so MySQL reads the jobs off the index in order and stops at the
+  // LIMIT instead of sorting every eligible job.
+  public static final String DEQUEUE_ORDER_BY_RUN_AFTER =
+      " ORDER BY run_after";
+
+  public static final String NEXT_RUN_AFTER_SELECT =
+      "SELECT run_after FROM %s"
+          + " WHERE state = ?"
+          + " ORDER BY run_after LIMIT 1";
+
   public static final String LOOKUP_JOB =
       "SELECT local_id, state, attempts_allowed, attempts_remaining, created_at, run_after, "
           + "       updated_at, claim_descriptor, custom_status FROM %s"
@@ -90,6 +166,16 @@ public final class MySQLQueries {
           + "       updated_at, claim_descriptor, custom_status, body FROM %s"
           + " WHERE local_id = ?";
 
+  public static final String LOOKUP_JOBS =
+      "SELECT local_id, state, attempts_allowed, attempts_remaining, created_at, run_after, "
+          + "       updated_at, claim_descriptor, custom_status FROM %s"
+          + " WHERE local_id IN (%s)";
+
+  public static final String LOOKUP_JOBS_WITH_BODY =
+      "SELECT local_id, state, attempts_allowed, attempts_remaining, created_at, run_after, "
+          + "       updated_at, claim_descriptor, custom_status, body FROM %s"
+          + " WHERE local_id IN (%s)";
+
   // Note: a nested query is used here in order to allow for us to cap the count at a certain
   // threshold. The reason for this is executing count queries for millions of rows will take on
   // the order of seconds, which is too slow. For reference, a count query capped with a limit of
@@ -153,6 +239,30 @@ public final class MySQLQueries {
           + "     attempts_remaining = attempts_remaining - 1"
           + " WHERE local_id = ? AND state = ? AND attempts_remaining > 1";
 
+  // Batched variants of the ack queries above. The caller formats in the jobs table name and a
+  // list of local_id placeholders, see ``MySQLBackendUtils.constructInClausePlaceholders``.
+  public static final String ACK_SUCCEEDED_BATCH_UPDATE =
+      "UPDATE %s"
+          + " SET state = ?, "
+          + "     custom_status = " + TRUNCATED_CONCAT_CUSTOM_STATUS
+          + " WHERE local_id IN (%s)";
+
+  public static final String ACK_FAILED_DONE_BATCH_UPDATE =
+      "UPDATE %s"
+          + " SET state = ?, "
+          + "     custom_status = " + TRUNCATED_CONCAT_CUSTOM_STATUS + ","
+          + "     attempts_remaining = 0"
+          + " WHERE local_id IN (%s) AND state = ? AND attempts_remaining = 1";
+
+  public static final String ACK_FAILED_RETRY_BATCH_UPDATE =
+      "UPDATE %s"
+          + " SET state = ?, "
+          + "     custom_status = " + TRUNCATED_CONCAT_CUSTOM_STATUS + ","
+          + "     run_after = ?,"
+          + "     claim_descriptor = NULL,"
+          + "     attempts_remaining = attempts_remaining - 1"
+          + " WHERE local_id IN (%s) AND state = ? AND attempts_remaining > 1";
+
   public static final String CHECKPOINT_JOB_HEADER =
       "UPDATE %s"
           + " SET state = ?"
@@ -195,6 +305,50 @@ public final class MySQLQueries {
       "DELETE FROM %s"
           + " WHERE state = ? AND run_after < ? LIMIT ?";
 
+  public static final String MONITOR_GC_DONE_JOBS_COUNT =
+      "SELECT COUNT(*) FROM ("
+          + " SELECT 1 FROM %s"
+          + "  WHERE state = ? AND run_after < ?"
+          + "  LIMIT ?) as gc_backlog";
+
+  // The GC drain deletes by primary key range: it first reads the local_id range of the next chunk
+  // from the (state, run_after) index, then deletes within that range through the primary key, so
+  // that the delete does not hold gap locks on the (state, run_after) index used by dequeues.
+  public static final String MONITOR_GC_DONE_JOBS_CHUNK_RANGE =
+      "SELECT MIN(local_id), MAX(local_id) FROM ("
+          + " SELECT local_id FROM %s"
+          + "  WHERE state = ? AND run_after < ?"
+          + "  LIMIT ?) as gc_chunk";
+
+  public static final String MONITOR_GC_DONE_JOBS_IN_RANGE =
+      "DELETE FROM %s"
+          + " WHERE local_id >= ? AND local_id <= ? AND state = ? AND run_after < ? LIMIT ?";
+
+  // Returns a single row with a NULL partition name for tables that are not partitioned.
+  public static final String SELECT_JOBS_TABLE_PARTITIONS =
+      "SELECT partition_name, partition_description FROM information_schema.partitions"
+          + " WHERE table_schema = ? AND table_name = ?"
+          + " ORDER BY partition_ordinal_position";
+
+  public static final String ADD_JOBS_TABLE_PARTITIONS =
+      "ALTER TABLE %s REORGANIZE PARTITION " + JOBS_TABLE_MAX_PARTITION_NAME + " INTO (%s)";
+
+  // Moves the jobs that are not due for GC out of the partitions below the given upper bound in
+  // epoch seconds, into the partition of the current time. updated_at is kept as is, since the job
+  // itself does not change. The rows are selected by partitioned_at rather than with a PARTITION
+  // clause, because MySQL rejects an update that moves a row outside of the selected partitions.
+  public static final String MIGRATE_JOBS_OUT_OF_PARTITION =
+      "UPDATE %s"
+          + " SET partitioned_at = NOW(), updated_at = updated_at"
+          + " WHERE partitioned_at < FROM_UNIXTIME(?)"
+          + "   AND (state IN (?, ?)"
+          + "        OR (state = ? AND run_after >= ?)"
+          + "        OR (state = ? AND run_after >= ?))"
+          + " LIMIT ?";
+
+  public static final String DROP_JOBS_TABLE_PARTITION =
+      "ALTER TABLE %s DROP PARTITION %s";
+
   public static final String DROP_DATABASE =
       "DROP DATABASE IF EXISTS %s";
 }
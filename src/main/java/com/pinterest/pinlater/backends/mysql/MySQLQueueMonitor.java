@@ -17,38 +17,47 @@
 package com.pinterest.pinlater.backends.mysql;
 
 import com.pinterest.pinlater.backends.common.BackendQueueMonitorBase;
+import com.pinterest.pinlater.backends.common.DoneJobsGCDrainer;
 import com.pinterest.pinlater.commons.jdbc.JdbcUtils;
+import com.pinterest.pinlater.commons.jdbc.RowProcessor;
+import com.pinterest.pinlater.commons.jdbc.SingleColumnRowProcessor;
 import com.pinterest.pinlater.thrift.PinLaterJobState;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.twitter.common.collections.Pair;
 import com.twitter.ostrich.stats.Stats;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Implements a scheduled task used by the PinLaterMySQLBackend for various types of
- * job queue cleanup, including ACK timeouts and GC'ing finished jobs.
+ * job queue cleanup, including ACK timeouts and GC'ing finished jobs. Partitioned jobs tables are
+ * GC'ed by dropping partitions, see ``MySQLJobsTablePartitioner``.
  */
 public class MySQLQueueMonitor extends BackendQueueMonitorBase<MySQLDataSources> {
 
   private static final Logger LOG = LoggerFactory.getLogger(PinLaterMySQLBackend.class);
-  private int logCount;
-  private int numTimeoutDone;
-  private int numTimeoutRetry;
-  private int numSucceededGC;
-  private int numFailedGC;
+
+  // Max number of jobs counted when measuring the GC backlog of a table.
+  private static final int GC_BACKLOG_COUNT_LIMIT = 1000000;
+
+  private final MySQLJobsTablePartitioner jobsTablePartitioner;
 
   public MySQLQueueMonitor(ImmutableMap<String, MySQLDataSources> shardMap,
                            PropertiesConfiguration configuration) {
     super(shardMap, configuration);
+    this.jobsTablePartitioner = new MySQLJobsTablePartitioner(configuration);
   }
 
   @VisibleForTesting
@@ -59,103 +68,192 @@ public class MySQLQueueMonitor extends BackendQueueMonitorBase<MySQLDataSources>
                            int numPriorityLevels) {
     super(shardMap, updateMaxSize, maxAutoRetries, logInterval, jobClaimedTimeoutMillis,
         jobSucceededGCTimeoutMillis, jobFailedGCTimeoutMillis, numPriorityLevels);
+    this.jobsTablePartitioner = new MySQLJobsTablePartitioner(0, 0);
   }
 
   @Override
-  public void run() {
-    final long runStartMillis = System.currentTimeMillis();
-    for (ImmutableMap.Entry<String, MySQLDataSources> shard : getShardMap().entrySet()) {
-      jobMonitorImpl(runStartMillis, shard, getMaxAutoRetries());
+  protected Set<String> getQueueNames(Map.Entry<String, MySQLDataSources> shard)
+      throws Exception {
+    Connection conn = null;
+    try {
+      conn = shard.getValue().getMonitorDataSource().getConnection();
+      return MySQLBackendUtils.getQueueNames(conn, shard.getKey());
+    } finally {
+      JdbcUtils.closeConnection(conn);
     }
   }
 
   @Override
-  protected void jobMonitorImpl(long runStartMillis,
-                                Map.Entry<String, MySQLDataSources> shard,
-                                int numAutoRetries) {
+  protected boolean monitorTable(long runStartMillis,
+                                 Map.Entry<String, MySQLDataSources> shard,
+                                 String queueName,
+                                 int priority,
+                                 int numAutoRetries) {
     Connection conn = null;
-    ResultSet dbNameRs = null;
     Timestamp succeededGCTimestamp = new Timestamp(
         runStartMillis - getJobSucceededGCTimeoutMillis());
     Timestamp failedGCTimestamp = new Timestamp(runStartMillis - getJobFailedGCTimeoutMillis());
     Timestamp timeoutTimestamp = new Timestamp(runStartMillis - getJobClaimedTimeoutMillis());
+    String jobsTableName = MySQLBackendUtils.constructJobsTableName(
+        queueName, shard.getKey(), priority);
 
     try {
       conn = shard.getValue().getMonitorDataSource().getConnection();
-      Set<String> queueNames = MySQLBackendUtils.getQueueNames(conn, shard.getKey());
-      for (String queueName : queueNames) {
-        for (int priority = 1;
-             priority <= numPriorityLevels;
-             priority++) {
-          String jobsTableName = MySQLBackendUtils.constructJobsTableName(
-              queueName, shard.getKey(), priority);
-
-          // Handle timed out jobs with attempts exhausted.
-          numTimeoutDone += JdbcUtils.executeUpdate(
-              conn,
-              String.format(MySQLQueries.MONITOR_TIMEOUT_DONE_UPDATE, jobsTableName),
-              PinLaterJobState.FAILED.getValue(),
-              PinLaterJobState.IN_PROGRESS.getValue(),
-              timeoutTimestamp,
-              getUpdateMaxSize());
-
-          // Handle timed out jobs with attempts remaining.
-          numTimeoutRetry += JdbcUtils.executeUpdate(
-              conn,
-              String.format(MySQLQueries.MONITOR_TIMEOUT_RETRY_UPDATE, jobsTableName),
-              PinLaterJobState.PENDING.getValue(),
-              PinLaterJobState.IN_PROGRESS.getValue(),
-              timeoutTimestamp,
-              getUpdateMaxSize());
-
-          // Succeeded job GC.
-          numSucceededGC += JdbcUtils.executeUpdate(
-              conn,
-              String.format(MySQLQueries.MONITOR_GC_DONE_JOBS, jobsTableName),
-              PinLaterJobState.SUCCEEDED.getValue(),
-              succeededGCTimestamp,
-              getUpdateMaxSize());
-
-          // Failed job GC.
-          numFailedGC += JdbcUtils.executeUpdate(
-              conn,
-              String.format(MySQLQueries.MONITOR_GC_DONE_JOBS, jobsTableName),
-              PinLaterJobState.FAILED.getValue(),
-              failedGCTimestamp,
-              getUpdateMaxSize());
-
-          logCount++;
-          if (logCount % getLogInterval() == 0) {
-            LOG.info(String.format(
-                "JobQueueMonitor: "
-                    + "Shard: %s Queue: %s Priority: %d Timeout Done: %d Timeout Retry: %d "
-                    + "Succeeded GC: %d Failed GC: %d",
-                shard.getKey(), queueName, priority, numTimeoutDone, numTimeoutRetry,
-                numSucceededGC, numFailedGC));
-            Stats.incr(queueName + "_timeout_done", numTimeoutDone);
-            Stats.incr(queueName + "_timeout_retry", numTimeoutRetry);
-            Stats.incr(queueName + "_succeeded_gc", numSucceededGC);
-            Stats.incr(queueName + "_failed_gc", numFailedGC);
-            logCount = 0;
-            numTimeoutDone = 0;
-            numTimeoutRetry = 0;
-            numSucceededGC = 0;
-            numFailedGC = 0;
-          }
-        }
+
+      // Handle timed out jobs with attempts exhausted.
+      int numTimeoutDone = JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.MONITOR_TIMEOUT_DONE_UPDATE, jobsTableName),
+          PinLaterJobState.FAILED.getValue(),
+          PinLaterJobState.IN_PROGRESS.getValue(),
+          timeoutTimestamp,
+          getUpdateMaxSize());
+
+      // Handle timed out jobs with attempts remaining.
+      int numTimeoutRetry = JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.MONITOR_TIMEOUT_RETRY_UPDATE, jobsTableName),
+          PinLaterJobState.PENDING.getValue(),
+          PinLaterJobState.IN_PROGRESS.getValue(),
+          timeoutTimestamp,
+          getUpdateMaxSize());
+
+      int numSucceededGC = 0;
+      int numFailedGC = 0;
+      int numPartitionsDropped = 0;
+      boolean hasMoreToMigrate = false;
+      boolean hasMoreGC = false;
+      List<Long> partitionUpperBounds =
+          jobsTablePartitioner.getPartitionUpperBounds(conn, jobsTableName);
+      if (partitionUpperBounds != null) {
+        // Partitioned table GC.
+        MySQLJobsTablePartitioner.Result result = jobsTablePartitioner.managePartitions(
+            conn, queueName, jobsTableName, partitionUpperBounds, runStartMillis,
+            succeededGCTimestamp, failedGCTimestamp, getUpdateMaxSize());
+        numPartitionsDropped = result.getNumDropped();
+        hasMoreToMigrate = result.hasMoreToMigrate();
+      } else {
+        // Succeeded job GC.
+        long gcDeadlineMillis = runStartMillis + getDrainTimeMillis();
+        String gcTableKey = shard.getKey() + ":" + queueName + ":" + priority;
+        DoneJobsGCDrainer.Result succeededGC = getDoneJobsGCDrainer().gc(
+            queueName + "_succeeded",
+            gcTableKey + ":succeeded",
+            new DoneJobsTable(conn, jobsTableName, PinLaterJobState.SUCCEEDED,
+                succeededGCTimestamp),
+            gcDeadlineMillis);
+
+        // Failed job GC.
+        DoneJobsGCDrainer.Result failedGC = getDoneJobsGCDrainer().gc(
+            queueName + "_failed",
+            gcTableKey + ":failed",
+            new DoneJobsTable(conn, jobsTableName, PinLaterJobState.FAILED, failedGCTimestamp),
+            gcDeadlineMillis);
+        numSucceededGC = succeededGC.getNumDeleted();
+        numFailedGC = failedGC.getNumDeleted();
+        hasMoreGC = succeededGC.hasMoreToDelete() || failedGC.hasMoreToDelete();
+      }
+
+      Stats.incr(queueName + "_timeout_done", numTimeoutDone);
+      Stats.incr(queueName + "_timeout_retry", numTimeoutRetry);
+      Stats.incr(queueName + "_succeeded_gc", numSucceededGC);
+      Stats.incr(queueName + "_failed_gc", numFailedGC);
+      if (shouldLog()) {
+        LOG.info(String.format(
+            "JobQueueMonitor: "
+                + "Shard: %s Queue: %s Priority: %d Timeout Done: %d Timeout Retry: %d "
+                + "Succeeded GC: %d Failed GC: %d Partitions Dropped: %d",
+            shard.getKey(), queueName, priority, numTimeoutDone, numTimeoutRetry,
+            numSucceededGC, numFailedGC, numPartitionsDropped));
       }
+      return numTimeoutDone >= getUpdateMaxSize()
+          || numTimeoutRetry >= getUpdateMaxSize()
+          || hasMoreGC
+          || hasMoreToMigrate;
     } catch (Exception e) {
       // Deadlocks are occasionally expected for our high-contention queries. We
       // retry a few times so as not to abort an entire monitor cycle.
       if (MySQLBackendUtils.isDeadlockException(e) && numAutoRetries > 0) {
         Stats.incr("mysql-deadlock-monitor");
-        jobMonitorImpl(runStartMillis, shard, numAutoRetries - 1);
+        return monitorTable(runStartMillis, shard, queueName, priority, numAutoRetries - 1);
       } else {
         LOG.error("Exception in JobQueueMonitor task", e);
+        return false;
       }
     } finally {
-      JdbcUtils.closeResultSet(dbNameRs);
       JdbcUtils.closeConnection(conn);
     }
   }
+
+  /*
+   * The finished jobs of a single state in a jobs table, as seen through the monitor connection.
+   */
+  private static class DoneJobsTable extends DoneJobsGCDrainer.Table {
+
+    private final Connection conn;
+    private final String jobsTableName;
+    private final PinLaterJobState state;
+    private final Timestamp gcTimestamp;
+
+    DoneJobsTable(Connection conn, String jobsTableName, PinLaterJobState state,
+                  Timestamp gcTimestamp) {
+      this.conn = conn;
+      this.jobsTableName = jobsTableName;
+      this.state = state;
+      this.gcTimestamp = gcTimestamp;
+    }
+
+    @Override
+    public long countBacklog() throws Exception {
+      // Counting walks the (state, run_after) index, so cap the cost of the count. Draining a
+      // capped backlog stops early, and the table gets requeued and counted again.
+      Long count = JdbcUtils.selectOne(
+          conn,
+          String.format(MySQLQueries.MONITOR_GC_DONE_JOBS_COUNT, jobsTableName),
+          new SingleColumnRowProcessor<Long>(Long.class),
+          state.getValue(),
+          gcTimestamp,
+          GC_BACKLOG_COUNT_LIMIT);
+      return count == null ? 0 : count;
+    }
+
+    @Override
+    public int deleteJobs(int limit) throws Exception {
+      return JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.MONITOR_GC_DONE_JOBS, jobsTableName),
+          state.getValue(),
+          gcTimestamp,
+          limit);
+    }
+
+    @Override
+    public int deleteChunk(int chunkSize) throws Exception {
+      Pair<Long, Long> localIdRange = JdbcUtils.selectOne(
+          conn,
+          String.format(MySQLQueries.MONITOR_GC_DONE_JOBS_CHUNK_RANGE, jobsTableName),
+          new RowProcessor<Pair<Long, Long>>() {
+            @Override
+            public Pair<Long, Long> process(ResultSet rs) throws IOException, SQLException {
+              return new Pair<Long, Long>(
+                  (Long) JdbcUtils.getResultSetValue(rs, 1, Long.class),
+                  (Long) JdbcUtils.getResultSetValue(rs, 2, Long.class));
+            }
+          },
+          state.getValue(),
+          gcTimestamp,
+          chunkSize);
+      if (localIdRange == null || localIdRange.getFirst() == null) {
+        return 0;
+      }
+      return JdbcUtils.executeUpdate(
+          conn,
+          String.format(MySQLQueries.MONITOR_GC_DONE_JOBS_IN_RANGE, jobsTableName),
+          localIdRange.getFirst(),
+          localIdRange.getSecond(),
+          state.getValue(),
+          gcTimestamp,
+          chunkSize);
+    }
+  }
 }
@@ -33,6 +33,7 @@ import com.pinterest.pinlater.thrift.PinLaterJobInfo;
 import com.pinterest.pinlater.thrift.PinLaterJobState;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
@@ -74,6 +75,14 @@ import java.util.concurrent.atomic.AtomicReference;
  *  1. MySQL backend ensure that the custom status stored in db should not exceed
  *     ``CUSTOM_STATUS_SIZE_BYTES``.
  *  2. MySQL backend limits the count of jobs returned to ``MYSQL_COUNT_LIMIT``.
+ *  3. MySQL backend can create the jobs tables partitioned by time, so that finished jobs are
+ *     garbage collected by dropping partitions. See ``MySQLJobsTablePartitioner``.
+ *  4. MySQL backend can claim jobs with SELECT ... FOR UPDATE SKIP LOCKED on servers that support
+ *     it, when ``MYSQL_DEQUEUE_SKIP_LOCKED`` is set.
+ *  5. MySQL backend can claim jobs in a single round trip with a multi-statement query, when
+ *     ``MYSQL_DEQUEUE_MULTI_STATEMENT`` is set.
+ *  6. MySQL backend claims the jobs with the oldest run_after first for queues with ordered
+ *     dequeues, and in index or table order otherwise.
  */
 public class PinLaterMySQLBackend extends PinLaterBackendBase {
 
@@ -83,6 +92,12 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
       new AtomicReference<ImmutableMap<String, MySQLDataSources>>();
   private final int countLimit;
   private final int numDbPerQueue;
+  private final int enqueueBatchSize;
+  private final int ackBatchSize;
+  private final boolean dequeueSkipLocked;
+  private final boolean dequeueMultiStatement;
+  private final boolean claimDescriptorIndex;
+  private final MySQLJobsTablePartitioner jobsTablePartitioner;
   private final MySQLHealthMonitor mySQLHealthMonitor;
   private final PropertiesConfiguration configuration;
   private final ScheduledExecutorService queueMonitorService;
@@ -102,6 +117,19 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     this.configuration = Preconditions.checkNotNull(configuration);
     this.countLimit = configuration.getInt("MYSQL_COUNT_LIMIT");
     this.numDbPerQueue = configuration.getInt("MYSQL_NUM_DB_PER_QUEUE", 1);
+    this.enqueueBatchSize = configuration.getInt("MYSQL_ENQUEUE_BATCH_SIZE", 100);
+    Preconditions.checkArgument(enqueueBatchSize > 0);
+    this.ackBatchSize = configuration.getInt("MYSQL_ACK_BATCH_SIZE", 500);
+    Preconditions.checkArgument(ackBatchSize > 0);
+    this.dequeueSkipLocked = configuration.getBoolean("MYSQL_DEQUEUE_SKIP_LOCKED", false);
+    this.dequeueMultiStatement = MySQLDataSources.isMultiStatementEnabled(configuration);
+    this.claimDescriptorIndex =
+        configuration.getBoolean("MYSQL_JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX", true);
+    // Without the index, the DEQUEUE_SELECT of each multi-statement dequeue would scan all of the
+    // jobs in progress.
+    Preconditions.checkArgument(!dequeueMultiStatement || claimDescriptorIndex,
+        "MYSQL_DEQUEUE_MULTI_STATEMENT requires MYSQL_JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX");
+    this.jobsTablePartitioner = new MySQLJobsTablePartitioner(configuration);
     this.mySQLHealthMonitor = new MySQLHealthMonitor(new HashSet<String>());
 
     // Start the JobQueueMonitor scheduled task.
@@ -226,9 +254,10 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
              priority++) {
           JdbcUtils.executeUpdate(
               conn,
-              String.format(
-                  MySQLQueries.CREATE_JOBS_TABLE,
-                  MySQLBackendUtils.constructJobsTableName(queueName, shard.getKey(), priority)));
+              jobsTablePartitioner.constructCreateJobsTableQuery(
+                  MySQLBackendUtils.constructJobsTableName(queueName, shard.getKey(), priority),
+                  claimDescriptorIndex,
+                  System.currentTimeMillis()));
         }
       } catch (SQLException e) {
         // If database already exists, then just ignore this and move onto the next shard.
@@ -293,34 +322,7 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
       PinLaterJobInfo jobInfo = JdbcUtils.selectOne(
           conn,
           String.format(mySQLQuery, jobsTableName),
-          new RowProcessor<PinLaterJobInfo>() {
-            @Override
-            public PinLaterJobInfo process(ResultSet rs) throws IOException, SQLException {
-              PinLaterJobInfo ji = new PinLaterJobInfo();
-              ji.setJobDescriptor(
-                  new PinLaterJobDescriptor(
-                      queueName,
-                      shardName,
-                      priority,
-                      rs.getLong(1)).toString());
-              ji.setJobState(PinLaterJobState.findByValue(rs.getInt(2)));
-              ji.setAttemptsAllowed(rs.getInt(3));
-              ji.setAttemptsRemaining(rs.getInt(4));
-              ji.setCreatedAtTimestampMillis(rs.getTimestamp(5).getTime());
-              ji.setRunAfterTimestampMillis(rs.getTimestamp(6).getTime());
-              ji.setUpdatedAtTimestampMillis(rs.getTimestamp(7).getTime());
-              String claimDescriptor = rs.getString(8);
-              if (claimDescriptor != null) {
-                ji.setClaimDescriptor(claimDescriptor);
-              }
-              ;
-              ji.setCustomStatus(Strings.nullToEmpty(rs.getString(9)));
-              if (isIncludeBody) {
-                ji.setBody(rs.getBytes(10));
-              }
-              return ji;
-            }
-          },
+          newJobInfoRowProcessor(queueName, shardName, priority, isIncludeBody),
           localId);
       return jobInfo;
     } finally {
@@ -328,6 +330,73 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected Map<Long, PinLaterJobInfo> lookupJobsFromShard(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final List<Long> localIds,
+      final boolean isIncludeBody) throws Exception {
+    final String mySQLQuery = isIncludeBody ? MySQLQueries.LOOKUP_JOBS_WITH_BODY :
+                              MySQLQueries.LOOKUP_JOBS;
+    String jobsTableName = MySQLBackendUtils.constructJobsTableName(queueName, shardName, priority);
+    Connection conn = null;
+    ImmutableMap<String, MySQLDataSources> shardMap = shardMapRef.get();
+    try {
+      conn = shardMap.get(shardName).getGeneralDataSource().getConnection();
+      List<PinLaterJobInfo> jobInfos = JdbcUtils.select(
+          conn,
+          String.format(mySQLQuery, jobsTableName,
+              MySQLBackendUtils.constructInClausePlaceholders(localIds.size())),
+          newJobInfoRowProcessor(queueName, shardName, priority, isIncludeBody),
+          localIds.toArray());
+      Map<Long, PinLaterJobInfo> jobInfoMap = Maps.newHashMapWithExpectedSize(jobInfos.size());
+      for (PinLaterJobInfo jobInfo : jobInfos) {
+        jobInfoMap.put(new PinLaterJobDescriptor(jobInfo.getJobDescriptor()).getLocalId(), jobInfo);
+      }
+      return jobInfoMap;
+    } finally {
+      JdbcUtils.closeConnection(conn);
+    }
+  }
+
+  /*
+   * Builds the job info from a row selected by LOOKUP_JOB(S) or LOOKUP_JOB(S)_WITH_BODY.
+   */
+  private static RowProcessor<PinLaterJobInfo> newJobInfoRowProcessor(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final boolean isIncludeBody) {
+    return new RowProcessor<PinLaterJobInfo>() {
+      @Override
+      public PinLaterJobInfo process(ResultSet rs) throws IOException, SQLException {
+        PinLaterJobInfo ji = new PinLaterJobInfo();
+        ji.setJobDescriptor(
+            new PinLaterJobDescriptor(
+                queueName,
+                shardName,
+                priority,
+                rs.getLong(1)).toString());
+        ji.setJobState(PinLaterJobState.findByValue(rs.getInt(2)));
+        ji.setAttemptsAllowed(rs.getInt(3));
+        ji.setAttemptsRemaining(rs.getInt(4));
+        ji.setCreatedAtTimestampMillis(rs.getTimestamp(5).getTime());
+        ji.setRunAfterTimestampMillis(rs.getTimestamp(6).getTime());
+        ji.setUpdatedAtTimestampMillis(rs.getTimestamp(7).getTime());
+        String claimDescriptor = rs.getString(8);
+        if (claimDescriptor != null) {
+          ji.setClaimDescriptor(claimDescriptor);
+        }
+        ji.setCustomStatus(Strings.nullToEmpty(rs.getString(9)));
+        if (isIncludeBody) {
+          ji.setBody(rs.getBytes(10));
+        }
+        return ji;
+      }
+    };
+  }
+
   @Override
   protected int getJobCountFromShard(
       final String queueName,
@@ -539,6 +608,100 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected List<String> enqueueJobsWithPriority(
+      final String queueName,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) throws Exception {
+    List<String> jobDescriptors = Lists.newArrayListWithCapacity(jobs.size());
+    // Cap the number of rows per INSERT so that a large batch of big job bodies does not exceed
+    // the server's max_allowed_packet.
+    for (List<PinLaterJob> batch : Lists.partition(jobs, enqueueBatchSize)) {
+      jobDescriptors.addAll(enqueueJobsToShard(
+          queueName, getRandomEnqueueableShard(), priority, batch, numAutoRetries));
+    }
+    return jobDescriptors;
+  }
+
+  /**
+   * Enqueues a batch of jobs of the same priority into a single shard with one multi-row INSERT.
+   * The INSERT runs in its own implicit transaction, so either all of the jobs are enqueued or none
+   * are, and a failed batch can safely be retried as a whole.
+   */
+  private List<String> enqueueJobsToShard(
+      final String queueName,
+      final ImmutableMap.Entry<String, MySQLDataSources> shard,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) throws Exception {
+    final long currentTimeMillis = System.currentTimeMillis();
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = shard.getValue().getGeneralDataSource().getConnection();
+      String jobsTableName =
+          MySQLBackendUtils.constructJobsTableName(queueName, shard.getKey(), priority);
+      StringBuilder insertBuilder = new StringBuilder(
+          String.format(MySQLQueries.ENQUEUE_INSERT_MULTI_ROW, jobsTableName));
+      for (int i = 0; i < jobs.size(); i++) {
+        if (i > 0) {
+          insertBuilder.append(", ");
+        }
+        insertBuilder.append(MySQLQueries.ENQUEUE_INSERT_MULTI_ROW_VALUES);
+      }
+      stmt = conn.prepareStatement(insertBuilder.toString(), Statement.RETURN_GENERATED_KEYS);
+      int index = 1;
+      for (PinLaterJob job : jobs) {
+        stmt.setInt(index++, PinLaterJobState.PENDING.getValue());
+        stmt.setInt(index++, job.getNumAttemptsAllowed());
+        stmt.setInt(index++, job.getNumAttemptsAllowed());
+        stmt.setString(index++, job.getCustomStatus());
+        stmt.setTimestamp(index++, new Timestamp(currentTimeMillis));
+        stmt.setTimestamp(index++, new Timestamp(job.isSetRunAfterTimestampMillis()
+                                                 ? job.getRunAfterTimestampMillis()
+                                                 : currentTimeMillis));
+        stmt.setBytes(index++, job.getBody());
+      }
+      stmt.executeUpdate();
+
+      // The generated keys of a multi-row INSERT are returned in the same order as the rows in
+      // the VALUES list.
+      List<String> jobDescriptors = Lists.newArrayListWithCapacity(jobs.size());
+      rs = stmt.getGeneratedKeys();
+      while (rs.next()) {
+        jobDescriptors.add(new PinLaterJobDescriptor(
+            queueName, shard.getKey(), priority, rs.getLong(1)).toString());
+      }
+      if (jobDescriptors.size() != jobs.size()) {
+        throw new PinLaterException(ErrorCode.UNKNOWN, String.format(
+            "Expected %d generated ids from enqueue into %s but got %d",
+            jobs.size(), jobsTableName, jobDescriptors.size()));
+      }
+      Stats.addMetric("mysql-enqueue-batch-size", jobs.size());
+      return jobDescriptors;
+    } catch (SQLException e) {
+      boolean shouldRetry = checkExceptionIsRetriable(e, shard.getKey(), "enqueue");
+      if (shouldRetry && numAutoRetries > 0) {
+        // Retry the whole batch, potentially on a different shard.
+        Stats.incr("enqueue-failures-retry");
+        return enqueueJobsToShard(
+            queueName, getRandomEnqueueableShard(), priority, jobs, numAutoRetries - 1);
+      }
+      // Out of retries, throw the exception. Wrap it into a PinLaterException if the exception
+      // is recognized and return the appropriate error code.
+      if (MySQLBackendUtils.isDatabaseDoesNotExistException(e)) {
+        throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+      }
+      throw e;
+    } finally {
+      JdbcUtils.closeResultSet(rs);
+      JdbcUtils.closeStatement(stmt);
+      JdbcUtils.closeConnection(conn);
+    }
+  }
+
   @Override
   protected PinLaterDequeueResponse dequeueJobsFromShard(
       final String queueName,
@@ -561,25 +724,39 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
 
     try {
       ImmutableMap<String, MySQLDataSources> shardMap = shardMapRef.get();
-      conn = shardMap.get(shardName).getGeneralDataSource().getConnection();
+      conn = shardMap.get(shardName).getDequeueDataSource().getConnection();
       RowProcessor<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>>
           dequeueRowProcessor = constructDequeueRowProcessor(queueName, shardName, priority);
+      String orderByClause =
+          isDequeueOrdered(queueName) ? MySQLQueries.DEQUEUE_ORDER_BY_RUN_AFTER : "";
 
       if (dryRun) {
         // If this is a dry run, just retrieve the relevant pending jobs.
         List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows =
             JdbcUtils.select(
                 conn,
-                String.format(MySQLQueries.DEQUEUE_DRY_RUN_SELECT, jobsTableName),
+                String.format(MySQLQueries.DEQUEUE_DRY_RUN_SELECT, jobsTableName, orderByClause),
                 dequeueRowProcessor,
                 PinLaterJobState.PENDING.getValue(),
                 jobsNeeded);
         shardResponse = convertResultsIntoDequeueResponse(resultRows);
+      } else if (dequeueSkipLocked && isSkipLockedSupported(shardMap.get(shardName), conn)) {
+        List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows =
+            claimJobsSkipLocked(conn, jobsTableName, orderByClause, claimDescriptor, jobsNeeded,
+                dequeueRowProcessor);
+        recordDequeueDelays(queueName, currentTimeMillis, resultRows);
+        shardResponse = convertResultsIntoDequeueResponse(resultRows);
+      } else if (dequeueMultiStatement) {
+        List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows =
+            claimJobsMultiStatement(conn, jobsTableName, orderByClause, claimDescriptor,
+                jobsNeeded, dequeueRowProcessor);
+        recordDequeueDelays(queueName, currentTimeMillis, resultRows);
+        shardResponse = convertResultsIntoDequeueResponse(resultRows);
       } else {
         // If not a dry run, then we'll want to actually update the job state and claimDescriptor.
         int rowsUpdated = JdbcUtils.executeUpdate(
             conn,
-            String.format(MySQLQueries.DEQUEUE_UPDATE, jobsTableName),
+            String.format(MySQLQueries.DEQUEUE_UPDATE, jobsTableName, orderByClause),
             claimDescriptor,
             PinLaterJobState.IN_PROGRESS.getValue(),
             PinLaterJobState.PENDING.getValue(),
@@ -591,20 +768,9 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
                   conn,
                   String.format(MySQLQueries.DEQUEUE_SELECT, jobsTableName),
                   dequeueRowProcessor,
+                  PinLaterJobState.IN_PROGRESS.getValue(),
                   claimDescriptor);
-          for (Tuple6<String, Integer, Integer, Timestamp, Timestamp,
-              ByteBuffer> tuple : resultRows) {
-            int attemptsAllowed = tuple._2();
-            int attemptsRemaining = tuple._3();
-            long updatedAtMillis = tuple._4().getTime();
-            long createdAtMillis = tuple._5().getTime();
-            if (attemptsAllowed == attemptsRemaining) {
-              Stats.addMetric(String.format("%s_first_dequeue_delay_ms", queueName),
-                  (int) (currentTimeMillis - createdAtMillis));
-            }
-            Stats.addMetric(String.format("%s_dequeue_delay_ms", queueName),
-                (int) (currentTimeMillis - updatedAtMillis));
-          }
+          recordDequeueDelays(queueName, currentTimeMillis, resultRows);
           shardResponse = convertResultsIntoDequeueResponse(resultRows);
         }
       }
@@ -616,8 +782,16 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
       if (shouldRetry && numAutoRetries > 0) {
         // Retry on the same shard.
         Stats.incr("dequeue-failures-retry");
-        return dequeueJobsFromShard(queueName, shardName, priority, claimDescriptor,
-            jobsNeeded, numAutoRetries - 1, dryRun);
+        PinLaterDequeueResponse retryResponse = dequeueJobsFromShard(queueName, shardName,
+            priority, claimDescriptor, jobsNeeded, numAutoRetries - 1, dryRun);
+        // The dequeue as a whole succeeded, so the concurrency limiter does not see the
+        // contention unless it is reported. A dequeue that fails is counted by the limiter
+        // already.
+        if (MySQLBackendUtils.isDeadlockException(e)
+            || MySQLBackendUtils.isExceptionIndicativeOfOverload(e)) {
+          recordDequeueContention(queueName, shardName);
+        }
+        return retryResponse;
       }
       // Out of retries, throw the exception. Wrap it into a PinLaterException if the exception
       // is recognized and return the appropriate error code.
@@ -632,6 +806,168 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     return shardResponse;
   }
 
+  /*
+   * Claims up to ``jobsNeeded`` jobs of a table in a single transaction: the jobs are selected and
+   * locked with SKIP LOCKED, so that concurrent dequeues on the same table claim different jobs
+   * instead of waiting on each other's row locks, and then claimed by local_id. Returns the jobs
+   * as they were selected, which saves the DEQUEUE_SELECT by claim descriptor.
+   */
+  private List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>>
+  claimJobsSkipLocked(
+      Connection conn,
+      String jobsTableName,
+      String orderByClause,
+      String claimDescriptor,
+      int jobsNeeded,
+      final RowProcessor<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>>
+          dequeueRowProcessor) throws IOException, SQLException {
+    final List<Long> localIds = Lists.newArrayListWithCapacity(jobsNeeded);
+    boolean committed = false;
+    conn.setAutoCommit(false);
+    try {
+      List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows =
+          JdbcUtils.select(
+              conn,
+              String.format(
+                  MySQLQueries.DEQUEUE_SKIP_LOCKED_SELECT, jobsTableName, orderByClause),
+              new RowProcessor<Tuple6<String, Integer, Integer, Timestamp, Timestamp,
+                  ByteBuffer>>() {
+                @Override
+                public Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer> process(
+                    ResultSet rs) throws IOException, SQLException {
+                  localIds.add(rs.getLong(1));
+                  return dequeueRowProcessor.process(rs);
+                }
+              },
+              PinLaterJobState.PENDING.getValue(),
+              jobsNeeded);
+      if (!localIds.isEmpty()) {
+        List<Object> args = Lists.newArrayListWithCapacity(localIds.size() + 2);
+        args.add(claimDescriptor);
+        args.add(PinLaterJobState.IN_PROGRESS.getValue());
+        args.addAll(localIds);
+        JdbcUtils.executeUpdate(
+            conn,
+            String.format(MySQLQueries.DEQUEUE_CLAIM_UPDATE, jobsTableName,
+                MySQLBackendUtils.constructInClausePlaceholders(localIds.size())),
+            args.toArray());
+      }
+      conn.commit();
+      committed = true;
+      return resultRows;
+    } finally {
+      if (!committed) {
+        try {
+          conn.rollback();
+        } catch (SQLException e) {
+          LOG.error("Failed to roll back dequeue transaction on " + jobsTableName, e);
+        }
+      }
+      conn.setAutoCommit(true);
+    }
+  }
+
+  /*
+   * Claims up to ``jobsNeeded`` jobs of a table and returns them in a single round trip, by
+   * sending DEQUEUE_UPDATE and DEQUEUE_SELECT as one multi-statement query.
+   */
+  private List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>>
+  claimJobsMultiStatement(
+      Connection conn,
+      String jobsTableName,
+      String orderByClause,
+      String claimDescriptor,
+      int jobsNeeded,
+      RowProcessor<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>>
+          dequeueRowProcessor) throws IOException, SQLException {
+    List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows =
+        Lists.newArrayListWithCapacity(jobsNeeded);
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = conn.prepareStatement(String.format(
+          MySQLQueries.DEQUEUE_UPDATE_AND_SELECT, jobsTableName, orderByClause, jobsTableName));
+      JdbcUtils.bindParameter(stmt, 1, claimDescriptor);
+      JdbcUtils.bindParameter(stmt, 2, PinLaterJobState.IN_PROGRESS.getValue());
+      JdbcUtils.bindParameter(stmt, 3, PinLaterJobState.PENDING.getValue());
+      JdbcUtils.bindParameter(stmt, 4, jobsNeeded);
+      JdbcUtils.bindParameter(stmt, 5, PinLaterJobState.IN_PROGRESS.getValue());
+      JdbcUtils.bindParameter(stmt, 6, claimDescriptor);
+      stmt.execute();
+      // The first result is the update count of DEQUEUE_UPDATE, the second one the jobs claimed.
+      if (stmt.getUpdateCount() > 0 && stmt.getMoreResults()) {
+        rs = stmt.getResultSet();
+        while (rs.next()) {
+          resultRows.add(dequeueRowProcessor.process(rs));
+        }
+      }
+      return resultRows;
+    } finally {
+      JdbcUtils.closeResultSet(rs);
+      JdbcUtils.closeStatement(stmt);
+    }
+  }
+
+  /*
+   * Returns whether the server behind the given data sources supports SKIP LOCKED. The server
+   * version is checked the first time, and the result is kept for the life of the data sources.
+   */
+  private static boolean isSkipLockedSupported(MySQLDataSources dataSources, Connection conn)
+      throws IOException, SQLException {
+    Boolean supported = dataSources.isSkipLockedSupported();
+    if (supported == null) {
+      String serverVersion = JdbcUtils.selectOne(
+          conn,
+          MySQLQueries.SELECT_SERVER_VERSION,
+          new SingleColumnRowProcessor<String>(String.class));
+      supported = MySQLBackendUtils.isSkipLockedSupported(serverVersion);
+      if (!supported) {
+        LOG.warn("MySQL server version {} does not support SKIP LOCKED, using regular dequeues",
+            serverVersion);
+      }
+      dataSources.setSkipLockedSupported(supported);
+    }
+    return supported;
+  }
+
+  private static void recordDequeueDelays(
+      String queueName,
+      long currentTimeMillis,
+      List<Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer>> resultRows) {
+    for (Tuple6<String, Integer, Integer, Timestamp, Timestamp, ByteBuffer> tuple : resultRows) {
+      int attemptsAllowed = tuple._2();
+      int attemptsRemaining = tuple._3();
+      long updatedAtMillis = tuple._4().getTime();
+      long createdAtMillis = tuple._5().getTime();
+      if (attemptsAllowed == attemptsRemaining) {
+        Stats.addMetric(String.format("%s_first_dequeue_delay_ms", queueName),
+            (int) (currentTimeMillis - createdAtMillis));
+      }
+      Stats.addMetric(String.format("%s_dequeue_delay_ms", queueName),
+          (int) (currentTimeMillis - updatedAtMillis));
+    }
+  }
+
+  @Override
+  protected Long getNextRunAfterFromShard(
+      final String queueName,
+      final String shardName,
+      final int priority) throws Exception {
+    Connection conn = null;
+    try {
+      conn = shardMapRef.get().get(shardName).getGeneralDataSource().getConnection();
+      Timestamp runAfter = JdbcUtils.selectOne(
+          conn,
+          String.format(MySQLQueries.NEXT_RUN_AFTER_SELECT,
+              MySQLBackendUtils.constructJobsTableName(queueName, shardName, priority)),
+          new SingleColumnRowProcessor<Timestamp>(Timestamp.class),
+          PinLaterJobState.PENDING.getValue());
+      return runAfter == null ? null : runAfter.getTime();
+    } finally {
+      JdbcUtils.closeConnection(conn);
+    }
+  }
+
   @Override
   protected void ackSingleJob(final String queueName,
                               boolean succeeded,
@@ -696,6 +1032,113 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected void ackJobs(final String queueName,
+                         boolean succeeded,
+                         List<PinLaterJobAckInfo> jobAckInfos,
+                         int numAutoRetries) throws SQLException, PinLaterException {
+    // Group the acks by jobs table and by the values that are written to each row, so that every
+    // group can be acked with a single UPDATE.
+    Map<AckBatchKey, List<Long>> localIdsByKey = Maps.newLinkedHashMap();
+    Map<AckBatchKey, PinLaterJobAckInfo> firstAckInfoByKey = Maps.newHashMap();
+    for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+      PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobAckInfo.getJobDescriptor());
+      AckBatchKey key = new AckBatchKey(
+          jobDesc.getShardName(),
+          jobDesc.getPriority(),
+          jobAckInfo.getAppendCustomStatus(),
+          succeeded ? 0 : jobAckInfo.getRetryDelayMillis());
+      List<Long> localIds = localIdsByKey.get(key);
+      if (localIds == null) {
+        localIds = Lists.newArrayList();
+        localIdsByKey.put(key, localIds);
+        firstAckInfoByKey.put(key, jobAckInfo);
+      }
+      localIds.add(jobDesc.getLocalId());
+    }
+
+    for (Map.Entry<AckBatchKey, List<Long>> entry : localIdsByKey.entrySet()) {
+      if (entry.getValue().size() == 1) {
+        // Nothing to batch, e.g. a job with its own custom status.
+        ackSingleJob(queueName, succeeded, firstAckInfoByKey.get(entry.getKey()), numAutoRetries);
+        continue;
+      }
+      for (List<Long> batch : Lists.partition(entry.getValue(), ackBatchSize)) {
+        ackJobsInTable(queueName, succeeded, entry.getKey(), batch, numAutoRetries);
+      }
+    }
+  }
+
+  /**
+   * Acks a batch of jobs which all live in the same jobs table and share the same custom status
+   * and retry delay, with one UPDATE per state transition.
+   */
+  private void ackJobsInTable(final String queueName,
+                              boolean succeeded,
+                              AckBatchKey key,
+                              List<Long> localIds,
+                              int numAutoRetries) throws SQLException, PinLaterException {
+    String jobsTableName = MySQLBackendUtils.constructJobsTableName(
+        queueName, key.shardName, key.priority);
+    String placeholders = MySQLBackendUtils.constructInClausePlaceholders(localIds.size());
+    Connection conn = null;
+    try {
+      ImmutableMap<String, MySQLDataSources> shardMap = shardMapRef.get();
+      conn = shardMap.get(key.shardName).getGeneralDataSource().getConnection();
+
+      if (succeeded) {
+        List<Object> args = Lists.newArrayListWithCapacity(localIds.size() + 2);
+        args.add(PinLaterJobState.SUCCEEDED.getValue());
+        args.add(key.appendCustomStatus);
+        args.addAll(localIds);
+        JdbcUtils.executeUpdate(
+            conn,
+            String.format(MySQLQueries.ACK_SUCCEEDED_BATCH_UPDATE, jobsTableName, placeholders),
+            args.toArray());
+      } else {
+        // Same two step update as in ``ackSingleJob``: jobs on their last attempt move to
+        // failed, and the others move back to pending.
+        List<Object> args = Lists.newArrayListWithCapacity(localIds.size() + 3);
+        args.add(PinLaterJobState.FAILED.getValue());
+        args.add(key.appendCustomStatus);
+        args.addAll(localIds);
+        args.add(PinLaterJobState.IN_PROGRESS.getValue());
+        JdbcUtils.executeUpdate(
+            conn,
+            String.format(MySQLQueries.ACK_FAILED_DONE_BATCH_UPDATE, jobsTableName, placeholders),
+            args.toArray());
+
+        args = Lists.newArrayListWithCapacity(localIds.size() + 4);
+        args.add(PinLaterJobState.PENDING.getValue());
+        args.add(key.appendCustomStatus);
+        args.add(new Timestamp(System.currentTimeMillis() + key.retryDelayMillis));
+        args.addAll(localIds);
+        args.add(PinLaterJobState.IN_PROGRESS.getValue());
+        JdbcUtils.executeUpdate(
+            conn,
+            String.format(MySQLQueries.ACK_FAILED_RETRY_BATCH_UPDATE, jobsTableName, placeholders),
+            args.toArray());
+      }
+      Stats.addMetric("mysql-ack-batch-size", localIds.size());
+    } catch (SQLException e) {
+      boolean shouldRetry = checkExceptionIsRetriable(e, key.shardName, "ack");
+      if (shouldRetry && numAutoRetries > 0) {
+        // Retry the whole batch on the same shard.
+        Stats.incr("ack-failures-retry");
+        ackJobsInTable(queueName, succeeded, key, localIds, numAutoRetries - 1);
+        return;
+      }
+      // Out of retries, throw the exception. Wrap it into a PinLaterException if the exception
+      // is recognized and return the appropriate error code.
+      if (MySQLBackendUtils.isDatabaseDoesNotExistException(e)) {
+        throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+      }
+      throw e;
+    } finally {
+      JdbcUtils.closeConnection(conn);
+    }
+  }
+
   @Override
   protected void checkpointSingleJob(final String source,
                                      final String queueName,
@@ -877,4 +1320,44 @@ public class PinLaterMySQLBackend extends PinLaterBackendBase {
     }
     return false;
   }
+
+  /**
+   * Identifies a group of acks that can be written with a single UPDATE: the jobs live in the same
+   * jobs table and get the same custom status and retry delay.
+   */
+  private static final class AckBatchKey {
+
+    private final String shardName;
+    private final int priority;
+    private final String appendCustomStatus;
+    private final long retryDelayMillis;
+
+    AckBatchKey(String shardName, int priority, String appendCustomStatus,
+                long retryDelayMillis) {
+      this.shardName = shardName;
+      this.priority = priority;
+      this.appendCustomStatus = appendCustomStatus;
+      this.retryDelayMillis = retryDelayMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof AckBatchKey)) {
+        return false;
+      }
+      AckBatchKey that = (AckBatchKey) o;
+      return priority == that.priority
+          && retryDelayMillis == that.retryDelayMillis
+          && shardName.equals(that.shardName)
+          && Objects.equal(appendCustomStatus, that.appendCustomStatus);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(shardName, priority, appendCustomStatus, retryDelayMillis);
+    }
+  }
 }
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.redis;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.twitter.finagle.Service;
+import com.twitter.finagle.WriteException;
+import com.twitter.finagle.builder.ClientBuilder;
+import com.twitter.finagle.redis.Redis;
+import com.twitter.finagle.redis.protocol.BulkReply;
+import com.twitter.finagle.redis.protocol.Command;
+import com.twitter.finagle.redis.protocol.EmptyMBulkReply;
+import com.twitter.finagle.redis.protocol.ErrorReply;
+import com.twitter.finagle.redis.protocol.IntegerReply;
+import com.twitter.finagle.redis.protocol.MBulkReply;
+import com.twitter.finagle.redis.protocol.Reply;
+import com.twitter.finagle.redis.protocol.StatusReply;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Duration;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking redis client of a single shard, built on finagle-redis.
+ *
+ * Requests are written to a bounded set of connections and their futures are satisfied by the
+ * finagle IO threads, so a request in flight holds no thread. Replies are converted to the same
+ * Java values that Jedis returns from EVALSHA: Long for integers, String for bulk and status
+ * replies, List for multi-bulk replies and null for nil replies. Error replies fail the future with
+ * a ``RedisErrorException``, failures to send the request with a ``RedisConnectionException`` and
+ * any other failure, e.g. a timeout, with a ``RedisTimeoutException``.
+ *
+ * finagle-redis does not support the scripting commands, so commands are sent as raw argument
+ * lists.
+ */
+public class AsyncRedisClient {
+
+  private static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF_8);
+
+  private final Service<Command, Reply> service;
+
+  public AsyncRedisClient(String host, int port, int connectionLimit,
+                          int connectTimeoutMillis, int requestTimeoutMillis) {
+    this.service = ClientBuilder.safeBuild(
+        ClientBuilder.get()
+            .hosts(new InetSocketAddress(host, port))
+            .codec(Redis.get())
+            .hostConnectionLimit(connectionLimit)
+            .tcpConnectTimeout(Duration.apply(connectTimeoutMillis, TimeUnit.MILLISECONDS))
+            .requestTimeout(Duration.apply(requestTimeoutMillis, TimeUnit.MILLISECONDS)));
+  }
+
+  /**
+   * Sends a command, given as its name followed by its arguments.
+   */
+  public Future<Object> execute(List<String> command) {
+    return send(command).flatMap(
+        new Function<Reply, Future<Object>>() {
+          @Override
+          public Future<Object> apply(Reply reply) {
+            return toFuture(reply);
+          }
+        });
+  }
+
+  /**
+   * Evaluates the given script with EVALSHA, loading the script and retrying once if the redis
+   * server does not have it cached. See ``RedisScriptRegistry.eval``.
+   */
+  public Future<Object> eval(final String script, List<String> keys, List<String> args) {
+    final List<String> command = Lists.newArrayListWithCapacity(3 + keys.size() + args.size());
+    command.add("EVALSHA");
+    command.add(RedisScriptRegistry.getSha(script));
+    command.add(String.valueOf(keys.size()));
+    command.addAll(keys);
+    command.addAll(args);
+    return send(command).flatMap(
+        new Function<Reply, Future<Object>>() {
+          @Override
+          public Future<Object> apply(Reply reply) {
+            if (!(reply instanceof ErrorReply) || !((ErrorReply) reply).message().startsWith(
+                RedisScriptRegistry.NO_SCRIPT_ERROR_PREFIX)) {
+              return toFuture(reply);
+            }
+            Stats.incr("redis-script-reload");
+            return execute(Lists.newArrayList("SCRIPT", "LOAD", script)).flatMap(
+                new Function<Object, Future<Object>>() {
+                  @Override
+                  public Future<Object> apply(Object sha) {
+                    return execute(command);
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * Closes the connections of the client. Requests sent afterwards fail.
+   */
+  public Future<Void> close() {
+    return service.close().voided();
+  }
+
+  private Future<Reply> send(List<String> command) {
+    return service.apply(new RawCommand(command)).rescue(
+        new Function<Throwable, Future<Reply>>() {
+          @Override
+          public Future<Reply> apply(Throwable t) {
+            // finagle marks the failures that happened before the request was written, e.g. a
+            // connection that could not be established, as write exceptions.
+            if (t instanceof WriteException) {
+              return Future.exception(new RedisConnectionException(t));
+            }
+            return Future.exception(new RedisTimeoutException(t));
+          }
+        });
+  }
+
+  private static Future<Object> toFuture(Reply reply) {
+    if (reply instanceof ErrorReply) {
+      return Future.exception(new RedisErrorException(((ErrorReply) reply).message()));
+    }
+    return Future.value(toValue(reply));
+  }
+
+  private static Object toValue(Reply reply) {
+    if (reply instanceof IntegerReply) {
+      return ((IntegerReply) reply).id();
+    } else if (reply instanceof BulkReply) {
+      return ((BulkReply) reply).message().toString(Charsets.UTF_8);
+    } else if (reply instanceof StatusReply) {
+      return ((StatusReply) reply).message();
+    } else if (reply instanceof MBulkReply) {
+      List<Object> values = Lists.newArrayList();
+      scala.collection.Iterator<Reply> replies = ((MBulkReply) reply).messages().iterator();
+      while (replies.hasNext()) {
+        values.add(toValue(replies.next()));
+      }
+      return values;
+    } else if (reply instanceof EmptyMBulkReply) {
+      return Lists.newArrayList();
+    }
+    // Nil bulk and nil multi-bulk replies.
+    return null;
+  }
+
+  /**
+   * An error reply from the redis server. Unlike connection failures, these are not retried.
+   */
+  public static class RedisErrorException extends RuntimeException {
+
+    public RedisErrorException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A failure to send a request to the redis server, e.g. a connection that could not be
+   * established. The request did not reach the server, so it is safe to retry.
+   */
+  public static class RedisConnectionException extends RuntimeException {
+
+    public RedisConnectionException(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * A failure to get a reply to a request that was sent, e.g. a timeout or a connection lost while
+   * waiting for the reply. The server may have executed the request, so it is not retried.
+   */
+  public static class RedisTimeoutException extends RuntimeException {
+
+    public RedisTimeoutException(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  /*
+   * A command in the unified request protocol of redis.
+   */
+  private static class RawCommand extends Command {
+
+    private final List<String> args;
+
+    private RawCommand(List<String> args) {
+      this.args = args;
+    }
+
+    @Override
+    public String command() {
+      return args.get(0);
+    }
+
+    @Override
+    public ChannelBuffer toChannelBuffer() {
+      ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+      buffer.writeBytes(("*" + args.size()).getBytes(Charsets.UTF_8));
+      buffer.writeBytes(CRLF);
+      for (String arg : args) {
+        byte[] bytes = arg.getBytes(Charsets.UTF_8);
+        buffer.writeBytes(("$" + bytes.length).getBytes(Charsets.UTF_8));
+        buffer.writeBytes(CRLF);
+        buffer.writeBytes(bytes);
+        buffer.writeBytes(CRLF);
+      }
+      return buffer;
+    }
+  }
+}
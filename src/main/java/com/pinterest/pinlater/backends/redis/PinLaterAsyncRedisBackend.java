@@ -0,0 +1,335 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.redis;
+
+import com.pinterest.pinlater.thrift.ErrorCode;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterException;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.twitter.common.collections.Pair;
+import com.twitter.ostrich.stats.Stats;
+import com.twitter.util.Function;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PinLater redis backend whose enqueue, dequeue, ack and lookup requests go through a non-blocking
+ * finagle-redis client, see ``AsyncRedisClient``. These requests compose the futures of the client
+ * directly instead of running a Jedis call in the future pool, so the number of threads no longer
+ * grows with the number of shards and requests in flight.
+ *
+ * The data layout and the LUA scripts are the ones of PinLaterRedisBackend. Everything else, i.e.
+ * queue management, checkpoints, dry run dequeues, scans, counts, retries, deletes and the queue
+ * monitor, still uses the Jedis pools of PinLaterRedisBackend.
+ */
+public class PinLaterAsyncRedisBackend extends PinLaterRedisBackend {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PinLaterAsyncRedisBackend.class);
+
+  private final ImmutableMap<String, AsyncRedisClient> clientMap;
+
+  /**
+   * Creates an instance of the PinLaterAsyncRedisBackend.
+   *
+   * @param configuration configuration parameters for the backend.
+   * @param redisConfigStream stream encapsulating the Redis json config.
+   * @param serverHostName hostname of the PinLater server.
+   * @param serverStartTimeMillis start time of the PinLater server.
+   */
+  public PinLaterAsyncRedisBackend(PropertiesConfiguration configuration,
+                                   InputStream redisConfigStream,
+                                   String serverHostName,
+                                   long serverStartTimeMillis) throws Exception {
+    super(configuration, redisConfigStream, serverHostName, serverStartTimeMillis);
+    int connectionsPerShard = configuration.getInt("BACKEND_CONNECTIONS_PER_SHARD");
+    int connectTimeoutMillis = configuration.getInt("BACKEND_CONNECTION_MAX_WAIT_MILLIS");
+    int requestTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(
+        configuration.getInt("BACKEND_SOCKET_TIMEOUT_SECONDS"));
+    ImmutableMap.Builder<String, AsyncRedisClient> clientMapBuilder = ImmutableMap.builder();
+    for (Map.Entry<String, RedisPools> shard : getShardMap().entrySet()) {
+      clientMapBuilder.put(shard.getKey(), new AsyncRedisClient(
+          shard.getValue().getHost(),
+          shard.getValue().getPort(),
+          connectionsPerShard,
+          connectTimeoutMillis,
+          requestTimeoutMillis));
+    }
+    this.clientMap = clientMapBuilder.build();
+  }
+
+  @Override
+  protected boolean isNonBlocking() {
+    return true;
+  }
+
+  @Override
+  public Future<Void> close() {
+    List<Future<Void>> futures = Lists.newArrayList(super.close());
+    for (AsyncRedisClient client : clientMap.values()) {
+      futures.add(client.close());
+    }
+    return Future.collect(futures).voided();
+  }
+
+  @Override
+  protected Future<List<String>> enqueueJobsWithPriorityAsync(
+      final String queueName,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) {
+    if (!isKnownQueue(queueName)) {
+      // The queue names have to be reloaded from redis first, which is done with Jedis.
+      return super.enqueueJobsWithPriorityAsync(queueName, priority, jobs, numAutoRetries);
+    }
+    // Cap the number of jobs per script call so that a single call does not block the redis
+    // server for too long.
+    List<Future<List<String>>> futures = Lists.newArrayList();
+    for (List<PinLaterJob> batch : Lists.partition(jobs, getEnqueueBatchSize())) {
+      futures.add(enqueueJobsToShard(queueName, priority, batch, numAutoRetries));
+    }
+    return Future.collect(futures).map(new Function<List<List<String>>, List<String>>() {
+      @Override
+      public List<String> apply(List<List<String>> batchJobDescriptors) {
+        List<String> jobDescriptors = Lists.newArrayListWithCapacity(jobs.size());
+        for (List<String> batch : batchJobDescriptors) {
+          jobDescriptors.addAll(batch);
+        }
+        return jobDescriptors;
+      }
+    });
+  }
+
+  /*
+   * Enqueues a batch of jobs into a random enqueueable shard with a single ENQUEUE_JOBS script
+   * call, retrying the whole batch on connection failure, potentially on a different shard.
+   */
+  private Future<List<String>> enqueueJobsToShard(final String queueName,
+                                                  final int priority,
+                                                  final List<PinLaterJob> jobs,
+                                                  final int numAutoRetries) {
+    final ImmutableMap.Entry<String, RedisPools> shard = getRandomEnqueueableShard();
+    if (shard == null) {
+      return Future.exception(
+          new PinLaterException(ErrorCode.NO_HEALTHY_SHARDS, "Unable to find healthy shard"));
+    }
+    final double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
+    Future<List<String>> future = clientMap.get(shard.getKey()).eval(
+        RedisLuaScripts.ENQUEUE_JOBS,
+        getEnqueueJobsKeys(queueName, shard.getKey(), priority),
+        getEnqueueJobsArgs(jobs, currentTimeSeconds)).map(
+        new Function<Object, List<String>>() {
+          @Override
+          public List<String> apply(Object firstJobId) {
+            return toEnqueuedJobDescriptors(
+                queueName, shard.getKey(), priority, (Long) firstJobId, jobs.size());
+          }
+        });
+    return retryOnConnectionFailure(future, shard.getKey(), numAutoRetries,
+        "enqueue-failures-retry", new Function0<Future<List<String>>>() {
+          @Override
+          public Future<List<String>> apply() {
+            return enqueueJobsToShard(queueName, priority, jobs, numAutoRetries - 1);
+          }
+        });
+  }
+
+  @Override
+  protected Future<PinLaterDequeueResponse> dequeueJobsFromShardAsync(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final String claimDescriptor,
+      final int jobsNeeded,
+      final int numAutoRetries,
+      final boolean dryRun) {
+    if (dryRun) {
+      // Dry runs read the jobs with several commands and are rare, so leave them to Jedis.
+      return super.dequeueJobsFromShardAsync(queueName, shardName, priority, claimDescriptor,
+          jobsNeeded, numAutoRetries, dryRun);
+    }
+    // Skip the shard if it is unhealthy.
+    if (!isShardLive(shardName)) {
+      return Future.value(null);
+    }
+    final long currentTimeMillis = System.currentTimeMillis();
+    Future<PinLaterDequeueResponse> future = clientMap.get(shardName).eval(
+        RedisLuaScripts.DEQUEUE_JOBS,
+        getDequeueJobsKeys(queueName, shardName, priority),
+        getDequeueJobsArgs(currentTimeMillis / 1000.0, jobsNeeded, claimDescriptor)).map(
+        new Function<Object, PinLaterDequeueResponse>() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public PinLaterDequeueResponse apply(Object dequeuedJobs) {
+            return toDequeueResponse(queueName, shardName, priority,
+                (List<Object>) dequeuedJobs, currentTimeMillis);
+          }
+        });
+    // Retry on the same shard.
+    return retryOnConnectionFailure(future, shardName, numAutoRetries, "dequeue-failures-retry",
+        new Function0<Future<PinLaterDequeueResponse>>() {
+          @Override
+          public Future<PinLaterDequeueResponse> apply() {
+            return dequeueJobsFromShardAsync(queueName, shardName, priority, claimDescriptor,
+                jobsNeeded, numAutoRetries - 1, dryRun);
+          }
+        });
+  }
+
+  @Override
+  protected Future<Long> getNextRunAfterFromShardAsync(final String queueName,
+                                                       final String shardName,
+                                                       final int priority) {
+    String pendingQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+        queueName, shardName, priority, PinLaterJobState.PENDING);
+    Future<Long> future = clientMap.get(shardName).execute(
+        Lists.newArrayList("ZRANGE", pendingQueueRedisKey, "0", "0", "WITHSCORES")).map(
+        new Function<Object, Long>() {
+          @Override
+          public Long apply(Object firstJob) {
+            // A member followed by its score, or nothing if the queue is empty.
+            List<?> memberAndScore = (List<?>) firstJob;
+            if (memberAndScore.size() < 2) {
+              return null;
+            }
+            return (long) (Double.parseDouble((String) memberAndScore.get(1)) * 1000);
+          }
+        });
+    return retryOnConnectionFailure(future, shardName, 0, null, null);
+  }
+
+  @Override
+  protected Future<Void> ackJobsAsync(final String queueName,
+                                      final boolean succeeded,
+                                      final List<PinLaterJobAckInfo> jobAckInfos,
+                                      final int numAutoRetries) {
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (Map.Entry<Pair<String, Integer>, List<PinLaterJobAckInfo>> entry
+        : groupByShardAndPriority(jobAckInfos).entrySet()) {
+      // Cap the number of jobs per script call so that a single call does not block the redis
+      // server for too long.
+      for (List<PinLaterJobAckInfo> batch
+          : Lists.partition(entry.getValue(), getAckBatchSize())) {
+        futures.add(ackJobsInShard(queueName, succeeded, entry.getKey().getFirst(),
+            entry.getKey().getSecond(), batch, numAutoRetries));
+      }
+    }
+    return Future.collect(futures).voided();
+  }
+
+  /*
+   * Acks a batch of jobs of the same shard and priority with a single script call. See
+   * ``PinLaterRedisBackend.ackJobsInShard`` for why the batch can be retried as a whole.
+   */
+  private Future<Void> ackJobsInShard(final String queueName,
+                                      final boolean succeeded,
+                                      final String shardName,
+                                      final int priority,
+                                      final List<PinLaterJobAckInfo> jobAckInfos,
+                                      final int numAutoRetries) {
+    double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
+    Future<Void> future = clientMap.get(shardName).eval(
+        succeeded ? RedisLuaScripts.ACK_SUCCEEDED_JOBS : RedisLuaScripts.ACK_FAILED_JOBS,
+        getAckJobsKeys(queueName, succeeded, shardName, priority),
+        getAckJobsArgs(succeeded, jobAckInfos, currentTimeSeconds)).map(
+        new Function<Object, Void>() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public Void apply(Object outcomes) {
+            recordAckOutcomes((List<Long>) outcomes);
+            Stats.addMetric("redis-ack-batch-size", jobAckInfos.size());
+            return null;
+          }
+        });
+    return retryOnConnectionFailure(future, shardName, numAutoRetries, "ack-failures-retry",
+        new Function0<Future<Void>>() {
+          @Override
+          public Future<Void> apply() {
+            return ackJobsInShard(
+                queueName, succeeded, shardName, priority, jobAckInfos, numAutoRetries - 1);
+          }
+        });
+  }
+
+  @Override
+  protected Future<Map<Long, PinLaterJobInfo>> lookupJobsFromShardAsync(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final List<Long> localIds,
+      final boolean isIncludeBody) {
+    Future<Map<Long, PinLaterJobInfo>> future = clientMap.get(shardName).eval(
+        RedisLuaScripts.LOOKUP_JOBS,
+        getLookupJobsKeys(queueName, shardName, priority),
+        getLookupJobsArgs(localIds, isIncludeBody)).map(
+        new Function<Object, Map<Long, PinLaterJobInfo>>() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public Map<Long, PinLaterJobInfo> apply(Object result) {
+            return toJobInfos(queueName, shardName, priority, (List<Object>) result,
+                isIncludeBody);
+          }
+        });
+    return retryOnConnectionFailure(future, shardName, 0, null, null);
+  }
+
+  /*
+   * Issues ``retry`` in place of ``future`` if it fails to reach redis, as long as
+   * ``numAutoRetries`` allows. Once the retries are used up, the failure is turned into a
+   * SHARD_CONNECTION_FAILED error. Error replies and timeouts are not retried, since redis may
+   * have run the request, and a retried enqueue would then create the jobs twice.
+   */
+  private <T> Future<T> retryOnConnectionFailure(Future<T> future,
+                                                 final String shardName,
+                                                 final int numAutoRetries,
+                                                 final String retryStatName,
+                                                 final Function0<Future<T>> retry) {
+    return future.rescue(new Function<Throwable, Future<T>>() {
+      @Override
+      public Future<T> apply(Throwable t) {
+        if (t instanceof AsyncRedisClient.RedisTimeoutException) {
+          Stats.incr("shard_request_timeout_" + getShardMap().get(shardName).getHost());
+        }
+        if (!(t instanceof AsyncRedisClient.RedisConnectionException)) {
+          return Future.exception(t);
+        }
+        if (numAutoRetries > 0) {
+          Stats.incr(retryStatName);
+          return retry.apply();
+        }
+        String host = getShardMap().get(shardName).getHost();
+        Stats.incr("shard_connection_failed_" + host);
+        LOG.error("Failed to get a redis connection.", t);
+        return Future.exception(new PinLaterException(ErrorCode.SHARD_CONNECTION_FAILED,
+            String.format("Redis connection to %s failed", host)));
+      }
+    });
+  }
+}
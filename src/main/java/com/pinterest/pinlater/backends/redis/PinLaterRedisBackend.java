@@ -32,6 +32,7 @@ import com.pinterest.pinlater.thrift.PinLaterJobInfo;
 import com.pinterest.pinlater.thrift.PinLaterJobState;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -39,6 +40,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.collections.Pair;
 import com.twitter.ostrich.stats.Stats;
 import com.twitter.util.ExceptionalFunction0;
 import com.twitter.util.Function;
@@ -110,6 +112,8 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
   private final AtomicReference<ImmutableSet<String>> queueNames =
       new AtomicReference<ImmutableSet<String>>();
   private final HealthChecker healthChecker;
+  private final int enqueueBatchSize;
+  private final int ackBatchSize;
 
   /**
    * Creates an instance of the PinLaterRedisBackend.
@@ -126,6 +130,10 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     super(configuration, "Redis", serverHostName, serverStartTimeMillis);
     this.shardMap = RedisBackendUtils.buildShardMap(redisConfigStream, configuration);
     this.healthChecker = new HealthChecker("PinLaterRedis");
+    this.enqueueBatchSize = configuration.getInt("REDIS_ENQUEUE_BATCH_SIZE", 100);
+    Preconditions.checkArgument(enqueueBatchSize > 0);
+    this.ackBatchSize = configuration.getInt("REDIS_ACK_BATCH_SIZE", 500);
+    Preconditions.checkArgument(ackBatchSize > 0);
     for (RedisPools redisPools : shardMap.values()) {
       this.healthChecker.addServer(
           redisPools.getHost(),
@@ -169,6 +177,32 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     return shardMap.keySet();
   }
 
+  protected ImmutableMap<String, RedisPools> getShardMap() {
+    return shardMap;
+  }
+
+  protected int getEnqueueBatchSize() {
+    return enqueueBatchSize;
+  }
+
+  protected int getAckBatchSize() {
+    return ackBatchSize;
+  }
+
+  protected boolean isShardLive(String shardName) {
+    RedisPools redisPools = shardMap.get(shardName);
+    return healthChecker.isServerLive(redisPools.getHost(), redisPools.getPort());
+  }
+
+  /**
+   * Returns whether the queue is known to exist without going to redis, unlike
+   * ``checkQueueExistsForEnqueue``.
+   */
+  protected boolean isKnownQueue(String queueName) {
+    ImmutableSet<String> knownQueueNames = queueNames.get();
+    return knownQueueNames != null && knownQueueNames.contains(queueName);
+  }
+
   @Override
   protected void processConfigUpdate(byte[] bytes) {
     //TODO: Not yet implemented
@@ -225,7 +259,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                       queueName, shard.getKey());
                   List<String> keys = Lists.newArrayList(queueRedisKey, hashRedisKeyPrefix);
                   List<String> args = Lists.newArrayList();
-                  conn.eval(RedisLuaScripts.DELETE_QUEUE, keys, args);
+                  RedisScriptRegistry.eval(conn, RedisLuaScripts.DELETE_QUEUE, keys, args);
                 }
               }
               return null;
@@ -263,54 +297,39 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
               return null;
             }
 
-            PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(
-                queueName, shardName, priority, localId);
-            PinLaterJobInfo jobInfo = new PinLaterJobInfo();
-            jobInfo.setJobDescriptor(jobDesc.toString());
-            jobInfo.setJobState(jobState);
-            jobInfo.setRunAfterTimestampMillis((long) (score * 1000));
-
             // Get the job's attempts allowed, attempts remaining, custom status, created time,
             // updated time, claim descriptor (and body if needed) from job hash in redis.
             String hashRedisKey = RedisBackendUtils.constructHashRedisKey(
                 queueName, shardName, localId);
-            List<String> hashKeys = Lists.newArrayList(
-                RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_ALLOWED_FIELD,
-                RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD,
-                RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD,
-                RedisBackendUtils.PINLATER_JOB_HASH_CREATED_AT_FIELD,
-                RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD,
-                RedisBackendUtils.PINLATER_JOB_HASH_CLAIM_DESCRIPTOR_FIELD);
-            if (isIncludeBody) {
-              hashKeys.add(RedisBackendUtils.PINLATER_JOB_HASH_BODY_FIELD);
-            }
+            List<String> hashFields = getLookupHashFields(isIncludeBody);
             List<String> jobRawInfo = conn.hmget(
-                hashRedisKey, hashKeys.toArray(new String[hashKeys.size()]));
-            // Fill up the rest of the jobInfo object and return it. If find the job's attempts
-            // allow field is empty, probably the job hash has been evicted. Return null.
-            if (jobRawInfo.get(0) != null) {
-              jobInfo.setAttemptsAllowed(
-                  RedisBackendUtils.parseJobHashAttemptsAllowed(jobRawInfo.get(0)));
-              jobInfo.setAttemptsRemaining(
-                  RedisBackendUtils.parseJobHashAttemptsRemaining(jobRawInfo.get(1)));
-              jobInfo.setCustomStatus(
-                  RedisBackendUtils.parseJobHashCustomStatus(jobRawInfo.get(2)));
-              jobInfo.setCreatedAtTimestampMillis(
-                  RedisBackendUtils.parseJobHashCreatedAt(jobRawInfo.get(3)));
-              jobInfo.setUpdatedAtTimestampMillis(
-                  RedisBackendUtils.parseJobHashUpdatedAt(jobRawInfo.get(4)));
-              jobInfo.setClaimDescriptor(jobRawInfo.get(5));
-              if (isIncludeBody) {
-                jobInfo.setBody(BytesUtil.stringToByteBuffer(
-                    RedisBackendUtils.parseJobHashBody(jobRawInfo.get(6))));
-              }
-              return jobInfo;
-            } else {
-              Stats.incr(String.format(
-                  RedisBackendUtils.REDIS_JOB_HASH_NOT_FOUND_STATS_FORMAT,
-                  queueName, shardName, priority, "lookup"));
-              return null;
-            }
+                hashRedisKey, hashFields.toArray(new String[hashFields.size()]));
+            return toJobInfo(queueName, shardName, priority, localId, jobState, score, jobRawInfo,
+                isIncludeBody);
+          }
+        });
+  }
+
+  @Override
+  protected Map<Long, PinLaterJobInfo> lookupJobsFromShard(
+      final String queueName,
+      final String shardName,
+      final int priority,
+      final List<Long> localIds,
+      final boolean isIncludeBody) throws Exception {
+    return RedisUtils.executeWithConnection(
+        shardMap.get(shardName).getGeneralRedisPool(),
+        new Function<Jedis, Map<Long, PinLaterJobInfo>>() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public Map<Long, PinLaterJobInfo> apply(Jedis conn) {
+            // Look up the whole batch with a single script call rather than a round trip per
+            // job and state.
+            Object result = RedisScriptRegistry.eval(conn, RedisLuaScripts.LOOKUP_JOBS,
+                getLookupJobsKeys(queueName, shardName, priority),
+                getLookupJobsArgs(localIds, isIncludeBody));
+            return toJobInfos(queueName, shardName, priority, (List<Object>) result,
+                isIncludeBody);
           }
         });
   }
@@ -357,7 +376,8 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                     bodyRegexToMatch) :
                                     Lists.newArrayList("-inf", currentTimeSecondsStr,
                                         bodyRegexToMatch);
-                count = (Long) conn.eval(RedisLuaScripts.COUNT_JOBS_MATCH_BODY, keys, argv);
+                count = (Long) RedisScriptRegistry.eval(
+                    conn, RedisLuaScripts.COUNT_JOBS_MATCH_BODY, keys, argv);
               }
               totalCount += count;
             }
@@ -371,14 +391,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                                     int numAutoRetries) throws Exception {
     final double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
 
-    // Check whether the queue to enqueue exists.
-    if ((queueNames.get() == null) || !queueNames.get().contains(queueName)) {
-      reloadQueueNames();
-      if (!queueNames.get().contains(queueName)) {
-        Stats.incr("redis-queue-not-found-enqueue");
-        throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
-      }
-    }
+    checkQueueExistsForEnqueue(queueName);
     final ImmutableMap.Entry<String, RedisPools> shard = getRandomEnqueueableShard();
     if (shard == null) {
       throw new PinLaterException(ErrorCode.NO_HEALTHY_SHARDS, "Unable to find healthy shard");
@@ -410,7 +423,8 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                   String.valueOf(jobToRunTimestampSeconds),
                   RedisBackendUtils.truncateCustomStatus(job.getCustomStatus())
               );
-              Long jobId = (Long) conn.eval(RedisLuaScripts.ENQUEUE_JOB, keys, argv);
+              Long jobId = (Long) RedisScriptRegistry.eval(
+                  conn, RedisLuaScripts.ENQUEUE_JOB, keys, argv);
               return new PinLaterJobDescriptor(
                   queueName, shard.getKey(), job.getPriority(), jobId).toString();
             }
@@ -429,6 +443,79 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected List<String> enqueueJobsWithPriority(
+      final String queueName,
+      final int priority,
+      final List<PinLaterJob> jobs,
+      final int numAutoRetries) throws Exception {
+    checkQueueExistsForEnqueue(queueName);
+    List<String> jobDescriptors = Lists.newArrayListWithCapacity(jobs.size());
+    // Cap the number of jobs per script call so that a single call does not block the redis
+    // server for too long.
+    for (List<PinLaterJob> batch : Lists.partition(jobs, enqueueBatchSize)) {
+      jobDescriptors.addAll(enqueueJobsToShard(queueName, priority, batch, numAutoRetries));
+    }
+    return jobDescriptors;
+  }
+
+  /**
+   * Enqueues a batch of jobs of the same priority into a random enqueueable shard with a single
+   * ENQUEUE_JOBS script call. Lua scripts are executed atomically by redis, so a batch that failed
+   * on connection error can safely be retried as a whole.
+   */
+  private List<String> enqueueJobsToShard(final String queueName,
+                                          final int priority,
+                                          final List<PinLaterJob> jobs,
+                                          int numAutoRetries) throws Exception {
+    final double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
+    final ImmutableMap.Entry<String, RedisPools> shard = getRandomEnqueueableShard();
+    if (shard == null) {
+      throw new PinLaterException(ErrorCode.NO_HEALTHY_SHARDS, "Unable to find healthy shard");
+    }
+    try {
+      return RedisUtils.executeWithConnection(
+          shard.getValue().getGeneralRedisPool(),
+          new Function<Jedis, List<String>>() {
+            @Override
+            public List<String> apply(Jedis conn) {
+              long firstJobId = (Long) RedisScriptRegistry.eval(
+                  conn,
+                  RedisLuaScripts.ENQUEUE_JOBS,
+                  getEnqueueJobsKeys(queueName, shard.getKey(), priority),
+                  getEnqueueJobsArgs(jobs, currentTimeSeconds));
+              return toEnqueuedJobDescriptors(
+                  queueName, shard.getKey(), priority, firstJobId, jobs.size());
+            }
+          });
+    } catch (JedisConnectionException e) {
+      if (numAutoRetries > 0) {
+        // Retry the whole batch, potentially on a different shard.
+        Stats.incr("enqueue-failures-retry");
+        return enqueueJobsToShard(queueName, priority, jobs, numAutoRetries - 1);
+      }
+      String host = shard.getValue().getHost();
+      Stats.incr("shard_connection_failed_" + host);
+      LOG.error("Failed to get a redis connection.", e);
+      throw new PinLaterException(ErrorCode.SHARD_CONNECTION_FAILED,
+          String.format("Redis connection to %s failed", host));
+    }
+  }
+
+  /**
+   * Redis backend checks queue existence only during enqueue. Reloads the queue names if the
+   * queue is not known yet and raises QUEUE_NOT_FOUND if it still does not exist.
+   */
+  protected void checkQueueExistsForEnqueue(String queueName) throws Exception {
+    if ((queueNames.get() == null) || !queueNames.get().contains(queueName)) {
+      reloadQueueNames();
+      if (!queueNames.get().contains(queueName)) {
+        Stats.incr("redis-queue-not-found-enqueue");
+        throw new PinLaterException(ErrorCode.QUEUE_NOT_FOUND, "Queue not found: " + queueName);
+      }
+    }
+  }
+
   @Override
   protected PinLaterDequeueResponse dequeueJobsFromShard(
       final String queueName,
@@ -439,8 +526,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
       final int numAutoRetries,
       final boolean dryRun) throws Exception {
     // Skip the shard if it is unhealthy.
-    if (!healthChecker.isServerLive(
-        shardMap.get(shardName).getHost(), shardMap.get(shardName).getPort())) {
+    if (!isShardLive(shardName)) {
       return null;
     }
     final double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
@@ -455,8 +541,6 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
 
               String pendingQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
                   queueName, shardName, priority, PinLaterJobState.PENDING);
-              String inProgressQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
-                  queueName, shardName, priority, PinLaterJobState.IN_PROGRESS);
 
               if (dryRun) {
                 // If this is a dry run, just retrieve the relevant pending jobs' local ids and
@@ -487,41 +571,13 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                 // If not a dry run, then we'll want to actually move the jobs from pending queue to
                 // in progress queue. These two operations are done in transaction to guarantee that
                 // no job is lost.
-                List<String> keys = Lists.newArrayList(
-                    pendingQueueRedisKey,
-                    inProgressQueueRedisKey,
-                    RedisBackendUtils.constructHashRedisKeyPrefix(queueName, shardName));
-                List<String> argv = Lists.newArrayList(
-                    String.valueOf(currentTimeSeconds),
-                    String.valueOf(jobsNeeded),
-                    claimDescriptor);
-                Object dequeuedJobs = conn.eval(RedisLuaScripts.DEQUEUE_JOBS, keys, argv);
-                List<Object> objects = (List<Object>) dequeuedJobs;
-                for (int i = 0; i < objects.size(); i += 6) {
-                  long jobId = Long.parseLong((String) objects.get(i));
-                  PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(
-                      queueName, shardName, priority, jobId);
-                  shardResponse.putToJobs(jobDesc.toString(),
-                      BytesUtil.stringToByteBuffer((String) objects.get(i + 1)));
-                  PinLaterDequeueMetadata metadata = new PinLaterDequeueMetadata();
-                  int attemptsAllowed = RedisBackendUtils.parseJobHashAttemptsAllowed(
-                      (String) objects.get(i + 2));
-                  int attemptsRemaining = RedisBackendUtils.parseJobHashAttemptsRemaining(
-                      (String) objects.get(i + 3));
-                  metadata.setAttemptsAllowed(attemptsAllowed);
-                  metadata.setAttemptsRemaining(attemptsRemaining);
-                  shardResponse.putToJobMetadata(jobDesc.toString(), metadata);
-                  long createAtMillis = RedisBackendUtils.parseJobHashCreatedAt(
-                      (String) objects.get(i + 4));
-                  long updateAtMillis = RedisBackendUtils.parseJobHashUpdatedAt(
-                      (String) objects.get(i + 5));
-                  if (attemptsAllowed == attemptsRemaining) {
-                    Stats.addMetric(String.format("%s_first_dequeue_delay_ms", queueName),
-                        (int) (currentTimeMillis - createAtMillis));
-                  }
-                  Stats.addMetric(String.format("%s_dequeue_delay_ms", queueName),
-                      (int) (currentTimeMillis - updateAtMillis));
-                }
+                Object dequeuedJobs = RedisScriptRegistry.eval(
+                    conn,
+                    RedisLuaScripts.DEQUEUE_JOBS,
+                    getDequeueJobsKeys(queueName, shardName, priority),
+                    getDequeueJobsArgs(currentTimeSeconds, jobsNeeded, claimDescriptor));
+                shardResponse = toDequeueResponse(queueName, shardName, priority,
+                    (List<Object>) dequeuedJobs, currentTimeMillis);
               }
               return shardResponse;
             }
@@ -541,6 +597,26 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected Long getNextRunAfterFromShard(final String queueName,
+                                          final String shardName,
+                                          final int priority) throws Exception {
+    return RedisUtils.executeWithConnection(
+        shardMap.get(shardName).getGeneralRedisPool(),
+        new Function<Jedis, Long>() {
+          @Override
+          public Long apply(Jedis conn) {
+            String pendingQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+                queueName, shardName, priority, PinLaterJobState.PENDING);
+            Set<Tuple> firstJob = conn.zrangeWithScores(pendingQueueRedisKey, 0, 0);
+            if (firstJob.isEmpty()) {
+              return null;
+            }
+            return (long) (firstJob.iterator().next().getScore() * 1000);
+          }
+        });
+  }
+
   @Override
   protected void ackSingleJob(final String queueName,
                               final boolean succeeded,
@@ -582,7 +658,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                     String.valueOf(jobDesc.getLocalId()),
                     String.valueOf(currentTimeSeconds),
                     RedisBackendUtils.truncateCustomStatus(jobAckInfo.getAppendCustomStatus()));
-                conn.eval(RedisLuaScripts.ACK_SUCCEEDED_JOB, keys, argv);
+                RedisScriptRegistry.eval(conn, RedisLuaScripts.ACK_SUCCEEDED_JOB, keys, argv);
               } else {
                 // Handle failed job. Depending on whether the job has attempts remaining, we need
                 // to either move it to pending or failed queue, and set custom status either way.
@@ -595,7 +671,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                     String.valueOf(currentTimeSeconds),
                     RedisBackendUtils.truncateCustomStatus(jobAckInfo.getAppendCustomStatus()),
                     String.valueOf(currentTimeSeconds + jobAckInfo.getRetryDelayMillis() / 1000.0));
-                conn.eval(RedisLuaScripts.ACK_FAILED_JOB, keys, argv);
+                RedisScriptRegistry.eval(conn, RedisLuaScripts.ACK_FAILED_JOB, keys, argv);
               }
               return null;
             }
@@ -615,6 +691,66 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     }
   }
 
+  @Override
+  protected void ackJobs(final String queueName,
+                         final boolean succeeded,
+                         final List<PinLaterJobAckInfo> jobAckInfos,
+                         int numAutoRetries) throws Exception {
+    for (Map.Entry<Pair<String, Integer>, List<PinLaterJobAckInfo>> entry
+        : groupByShardAndPriority(jobAckInfos).entrySet()) {
+      // Cap the number of jobs per script call so that a single call does not block the redis
+      // server for too long.
+      for (List<PinLaterJobAckInfo> batch : Lists.partition(entry.getValue(), ackBatchSize)) {
+        recordAckOutcomes(ackJobsInShard(queueName, succeeded, entry.getKey().getFirst(),
+            entry.getKey().getSecond(), batch, numAutoRetries));
+      }
+    }
+  }
+
+  /**
+   * Acks a batch of jobs of the same shard and priority with a single ACK_SUCCEEDED_JOBS or
+   * ACK_FAILED_JOBS script call, and returns the outcome of each job. A job which is no longer in
+   * the in progress queue is left untouched by the scripts, so a batch that failed on connection
+   * error can safely be retried as a whole.
+   */
+  private List<Long> ackJobsInShard(final String queueName,
+                                    final boolean succeeded,
+                                    final String shardName,
+                                    final int priority,
+                                    final List<PinLaterJobAckInfo> jobAckInfos,
+                                    int numAutoRetries) throws Exception {
+    final double currentTimeSeconds = System.currentTimeMillis() / 1000.0;
+    try {
+      return RedisUtils.executeWithConnection(
+          shardMap.get(shardName).getGeneralRedisPool(),
+          new Function<Jedis, List<Long>>() {
+            @Override
+            public List<Long> apply(Jedis conn) {
+              @SuppressWarnings("unchecked")
+              List<Long> outcomes = (List<Long>) RedisScriptRegistry.eval(
+                  conn,
+                  succeeded ? RedisLuaScripts.ACK_SUCCEEDED_JOBS : RedisLuaScripts.ACK_FAILED_JOBS,
+                  getAckJobsKeys(queueName, succeeded, shardName, priority),
+                  getAckJobsArgs(succeeded, jobAckInfos, currentTimeSeconds));
+              Stats.addMetric("redis-ack-batch-size", jobAckInfos.size());
+              return outcomes;
+            }
+          });
+    } catch (JedisConnectionException e) {
+      if (numAutoRetries > 0) {
+        // Retry the whole batch.
+        Stats.incr("ack-failures-retry");
+        return ackJobsInShard(
+            queueName, succeeded, shardName, priority, jobAckInfos, numAutoRetries - 1);
+      }
+      String host = shardMap.get(shardName).getHost();
+      Stats.incr("shard_connection_failed_" + host);
+      LOG.error("Failed to get a redis connection.", e);
+      throw new PinLaterException(ErrorCode.SHARD_CONNECTION_FAILED,
+          String.format("Redis connection to %s failed", host));
+    }
+  }
+
   @Override
   protected void checkpointSingleJob(final String source,
                                      final String queueName,
@@ -648,28 +784,14 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                   request.isSetNewBody() ? request.getNewBody() : "",
                   String.valueOf(request.isSetNumOfAttemptsAllowed()
                                  ? request.getNumOfAttemptsAllowed() : 0),
-                  request.isSetPrependCustomStatus() ? request.getPrependCustomStatus() : ""
+                  request.isSetPrependCustomStatus() ? request.getPrependCustomStatus() : "",
+                  request.isSetNewBody() ? "1" : "0",
+                  request.isSetNumOfAttemptsAllowed() ? "1" : "0",
+                  request.isSetPrependCustomStatus() ? "1" : "0",
+                  request.isMoveToPending() ? "1" : "0"
               );
-              StringBuilder scriptBuilder =
-                  new StringBuilder(RedisLuaScripts.CHECKPOINT_JOB_HEADER);
-
-              if (request.isSetNewBody()) {
-                scriptBuilder.append(RedisLuaScripts.CHECKPOINT_JOB_NEW_BODY);
-              }
-              if (request.isSetNumOfAttemptsAllowed()) {
-                scriptBuilder.append(RedisLuaScripts.CHECKPOINT_JOB_NEW_ATTEMPTS_ALLOWED);
-              }
-              if (request.isSetPrependCustomStatus()) {
-                scriptBuilder.append(RedisLuaScripts.CHECKPOINT_JOB_NEW_CUSTOM_STATUS);
-              }
-              if (request.isMoveToPending()) {
-                scriptBuilder.append(RedisLuaScripts.CHECKPOINT_JOB_RESET_CLAIM_DESCRIPTOR);
-              }
-
-              scriptBuilder.append(RedisLuaScripts.CHECKPOINT_JOB_FOOTER);
-
-              long numJobsAffected =
-                  (Long) conn.eval(scriptBuilder.toString(), keys, argv);
+              long numJobsAffected = (Long) RedisScriptRegistry.eval(
+                  conn, RedisLuaScripts.CHECKPOINT_JOB, keys, argv);
 
               // If the number of jobs affected was 0 then the checkpoint request must have treated
               // as a no-op, in which case we should log and record the discrepancy. Note that
@@ -803,7 +925,8 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                 List<String> argv = Lists.newArrayList(
                     String.valueOf(limit), minScore, maxScore, bodyRegexToMatch);
                 List<Object> results =
-                    (List<Object>) conn.eval(RedisLuaScripts.SCAN_JOBS_MATCH_BODY, keys, argv);
+                    (List<Object>) RedisScriptRegistry.eval(
+                        conn, RedisLuaScripts.SCAN_JOBS_MATCH_BODY, keys, argv);
 
                 // Create jobs list and add to jobsPerPriority list.
                 List<PinLaterJobInfo> jobs = Lists.newArrayList();
@@ -863,7 +986,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
                 String.valueOf(runAfterTimestampMillis / 1000.0),
                 String.valueOf(limit),
                 String.valueOf(attemptsRemaining));
-            Object result = conn.eval(RedisLuaScripts.RETRY_JOBS, keys, argv);
+            Object result = RedisScriptRegistry.eval(conn, RedisLuaScripts.RETRY_JOBS, keys, argv);
             return ((Long) result).intValue();
           }
         });
@@ -895,10 +1018,11 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
             List<String> keys = Lists.newArrayList(queueRedisKey, hashRedisKeyPrefix);
             if (bodyRegexToMatch == null) {
               List<String> argv = Lists.newArrayList(String.valueOf(limit));
-              result = conn.eval(RedisLuaScripts.DELETE_JOBS, keys, argv);
+              result = RedisScriptRegistry.eval(conn, RedisLuaScripts.DELETE_JOBS, keys, argv);
             } else {
               List<String> argv = Lists.newArrayList(String.valueOf(limit), bodyRegexToMatch);
-              result = conn.eval(RedisLuaScripts.DELETE_JOBS_MATCH_BODY, keys, argv);
+              result = RedisScriptRegistry.eval(
+                  conn, RedisLuaScripts.DELETE_JOBS_MATCH_BODY, keys, argv);
             }
             return ((Long) result).intValue();
           }
@@ -943,7 +1067,7 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
     return redisPoolShardMapBuilder.build();
   }
 
-  private ImmutableMap.Entry<String, RedisPools> getRandomEnqueueableShard() {
+  protected ImmutableMap.Entry<String, RedisPools> getRandomEnqueueableShard() {
     ImmutableMap<String, RedisPools> enqueueableShardMap = getEnqueueableShards();
     return getRandomShard(enqueueableShardMap, healthChecker, RANDOM, true);
   }
@@ -1030,4 +1154,271 @@ public class PinLaterRedisBackend extends PinLaterBackendBase {
       }
     });
   }
+
+  /*
+   * The following helpers build the KEYS and ARGV of the script calls on the request hot paths and
+   * parse their results. They are shared with PinLaterAsyncRedisBackend, which makes the same
+   * calls through a different client.
+   */
+
+  static List<String> getEnqueueJobsKeys(String queueName, String shardName, int priority) {
+    return Lists.newArrayList(
+        RedisBackendUtils.constructJobIdRedisKey(queueName, shardName),
+        RedisBackendUtils.constructHashRedisKeyPrefix(queueName, shardName),
+        RedisBackendUtils.constructQueueRedisKey(
+            queueName, shardName, priority, PinLaterJobState.PENDING));
+  }
+
+  static List<String> getEnqueueJobsArgs(List<PinLaterJob> jobs, double currentTimeSeconds) {
+    List<String> argv = Lists.newArrayListWithCapacity(1 + 4 * jobs.size());
+    argv.add(String.valueOf(currentTimeSeconds));
+    for (PinLaterJob job : jobs) {
+      double jobToRunTimestampSeconds;
+      if (job.getRunAfterTimestampMillis() != 0) {
+        jobToRunTimestampSeconds = job.getRunAfterTimestampMillis() / 1000.0;
+      } else {
+        jobToRunTimestampSeconds = currentTimeSeconds;
+      }
+      argv.add(BytesUtil.stringFromByteBuffer(ByteBuffer.wrap(job.getBody())));
+      argv.add(String.valueOf(job.getNumAttemptsAllowed()));
+      argv.add(String.valueOf(jobToRunTimestampSeconds));
+      argv.add(RedisBackendUtils.truncateCustomStatus(job.getCustomStatus()));
+    }
+    return argv;
+  }
+
+  static List<String> toEnqueuedJobDescriptors(String queueName, String shardName, int priority,
+                                               long firstJobId, int numJobs) {
+    List<String> jobDescriptors = Lists.newArrayListWithCapacity(numJobs);
+    for (int i = 0; i < numJobs; i++) {
+      jobDescriptors.add(new PinLaterJobDescriptor(
+          queueName, shardName, priority, firstJobId + i).toString());
+    }
+    Stats.addMetric("redis-enqueue-batch-size", numJobs);
+    return jobDescriptors;
+  }
+
+  static List<String> getDequeueJobsKeys(String queueName, String shardName, int priority) {
+    return Lists.newArrayList(
+        RedisBackendUtils.constructQueueRedisKey(
+            queueName, shardName, priority, PinLaterJobState.PENDING),
+        RedisBackendUtils.constructQueueRedisKey(
+            queueName, shardName, priority, PinLaterJobState.IN_PROGRESS),
+        RedisBackendUtils.constructHashRedisKeyPrefix(queueName, shardName));
+  }
+
+  static List<String> getDequeueJobsArgs(double currentTimeSeconds, int jobsNeeded,
+                                         String claimDescriptor) {
+    return Lists.newArrayList(
+        String.valueOf(currentTimeSeconds),
+        String.valueOf(jobsNeeded),
+        claimDescriptor);
+  }
+
+  /*
+   * Parses the result of the DEQUEUE_JOBS script, which holds 6 values per dequeued job.
+   */
+  static PinLaterDequeueResponse toDequeueResponse(String queueName, String shardName,
+                                                   int priority, List<Object> objects,
+                                                   long currentTimeMillis) {
+    PinLaterDequeueResponse shardResponse = new PinLaterDequeueResponse();
+    for (int i = 0; i < objects.size(); i += 6) {
+      long jobId = Long.parseLong((String) objects.get(i));
+      PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(
+          queueName, shardName, priority, jobId);
+      shardResponse.putToJobs(jobDesc.toString(),
+          BytesUtil.stringToByteBuffer((String) objects.get(i + 1)));
+      PinLaterDequeueMetadata metadata = new PinLaterDequeueMetadata();
+      int attemptsAllowed = RedisBackendUtils.parseJobHashAttemptsAllowed(
+          (String) objects.get(i + 2));
+      int attemptsRemaining = RedisBackendUtils.parseJobHashAttemptsRemaining(
+          (String) objects.get(i + 3));
+      metadata.setAttemptsAllowed(attemptsAllowed);
+      metadata.setAttemptsRemaining(attemptsRemaining);
+      shardResponse.putToJobMetadata(jobDesc.toString(), metadata);
+      long createAtMillis = RedisBackendUtils.parseJobHashCreatedAt(
+          (String) objects.get(i + 4));
+      long updateAtMillis = RedisBackendUtils.parseJobHashUpdatedAt(
+          (String) objects.get(i + 5));
+      if (attemptsAllowed == attemptsRemaining) {
+        Stats.addMetric(String.format("%s_first_dequeue_delay_ms", queueName),
+            (int) (currentTimeMillis - createAtMillis));
+      }
+      Stats.addMetric(String.format("%s_dequeue_delay_ms", queueName),
+          (int) (currentTimeMillis - updateAtMillis));
+    }
+    return shardResponse;
+  }
+
+  /*
+   * Groups acks by shard and priority, since each script call works on the queues of a single
+   * shard and priority.
+   */
+  static Map<Pair<String, Integer>, List<PinLaterJobAckInfo>> groupByShardAndPriority(
+      List<PinLaterJobAckInfo> jobAckInfos) {
+    Map<Pair<String, Integer>, List<PinLaterJobAckInfo>> jobAckInfosByQueue =
+        Maps.newLinkedHashMap();
+    for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+      PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor(jobAckInfo.getJobDescriptor());
+      Pair<String, Integer> shardAndPriority =
+          new Pair<String, Integer>(jobDesc.getShardName(), jobDesc.getPriority());
+      List<PinLaterJobAckInfo> group = jobAckInfosByQueue.get(shardAndPriority);
+      if (group == null) {
+        group = Lists.newArrayList();
+        jobAckInfosByQueue.put(shardAndPriority, group);
+      }
+      group.add(jobAckInfo);
+    }
+    return jobAckInfosByQueue;
+  }
+
+  static List<String> getAckJobsKeys(String queueName, boolean succeeded, String shardName,
+                                     int priority) {
+    String inProgressQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+        queueName, shardName, priority, PinLaterJobState.IN_PROGRESS);
+    String hashRedisKeyPrefix = RedisBackendUtils.constructHashRedisKeyPrefix(
+        queueName, shardName);
+    if (succeeded) {
+      return Lists.newArrayList(
+          inProgressQueueRedisKey,
+          hashRedisKeyPrefix,
+          RedisBackendUtils.constructQueueRedisKey(
+              queueName, shardName, priority, PinLaterJobState.SUCCEEDED));
+    }
+    return Lists.newArrayList(
+        inProgressQueueRedisKey,
+        hashRedisKeyPrefix,
+        RedisBackendUtils.constructQueueRedisKey(
+            queueName, shardName, priority, PinLaterJobState.PENDING),
+        RedisBackendUtils.constructQueueRedisKey(
+            queueName, shardName, priority, PinLaterJobState.FAILED));
+  }
+
+  static List<String> getAckJobsArgs(boolean succeeded, List<PinLaterJobAckInfo> jobAckInfos,
+                                     double currentTimeSeconds) {
+    List<String> argv = Lists.newArrayListWithCapacity(
+        1 + (succeeded ? 2 : 3) * jobAckInfos.size());
+    argv.add(String.valueOf(currentTimeSeconds));
+    for (PinLaterJobAckInfo jobAckInfo : jobAckInfos) {
+      argv.add(String.valueOf(
+          new PinLaterJobDescriptor(jobAckInfo.getJobDescriptor()).getLocalId()));
+      argv.add(RedisBackendUtils.truncateCustomStatus(jobAckInfo.getAppendCustomStatus()));
+      if (!succeeded) {
+        argv.add(String.valueOf(currentTimeSeconds + jobAckInfo.getRetryDelayMillis() / 1000.0));
+      }
+    }
+    return argv;
+  }
+
+  static void recordAckOutcomes(List<Long> outcomes) {
+    for (Long outcome : outcomes) {
+      if (outcome == RedisLuaScripts.ACK_OUTCOME_NOT_IN_PROGRESS) {
+        // Can happen when the client thinks an ack is lost and resends it.
+        Stats.incr("redis-ack-job-not-in-progress");
+      } else if (outcome == RedisLuaScripts.ACK_OUTCOME_HASH_EVICTED) {
+        Stats.incr("redis-ack-job-hash-evicted");
+      }
+    }
+  }
+
+  static List<String> getLookupHashFields(boolean isIncludeBody) {
+    List<String> hashFields = Lists.newArrayList(
+        RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_ALLOWED_FIELD,
+        RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD,
+        RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD,
+        RedisBackendUtils.PINLATER_JOB_HASH_CREATED_AT_FIELD,
+        RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD,
+        RedisBackendUtils.PINLATER_JOB_HASH_CLAIM_DESCRIPTOR_FIELD);
+    if (isIncludeBody) {
+      hashFields.add(RedisBackendUtils.PINLATER_JOB_HASH_BODY_FIELD);
+    }
+    return hashFields;
+  }
+
+  /*
+   * Builds the info of a job found in the ``jobState`` queue with ``score`` from the values of the
+   * ``getLookupHashFields`` fields of its hash. Returns null if the job hash has been evicted.
+   */
+  static PinLaterJobInfo toJobInfo(String queueName, String shardName, int priority,
+                                   long localId, PinLaterJobState jobState, double score,
+                                   List<String> jobRawInfo, boolean isIncludeBody) {
+    // If find the job's attempts allow field is empty, probably the job hash has been evicted.
+    if (jobRawInfo.get(0) == null) {
+      Stats.incr(String.format(
+          RedisBackendUtils.REDIS_JOB_HASH_NOT_FOUND_STATS_FORMAT,
+          queueName, shardName, priority, "lookup"));
+      return null;
+    }
+    PinLaterJobInfo jobInfo = new PinLaterJobInfo();
+    jobInfo.setJobDescriptor(
+        new PinLaterJobDescriptor(queueName, shardName, priority, localId).toString());
+    jobInfo.setJobState(jobState);
+    jobInfo.setRunAfterTimestampMillis((long) (score * 1000));
+    jobInfo.setAttemptsAllowed(
+        RedisBackendUtils.parseJobHashAttemptsAllowed(jobRawInfo.get(0)));
+    jobInfo.setAttemptsRemaining(
+        RedisBackendUtils.parseJobHashAttemptsRemaining(jobRawInfo.get(1)));
+    jobInfo.setCustomStatus(RedisBackendUtils.parseJobHashCustomStatus(jobRawInfo.get(2)));
+    jobInfo.setCreatedAtTimestampMillis(
+        RedisBackendUtils.parseJobHashCreatedAt(jobRawInfo.get(3)));
+    jobInfo.setUpdatedAtTimestampMillis(
+        RedisBackendUtils.parseJobHashUpdatedAt(jobRawInfo.get(4)));
+    jobInfo.setClaimDescriptor(jobRawInfo.get(5));
+    if (isIncludeBody) {
+      jobInfo.setBody(BytesUtil.stringToByteBuffer(
+          RedisBackendUtils.parseJobHashBody(jobRawInfo.get(6))));
+    }
+    return jobInfo;
+  }
+
+  /*
+   * Returns the KEYS of the LOOKUP_JOBS script for jobs of the given queue, shard and priority.
+   */
+  static List<String> getLookupJobsKeys(String queueName, String shardName, int priority) {
+    List<String> keys = Lists.newArrayList();
+    for (PinLaterJobState jobState : PinLaterJobState.values()) {
+      keys.add(RedisBackendUtils.constructQueueRedisKey(queueName, shardName, priority, jobState));
+    }
+    keys.add(RedisBackendUtils.constructHashRedisKeyPrefix(queueName, shardName));
+    return keys;
+  }
+
+  /*
+   * Returns the ARGV of the LOOKUP_JOBS script for the given jobs.
+   */
+  static List<String> getLookupJobsArgs(List<Long> localIds, boolean isIncludeBody) {
+    List<String> hashFields = getLookupHashFields(isIncludeBody);
+    List<String> args = Lists.newArrayListWithCapacity(1 + hashFields.size() + localIds.size());
+    args.add(String.valueOf(hashFields.size()));
+    args.addAll(hashFields);
+    for (long localId : localIds) {
+      args.add(String.valueOf(localId));
+    }
+    return args;
+  }
+
+  /*
+   * Builds the infos of the jobs returned by the LOOKUP_JOBS script, keyed by local id. Jobs whose
+   * hash has been evicted are left out.
+   */
+  static Map<Long, PinLaterJobInfo> toJobInfos(String queueName, String shardName, int priority,
+                                               List<Object> result, boolean isIncludeBody) {
+    PinLaterJobState[] jobStates = PinLaterJobState.values();
+    int numFields = getLookupHashFields(isIncludeBody).size();
+    Map<Long, PinLaterJobInfo> jobInfoMap = Maps.newHashMap();
+    for (int i = 0; i < result.size(); i += numFields + 3) {
+      long localId = Long.parseLong((String) result.get(i));
+      List<String> jobRawInfo = Lists.newArrayListWithCapacity(numFields);
+      for (int j = 0; j < numFields; j++) {
+        jobRawInfo.add((String) result.get(i + 3 + j));
+      }
+      PinLaterJobInfo jobInfo = toJobInfo(queueName, shardName, priority, localId,
+          jobStates[((Long) result.get(i + 1)).intValue()],
+          Double.parseDouble((String) result.get(i + 2)), jobRawInfo, isIncludeBody);
+      if (jobInfo != null) {
+        jobInfoMap.put(localId, jobInfo);
+      }
+    }
+    return jobInfoMap;
+  }
 }
@@ -54,6 +54,49 @@ public final class RedisLuaScripts {
           + "redis.call('ZADD', KEYS[3], ARGV[4], jobId)\n"
           + "return jobId";
 
+  /*
+   * Enqueue a batch of jobs of the same priority with given job information.
+   *
+   * Reserve a contiguous range of jobIds for the whole batch with a single INCRBY, store each
+   * job's information into its own hash and add all of the jobs to the priority queue with one
+   * variadic ZADD.
+   *
+   * Args:
+   *     KEYS[1]: Auto incremental jobId string key.
+   *     KEYS[2]: Hash key prefix.
+   *     KEYS[3]: Priority queue sorted set key.
+   *     ARGV[1]: Created at timestamp in seconds(float).
+   *     ARGV[2 + 4i]: Job body of the i-th job.
+   *     ARGV[3 + 4i]: Remaining(Allowed) attempts of the i-th job.
+   *     ARGV[4 + 4i]: Job to run timestamp in seconds(float) of the i-th job.
+   *     ARGV[5 + 4i]: Custom status of the i-th job.
+   *
+   * Returns:
+   *     The job Id of the first enqueued job. The i-th job has job Id ``first job Id + i``.
+   */
+  public static final String ENQUEUE_JOBS =
+      "local numJobs = (table.getn(ARGV) - 1) / 4\n"
+          + "local firstJobId = redis.call('INCRBY', KEYS[1], numJobs) - numJobs + 1\n"
+          + "local zadd_args = {}\n"
+          + "for i = 0, numJobs - 1 do\n"
+          + "local jobId = firstJobId + i\n"
+          + "local offset = 1 + i * 4\n"
+          + "redis.call('HMSET', KEYS[2]..jobId,"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_BODY_FIELD + "', ARGV[offset + 1],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_ALLOWED_FIELD
+          + "', ARGV[offset + 2],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD
+          + "', ARGV[offset + 2],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CREATED_AT_FIELD + "', ARGV[1],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD + "', ARGV[1],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD
+          + "', ARGV[offset + 4])\n"
+          + "table.insert(zadd_args, ARGV[offset + 3])\n"
+          + "table.insert(zadd_args, jobId)\n"
+          + "end\n"
+          + "redis.call('ZADD', KEYS[3], unpack(zadd_args))\n"
+          + "return firstJobId";
+
   /*
    * Dequeue limit number of jobs in the queue up to the given timestamp.
    *
@@ -201,6 +244,97 @@ public final class RedisLuaScripts {
           + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD + "', -1)\n"
           + SET_CUSTOM_STATUS;
 
+  // Per-job outcomes returned by ACK_SUCCEEDED_JOBS and ACK_FAILED_JOBS.
+  public static final long ACK_OUTCOME_NOT_IN_PROGRESS = -1;
+  public static final long ACK_OUTCOME_HASH_EVICTED = 0;
+  public static final long ACK_OUTCOME_SUCCEEDED = 1;
+  public static final long ACK_OUTCOME_RETRY = 2;
+  public static final long ACK_OUTCOME_FAILED = 3;
+
+  /*
+   * Acknowledge a batch of succeeded jobs of the same shard and priority. Same as
+   * ACK_SUCCEEDED_JOB for each job.
+   *
+   * Args:
+   *     KEYS[1]: In progress queue sorted set key.
+   *     KEYS[2]: Hash key prefix.
+   *     KEYS[3]: Succeeded queue sorted set key.
+   *     ARGV[1]: Current timestamp.
+   *     ARGV[2 + 2i]: Job id of the i-th job.
+   *     ARGV[3 + 2i]: Custom status of the i-th job.
+   *
+   * Returns:
+   *     A list with the ACK_OUTCOME_* of each job, in the same order as the jobs in ARGV.
+   */
+  public static final String ACK_SUCCEEDED_JOBS =
+      "local numJobs = (table.getn(ARGV) - 1) / 2\n"
+          + "local outcomes = {}\n"
+          + "for i = 0, numJobs - 1 do\n"
+          + "local offset = 1 + i * 2\n"
+          + "local jobId = ARGV[offset + 1]\n"
+          + "if redis.call('ZREM', KEYS[1], jobId) ~= 1 then\n"
+          + "outcomes[i + 1] = " + ACK_OUTCOME_NOT_IN_PROGRESS + "\n"
+          + "else\n"
+          + "redis.call('ZADD', KEYS[3], ARGV[1], jobId)\n"
+          + "redis.call('HMSET', KEYS[2]..jobId,"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD + "', ARGV[offset + 2],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD + "', ARGV[1])\n"
+          + "outcomes[i + 1] = " + ACK_OUTCOME_SUCCEEDED + "\n"
+          + "end\n"
+          + "end\n"
+          + "return outcomes";
+
+  /*
+   * Acknowledge a batch of failed jobs of the same shard and priority. Same as ACK_FAILED_JOB for
+   * each job.
+   *
+   * Args:
+   *     KEYS[1]: In progress queue sorted set key.
+   *     KEYS[2]: Hash key prefix.
+   *     KEYS[3]: Pending queue sorted set key.
+   *     KEYS[4]: Failed queue sorted set key.
+   *     ARGV[1]: Current timestamp in seconds(float).
+   *     ARGV[2 + 3i]: Job id of the i-th job.
+   *     ARGV[3 + 3i]: Custom status of the i-th job.
+   *     ARGV[4 + 3i]: Retry timestamp in seconds(float) of the i-th job.
+   *
+   * Returns:
+   *     A list with the ACK_OUTCOME_* of each job, in the same order as the jobs in ARGV.
+   */
+  public static final String ACK_FAILED_JOBS =
+      "local numJobs = (table.getn(ARGV) - 1) / 3\n"
+          + "local outcomes = {}\n"
+          + "for i = 0, numJobs - 1 do\n"
+          + "local offset = 1 + i * 3\n"
+          + "local jobId = ARGV[offset + 1]\n"
+          + "if redis.call('ZREM', KEYS[1], jobId) ~= 1 then\n"
+          + "outcomes[i + 1] = " + ACK_OUTCOME_NOT_IN_PROGRESS + "\n"
+          + "else\n"
+          + "local att = tonumber(redis.call('HGET', KEYS[2]..jobId, '"
+          + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD + "'))\n"
+          + "if att == nil then\n"
+          // Job hash has been evicted. GC will take care of it so ignore.
+          + "outcomes[i + 1] = " + ACK_OUTCOME_HASH_EVICTED + "\n"
+          + "else\n"
+          + "if att > 1 then\n"
+          + "redis.call('ZADD', KEYS[3], ARGV[offset + 3], jobId)\n"
+          + "redis.call('HDEL', KEYS[2]..jobId, '"
+          + RedisBackendUtils.PINLATER_JOB_HASH_CLAIM_DESCRIPTOR_FIELD + "')\n"
+          + "outcomes[i + 1] = " + ACK_OUTCOME_RETRY + "\n"
+          + "else\n"
+          + "redis.call('ZADD', KEYS[4], ARGV[1], jobId)\n"
+          + "outcomes[i + 1] = " + ACK_OUTCOME_FAILED + "\n"
+          + "end\n"
+          + "redis.call('HINCRBY', KEYS[2]..jobId, '"
+          + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD + "', -1)\n"
+          + "redis.call('HMSET', KEYS[2]..jobId,"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD + "', ARGV[offset + 2],"
+          + " '" + RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD + "', ARGV[1])\n"
+          + "end\n"
+          + "end\n"
+          + "end\n"
+          + "return outcomes";
+
   /*
    * Handle the timeout jobs in in-progress queue.
    *
@@ -497,17 +631,9 @@ public final class RedisLuaScripts {
           + "return result";
 
   /*
-   * Common checkpointing logic that should be prepend to checkpoint request scripts.
-   *
-   * Args:
-   *     KEYS[1]: Key of sorted set that the job currently lies in.
-   *     KEYS[2]: Key of sorted set that the job is to be moved to.
-   *     KEYS[3]: Hash key prefix.
-   *     ARGV[1]: Job id.
-   *     ARGV[2]: Source (hostname) of checkpoint request.
-   *     ARGV[3]: Current timestamp in seconds (float).
+   * Common checkpointing logic that is prepended to the optional updates of CHECKPOINT_JOB.
    */
-  public static final String CHECKPOINT_JOB_HEADER =
+  private static final String CHECKPOINT_JOB_HEADER =
       "local claimDescriptor = redis.call('HGET', KEYS[3]..ARGV[1],"
           + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CLAIM_DESCRIPTOR_FIELD + "')\n"
           + "if not claimDescriptor or not string.match(claimDescriptor, ARGV[2]) then\n"
@@ -518,52 +644,110 @@ public final class RedisLuaScripts {
           + "redis.call('HSET', KEYS[3]..ARGV[1], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_UPDATED_AT_FIELD + "', ARGV[3])\n";
 
-  /*
- * Update the run_after and updated_at fields of a job to the current time. Optionally
- * changes the job's state by moving it to a specified sorted set. Also optionally changes
- * the job body, resets the number of attempts allowed/remaining and prepend a message to the
- * custom status. A checkpoint request should be constructed as:
- *
- * CHECKPOINT_JOB_HEADER + [optional update fields] + CHECKPOINT_JOB_FOOTER
- *
- * Note that this update will only go through if the claim descriptor field matches the host
- * that made the checkpoint request. If it doesn't match, this script is a no-op.
- *
- * Args:
- *     KEYS[1]: Key of sorted set that the job currently lies in.
- *     KEYS[2]: Key of sorted set that the job is to be moved to.
- *     KEYS[3]: Hash key prefix.
- *     ARGV[1]: Job id.
- *     ARGV[2]: Source (hostname) of checkpoint request.
- *     ARGV[3]: Current timestamp in seconds (float)
- *     ARGV[4]: New job body.
- *     ARGV[5]: Set the number of attempts allowed (also reset the attempts remaining).
- *     ARGV[6]: Message to prepend to custom status.
- *
- * Returns:
- *     Number of jobs that have been affected by the checkpoint request. In other words, 0 if this
- *     operation was a no-op, and 1 if the checkpoint operation was successful.
- */
-  public static final String CHECKPOINT_JOB_FOOTER =
-      "return 1";
-
-  public static final String CHECKPOINT_JOB_NEW_BODY =
+  private static final String CHECKPOINT_JOB_NEW_BODY =
       "redis.call('HSET', KEYS[3]..ARGV[1], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_BODY_FIELD + "', ARGV[4])\n";
 
-  public static final String CHECKPOINT_JOB_NEW_ATTEMPTS_ALLOWED =
+  private static final String CHECKPOINT_JOB_NEW_ATTEMPTS_ALLOWED =
       "redis.call('HMSET', KEYS[3]..ARGV[1], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_ALLOWED_FIELD + "', ARGV[5], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_ATTEMPTS_REMAINING_FIELD + "', ARGV[5])\n";
 
-  public static final String CHECKPOINT_JOB_NEW_CUSTOM_STATUS =
+  private static final String CHECKPOINT_JOB_NEW_CUSTOM_STATUS =
       "local customStatus = string.sub(ARGV[6]..redis.call('HGET', KEYS[3]..ARGV[1],"
           + " '" + RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD + "'),"
           + " 0, " + String.valueOf(RedisBackendUtils.CUSTOM_STATUS_SIZE_BYTES) + ")\n"
           + "redis.call('HSET', KEYS[3]..ARGV[1], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_CUSTOM_STATUS_FIELD + "', customStatus)\n";
 
-  public static final String CHECKPOINT_JOB_RESET_CLAIM_DESCRIPTOR =
+  private static final String CHECKPOINT_JOB_RESET_CLAIM_DESCRIPTOR =
       "redis.call('HDEL', KEYS[3]..ARGV[1], '"
           + RedisBackendUtils.PINLATER_JOB_HASH_CLAIM_DESCRIPTOR_FIELD + "')\n";
+
+  /*
+   * Update the run_after and updated_at fields of a job to the current time. Optionally
+   * changes the job's state by moving it to a specified sorted set. Also optionally changes
+   * the job body, resets the number of attempts allowed/remaining and prepend a message to the
+   * custom status. Each optional update is switched on by its flag argument, so the script text
+   * is the same for every checkpoint request and can be cached by redis.
+   *
+   * Note that this update will only go through if the claim descriptor field matches the host
+   * that made the checkpoint request. If it doesn't match, this script is a no-op.
+   *
+   * Args:
+   *     KEYS[1]: Key of sorted set that the job currently lies in.
+   *     KEYS[2]: Key of sorted set that the job is to be moved to.
+   *     KEYS[3]: Hash key prefix.
+   *     ARGV[1]: Job id.
+   *     ARGV[2]: Source (hostname) of checkpoint request.
+   *     ARGV[3]: Current timestamp in seconds (float)
+   *     ARGV[4]: New job body.
+   *     ARGV[5]: Set the number of attempts allowed (also reset the attempts remaining).
+   *     ARGV[6]: Message to prepend to custom status.
+   *     ARGV[7]: '1' to set the new job body, '0' otherwise.
+   *     ARGV[8]: '1' to set the number of attempts allowed, '0' otherwise.
+   *     ARGV[9]: '1' to prepend the message to custom status, '0' otherwise.
+   *     ARGV[10]: '1' to reset the claim descriptor, '0' otherwise.
+   *
+   * Returns:
+   *     Number of jobs that have been affected by the checkpoint request. In other words, 0 if this
+   *     operation was a no-op, and 1 if the checkpoint operation was successful.
+   */
+  public static final String CHECKPOINT_JOB =
+      CHECKPOINT_JOB_HEADER
+          + "if ARGV[7] == '1' then\n"
+          + CHECKPOINT_JOB_NEW_BODY
+          + "end\n"
+          + "if ARGV[8] == '1' then\n"
+          + CHECKPOINT_JOB_NEW_ATTEMPTS_ALLOWED
+          + "end\n"
+          + "if ARGV[9] == '1' then\n"
+          + CHECKPOINT_JOB_NEW_CUSTOM_STATUS
+          + "end\n"
+          + "if ARGV[10] == '1' then\n"
+          + CHECKPOINT_JOB_RESET_CLAIM_DESCRIPTOR
+          + "end\n"
+          + "return 1";
+
+  /*
+   * Look up a batch of jobs of the same queue, shard and priority.
+   *
+   * For each job id, find out which state the job is in by checking the score of the job in each
+   * of the state sorted sets, and if found, read the given fields from the job hash. Jobs that are
+   * in none of the sorted sets are skipped.
+   *
+   * Args:
+   *     KEYS[1..n]: Sorted set keys of every job state, in the order of the job state values.
+   *     KEYS[n + 1]: Hash key prefix.
+   *     ARGV[1]: Number of hash fields m to read.
+   *     ARGV[2..m + 1]: Hash fields to read.
+   *     ARGV[m + 2..]: Job ids.
+   *
+   * Returns:
+   *     A list of (m + 3)k objects for the k jobs found, where every m + 3 objects represents the
+   *     job ID, the index of its state sorted set in KEYS (0 based), its score and the values of
+   *     the hash fields (nil if the job hash has been evicted).
+   */
+  public static final String LOOKUP_JOBS =
+      "local numStates = table.getn(KEYS) - 1\n"
+          + "local numFields = tonumber(ARGV[1])\n"
+          + "local result = {}\n"
+          + "for i = numFields + 2, table.getn(ARGV) do\n"
+          + "local jobId = ARGV[i]\n"
+          + "for state = 1, numStates do\n"
+          + "local score = redis.call('ZSCORE', KEYS[state], jobId)\n"
+          + "if score then\n"
+          + "table.insert(result, jobId)\n"
+          + "table.insert(result, state - 1)\n"
+          + "table.insert(result, score)\n"
+          + "local values = redis.call('HMGET', KEYS[numStates + 1]..jobId,"
+          + " unpack(ARGV, 2, numFields + 1))\n"
+          + "for field = 1, numFields do\n"
+          + "table.insert(result, values[field])\n"
+          + "end\n"
+          + "break\n"
+          + "end\n"
+          + "end\n"
+          + "end\n"
+          + "return result";
 }
@@ -84,10 +84,12 @@ public class RedisPools {
     config.setNumTestsPerEvictionRun(poolSize);
 
     JedisPool pool = new JedisPool(config, host, port, socketTimeoutMillis);
-    // Force connection pool initialization.
+    // Force connection pool initialization and load the LUA scripts into the script cache of the
+    // redis server, so that the first requests can go through EVALSHA directly.
     Jedis jedis = null;
     try {
       jedis = pool.getResource();
+      RedisScriptRegistry.loadScripts(jedis);
     } catch (JedisConnectionException e) {
       LOG.error(
           String.format("Failed to get a redis connection when creating redis pool, "
@@ -17,6 +17,7 @@
 package com.pinterest.pinlater.backends.redis;
 
 import com.pinterest.pinlater.backends.common.BackendQueueMonitorBase;
+import com.pinterest.pinlater.backends.common.DoneJobsGCDrainer;
 import com.pinterest.pinlater.commons.healthcheck.HealthChecker;
 import com.pinterest.pinlater.thrift.PinLaterJobState;
 
@@ -31,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,12 +45,6 @@ public class RedisQueueMonitor extends BackendQueueMonitorBase<RedisPools> {
 
   private static final Logger LOG = LoggerFactory.getLogger(RedisQueueMonitor.class);
 
-  private int logCount;
-  private int numTimeoutDone;
-  private int numTimeoutRetry;
-  private long numSucceededGC;
-  private long numFailedGC;
-  private int numTimeoutEvict;
   private final HealthChecker healthChecker;
 
   public RedisQueueMonitor(ImmutableMap<String, RedisPools> shardMap,
@@ -70,15 +66,33 @@ public class RedisQueueMonitor extends BackendQueueMonitorBase<RedisPools> {
   }
 
   @Override
-  protected void jobMonitorImpl(long runStartMillis,
-                                final Map.Entry<String, RedisPools> shard,
-                                int numAutoRetries) {
+  protected Set<String> getQueueNames(final Map.Entry<String, RedisPools> shard)
+      throws Exception {
     // Skip the shard if it is unhealthy.
-    if (!healthChecker.isServerLive(
-        shard.getValue().getHost(), shard.getValue().getPort())) {
+    if (!isShardLive(shard)) {
       LOG.warn(String.format("Skipped monitoring shard %s because it is unhealthy.",
           shard.getKey()));
-      return;
+      return Collections.emptySet();
+    }
+    return RedisUtils.executeWithConnection(
+        shard.getValue().getMonitorRedisPool(),
+        new Function<Jedis, Set<String>>() {
+          @Override
+          public Set<String> apply(Jedis conn) {
+            return RedisBackendUtils.getQueueNames(conn, shard.getKey());
+          }
+        });
+  }
+
+  @Override
+  protected boolean monitorTable(long runStartMillis,
+                                 final Map.Entry<String, RedisPools> shard,
+                                 final String queueName,
+                                 final int priority,
+                                 int numAutoRetries) {
+    // The shard may have become unhealthy since the run started.
+    if (!isShardLive(shard)) {
+      return false;
     }
 
     final double runStartTimeSeconds = runStartMillis / 1000.0;
@@ -87,92 +101,140 @@ public class RedisQueueMonitor extends BackendQueueMonitorBase<RedisPools> {
     final double failedGCTimeSeconds = (runStartMillis - getJobFailedGCTimeoutMillis()) / 1000.0;
     final double timeoutTimeSeconds = (runStartMillis - getJobClaimedTimeoutMillis()) / 1000.0;
 
+    final RedisPools redisPools = shard.getValue();
+    final String succeededQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+        queueName, shard.getKey(), priority, PinLaterJobState.SUCCEEDED);
+    final String failedQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+        queueName, shard.getKey(), priority, PinLaterJobState.FAILED);
+    final String hashRedisKeyPrefix = RedisBackendUtils.constructHashRedisKeyPrefix(
+        queueName, shard.getKey());
+
     try {
-      RedisUtils.executeWithConnection(
-          shard.getValue().getMonitorRedisPool(),
-          new Function<Jedis, Void>() {
+      // Handle timed out jobs.
+      List<Object> nums = RedisUtils.executeWithConnection(
+          redisPools.getMonitorRedisPool(),
+          new Function<Jedis, List<Object>>() {
             @Override
-            public Void apply(Jedis conn) {
-              Set<String> queueNames = RedisBackendUtils.getQueueNames(conn, shard.getKey());
-              for (String queueName : queueNames) {
-                for (int priority = 1;
-                     priority <= numPriorityLevels;
-                     priority++) {
-                  String pendingQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
-                      queueName, shard.getKey(), priority, PinLaterJobState.PENDING);
-                  String inProgressQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
-                      queueName, shard.getKey(), priority, PinLaterJobState.IN_PROGRESS);
-                  String succeededQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
-                      queueName, shard.getKey(), priority, PinLaterJobState.SUCCEEDED);
-                  String failedQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
-                      queueName, shard.getKey(), priority, PinLaterJobState.FAILED);
-                  String hashRedisKeyPrefix = RedisBackendUtils.constructHashRedisKeyPrefix(
-                      queueName, shard.getKey());
-
-                  // Handle timed out jobs.
-                  List<String> keys = Lists.newArrayList(
-                      inProgressQueueRedisKey,
-                      hashRedisKeyPrefix,
-                      pendingQueueRedisKey,
-                      failedQueueRedisKey);
-                  List<String> argv = Lists.newArrayList(
-                      String.valueOf(timeoutTimeSeconds),
-                      String.valueOf(getUpdateMaxSize()),
-                      String.valueOf(runStartTimeSeconds));
-                  Object nums = conn.eval(
-                      RedisLuaScripts.MONITOR_TIMEOUT_UPDATE, keys, argv);
-                  List<Object> tmp = (List<Object>) nums;
-                  numTimeoutDone += Integer.valueOf((String) tmp.get(0));
-                  numTimeoutRetry += Integer.valueOf((String) tmp.get(1));
-                  numTimeoutEvict += Integer.valueOf((String) tmp.get(2));
-
-                  // Succeeded job GC.
-                  keys = Lists.newArrayList(succeededQueueRedisKey, hashRedisKeyPrefix);
-                  argv = Lists.newArrayList(String.valueOf(succeededGCTimeSeconds),
-                      String.valueOf(getUpdateMaxSize()));
-                  numSucceededGC += (Long) conn.eval(
-                      RedisLuaScripts.MONITOR_GC_DONE_JOBS, keys, argv);
-
-                  // Failed job GC.
-                  keys = Lists.newArrayList(failedQueueRedisKey, hashRedisKeyPrefix);
-                  argv = Lists.newArrayList(String.valueOf(failedGCTimeSeconds),
-                      String.valueOf(getUpdateMaxSize()));
-                  numFailedGC += (Long) conn.eval(
-                      RedisLuaScripts.MONITOR_GC_DONE_JOBS, keys, argv);
-
-                  logCount++;
-                  if (logCount % getLogInterval() == 0) {
-                    LOG.info(String.format(
-                        "JobQueueMonitor: "
-                            + "Shard: %s Queue: %s Priority: %d Timeout Done: %d Timeout Retry: %d "
-                            + "Succeeded GC: %d Failed GC: %d",
-                        shard.getKey(), queueName, priority, numTimeoutDone, numTimeoutRetry,
-                        numSucceededGC, numFailedGC));
-                    if (numTimeoutEvict != 0) {
-                      LOG.error(String.format(
-                          "JobQueueMonitor: Shard: %s Queue: %s Priority: %d Timeout Evict: %d",
-                          shard.getKey(), queueName, priority, numTimeoutEvict));
-                    }
-                    Stats.incr(queueName + "_timeout_done", numTimeoutDone);
-                    Stats.incr(queueName + "_timeout_retry", numTimeoutRetry);
-                    Stats.incr(queueName + "_timeout_evict", numTimeoutEvict);
-                    Stats.incr(queueName + "_succeeded_gc", (int) numSucceededGC);
-                    Stats.incr(queueName + "_failed_gc", (int) numFailedGC);
-                    logCount = 0;
-                    numTimeoutDone = 0;
-                    numTimeoutRetry = 0;
-                    numSucceededGC = 0;
-                    numFailedGC = 0;
-                    numTimeoutEvict = 0;
-                  }
-                }
-              }
-              return null;
+            public List<Object> apply(Jedis conn) {
+              String pendingQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+                  queueName, shard.getKey(), priority, PinLaterJobState.PENDING);
+              String inProgressQueueRedisKey = RedisBackendUtils.constructQueueRedisKey(
+                  queueName, shard.getKey(), priority, PinLaterJobState.IN_PROGRESS);
+              List<String> keys = Lists.newArrayList(
+                  inProgressQueueRedisKey,
+                  hashRedisKeyPrefix,
+                  pendingQueueRedisKey,
+                  failedQueueRedisKey);
+              List<String> argv = Lists.newArrayList(
+                  String.valueOf(timeoutTimeSeconds),
+                  String.valueOf(getUpdateMaxSize()),
+                  String.valueOf(runStartTimeSeconds));
+              return (List<Object>) RedisScriptRegistry.eval(
+                  conn, RedisLuaScripts.MONITOR_TIMEOUT_UPDATE, keys, argv);
             }
           });
+      int numTimeoutDone = Integer.valueOf((String) nums.get(0));
+      int numTimeoutRetry = Integer.valueOf((String) nums.get(1));
+      int numTimeoutEvict = Integer.valueOf((String) nums.get(2));
+
+      // Succeeded job GC.
+      long gcDeadlineMillis = runStartMillis + getDrainTimeMillis();
+      String gcTableKey = shard.getKey() + ":" + queueName + ":" + priority;
+      DoneJobsGCDrainer.Result succeededGC = getDoneJobsGCDrainer().gc(
+          queueName + "_succeeded",
+          gcTableKey + ":succeeded",
+          new DoneJobsQueue(redisPools, succeededQueueRedisKey, hashRedisKeyPrefix,
+              succeededGCTimeSeconds),
+          gcDeadlineMillis);
+
+      // Failed job GC.
+      DoneJobsGCDrainer.Result failedGC = getDoneJobsGCDrainer().gc(
+          queueName + "_failed",
+          gcTableKey + ":failed",
+          new DoneJobsQueue(redisPools, failedQueueRedisKey, hashRedisKeyPrefix,
+              failedGCTimeSeconds),
+          gcDeadlineMillis);
+      int numSucceededGC = succeededGC.getNumDeleted();
+      int numFailedGC = failedGC.getNumDeleted();
+
+      Stats.incr(queueName + "_timeout_done", numTimeoutDone);
+      Stats.incr(queueName + "_timeout_retry", numTimeoutRetry);
+      Stats.incr(queueName + "_timeout_evict", numTimeoutEvict);
+      Stats.incr(queueName + "_succeeded_gc", numSucceededGC);
+      Stats.incr(queueName + "_failed_gc", numFailedGC);
+      if (shouldLog()) {
+        LOG.info(String.format(
+            "JobQueueMonitor: "
+                + "Shard: %s Queue: %s Priority: %d Timeout Done: %d Timeout Retry: %d "
+                + "Succeeded GC: %d Failed GC: %d",
+            shard.getKey(), queueName, priority, numTimeoutDone, numTimeoutRetry,
+            numSucceededGC, numFailedGC));
+      }
+      if (numTimeoutEvict != 0) {
+        LOG.error(String.format(
+            "JobQueueMonitor: Shard: %s Queue: %s Priority: %d Timeout Evict: %d",
+            shard.getKey(), queueName, priority, numTimeoutEvict));
+      }
+      // The timeout script caps the number of jobs it looks at, including evicted ones.
+      return numTimeoutDone + numTimeoutRetry + numTimeoutEvict >= getUpdateMaxSize()
+          || succeededGC.hasMoreToDelete()
+          || failedGC.hasMoreToDelete();
     } catch (Exception e) {
       Stats.incr("PinLater.RedisQueueMonitor.errors." + e.getClass().getSimpleName());
       LOG.error("Exception in JobQueueMonitor task", e);
+      return false;
+    }
+  }
+
+  private boolean isShardLive(Map.Entry<String, RedisPools> shard) {
+    return healthChecker.isServerLive(shard.getValue().getHost(), shard.getValue().getPort());
+  }
+
+  /*
+   * The finished jobs of a single state in a queue, i.e. one sorted set and the hashes of its
+   * jobs. Each call borrows its own connection, so that none is held while the drain pauses.
+   */
+  private static class DoneJobsQueue extends DoneJobsGCDrainer.Table {
+
+    private final RedisPools redisPools;
+    private final String queueRedisKey;
+    private final String hashRedisKeyPrefix;
+    private final double gcTimeSeconds;
+
+    DoneJobsQueue(RedisPools redisPools, String queueRedisKey, String hashRedisKeyPrefix,
+                  double gcTimeSeconds) {
+      this.redisPools = redisPools;
+      this.queueRedisKey = queueRedisKey;
+      this.hashRedisKeyPrefix = hashRedisKeyPrefix;
+      this.gcTimeSeconds = gcTimeSeconds;
+    }
+
+    @Override
+    public long countBacklog() throws Exception {
+      return RedisUtils.executeWithConnection(
+          redisPools.getMonitorRedisPool(),
+          new Function<Jedis, Long>() {
+            @Override
+            public Long apply(Jedis conn) {
+              return conn.zcount(queueRedisKey, "-inf", String.valueOf(gcTimeSeconds));
+            }
+          });
+    }
+
+    @Override
+    public int deleteJobs(final int limit) throws Exception {
+      return RedisUtils.executeWithConnection(
+          redisPools.getMonitorRedisPool(),
+          new Function<Jedis, Integer>() {
+            @Override
+            public Integer apply(Jedis conn) {
+              List<String> keys = Lists.newArrayList(queueRedisKey, hashRedisKeyPrefix);
+              List<String> argv = Lists.newArrayList(String.valueOf(gcTimeSeconds),
+                  String.valueOf(limit));
+              return ((Long) RedisScriptRegistry.eval(
+                  conn, RedisLuaScripts.MONITOR_GC_DONE_JOBS, keys, argv)).intValue();
+            }
+          });
     }
   }
 }
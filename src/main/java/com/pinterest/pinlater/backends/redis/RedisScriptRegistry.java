@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.redis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.twitter.ostrich.stats.Stats;
+import org.apache.commons.codec.binary.Hex;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Executes the LUA scripts in ``RedisLuaScripts`` through EVALSHA so that only the SHA1 digest of
+ * a script is sent to redis on each call instead of the whole script text.
+ *
+ * All the scripts are loaded into the script cache of a redis server when its connection pool is
+ * created. Redis can lose its script cache, e.g. after a restart or a failover to a slave, in which
+ * case EVALSHA fails with a NOSCRIPT error. The registry then loads the script again and retries
+ * the call once.
+ */
+public final class RedisScriptRegistry {
+
+  static final String NO_SCRIPT_ERROR_PREFIX = "NOSCRIPT";
+
+  @VisibleForTesting
+  static final List<String> ALL_SCRIPTS = ImmutableList.of(
+      RedisLuaScripts.ENQUEUE_JOB,
+      RedisLuaScripts.ENQUEUE_JOBS,
+      RedisLuaScripts.DEQUEUE_JOBS,
+      RedisLuaScripts.ACK_SUCCEEDED_JOB,
+      RedisLuaScripts.ACK_FAILED_JOB,
+      RedisLuaScripts.ACK_SUCCEEDED_JOBS,
+      RedisLuaScripts.ACK_FAILED_JOBS,
+      RedisLuaScripts.MONITOR_TIMEOUT_UPDATE,
+      RedisLuaScripts.MONITOR_GC_DONE_JOBS,
+      RedisLuaScripts.DELETE_QUEUE,
+      RedisLuaScripts.RETRY_JOBS,
+      RedisLuaScripts.DELETE_JOBS,
+      RedisLuaScripts.DELETE_JOBS_MATCH_BODY,
+      RedisLuaScripts.COUNT_JOBS_MATCH_BODY,
+      RedisLuaScripts.SCAN_JOBS_MATCH_BODY,
+      RedisLuaScripts.CHECKPOINT_JOB,
+      RedisLuaScripts.LOOKUP_JOBS);
+
+  // Cache of script -> SHA1 digest, so that each script is only hashed once per process.
+  private static final ConcurrentMap<String, String> SCRIPT_SHAS =
+      new ConcurrentHashMap<String, String>();
+
+  private RedisScriptRegistry() {}
+
+  /**
+   * Loads all of the PinLater LUA scripts into the script cache of the redis server.
+   *
+   * @param conn Jedis connection to the redis server.
+   */
+  public static void loadScripts(Jedis conn) {
+    for (String script : ALL_SCRIPTS) {
+      conn.scriptLoad(script);
+    }
+  }
+
+  /**
+   * Evaluates the given script with EVALSHA, reloading the script and retrying once if the redis
+   * server does not have it cached.
+   *
+   * @param conn   Jedis connection to the redis server.
+   * @param script Script text, typically one of the constants in ``RedisLuaScripts``.
+   * @param keys   KEYS passed to the script.
+   * @param args   ARGV passed to the script.
+   * @return The value returned by the script.
+   */
+  public static Object eval(Jedis conn, String script, List<String> keys, List<String> args) {
+    String sha = getSha(script);
+    try {
+      return conn.evalsha(sha, keys, args);
+    } catch (JedisDataException e) {
+      if (e.getMessage() == null || !e.getMessage().startsWith(NO_SCRIPT_ERROR_PREFIX)) {
+        throw e;
+      }
+      Stats.incr("redis-script-reload");
+      conn.scriptLoad(script);
+      return conn.evalsha(sha, keys, args);
+    }
+  }
+
+  /**
+   * Returns the SHA1 digest of the given script, as used by EVALSHA.
+   */
+  static String getSha(String script) {
+    String sha = SCRIPT_SHAS.get(script);
+    if (sha == null) {
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        sha = new String(Hex.encodeHex(digest.digest(script.getBytes(Charsets.UTF_8))));
+      } catch (NoSuchAlgorithmException e) {
+        // Every JVM is required to support SHA-1.
+        throw new RuntimeException(e);
+      }
+      SCRIPT_SHAS.putIfAbsent(script, sha);
+    }
+    return sha;
+  }
+}
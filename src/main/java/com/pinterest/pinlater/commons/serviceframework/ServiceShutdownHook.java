@@ -17,7 +17,10 @@
 package com.pinterest.pinlater.commons.serviceframework;
 
 import com.twitter.finagle.builder.Server;
+import com.twitter.util.Await;
 import com.twitter.util.Duration;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,4 +64,28 @@ public class ServiceShutdownHook {
       }
     });
   }
+
+  /**
+   * Turn on graceful shutdown on the finagle server passed in with the grace period of 10 seconds,
+   * and then run ``closeResources``, e.g. to close the connections of its backend.
+   *
+   * @param server the finagle server instance built by finagle ServerBuilder.
+   * @param closeResources closes the resources of the server, once it has shut down.
+   */
+  public static void register(final Server server, final Function0<Future<Void>> closeResources) {
+    final Duration gracePeriod = Duration.fromMilliseconds(DEFAULT_GRACE_PERIOD_MILLIS);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        LOG.info("Try to shut down the server gracefully: {}", gracePeriod);
+        try {
+          Await.ready(server.close(gracePeriod));
+          LOG.info("Finished server graceful shutdown");
+          Await.ready(closeResources.apply(), gracePeriod);
+        } catch (Exception e) {
+          LOG.error("Failed to shut down the server", e);
+        }
+      }
+    });
+  }
 }
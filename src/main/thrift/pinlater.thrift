@@ -38,6 +38,8 @@ enum ErrorCode {
   UNKNOWN = 500,
   NO_HEALTHY_SHARDS = 501,
   SHARD_CONNECTION_FAILED = 502,
+  // The shard has too many calls in flight and queued on this server, see ShardBulkheads.
+  SHARD_OVERLOADED = 503,
 }
 
 /**
@@ -124,6 +126,7 @@ struct PinLaterDequeueRequest {
   3: optional PinLaterJobAckRequest jobAckRequest;
   4: optional bool dryRun = 0;
   5: optional double coverage = 1.0;
+  6: optional i32 waitTimeMillis;
 }
 
 struct PinLaterDequeueMetadata {
@@ -283,6 +286,11 @@ service PinLater {
    * This API can optionally be used to also ACK previously dequeued jobs, so that workers doing
    * a sequence of dequeue/ack need not make separate RPCs for the two steps. There is also the
    * option to declare the call a dry run, which retrieves available jobs without running them.
+   *
+   * If waitTimeMillis is set and no jobs are available, the server holds the request open for up
+   * to that long (capped by the server) and returns as soon as jobs become available, instead of
+   * returning an empty response right away. Clients should use a request timeout longer than
+   * waitTimeMillis. It is ignored for dry runs.
    */
   PinLaterDequeueResponse dequeueJobs(1: RequestContext context, 2: PinLaterDequeueRequest request)
       throws(1: PinLaterException e);
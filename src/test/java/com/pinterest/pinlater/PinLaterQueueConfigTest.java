@@ -22,6 +22,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 @RunWith(JUnit4.class)
 
@@ -78,4 +79,84 @@ public class PinLaterQueueConfigTest {
     Assert.assertEquals(0.0, queueConfig.getDequeueRate("test_queue_1"), 0.01);
     Assert.assertEquals(100.0, queueConfig.getDequeueRate("test_queue_2"), 0.01);
   }
+
+  @Test
+  public void testOrderedDequeue() throws IOException {
+    Assert.assertFalse(queueConfig.isDequeueOrdered("test_queue_1"));
+
+    queueConfig.getQueueConfigSchemaRef().set(PinLaterQueueConfig.QueueConfigSchema.load((
+        "{\"queues\": ["
+            + "{\"name\": \"test_queue_1\", \"queueConfig\": {\"maxJobsPerSecond\": 100}},"
+            + "{\"name\": \"test_queue_2\","
+            + " \"queueConfig\": {\"maxJobsPerSecond\": 100, \"orderedDequeue\": true}}"
+            + "]}").getBytes()));
+    queueConfig.rebuild();
+
+    Assert.assertFalse(queueConfig.isDequeueOrdered("queue_not_in_config"));
+    Assert.assertFalse(queueConfig.isDequeueOrdered("test_queue_1"));
+    Assert.assertTrue(queueConfig.isDequeueOrdered("test_queue_2"));
+  }
+
+  @Test
+  public void testPriorityScheduler() throws IOException {
+    queueConfig.getQueueConfigSchemaRef().set(PinLaterQueueConfig.QueueConfigSchema.load((
+        "{\"queues\": ["
+            + "{\"name\": \"test_queue_1\", \"queueConfig\": {\"maxJobsPerSecond\": 100}},"
+            + "{\"name\": \"test_queue_2\","
+            + " \"queueConfig\": {\"maxJobsPerSecond\": 100, \"numPriorityLevels\": 2}},"
+            + "{\"name\": \"test_queue_3\","
+            + " \"queueConfig\": {\"maxJobsPerSecond\": 100, \"priorityWeights\": [7, 2, 1]}}"
+            + "]}").getBytes()));
+    queueConfig.rebuild();
+
+    Assert.assertNull(queueConfig.getPriorityScheduler("queue_not_in_config"));
+    Assert.assertNull(queueConfig.getPriorityScheduler("test_queue_1"));
+
+    QueuePriorityScheduler scheduler = queueConfig.getPriorityScheduler("test_queue_2");
+    Assert.assertEquals(2, scheduler.getNumPriorityLevels());
+    Assert.assertFalse(scheduler.isWeighted());
+
+    scheduler = queueConfig.getPriorityScheduler("test_queue_3");
+    Assert.assertEquals(3, scheduler.getNumPriorityLevels());
+    Assert.assertArrayEquals(new int[]{7, 2, 1}, scheduler.allocate(10));
+
+    // Leave credit behind: a single job goes to priority 1, and priorities 2 and 3 are owed theirs.
+    Assert.assertArrayEquals(new int[]{1, 0, 0}, scheduler.allocate(1));
+
+    // A reload that leaves the weights of a queue unchanged keeps its scheduler and credits.
+    queueConfig.getNumPinLaterServers().set(2);
+    queueConfig.rebuild();
+    Assert.assertSame(scheduler, queueConfig.getPriorityScheduler("test_queue_3"));
+    Assert.assertArrayEquals(new int[]{6, 2, 1}, scheduler.allocate(9));
+  }
+
+  @Test
+  public void testInvalidPriorityConfig() throws IOException {
+    // The number of priority levels does not match the weights.
+    PinLaterQueueConfig.QueueConfigSchema queueConfigSchema =
+        PinLaterQueueConfig.QueueConfigSchema.load((
+            "{\"queues\": ["
+                + "{\"name\": \"test_queue_1\", \"queueConfig\": {\"maxJobsPerSecond\": 100,"
+                + " \"numPriorityLevels\": 2, \"priorityWeights\": [7, 2, 1]}}"
+                + "]}").getBytes());
+    try {
+      PinLaterQueueConfig.validate(queueConfigSchema);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    // All weights are 0.
+    queueConfigSchema.queues.get(0).queueConfig.numPriorityLevels = 0;
+    queueConfigSchema.queues.get(0).queueConfig.priorityWeights = Arrays.asList(0, 0, 0);
+    try {
+      PinLaterQueueConfig.validate(queueConfigSchema);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    queueConfigSchema.queues.get(0).queueConfig.priorityWeights = Arrays.asList(7, 2, 1);
+    PinLaterQueueConfig.validate(queueConfigSchema);
+  }
 }
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class QueuePrioritySchedulerTest {
+
+  @Test
+  public void testStrict() {
+    QueuePriorityScheduler scheduler = QueuePriorityScheduler.strict(3);
+    Assert.assertFalse(scheduler.isWeighted());
+    Assert.assertEquals(3, scheduler.getNumPriorityLevels());
+    Assert.assertArrayEquals(new int[]{10, 0, 0}, scheduler.allocate(10));
+    Assert.assertArrayEquals(new int[]{1, 0, 0}, scheduler.allocate(1));
+  }
+
+  @Test
+  public void testWeighted() {
+    QueuePriorityScheduler scheduler =
+        QueuePriorityScheduler.weighted(ImmutableList.of(70, 20, 10));
+    Assert.assertTrue(scheduler.isWeighted());
+    Assert.assertEquals(3, scheduler.getNumPriorityLevels());
+    Assert.assertArrayEquals(new int[]{7, 2, 1}, scheduler.allocate(10));
+    Assert.assertArrayEquals(new int[]{70, 20, 10}, scheduler.allocate(100));
+  }
+
+  @Test
+  public void testWeightedCarriesCreditsAcrossRequests() {
+    QueuePriorityScheduler scheduler =
+        QueuePriorityScheduler.weighted(ImmutableList.of(70, 20, 10));
+    int[] totals = new int[3];
+    for (int i = 0; i < 100; i++) {
+      int[] quotas = scheduler.allocate(1);
+      Assert.assertEquals(1, quotas[0] + quotas[1] + quotas[2]);
+      for (int j = 0; j < 3; j++) {
+        totals[j] += quotas[j];
+      }
+    }
+    Assert.assertArrayEquals(new int[]{70, 20, 10}, totals);
+  }
+
+  @Test
+  public void testZeroWeight() {
+    QueuePriorityScheduler scheduler = QueuePriorityScheduler.weighted(ImmutableList.of(1, 0));
+    for (int i = 0; i < 10; i++) {
+      Assert.assertArrayEquals(new int[]{3, 0}, scheduler.allocate(3));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAllZeroWeights() {
+    QueuePriorityScheduler.weighted(ImmutableList.of(0, 0));
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.twitter.util.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  @Test
+  public void testWaitersAndRejection() {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(2, 10);
+    Assert.assertTrue(limiter.acquire().isDefined());
+    Assert.assertTrue(limiter.acquire().isDefined());
+    Future<Void> waiter = limiter.acquire();
+    Assert.assertFalse(waiter.isDefined());
+    Assert.assertTrue(limiter.acquire().isDefined());  // Rejected, as the wait queue holds 1.
+    Assert.assertEquals(2, limiter.getInFlight());
+
+    // A release hands the permit to the waiter.
+    limiter.release(100, false);
+    Assert.assertTrue(waiter.isDefined());
+    Assert.assertEquals(2, limiter.getInFlight());
+  }
+
+  @Test
+  public void testInterruptedWaiter() {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(1, 10);
+    Assert.assertTrue(limiter.acquire().isDefined());
+    Future<Void> waiter = limiter.acquire();
+    Assert.assertFalse(waiter.isDefined());
+
+    // The interrupted waiter fails and leaves the line.
+    waiter.raise(new Exception("cancelled"));
+    Assert.assertTrue(waiter.isDefined());
+    try {
+      waiter.get();
+      Assert.fail();
+    } catch (Exception e) {
+      Assert.assertEquals("cancelled", e.getMessage());
+    }
+
+    // So the permit released next is not handed to it.
+    limiter.release(100, false);
+    Assert.assertEquals(0, limiter.getInFlight());
+    Future<Void> nextWaiter = limiter.acquire();
+    Assert.assertTrue(nextWaiter.isDefined());
+    Assert.assertEquals(1, limiter.getInFlight());
+  }
+
+  @Test
+  public void testGrowsWhenFullAndFast() {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(2, 4);
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.acquire();
+      limiter.release(100, false);
+      limiter.release(100, false);
+    }
+    Assert.assertEquals(4, limiter.getPermits());
+  }
+
+  @Test
+  public void testDoesNotGrowWhenUnused() {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(4, 8);
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(100, false);
+    }
+    Assert.assertEquals(4, limiter.getPermits());
+  }
+
+  @Test
+  public void testShrinksOnSlowCallsFailuresAndContention() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(8, 8);
+    limiter.acquire();
+    limiter.release(100, false);
+    Assert.assertEquals(8, limiter.getPermits());
+
+    // Much slower than the baseline.
+    limiter.acquire();
+    limiter.release(1000, false);
+    Assert.assertEquals(4, limiter.getPermits());
+
+    // Each of the following calls starts after the previous decrease.
+    limiter.acquire();
+    Thread.sleep(1);
+    limiter.release(100, true);
+    Assert.assertEquals(2, limiter.getPermits());
+
+    Thread.sleep(1);
+    limiter.onContention();
+    Assert.assertEquals(1, limiter.getPermits());
+    Thread.sleep(1);
+    limiter.onContention();
+    Assert.assertEquals(1, limiter.getPermits());
+  }
+
+  @Test
+  public void testShrinksOncePerRoundTrip() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(16, 16);
+    limiter.acquire();
+    limiter.release(100, false);
+
+    // A latency spike hits all the calls in flight. They all started before the first of them
+    // shrinks the limit, so the limit only shrinks once.
+    for (int i = 0; i < 8; i++) {
+      limiter.acquire();
+    }
+    for (int i = 0; i < 8; i++) {
+      limiter.release(TimeUnit.SECONDS.toMicros(1), i % 2 == 0);
+    }
+    Assert.assertEquals(8, limiter.getPermits());
+
+    // So do reports of contention by those calls.
+    limiter.onContention();
+    Assert.assertEquals(8, limiter.getPermits());
+
+    // A call that started after the decrease shrinks it again.
+    Thread.sleep(1);
+    limiter.acquire();
+    limiter.release(100, true);
+    Assert.assertEquals(4, limiter.getPermits());
+  }
+
+  private static AdaptiveConcurrencyLimiter newLimiter(int initialLimit, int maxLimit) {
+    return new AdaptiveConcurrencyLimiter("test-%s", initialLimit, 1, maxLimit, 1, 0.5, 2);
+  }
+}
@@ -53,10 +53,18 @@ public abstract class BackendQueueMonitorBaseTest<T1 extends PinLaterBackendBase
    * but the default configuration means it won't run for the duration of this test,
    * so we are fine.
    */
-  protected abstract T2 createQueueMonitor(long jobClaimedTimeoutMillis,
+  protected abstract T2 createQueueMonitor(int updateMaxSize,
+                                           long jobClaimedTimeoutMillis,
                                            long jobSucceededGCTimeoutMillis,
                                            long jobFailedGCTimeoutMillis);
 
+  protected T2 createQueueMonitor(long jobClaimedTimeoutMillis,
+                                  long jobSucceededGCTimeoutMillis,
+                                  long jobFailedGCTimeoutMillis) {
+    return createQueueMonitor(
+        1000, jobClaimedTimeoutMillis, jobSucceededGCTimeoutMillis, jobFailedGCTimeoutMillis);
+  }
+
   @Test
   public void testJobGC() throws InterruptedException {
     List<String> jobDescriptors = Lists.newArrayList();
@@ -143,6 +151,35 @@ public abstract class BackendQueueMonitorBaseTest<T1 extends PinLaterBackendBase
     Assert.assertEquals(0, jobInfoMap.size());
   }
 
+  @Test
+  public void testJobGCRequeuesTablesAtUpdateMaxSize() throws InterruptedException {
+    // Enqueue, dequeue and ack 100 jobs as succeeded, all at the same priority.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 100; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(new String("job_body_" + i).getBytes()));
+      job.setPriority((byte) 1);
+      enqueueRequest.addToJobs(job);
+    }
+    PinLaterEnqueueResponse enqueueResponse = getBackend().enqueueJobs(enqueueRequest).get();
+    getBackend().dequeueJobs("test", new PinLaterDequeueRequest(getQueueName(), 100)).get();
+    PinLaterJobAckRequest jobAckRequest = new PinLaterJobAckRequest(getQueueName());
+    for (String jobDesc : enqueueResponse.getJobDescriptors()) {
+      jobAckRequest.addToJobsSucceeded(new PinLaterJobAckInfo(jobDesc));
+    }
+    getBackend().ackDequeuedJobs(jobAckRequest).get();
+    Assert.assertEquals(100, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.SUCCEEDED));
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+
+    // A single run GCs everything even though each pass over a table is capped at 10 jobs,
+    // because tables that hit the cap are queued again.
+    createQueueMonitor(10, TimeUnit.HOURS.toMillis(1), 1, TimeUnit.HOURS.toMillis(1)).run();
+    Assert.assertEquals(0, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.SUCCEEDED));
+  }
+
   @Test
   public void testJobClaimedTimeout() throws InterruptedException {
     // Enqueue 100 jobs at random priorities, 50 of them with no retries, and 50 with 1 retry.
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DoneJobsGCDrainerTest {
+
+  @Test
+  public void testDisabled() throws Exception {
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 0, 100, 1000);
+    FakeTable table = new FakeTable(1000);
+    DoneJobsGCDrainer.Result result = drainer.gc("test", "table", table, Long.MAX_VALUE);
+    Assert.assertEquals(10, result.getNumDeleted());
+    Assert.assertTrue(result.hasMoreToDelete());
+    Assert.assertEquals(990, table.numJobs);
+    Assert.assertEquals(0, table.numCounts);
+    Assert.assertTrue(table.chunkSizes.isEmpty());
+  }
+
+  @Test
+  public void testBelowThreshold() throws Exception {
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 1000, 100, 1000);
+    FakeTable table = new FakeTable(1000);
+    Assert.assertEquals(10, drainer.gc("test", "table", table, Long.MAX_VALUE).getNumDeleted());
+    Assert.assertEquals(990, table.numJobs);
+    Assert.assertEquals(1, table.numCounts);
+    Assert.assertTrue(table.chunkSizes.isEmpty());
+
+    // The backlog is not counted again on the next visit.
+    Assert.assertEquals(10, drainer.gc("test", "table", table, Long.MAX_VALUE).getNumDeleted());
+    Assert.assertEquals(1, table.numCounts);
+  }
+
+  @Test
+  public void testDrainsToThreshold() throws Exception {
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 100, 100, 1000);
+    FakeTable table = new FakeTable(1000);
+
+    // Each visit deletes a few chunks and asks to be visited again.
+    DoneJobsGCDrainer.Result result = drainer.gc("test", "table", table, Long.MAX_VALUE);
+    Assert.assertEquals(DoneJobsGCDrainer.MAX_CHUNKS_PER_VISIT * 100, result.getNumDeleted());
+    Assert.assertTrue(result.hasMoreToDelete());
+    Assert.assertEquals(DoneJobsGCDrainer.MAX_CHUNKS_PER_VISIT, table.chunkSizes.size());
+
+    // The table is drained to the threshold over several visits, with a single count.
+    int numVisits = 1;
+    while (result.hasMoreToDelete()) {
+      result = drainer.gc("test", "table", table, Long.MAX_VALUE);
+      numVisits++;
+    }
+    Assert.assertEquals(100, table.numJobs);
+    Assert.assertEquals(1, table.numCounts);
+    Assert.assertEquals(3, numVisits);
+    Assert.assertEquals(9, table.chunkSizes.size());
+    for (int chunkSize : table.chunkSizes) {
+      Assert.assertEquals(100, chunkSize);
+    }
+
+    // Other tables are tracked separately.
+    FakeTable otherTable = new FakeTable(1000);
+    Assert.assertTrue(
+        drainer.gc("test", "other_table", otherTable, Long.MAX_VALUE).hasMoreToDelete());
+    Assert.assertEquals(1, otherTable.numCounts);
+  }
+
+  @Test
+  public void testStopsAtDeadline() throws Exception {
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 100, 100, 1000);
+    FakeTable table = new FakeTable(1000);
+    DoneJobsGCDrainer.Result result =
+        drainer.gc("test", "table", table, System.currentTimeMillis() - 1);
+    Assert.assertEquals(0, result.getNumDeleted());
+    Assert.assertTrue(result.hasMoreToDelete());
+    Assert.assertEquals(1000, table.numJobs);
+  }
+
+  @Test
+  public void testNoPauseAfterLastChunk() throws Exception {
+    // A single chunk drains the table to the threshold.
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 100, 100, 1000);
+    FakeTable table = new FakeTable(150);
+    table.chunkLatencyMillis = 200;
+    long startMillis = System.currentTimeMillis();
+    DoneJobsGCDrainer.Result result = drainer.gc("test", "table", table, Long.MAX_VALUE);
+    Assert.assertEquals(100, result.getNumDeleted());
+    Assert.assertFalse(result.hasMoreToDelete());
+    Assert.assertTrue(System.currentTimeMillis() - startMillis < 2 * table.chunkLatencyMillis);
+  }
+
+  @Test
+  public void testNextChunkSize() {
+    DoneJobsGCDrainer drainer = new DoneJobsGCDrainer(10, 100, 1000, 100);
+    Assert.assertEquals(200, drainer.nextChunkSize(400, 101));
+    Assert.assertEquals(10, drainer.nextChunkSize(15, 101));
+    Assert.assertEquals(400, drainer.nextChunkSize(400, 100));
+    Assert.assertEquals(400, drainer.nextChunkSize(400, 50));
+    Assert.assertEquals(800, drainer.nextChunkSize(400, 49));
+    Assert.assertEquals(1000, drainer.nextChunkSize(800, 0));
+  }
+
+  private static class FakeTable extends DoneJobsGCDrainer.Table {
+
+    private int numJobs;
+    private int numCounts = 0;
+    private long chunkLatencyMillis = 0;
+    private final List<Integer> chunkSizes = Lists.newArrayList();
+
+    FakeTable(int numJobs) {
+      this.numJobs = numJobs;
+    }
+
+    @Override
+    public long countBacklog() {
+      numCounts++;
+      return numJobs;
+    }
+
+    @Override
+    public int deleteJobs(int limit) {
+      int numDeleted = Math.min(limit, numJobs);
+      numJobs -= numDeleted;
+      return numDeleted;
+    }
+
+    @Override
+    public int deleteChunk(int chunkSize) throws InterruptedException {
+      chunkSizes.add(chunkSize);
+      Thread.sleep(chunkLatencyMillis);
+      return deleteJobs(chunkSize);
+    }
+  }
+}
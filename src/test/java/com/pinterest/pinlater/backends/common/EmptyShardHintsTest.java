@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EmptyShardHintsTest {
+
+  private static final String QUEUE = "test_queue";
+
+  @Test
+  public void testDisabled() {
+    EmptyShardHints hints = new EmptyShardHints(0);
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+  }
+
+  @Test
+  public void testExpiresAfterTtl() {
+    EmptyShardHints hints = new EmptyShardHints(100);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE, "1", 1, 1099L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 2, 1099L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "2", 1, 1099L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1100L));
+  }
+
+  @Test
+  public void testExpiresAtNextRunAfter() {
+    EmptyShardHints hints = new EmptyShardHints(100);
+    markEmpty(hints, QUEUE, "1", 1, 1050L, 1000L);
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE, "1", 1, 1049L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1050L));
+
+    // A run_after further away than the TTL does not extend the hint.
+    markEmpty(hints, QUEUE, "1", 1, 5000L, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1100L));
+  }
+
+  @Test
+  public void testOnJobPending() {
+    EmptyShardHints hints = new EmptyShardHints(100);
+
+    // A job that can run now removes the hint.
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    hints.onJobPending(QUEUE, "1", 1, 1000L, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+
+    // A job that runs in the future shortens the hint.
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    hints.onJobPending(QUEUE, "1", 1, 1020L, 1000L);
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE, "1", 1, 1019L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1020L));
+
+    // A job in another shard does not affect the hint.
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    hints.onJobPending(QUEUE, "2", 1, 1000L, 1000L);
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+  }
+
+  @Test
+  public void testJobPendingDuringDequeue() {
+    EmptyShardHints hints = new EmptyShardHints(100);
+
+    // A job made pending while the dequeue was in flight keeps it from adding a hint.
+    long version = hints.getVersion(QUEUE, "1", 1);
+    hints.onJobPending(QUEUE, "1", 1, 1000L, 1000L);
+    hints.markEmpty(QUEUE, "1", 1, version, null, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+
+    // Even one that runs later than the hint would have expired.
+    version = hints.getVersion(QUEUE, "1", 1);
+    hints.onJobPending(QUEUE, "1", 1, 5000L, 1000L);
+    hints.markEmpty(QUEUE, "1", 1, version, null, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+
+    // As well as a dequeue that read its version before the queue was invalidated.
+    version = hints.getVersion(QUEUE, "1", 1);
+    hints.invalidateQueue(QUEUE);
+    hints.getVersion(QUEUE, "1", 1);
+    hints.markEmpty(QUEUE, "1", 1, version, null, 1000L);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+
+    // Jobs of other shards do not matter.
+    version = hints.getVersion(QUEUE, "1", 1);
+    hints.onJobPending(QUEUE, "2", 1, 1000L, 1000L);
+    hints.markEmpty(QUEUE, "1", 1, version, null, 1000L);
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+  }
+
+  @Test
+  public void testInvalidateQueue() {
+    EmptyShardHints hints = new EmptyShardHints(100);
+    markEmpty(hints, QUEUE, "1", 1, null, 1000L);
+    markEmpty(hints, QUEUE, "2", 3, null, 1000L);
+    markEmpty(hints, QUEUE + "_other", "1", 1, null, 1000L);
+    hints.invalidateQueue(QUEUE);
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "1", 1, 1000L));
+    Assert.assertFalse(hints.isKnownEmpty(QUEUE, "2", 3, 1000L));
+    Assert.assertTrue(hints.isKnownEmpty(QUEUE + "_other", "1", 1, 1000L));
+  }
+
+  /*
+   * Marks the given shard and priority empty as a dequeue that nothing raced with would.
+   */
+  private static void markEmpty(EmptyShardHints hints, String queueName, String shardName,
+                                int priority, Long nextRunAfterMillis, long currentTimeMillis) {
+    long version = hints.getVersion(queueName, shardName, priority);
+    hints.markEmpty(
+        queueName, shardName, priority, version, nextRunAfterMillis, currentTimeMillis);
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class FuturePoolExecutorTest {
+
+  @Test
+  public void testFixedKeepsSize() {
+    FuturePoolExecutor executor = new FuturePoolExecutor("test", FuturePoolExecutor.FIXED, 3, 2);
+    Assert.assertEquals(6, getPoolSize(executor));
+    executor.resize(4);
+    Assert.assertEquals(6, getPoolSize(executor));
+  }
+
+  @Test
+  public void testResizableFollowsShards() {
+    FuturePoolExecutor executor =
+        new FuturePoolExecutor("test", FuturePoolExecutor.RESIZABLE, 3, 2);
+    Assert.assertEquals(6, getPoolSize(executor));
+
+    // Shards added by a config update get their threads.
+    executor.resize(4);
+    Assert.assertEquals(12, getPoolSize(executor));
+
+    // And give them back when they are removed, keeping at least one thread.
+    executor.resize(1);
+    Assert.assertEquals(3, getPoolSize(executor));
+    executor.resize(0);
+    Assert.assertEquals(1, getPoolSize(executor));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStrategy() {
+    new FuturePoolExecutor("test", "virtual", 3, 2);
+  }
+
+  private static int getPoolSize(FuturePoolExecutor executor) {
+    ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor.getExecutorService();
+    Assert.assertEquals(threadPool.getCorePoolSize(), threadPool.getMaximumPoolSize());
+    return threadPool.getMaximumPoolSize();
+  }
+}
@@ -17,6 +17,8 @@
 package com.pinterest.pinlater.backends.common;
 
 import com.pinterest.pinlater.PinLaterBackendBase;
+import com.pinterest.pinlater.PinLaterQueueConfig;
+import com.pinterest.pinlater.QueuePriorityScheduler;
 import com.pinterest.pinlater.thrift.ErrorCode;
 import com.pinterest.pinlater.thrift.PinLaterCheckpointJobRequest;
 import com.pinterest.pinlater.thrift.PinLaterCheckpointJobsRequest;
@@ -41,6 +43,7 @@ import com.pinterest.pinlater.thrift.PinLaterScanJobsResponse;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.twitter.util.Future;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -203,6 +206,51 @@ public abstract class PinLaterBackendBaseTest<T extends PinLaterBackendBase> {
     Assert.assertFalse(areJobsAvailable(getQueueName()));
   }
 
+  @Test
+  public void testWeightedPriorities() {
+    // Enqueue 6 jobs at priority 1, 6 at priority 2 and 1 at priority 3.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int priority = 1; priority <= 3; priority++) {
+      for (int i = 0; i < (priority == 3 ? 1 : 6); i++) {
+        PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(("job_body_" + i).getBytes()));
+        job.setPriority((byte) priority);
+        enqueueRequest.addToJobs(job);
+      }
+    }
+    getBackend().enqueueJobs(enqueueRequest).get();
+
+    getBackend().setQueueConfig(new PinLaterQueueConfig("", "", false) {
+      private final QueuePriorityScheduler scheduler =
+          QueuePriorityScheduler.weighted(Arrays.asList(2, 1, 1));
+
+      @Override
+      public QueuePriorityScheduler getPriorityScheduler(String queueName) {
+        return scheduler;
+      }
+    });
+    try {
+      // Each request is split 2/1/1 between the priorities.
+      PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 4);
+      Assert.assertArrayEquals(new int[]{2, 1, 1},
+          countByPriority(getBackend().dequeueJobs("test", dequeueRequest).get()));
+
+      // Priority 3 has run out, so its share is handed back to priority 1.
+      Assert.assertArrayEquals(new int[]{3, 1, 0},
+          countByPriority(getBackend().dequeueJobs("test", dequeueRequest).get()));
+    } finally {
+      getBackend().setQueueConfig(new PinLaterQueueConfig("", "", false));
+    }
+  }
+
+  private static int[] countByPriority(PinLaterDequeueResponse dequeueResponse) {
+    int[] counts = new int[3];
+    for (String jobDesc : dequeueResponse.getJobs().keySet()) {
+      counts[new PinLaterJobDescriptor(jobDesc).getPriority() - 1]++;
+    }
+    return counts;
+  }
+
   @Test
   public void testRunAfter() throws InterruptedException {
     int delayMillis = 1000;
@@ -299,6 +347,53 @@ public abstract class PinLaterBackendBaseTest<T extends PinLaterBackendBase> {
         PinLaterJobState.FAILED));
   }
 
+  @Test
+  public void testLookupJobsBatched() {
+    // Enqueue 30 jobs at every priority.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 30; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(new String("job_body_" + i).getBytes()));
+      job.setPriority((byte) (i % 3 + 1));
+      enqueueRequest.addToJobs(job);
+    }
+    List<String> jobDescriptors =
+        getBackend().enqueueJobs(enqueueRequest).get().getJobDescriptors();
+    Assert.assertEquals(30, jobDescriptors.size());
+
+    // Dequeue 10 jobs and ack them as succeeded.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 10);
+    Set<String> dequeuedJobDescriptors =
+        getBackend().dequeueJobs("test", dequeueRequest).get().getJobs().keySet();
+    Assert.assertEquals(10, dequeuedJobDescriptors.size());
+    PinLaterJobAckRequest jobAckRequest = new PinLaterJobAckRequest(getQueueName());
+    for (String jobDesc : dequeuedJobDescriptors) {
+      jobAckRequest.addToJobsSucceeded(new PinLaterJobAckInfo(jobDesc));
+    }
+    getBackend().ackDequeuedJobs(jobAckRequest).get();
+
+    // Look up all of the jobs along with one that does not exist.
+    PinLaterJobDescriptor firstJob = new PinLaterJobDescriptor(jobDescriptors.get(0));
+    String missingJobDesc = new PinLaterJobDescriptor(getQueueName(), firstJob.getShardName(),
+        firstJob.getPriority(), Integer.MAX_VALUE).toString();
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest();
+    lookupJobRequest.setIncludeBody(true);
+    lookupJobRequest.setJobDescriptors(Lists.newArrayList(jobDescriptors));
+    lookupJobRequest.addToJobDescriptors(missingJobDesc);
+    Map<String, PinLaterJobInfo> jobInfoMap = getBackend().lookupJobs(lookupJobRequest).get();
+    Assert.assertEquals(30, jobInfoMap.size());
+    Assert.assertFalse(jobInfoMap.containsKey(missingJobDesc));
+    for (int i = 0; i < 30; i++) {
+      String jobDesc = jobDescriptors.get(i);
+      PinLaterJobInfo jobInfo = jobInfoMap.get(jobDesc);
+      Assert.assertEquals(jobDesc, jobInfo.getJobDescriptor());
+      Assert.assertEquals(dequeuedJobDescriptors.contains(jobDesc)
+                          ? PinLaterJobState.SUCCEEDED : PinLaterJobState.PENDING,
+          jobInfo.getJobState());
+      Assert.assertEquals("job_body_" + i, new String(jobInfo.getBody()));
+    }
+  }
+
   @Test
   public void testFailedRetry() {
     // Enqueue 5 jobs configured with 2 retries (3 attempts).
@@ -519,6 +614,78 @@ public abstract class PinLaterBackendBaseTest<T extends PinLaterBackendBase> {
         PinLaterJobState.FAILED));
   }
 
+  @Test
+  public void testAckBatchMixed() {
+    // Enqueue 40 jobs at two priorities, so that they spread over several shards and tables. A
+    // third of them have a single attempt.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 40; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(("job_body_" + i).getBytes()));
+      job.setPriority((byte) (i % 2 + 1));
+      job.setNumAttemptsAllowed(i % 3 == 0 ? 1 : 3);
+      enqueueRequest.addToJobs(job);
+    }
+    List<String> jobDescs = getBackend().enqueueJobs(enqueueRequest).get().getJobDescriptors();
+
+    // Dequeue all of them.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 40);
+    Set<String> dequeuedJobDescs = Sets.newHashSet();
+    for (int i = 0; i < 10 && dequeuedJobDescs.size() < 40; i++) {
+      dequeuedJobDescs.addAll(
+          getBackend().dequeueJobs("test", dequeueRequest).get().getJobs().keySet());
+    }
+    Assert.assertEquals(Sets.newHashSet(jobDescs), dequeuedJobDescs);
+
+    // Ack every other job as succeeded and the rest as failed, all in one request.
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(getQueueName());
+    for (int i = 0; i < 40; i++) {
+      PinLaterJobAckInfo ackInfo = new PinLaterJobAckInfo(jobDescs.get(i));
+      if (i % 2 == 0) {
+        ackInfo.setAppendCustomStatus("ok");
+        ackRequest.addToJobsSucceeded(ackInfo);
+      } else {
+        ackRequest.addToJobsFailed(ackInfo);
+      }
+    }
+    getBackend().ackDequeuedJobs(ackRequest).get();
+
+    // Succeeded jobs keep their attempts. Failed jobs lose one, and go back to pending if they
+    // have any left.
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest(jobDescs);
+    Map<String, PinLaterJobInfo> jobInfoMap = getBackend().lookupJobs(lookupJobRequest).get();
+    int numSucceeded = 0;
+    int numFailed = 0;
+    int numPending = 0;
+    for (int i = 0; i < 40; i++) {
+      PinLaterJobInfo jobInfo = jobInfoMap.get(jobDescs.get(i));
+      int attemptsAllowed = i % 3 == 0 ? 1 : 3;
+      Assert.assertEquals(attemptsAllowed, jobInfo.getAttemptsAllowed());
+      if (i % 2 == 0) {
+        Assert.assertEquals(PinLaterJobState.SUCCEEDED, jobInfo.getJobState());
+        Assert.assertEquals(attemptsAllowed, jobInfo.getAttemptsRemaining());
+        Assert.assertEquals("ok", jobInfo.getCustomStatus());
+        numSucceeded++;
+      } else if (attemptsAllowed == 1) {
+        Assert.assertEquals(PinLaterJobState.FAILED, jobInfo.getJobState());
+        Assert.assertEquals(0, jobInfo.getAttemptsRemaining());
+        numFailed++;
+      } else {
+        Assert.assertEquals(PinLaterJobState.PENDING, jobInfo.getJobState());
+        Assert.assertEquals(attemptsAllowed - 1, jobInfo.getAttemptsRemaining());
+        numPending++;
+      }
+    }
+    Assert.assertEquals(numSucceeded, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.SUCCEEDED));
+    Assert.assertEquals(numFailed, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.FAILED));
+    Assert.assertEquals(numPending, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.PENDING));
+    Assert.assertEquals(0, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+        PinLaterJobState.IN_PROGRESS));
+  }
+
   @Test
   public void testAckJobNotDequeued() {
     // Enqueue one job.
@@ -1150,6 +1317,104 @@ public abstract class PinLaterBackendBaseTest<T extends PinLaterBackendBase> {
     Assert.assertEquals(9, getBackend().getJobCount(getJobCountRequest).get().intValue());
   }
 
+  @Test
+  public void testEnqueueBatchMixedPriorities() {
+    // Enqueue a batch with interleaved priorities, large enough to be split across partitions.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 30; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(new String("job_" + i).getBytes()));
+      job.setPriority((byte) (i % 3 + 1));
+      enqueueRequest.addToJobs(job);
+    }
+    PinLaterEnqueueResponse enqueueResponse = getBackend().enqueueJobs(enqueueRequest).get();
+    Assert.assertEquals(30, enqueueResponse.getJobDescriptorsSize());
+    Assert.assertEquals(30, Sets.newHashSet(enqueueResponse.getJobDescriptors()).size());
+
+    // Each returned descriptor should point at the job in the same position of the request.
+    PinLaterLookupJobRequest lookupJobRequest =
+        new PinLaterLookupJobRequest(enqueueResponse.getJobDescriptors());
+    lookupJobRequest.setIncludeBody(true);
+    Map<String, PinLaterJobInfo> jobInfoMap = getBackend().lookupJobs(lookupJobRequest).get();
+    for (int i = 0; i < 30; i++) {
+      String jobDesc = enqueueResponse.getJobDescriptors().get(i);
+      Assert.assertEquals(i % 3 + 1, new PinLaterJobDescriptor(jobDesc).getPriority());
+      Assert.assertEquals("job_" + i, new String(jobInfoMap.get(jobDesc).getBody()));
+    }
+  }
+
+  @Test
+  public void testFanoutDequeueDoesNotOverClaim() {
+    // Enqueue 10 jobs, spread over the shards.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 10; i++) {
+      enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap(("job_body_" + i).getBytes())));
+    }
+    getBackend().enqueueJobs(enqueueRequest).get();
+
+    // Dequeue fewer jobs than there are shards in a fanout group, so that an even share rounded
+    // up would ask every shard of the group for a job. Only the returned jobs may be claimed.
+    int numDequeued = 0;
+    for (int limit = 1; limit <= 3; limit++) {
+      PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), limit);
+      PinLaterDequeueResponse dequeueResponse =
+          getBackend().dequeueJobs("test", dequeueRequest).get();
+      Assert.assertTrue(dequeueResponse.getJobsSize() <= limit);
+      numDequeued += dequeueResponse.getJobsSize();
+      Assert.assertEquals(numDequeued, PinLaterTestUtils.getJobCount(getBackend(), getQueueName(),
+          PinLaterJobState.IN_PROGRESS));
+      Assert.assertEquals(10 - numDequeued, PinLaterTestUtils.getJobCount(getBackend(),
+          getQueueName(), PinLaterJobState.PENDING));
+    }
+    Assert.assertEquals(6, numDequeued);
+  }
+
+  @Test
+  public void testDequeueWait() {
+    // A long-polling dequeue on an empty queue returns empty once the wait time expires.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 1);
+    dequeueRequest.setWaitTimeMillis(500);
+    long startMillis = System.currentTimeMillis();
+    Assert.assertEquals(0, getBackend().dequeueJobs("test", dequeueRequest).get().getJobsSize());
+    Assert.assertTrue(System.currentTimeMillis() - startMillis >= 500);
+
+    // A waiting dequeue is woken up by an enqueue well before its wait time expires.
+    dequeueRequest.setWaitTimeMillis(30000);
+    startMillis = System.currentTimeMillis();
+    Future<PinLaterDequeueResponse> dequeueFuture =
+        getBackend().dequeueJobs("test", dequeueRequest);
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap("job_body".getBytes())));
+    String jobDesc = getBackend().enqueueJobs(enqueueRequest).get().getJobDescriptors().get(0);
+    PinLaterDequeueResponse dequeueResponse = dequeueFuture.get();
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+    Assert.assertTrue(System.currentTimeMillis() - startMillis < 30000);
+  }
+
+  @Test
+  public void testDequeueWaitPicksUpJobThatComesDue() {
+    // Enqueue a job that comes due in 2 seconds. Its enqueue signal fires before the dequeue
+    // below is parked, and nothing signals the queue when the job comes due.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    PinLaterJob job = new PinLaterJob(ByteBuffer.wrap("job_body".getBytes()));
+    job.setRunAfterTimestampMillis(System.currentTimeMillis() + 2000);
+    enqueueRequest.addToJobs(job);
+    String jobDesc = getBackend().enqueueJobs(enqueueRequest).get().getJobDescriptors().get(0);
+
+    // The parked dequeue polls the shards again on its own and returns the job well before its
+    // wait time expires.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 1);
+    dequeueRequest.setWaitTimeMillis(15000);
+    long startMillis = System.currentTimeMillis();
+    PinLaterDequeueResponse dequeueResponse =
+        getBackend().dequeueJobs("test", dequeueRequest).get();
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+    Assert.assertTrue(System.currentTimeMillis() - startMillis < 15000);
+  }
+
   @Test
   public void testCheckpointJob() throws InterruptedException {
     // Enqueue a job.
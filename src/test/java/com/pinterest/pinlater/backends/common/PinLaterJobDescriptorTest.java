@@ -36,6 +36,58 @@ public class PinLaterJobDescriptorTest {
     Assert.assertEquals(jobDesc1.getLocalId(), jobDesc2.getLocalId());
   }
 
+  @Test
+  public void testParse() {
+    PinLaterJobDescriptor jobDesc = new PinLaterJobDescriptor("job_desc_test:s12:p3:987654321");
+    Assert.assertEquals("job_desc_test", jobDesc.getQueueName());
+    Assert.assertEquals("12", jobDesc.getShardName());
+    Assert.assertEquals(3, jobDesc.getPriority());
+    Assert.assertEquals(987654321L, jobDesc.getLocalId());
+    Assert.assertEquals("job_desc_test:s12:p3:987654321", jobDesc.toString());
+  }
+
+  @Test
+  public void testParseMaxLocalId() {
+    PinLaterJobDescriptor jobDesc =
+        new PinLaterJobDescriptor("job_desc_test:s1:p2:" + Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, jobDesc.getLocalId());
+
+    jobDesc = new PinLaterJobDescriptor(
+        new PinLaterJobDescriptor("job_desc_test", "1", 2, Long.MAX_VALUE).toString());
+    Assert.assertEquals(Long.MAX_VALUE, jobDesc.getLocalId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseLocalIdOverflow() {
+    // Long.MAX_VALUE + 1.
+    new PinLaterJobDescriptor("job_desc_test:s1:p2:9223372036854775808");
+  }
+
+  @Test
+  public void testParseInternsNames() {
+    PinLaterJobDescriptor jobDesc1 = new PinLaterJobDescriptor("job_desc_test:s1:p2:1");
+    PinLaterJobDescriptor jobDesc2 = new PinLaterJobDescriptor("job_desc_test:s1:p2:2");
+    Assert.assertSame(jobDesc1.getQueueName(), jobDesc2.getQueueName());
+    Assert.assertSame(jobDesc1.getShardName(), jobDesc2.getShardName());
+  }
+
+  @Test
+  public void testParseValidation() {
+    String[] malformedDescriptors = {
+        "job_desc_test", "job_desc_test:s1:p2", "job_desc_test:s1:p2:", "job_desc_test:s1:p2:3:4",
+        ":s1:p2:3", "job_desc_test:s:p2:3", "job_desc_test:1:p2:3", "job_desc_test:s1:2:3",
+        "job_desc_test:s1:p:3", "job_desc_test:s1:p2:-3", "job_desc_test:s1:p2:3x",
+        "job_desc_test:s1:p99999999999:3", "job_desc_test:s1:p2:12345678901234567890"};
+    for (String malformedDescriptor : malformedDescriptors) {
+      try {
+        new PinLaterJobDescriptor(malformedDescriptor);
+        Assert.fail("Expected failure for " + malformedDescriptor);
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testQueueNameEmptyValidation() {
     new PinLaterJobDescriptor("", "1", 2, 12345L);
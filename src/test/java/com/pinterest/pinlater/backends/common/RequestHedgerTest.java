@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.twitter.util.ExceptionalFunction0;
+import com.twitter.util.ExecutorServiceFuturePool;
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestHedgerTest {
+
+  private ExecutorServiceFuturePool futurePool;
+
+  @Before
+  public void beforeTest() {
+    futurePool = new ExecutorServiceFuturePool(Executors.newFixedThreadPool(4));
+  }
+
+  @After
+  public void afterTest() {
+    futurePool.executor().shutdownNow();
+  }
+
+  @Test
+  public void testDelayFollowsPercentile() {
+    RequestHedger hedger = new RequestHedger("test", 90, 100, 0);
+    for (int i = 1; i <= 9; i++) {
+      hedger.record("lookup", i);
+    }
+    // No delay until a tenth of the window has been filled.
+    Assert.assertEquals(-1, hedger.getDelayMicros("lookup"));
+    hedger.record("lookup", 10);
+    Assert.assertEquals(9, hedger.getDelayMicros("lookup"));
+    Assert.assertEquals(-1, hedger.getDelayMicros("count"));
+  }
+
+  @Test
+  public void testHedgeWinsWhenFirstAttemptStalls() throws Exception {
+    RequestHedger hedger = new RequestHedger("test", 50, 10, 0);
+    for (int i = 0; i < 10; i++) {
+      hedger.record("lookup", 1000);
+    }
+
+    // The first attempt blocks until the test releases it, the hedge returns right away.
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger(0);
+    Future<Integer> future = hedger.apply("lookup", new Function0<Future<Integer>>() {
+      @Override
+      public Future<Integer> apply() {
+        return futurePool.apply(new ExceptionalFunction0<Integer>() {
+          @Override
+          public Integer applyE() throws Throwable {
+            int attempt = attempts.incrementAndGet();
+            if (attempt == 1) {
+              release.await();
+            }
+            return attempt;
+          }
+        });
+      }
+    });
+    Assert.assertEquals(2, (int) future.get());
+    release.countDown();
+  }
+
+  @Test
+  public void testHedgesAreCappedByBudget() throws Exception {
+    // A 50th percentile over a window of 10 calls allows bursts of 5 hedges, and then one hedge
+    // every 2 calls. The hedges are due 50ms after their call.
+    RequestHedger hedger = new RequestHedger("test", 50, 10, 50);
+    for (int i = 0; i < 10; i++) {
+      hedger.record("lookup", 0);
+    }
+
+    // Every attempt stalls, so every call is due for a hedge.
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger(0);
+    Function0<Future<Integer>> call = new Function0<Future<Integer>>() {
+      @Override
+      public Future<Integer> apply() {
+        attempts.incrementAndGet();
+        return futurePool.apply(new ExceptionalFunction0<Integer>() {
+          @Override
+          public Integer applyE() throws Throwable {
+            release.await();
+            return 0;
+          }
+        });
+      }
+    };
+    for (int i = 0; i < 20; i++) {
+      hedger.apply("lookup", call);
+    }
+    Thread.sleep(200);
+    Assert.assertEquals(20 + 5, attempts.get());
+
+    // The budget is spent, and refills with half a hedge per call.
+    for (int i = 0; i < 4; i++) {
+      hedger.apply("lookup", call);
+    }
+    Thread.sleep(200);
+    Assert.assertEquals(20 + 5 + 4 + 2, attempts.get());
+    release.countDown();
+    hedger.shutdown();
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    RequestHedger hedger = new RequestHedger("test", 0, 10, 0);
+    final AtomicInteger attempts = new AtomicInteger(0);
+    Future<Integer> future = hedger.apply("lookup", new Function0<Future<Integer>>() {
+      @Override
+      public Future<Integer> apply() {
+        return Future.value(attempts.incrementAndGet());
+      }
+    });
+    Assert.assertEquals(1, (int) future.get());
+    Assert.assertFalse(hedger.isEnabled());
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.pinterest.pinlater.thrift.ErrorCode;
+import com.pinterest.pinlater.thrift.PinLaterException;
+
+import com.twitter.util.Function0;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardBulkheadsTest {
+
+  @Test
+  public void testDisabled() {
+    ShardBulkheads bulkheads = new ShardBulkheads("test", 0, 0);
+    AtomicInteger numCalls = new AtomicInteger();
+    Promise<Integer> promise = new Promise<Integer>();
+    for (int i = 0; i < 10; i++) {
+      bulkheads.apply("1", newCall(numCalls, promise));
+    }
+    Assert.assertEquals(10, numCalls.get());
+  }
+
+  @Test
+  public void testQueuesAndRejectsPerShard() {
+    ShardBulkheads bulkheads = new ShardBulkheads("test", 2, 1);
+    AtomicInteger numCalls = new AtomicInteger();
+    Promise<Integer> promise = new Promise<Integer>();
+
+    // Two calls run, the third waits for a permit and the fourth is rejected right away.
+    Future<Integer> first = bulkheads.apply("1", newCall(numCalls, promise));
+    bulkheads.apply("1", newCall(numCalls, promise));
+    Future<Integer> queued = bulkheads.apply("1", newCall(numCalls, promise));
+    Future<Integer> rejected = bulkheads.apply("1", newCall(numCalls, promise));
+    Assert.assertEquals(2, numCalls.get());
+    Assert.assertFalse(queued.isDefined());
+    Assert.assertTrue(rejected.isDefined());
+    try {
+      rejected.get();
+      Assert.fail("The call should have been rejected");
+    } catch (Exception e) {
+      Assert.assertTrue(e instanceof PinLaterException);
+      Assert.assertEquals(ErrorCode.SHARD_OVERLOADED, ((PinLaterException) e).getErrorCode());
+    }
+
+    // Other shards are not affected.
+    bulkheads.apply("2", newCall(numCalls, promise));
+    Assert.assertEquals(3, numCalls.get());
+
+    // The queued call runs once the calls in flight finish.
+    promise.setValue(1);
+    Assert.assertEquals(1, (int) first.get());
+    Assert.assertEquals(1, (int) queued.get());
+    Assert.assertEquals(4, numCalls.get());
+  }
+
+  private static Function0<Future<Integer>> newCall(final AtomicInteger numCalls,
+                                                    final Future<Integer> result) {
+    return new Function0<Future<Integer>>() {
+      @Override
+      public Future<Integer> apply() {
+        numCalls.incrementAndGet();
+        return result;
+      }
+    };
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.common;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class ShardLatencyTrackerTest {
+
+  private static final List<String> SHARDS = ImmutableList.of("1", "2", "3", "4");
+
+  @Test
+  public void testDisabled() {
+    ShardLatencyTracker tracker = new ShardLatencyTracker(0.5, 0, 1, 0, new Random());
+    recordLatencies(tracker, 1000, 100, 100, 100);
+    Assert.assertFalse(tracker.isSlow("1"));
+    Assert.assertEquals(SHARDS, tracker.deprioritizeSlowShards(SHARDS));
+  }
+
+  @Test
+  public void testDeprioritizesSlowShards() {
+    ShardLatencyTracker tracker = new ShardLatencyTracker(0.5, 3, 2, 0, new Random());
+    recordLatencies(tracker, 100, 1000, 100, 120);
+
+    // Shards are only judged once they have enough samples.
+    Assert.assertFalse(tracker.isSlow("2"));
+    recordLatencies(tracker, 100, 1000, 100, 120);
+    Assert.assertTrue(tracker.isSlow("2"));
+    Assert.assertFalse(tracker.isSlow("4"));
+    Assert.assertEquals(ImmutableList.of("1", "3", "4", "2"),
+        tracker.deprioritizeSlowShards(SHARDS));
+
+    // The shard stops being slow once its latency recovers.
+    for (int i = 0; i < 10; i++) {
+      recordLatencies(tracker, 100, 100, 100, 100);
+    }
+    Assert.assertFalse(tracker.isSlow("2"));
+    Assert.assertEquals(SHARDS, tracker.deprioritizeSlowShards(SHARDS));
+  }
+
+  @Test
+  public void testProbeKeepsOrder() {
+    ShardLatencyTracker tracker = new ShardLatencyTracker(0.5, 3, 1, 1, new Random());
+    recordLatencies(tracker, 1000, 100, 100, 100);
+    Assert.assertTrue(tracker.isSlow("1"));
+    Assert.assertEquals(SHARDS, tracker.deprioritizeSlowShards(SHARDS));
+  }
+
+  @Test
+  public void testNeedsShardsToCompare() {
+    ShardLatencyTracker tracker = new ShardLatencyTracker(0.5, 3, 1, 0, new Random());
+    tracker.record("1", 1000);
+    Assert.assertFalse(tracker.isSlow("1"));
+  }
+
+  private static void recordLatencies(ShardLatencyTracker tracker, long... latenciesMicros) {
+    for (int i = 0; i < latenciesMicros.length; i++) {
+      tracker.record(SHARDS.get(i), latenciesMicros[i]);
+    }
+  }
+}
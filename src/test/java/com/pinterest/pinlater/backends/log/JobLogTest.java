@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class JobLogTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testRecoversAppendedRecords() throws Exception {
+    JobLog log = new JobLog(directory, 1024, new RecordCollector());
+    long first = log.append(bytes("a"));
+    long second = log.append(bytes("bb"));
+    log.sync();
+
+    RecordCollector collector = new RecordCollector();
+    new JobLog(directory, 1024, collector);
+    Assert.assertEquals(Lists.newArrayList("a", "bb"), collector.payloads);
+    Assert.assertEquals(Lists.newArrayList(first, second), collector.locations);
+  }
+
+  @Test
+  public void testRollsOverSegments() throws Exception {
+    // Each frame is 8 + 10 bytes, so a 40 byte segment holds two.
+    JobLog log = new JobLog(directory, 40, new RecordCollector());
+    List<String> payloads = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      payloads.add("record-" + String.format("%03d", i));
+      log.append(bytes(payloads.get(i)));
+    }
+    Assert.assertEquals(3, log.getSegmentIds().size());
+
+    RecordCollector collector = new RecordCollector();
+    new JobLog(directory, 40, collector);
+    Assert.assertEquals(payloads, collector.payloads);
+
+    // A record larger than a segment gets a segment of its own.
+    log.append(new byte[100]);
+    Assert.assertEquals(4, log.getSegmentIds().size());
+  }
+
+  @Test
+  public void testTruncatesTornTail() throws Exception {
+    JobLog log = new JobLog(directory, 1024, new RecordCollector());
+    log.append(bytes("kept"));
+    long torn = log.append(bytes("torn"));
+    log.sync();
+
+    // Corrupt the payload of the last frame, as a crash in the middle of the append would.
+    RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw");
+    file.seek((int) torn + 8);
+    file.write('x');
+    file.close();
+
+    RecordCollector collector = new RecordCollector();
+    log = new JobLog(directory, 1024, collector);
+    Assert.assertEquals(Lists.newArrayList("kept"), collector.payloads);
+
+    // The next append takes the place of the torn frame.
+    Assert.assertEquals(torn, log.append(bytes("new")));
+    collector = new RecordCollector();
+    new JobLog(directory, 1024, collector);
+    Assert.assertEquals(Lists.newArrayList("kept", "new"), collector.payloads);
+  }
+
+  @Test
+  public void testRejectsCorruptFullSegment() throws Exception {
+    // Each frame is 8 + 10 bytes, so a 40 byte segment holds two.
+    JobLog log = new JobLog(directory, 40, new RecordCollector());
+    for (int i = 0; i < 5; i++) {
+      log.append(bytes("record-" + String.format("%03d", i)));
+    }
+    log.sync();
+    Assert.assertEquals(Lists.newArrayList(0, 1, 2), log.getSegmentIds());
+
+    // Corrupt the payload of the first frame of the middle segment.
+    RandomAccessFile file =
+        new RandomAccessFile(new File(directory, "segment-0000000001.log"), "rw");
+    file.seek(8);
+    file.write('x');
+    file.close();
+
+    try {
+      log.readSegment(1, new RecordCollector());
+      Assert.fail("Expected the corrupt segment to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+    try {
+      new JobLog(directory, 40, new RecordCollector());
+      Assert.fail("Expected the corrupt segment to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCompactsMostlyDeadSegments() throws Exception {
+    JobLog log = new JobLog(directory, 40, new RecordCollector());
+    long dead1 = log.append(bytes("segment-0a"));
+    long dead2 = log.append(bytes("segment-0b"));
+    log.append(bytes("segment-1a"));
+    log.appendTombstone(bytes("segment-1b"));
+    log.append(bytes("segment-2a"));
+    log.markDead(dead1);
+    Assert.assertTrue(log.getSegmentsToCompact(0.5).isEmpty());
+
+    // The tombstone has to be moved along with the live record, so segment 1 is not worth
+    // compacting, and segment 2 is the active one.
+    log.markDead(dead2);
+    Assert.assertEquals(Lists.newArrayList(0), log.getSegmentsToCompact(0.6));
+    Assert.assertTrue(log.isOldestSegment(0));
+
+    RecordCollector segmentRecords = new RecordCollector();
+    log.readSegment(0, segmentRecords);
+    Assert.assertEquals(Lists.newArrayList("segment-0a", "segment-0b"), segmentRecords.payloads);
+    log.deleteSegment(0);
+    Assert.assertEquals(Lists.newArrayList(1, 2), log.getSegmentIds());
+
+    // Tombstones can be dropped from the oldest segment.
+    Assert.assertTrue(log.isOldestSegment(1));
+    Assert.assertEquals(Lists.newArrayList(1), log.getSegmentsToCompact(0.6));
+
+    RecordCollector collector = new RecordCollector();
+    new JobLog(directory, 40, collector);
+    Assert.assertEquals(Lists.newArrayList("segment-1a", "segment-1b", "segment-2a"),
+        collector.payloads);
+  }
+
+  private static byte[] bytes(String payload) {
+    return payload.getBytes(Charsets.UTF_8);
+  }
+
+  private static class RecordCollector implements JobLog.RecordHandler {
+
+    private final List<Long> locations = Lists.newArrayList();
+    private final List<String> payloads = Lists.newArrayList();
+
+    @Override
+    public void handle(long location, byte[] payload) {
+      locations.add(location);
+      payloads.add(new String(payload, Charsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.backends.common.PinLaterJobDescriptor;
+import com.pinterest.pinlater.backends.memory.MemoryJobTable;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class LogStoreTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testRecoversQueuesAndJobs() throws Exception {
+    LogStore store = openStore(4096);
+    store.createQueue("queue1");
+    store.createQueue("queue2");
+    MemoryJobTable table = store.getShardMap().get("1").getTable("queue1", 1);
+    table.enqueueJobs(newJobs("a", "b", "c"), 1000);
+    table.dequeueJobs("claim", 1, false, 2000);
+    table.ackJob(1, false, "failed", 0, 3000);
+    table.deleteJobs(PinLaterJobState.PENDING, null, 1);
+    store.deleteQueue("queue2");
+
+    LogStore recovered = openStore(4096);
+    Assert.assertEquals(ImmutableSet.of("queue1"),
+        recovered.getShardMap().get("1").getQueueNames());
+    MemoryJobTable recoveredTable = recovered.getShardMap().get("1").getTable("queue1", 1);
+    for (long localId = 1; localId <= 3; localId++) {
+      Assert.assertEquals(table.lookupJob(localId, true), recoveredTable.lookupJob(localId, true));
+    }
+    Assert.assertNull(recoveredTable.lookupJob(2, true));
+
+    // Local ids are not handed out again after recovery.
+    String jobDescriptor = recoveredTable.enqueueJobs(newJobs("d"), 4000).get(0);
+    Assert.assertEquals(4, new PinLaterJobDescriptor(jobDescriptor).getLocalId());
+  }
+
+  @Test
+  public void testRecreatedQueueStartsEmpty() throws Exception {
+    LogStore store = openStore(4096);
+    store.createQueue("queue");
+    store.getShardMap().get("1").getTable("queue", 1).enqueueJobs(newJobs("old"), 1000);
+    store.deleteQueue("queue");
+    store.createQueue("queue");
+    store.getShardMap().get("2").getTable("queue", 1).enqueueJobs(newJobs("new"), 2000);
+
+    LogStore recovered = openStore(4096);
+    Assert.assertNull(recovered.getShardMap().get("1").getTable("queue", 1).lookupJob(1, true));
+    Assert.assertEquals(ByteBuffer.wrap(bytes("new")), ByteBuffer.wrap(
+        recovered.getShardMap().get("2").getTable("queue", 1).lookupJob(1, true).getBody()));
+  }
+
+  @Test
+  public void testCompactionKeepsLiveRecords() throws Exception {
+    LogStore store = openStore(256);
+    store.createQueue("queue");
+    MemoryJobTable table = store.getShardMap().get("1").getTable("queue", 1);
+    for (int i = 0; i < 20; i++) {
+      table.enqueueJobs(newJobs("job-" + i), 1000 + i);
+    }
+    // Delete all the jobs but the last two.
+    Assert.assertEquals(18, table.deleteJobs(PinLaterJobState.PENDING, null, 18));
+    int numSegments = store.getLog().getSegmentIds().size();
+
+    Assert.assertTrue(store.compact(0.5) > 0);
+    Assert.assertTrue(store.getLog().getSegmentIds().size() < numSegments);
+
+    LogStore recovered = openStore(256);
+    MemoryJobTable recoveredTable = recovered.getShardMap().get("1").getTable("queue", 1);
+    Assert.assertEquals(2, recoveredTable.countJobs(PinLaterJobState.PENDING, false, null, 2000));
+    for (long localId = 19; localId <= 20; localId++) {
+      Assert.assertEquals(table.lookupJob(localId, true), recoveredTable.lookupJob(localId, true));
+    }
+  }
+
+  private LogStore openStore(int segmentSizeBytes) throws Exception {
+    return new LogStore(directory, segmentSizeBytes, 2, 1, LogStore.FsyncPolicy.NEVER);
+  }
+
+  private static List<PinLaterJob> newJobs(String... bodies) {
+    List<PinLaterJob> jobs = Lists.newArrayList();
+    for (String body : bodies) {
+      jobs.add(new PinLaterJob(ByteBuffer.wrap(bytes(body))));
+    }
+    return jobs;
+  }
+
+  private static byte[] bytes(String body) {
+    return body.getBytes(Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.log;
+
+import com.pinterest.pinlater.backends.common.PinLaterBackendBaseTest;
+import com.pinterest.pinlater.backends.memory.MemoryJobTable;
+import com.pinterest.pinlater.thrift.PinLaterDequeueRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueRequest;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueResponse;
+import com.pinterest.pinlater.thrift.PinLaterGetJobCountRequest;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobAckRequest;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+import com.pinterest.pinlater.thrift.PinLaterLookupJobRequest;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class PinLaterLogBackendTest extends PinLaterBackendBaseTest<PinLaterLogBackend> {
+
+  private static final String QUEUE_NAME = "pinlater_log_backend_test";
+  private static PinLaterLogBackend backend;
+
+  @Override
+  protected String getQueueName() {
+    return QUEUE_NAME;
+  }
+
+  @Override
+  protected PinLaterLogBackend getBackend() {
+    return backend;
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    backend = new PinLaterLogBackend(
+        loadConfiguration(Files.createTempDir()), "localhost", System.currentTimeMillis());
+  }
+
+  @Before
+  public void beforeTest() {
+    // Start each test from an empty queue.
+    backend.deleteQueue(QUEUE_NAME).get();
+    backend.createQueue(QUEUE_NAME).get();
+  }
+
+  @After
+  public void afterTest() {
+    backend.deleteQueue(QUEUE_NAME).get();
+  }
+
+  @Test
+  public void testCustomStatusTruncatesWhenTooLong() {
+    // Enqueue a job with custom stats "*".
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    PinLaterJob job = new PinLaterJob(ByteBuffer.wrap("job_body".getBytes()));
+    job.setCustomStatus("*");
+    enqueueRequest.addToJobs(job);
+    PinLaterEnqueueResponse enqueueResponse = backend.enqueueJobs(enqueueRequest).get();
+    String jobDesc = enqueueResponse.getJobDescriptors().get(0);
+
+    // Dequeue the job.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, 1);
+    PinLaterDequeueResponse dequeueResponse = backend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertEquals(1, dequeueResponse.getJobsSize());
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+
+    // Ack the job, appending to the custom status size with hyphens so that it'll overflow.
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    PinLaterJobAckInfo ackInfo = new PinLaterJobAckInfo(jobDesc);
+    ackInfo.setAppendCustomStatus(Strings.repeat("-", MemoryJobTable.CUSTOM_STATUS_SIZE_BYTES));
+    ackRequest.addToJobsSucceeded(ackInfo);
+    backend.ackDequeuedJobs(ackRequest).get();
+
+    // Look up the job to make sure that the custom status was truncated when we appended too much.
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest();
+    lookupJobRequest.addToJobDescriptors(jobDesc);
+    Map<String, PinLaterJobInfo> jobInfoMap = backend.lookupJobs(lookupJobRequest).get();
+    Assert.assertEquals("*" + Strings.repeat("-", MemoryJobTable.CUSTOM_STATUS_SIZE_BYTES - 1),
+        jobInfoMap.get(jobDesc).getCustomStatus());
+  }
+
+  @Test
+  public void testJobsSurviveRestart() throws Exception {
+    File directory = Files.createTempDir();
+    PinLaterLogBackend logBackend = new PinLaterLogBackend(
+        loadConfiguration(directory), "localhost", System.currentTimeMillis());
+    logBackend.createQueue(QUEUE_NAME).get();
+
+    // Enqueue three jobs, dequeue two of them and ack one.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    for (int i = 0; i < 3; i++) {
+      enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap(("job_" + i).getBytes())));
+    }
+    List<String> jobDescs = logBackend.enqueueJobs(enqueueRequest).get().getJobDescriptors();
+    PinLaterDequeueResponse dequeueResponse = logBackend.dequeueJobs(
+        "test", new PinLaterDequeueRequest(QUEUE_NAME, 2)).get();
+    Assert.assertEquals(2, dequeueResponse.getJobsSize());
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    ackRequest.addToJobsSucceeded(
+        new PinLaterJobAckInfo(dequeueResponse.getJobs().keySet().iterator().next()));
+    logBackend.ackDequeuedJobs(ackRequest).get();
+
+    // A backend opened on the same log sees the same jobs.
+    PinLaterLogBackend recoveredBackend = new PinLaterLogBackend(
+        loadConfiguration(directory), "localhost", System.currentTimeMillis());
+    Assert.assertTrue(recoveredBackend.getQueueNames().get().contains(QUEUE_NAME));
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest(jobDescs);
+    lookupJobRequest.setIncludeBody(true);
+    Map<String, PinLaterJobInfo> jobInfoMap = logBackend.lookupJobs(lookupJobRequest).get();
+    Assert.assertEquals(3, jobInfoMap.size());
+    Assert.assertEquals(jobInfoMap, recoveredBackend.lookupJobs(lookupJobRequest).get());
+    for (PinLaterJobState jobState : PinLaterJobState.values()) {
+      Assert.assertEquals(
+          logBackend.getJobCount(new PinLaterGetJobCountRequest(QUEUE_NAME, jobState)).get(),
+          recoveredBackend.getJobCount(new PinLaterGetJobCountRequest(QUEUE_NAME, jobState))
+              .get());
+    }
+  }
+
+  private static PropertiesConfiguration loadConfiguration(File logDirectory) {
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    try {
+      configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.log.test.properties"));
+    } catch (ConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    configuration.setProperty("LOG_DIRECTORY", logDirectory.getPath());
+    return configuration;
+  }
+}
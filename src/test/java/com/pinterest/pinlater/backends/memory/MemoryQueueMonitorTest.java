@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.pinterest.pinlater.backends.common.BackendQueueMonitorBaseTest;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MemoryQueueMonitorTest extends BackendQueueMonitorBaseTest<PinLaterMemoryBackend,
+    MemoryQueueMonitor> {
+
+  private static final String QUEUE_NAME = "memory_queue_monitor_test";
+
+  private static PinLaterMemoryBackend backend;
+
+  @Override
+  protected String getQueueName() {
+    return QUEUE_NAME;
+  }
+
+  @Override
+  protected PinLaterMemoryBackend getBackend() {
+    return backend;
+  }
+
+  @Override
+  protected MemoryQueueMonitor createQueueMonitor(int updateMaxSize,
+                                                  long jobClaimedTimeoutMillis,
+                                                  long jobSucceededGCTimeoutMillis,
+                                                  long jobFailedGCTimeoutMillis) {
+    return new MemoryQueueMonitor(backend.getShardMap(),
+        updateMaxSize,
+        3,     // auto retries
+        1,     // log interval
+        jobClaimedTimeoutMillis,
+        jobSucceededGCTimeoutMillis,
+        jobFailedGCTimeoutMillis,
+        3      // max queue priority
+    );
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    try {
+      configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.memory.test.properties"));
+    } catch (ConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    backend = new PinLaterMemoryBackend(configuration, "localhost", System.currentTimeMillis());
+  }
+
+  @Before
+  public void beforeTest() {
+    backend.deleteQueue(QUEUE_NAME).get();
+    backend.createQueue(QUEUE_NAME).get();
+  }
+
+  @After
+  public void afterTest() {
+    backend.deleteQueue(QUEUE_NAME).get();
+  }
+}
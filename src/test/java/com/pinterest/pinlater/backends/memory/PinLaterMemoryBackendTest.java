@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.memory;
+
+import com.pinterest.pinlater.backends.common.PinLaterBackendBaseTest;
+import com.pinterest.pinlater.thrift.ErrorCode;
+import com.pinterest.pinlater.thrift.PinLaterDequeueRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueRequest;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueResponse;
+import com.pinterest.pinlater.thrift.PinLaterException;
+import com.pinterest.pinlater.thrift.PinLaterGetJobCountRequest;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobAckRequest;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+import com.pinterest.pinlater.thrift.PinLaterLookupJobRequest;
+
+import com.google.common.base.Strings;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class PinLaterMemoryBackendTest extends PinLaterBackendBaseTest<PinLaterMemoryBackend> {
+
+  private static final String QUEUE_NAME = "pinlater_memory_backend_test";
+  private static PinLaterMemoryBackend backend;
+
+  @Override
+  protected String getQueueName() {
+    return QUEUE_NAME;
+  }
+
+  @Override
+  protected PinLaterMemoryBackend getBackend() {
+    return backend;
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    try {
+      configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.memory.test.properties"));
+    } catch (ConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    backend = new PinLaterMemoryBackend(configuration, "localhost", System.currentTimeMillis());
+  }
+
+  @Before
+  public void beforeTest() {
+    // Start each test from an empty queue.
+    backend.deleteQueue(QUEUE_NAME).get();
+    backend.createQueue(QUEUE_NAME).get();
+  }
+
+  @After
+  public void afterTest() {
+    backend.deleteQueue(QUEUE_NAME).get();
+  }
+
+  @Test
+  public void testCustomStatusTruncatesWhenTooLong() {
+    // Enqueue a job with custom stats "*".
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    PinLaterJob job = new PinLaterJob(ByteBuffer.wrap("job_body".getBytes()));
+    job.setCustomStatus("*");
+    enqueueRequest.addToJobs(job);
+    PinLaterEnqueueResponse enqueueResponse = backend.enqueueJobs(enqueueRequest).get();
+    String jobDesc = enqueueResponse.getJobDescriptors().get(0);
+
+    // Dequeue the job.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, 1);
+    PinLaterDequeueResponse dequeueResponse = backend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertEquals(1, dequeueResponse.getJobsSize());
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+    Assert.assertEquals(1, (int) backend.getJobCount(
+        new PinLaterGetJobCountRequest(QUEUE_NAME, PinLaterJobState.IN_PROGRESS)).get());
+
+    // Ack the job, appending to the custom status size with hyphens so that it'll overflow.
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    PinLaterJobAckInfo ackInfo = new PinLaterJobAckInfo(jobDesc);
+    ackInfo.setAppendCustomStatus(Strings.repeat("-", MemoryJobTable.CUSTOM_STATUS_SIZE_BYTES));
+    ackRequest.addToJobsSucceeded(ackInfo);
+    backend.ackDequeuedJobs(ackRequest).get();
+    Assert.assertEquals(1, (int) backend.getJobCount(
+        new PinLaterGetJobCountRequest(QUEUE_NAME, PinLaterJobState.SUCCEEDED)).get());
+
+    // Look up the job to make sure that the custom status was truncated when we appended too much.
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest();
+    lookupJobRequest.addToJobDescriptors(jobDesc);
+    Map<String, PinLaterJobInfo> jobInfoMap = backend.lookupJobs(lookupJobRequest).get();
+    Assert.assertEquals("*" + Strings.repeat("-", MemoryJobTable.CUSTOM_STATUS_SIZE_BYTES - 1),
+        jobInfoMap.get(jobDesc).getCustomStatus());
+  }
+
+  @Test
+  public void testDeleteQueueDropsJobs() {
+    // Enqueue a job, then delete and recreate the queue.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap("job_body".getBytes())));
+    String jobDesc = backend.enqueueJobs(enqueueRequest).get().getJobDescriptors().get(0);
+    backend.deleteQueue(QUEUE_NAME).get();
+    backend.createQueue(QUEUE_NAME).get();
+
+    // The job should be gone along with the old queue.
+    Assert.assertEquals(0, (int) backend.getJobCount(
+        new PinLaterGetJobCountRequest(QUEUE_NAME, PinLaterJobState.PENDING)).get());
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest();
+    lookupJobRequest.addToJobDescriptors(jobDesc);
+    Assert.assertFalse(backend.lookupJobs(lookupJobRequest).get().containsKey(jobDesc));
+  }
+
+  @Test
+  public void testQueueDoesNotExistDequeue() {
+    try {
+      PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest("nonexistent_queue", 1);
+      backend.dequeueJobs("test", dequeueRequest).get();
+    } catch (Exception e) {
+      if (e instanceof PinLaterException) {
+        Assert.assertEquals(ErrorCode.QUEUE_NOT_FOUND, ((PinLaterException) e).getErrorCode());
+        return;
+      }
+    }
+    Assert.fail();
+  }
+
+  @Test
+  public void testQueueDoesNotExistAckSuccess() {
+    try {
+      PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest("nonexistent_queue");
+      PinLaterJobAckInfo ackInfo = new PinLaterJobAckInfo("nonexistent_queue:s1:p1:1");
+      ackRequest.addToJobsSucceeded(ackInfo);
+      backend.ackDequeuedJobs(ackRequest).get();
+    } catch (Exception e) {
+      if (e instanceof PinLaterException) {
+        Assert.assertEquals(ErrorCode.QUEUE_NOT_FOUND, ((PinLaterException) e).getErrorCode());
+        return;
+      }
+    }
+    Assert.fail();
+  }
+
+  @Test
+  public void testQueueDoesNotExistAckFail() {
+    try {
+      PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest("nonexistent_queue");
+      PinLaterJobAckInfo ackInfo = new PinLaterJobAckInfo("nonexistent_queue:s1:p1:1");
+      ackRequest.addToJobsFailed(ackInfo);
+      backend.ackDequeuedJobs(ackRequest).get();
+    } catch (Exception e) {
+      if (e instanceof PinLaterException) {
+        Assert.assertEquals(ErrorCode.QUEUE_NOT_FOUND, ((PinLaterException) e).getErrorCode());
+        return;
+      }
+    }
+    Assert.fail();
+  }
+}
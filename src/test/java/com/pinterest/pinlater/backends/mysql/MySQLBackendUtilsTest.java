@@ -12,6 +12,26 @@ public class MySQLBackendUtilsTest {
     validateQueueName("_test_");
   }
 
+  @Test
+  public void testConstructInClausePlaceholders() {
+    Assert.assertEquals("?", MySQLBackendUtils.constructInClausePlaceholders(1));
+    Assert.assertEquals("?, ?, ?", MySQLBackendUtils.constructInClausePlaceholders(3));
+  }
+
+  @Test
+  public void testIsSkipLockedSupported() {
+    Assert.assertFalse(MySQLBackendUtils.isSkipLockedSupported("5.6.40-log"));
+    Assert.assertFalse(MySQLBackendUtils.isSkipLockedSupported("5.7.22"));
+    Assert.assertFalse(MySQLBackendUtils.isSkipLockedSupported("8.0.0-dmr"));
+    Assert.assertTrue(MySQLBackendUtils.isSkipLockedSupported("8.0.1"));
+    Assert.assertTrue(MySQLBackendUtils.isSkipLockedSupported("8.0.35-log"));
+    Assert.assertTrue(MySQLBackendUtils.isSkipLockedSupported("8.4.0"));
+    Assert.assertFalse(MySQLBackendUtils.isSkipLockedSupported("10.5.9-MariaDB"));
+    Assert.assertTrue(MySQLBackendUtils.isSkipLockedSupported("10.6.12-MariaDB-log"));
+    Assert.assertTrue(MySQLBackendUtils.isSkipLockedSupported("5.5.5-10.11.2-MariaDB"));
+    Assert.assertFalse(MySQLBackendUtils.isSkipLockedSupported("unknown"));
+  }
+
   private void validateQueueName(String queueName) {
     String shardName = MySQLBackendUtils.constructShardName(1, 0);
     String dbName = MySQLBackendUtils.constructDBName(queueName, shardName);
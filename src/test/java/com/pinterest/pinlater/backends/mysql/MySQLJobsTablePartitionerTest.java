@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.mysql;
+
+import com.pinterest.pinlater.commons.jdbc.JdbcUtils;
+import com.pinterest.pinlater.commons.jdbc.RowProcessor;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MySQLJobsTablePartitionerTest {
+
+  private static final long PERIOD_SECONDS = TimeUnit.HOURS.toSeconds(1);
+  private static final String DB_NAME = "pinlater_partitioner_test";
+  private static final String JOBS_TABLE_NAME = DB_NAME + ".jobs";
+  private static final String INSERT_JOB =
+      "INSERT INTO %s (state, attempts_allowed, attempts_remaining, created_at, run_after, body,"
+          + " partitioned_at) VALUES (?, 1, 1, ?, ?, '', ?)";
+
+  @Test
+  public void testDisabled() {
+    MySQLJobsTablePartitioner partitioner = new MySQLJobsTablePartitioner(0, 2);
+    Assert.assertFalse(partitioner.isEnabled());
+    Assert.assertEquals(
+        String.format(MySQLQueries.CREATE_JOBS_TABLE, "db.jobs_p1",
+            MySQLQueries.JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX),
+        partitioner.constructCreateJobsTableQuery("db.jobs_p1", true, 10000000L));
+    Assert.assertEquals(
+        String.format(MySQLQueries.CREATE_JOBS_TABLE, "db.jobs_p1", ""),
+        partitioner.constructCreateJobsTableQuery("db.jobs_p1", false, 10000000L));
+  }
+
+  @Test
+  public void testGetUpperBoundsToAdd() {
+    MySQLJobsTablePartitioner partitioner = new MySQLJobsTablePartitioner(PERIOD_SECONDS, 2);
+    Assert.assertTrue(partitioner.isEnabled());
+
+    // New table: the current partition and 2 partitions ahead.
+    Assert.assertEquals(ImmutableList.of(10800L, 14400L, 18000L),
+        partitioner.getUpperBoundsToAdd(null, 10000L));
+
+    // Existing table.
+    Assert.assertEquals(ImmutableList.of(18000L),
+        partitioner.getUpperBoundsToAdd(14400L, 10000L));
+    Assert.assertEquals(ImmutableList.of(),
+        partitioner.getUpperBoundsToAdd(18000L, 10000L));
+    Assert.assertEquals(ImmutableList.of(),
+        partitioner.getUpperBoundsToAdd(21600L, 10000L));
+
+    // Existing table whose partitions are behind.
+    Assert.assertEquals(ImmutableList.of(10800L, 14400L, 18000L),
+        partitioner.getUpperBoundsToAdd(3600L, 10000L));
+  }
+
+  @Test
+  public void testConstructCreateJobsTableQuery() {
+    MySQLJobsTablePartitioner partitioner = new MySQLJobsTablePartitioner(PERIOD_SECONDS, 1);
+    Assert.assertEquals(
+        String.format(MySQLQueries.CREATE_PARTITIONED_JOBS_TABLE, "db.jobs_p1",
+            MySQLQueries.JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX,
+            "PARTITION p10800 VALUES LESS THAN (10800)"
+                + ", PARTITION p14400 VALUES LESS THAN (14400)"
+                + ", PARTITION pmax VALUES LESS THAN MAXVALUE"),
+        partitioner.constructCreateJobsTableQuery("db.jobs_p1", true, 10000000L));
+  }
+
+  @Test
+  public void testManagePartitions() throws Exception {
+    // If there is no local MySQL, skip this test.
+    Assume.assumeTrue(LocalMySQLChecker.isRunning());
+    MySQLJobsTablePartitioner partitioner = new MySQLJobsTablePartitioner(PERIOD_SECONDS, 2);
+    long currentTimeMillis = System.currentTimeMillis();
+    long createdAtMillis = currentTimeMillis - TimeUnit.DAYS.toMillis(3);
+    Timestamp createdAt = new Timestamp(createdAtMillis);
+    Timestamp gcTimestamp = new Timestamp(currentTimeMillis - TimeUnit.DAYS.toMillis(1));
+    Timestamp recent = new Timestamp(currentTimeMillis - TimeUnit.HOURS.toMillis(1));
+    Connection conn = DriverManager.getConnection("jdbc:mysql://localhost:3306", "root", "");
+    try {
+      JdbcUtils.executeUpdate(conn, String.format(MySQLQueries.DROP_DATABASE, DB_NAME));
+      JdbcUtils.executeUpdate(conn, String.format(MySQLQueries.CREATE_DATABASE, DB_NAME));
+
+      // A table created 3 days ago, with jobs inserted back then.
+      JdbcUtils.executeUpdate(conn,
+          partitioner.constructCreateJobsTableQuery(JOBS_TABLE_NAME, true, createdAtMillis));
+      insertJob(conn, PinLaterJobState.PENDING, createdAt, createdAt);
+      insertJob(conn, PinLaterJobState.IN_PROGRESS, createdAt, createdAt);
+      insertJob(conn, PinLaterJobState.SUCCEEDED, createdAt, createdAt);
+      insertJob(conn, PinLaterJobState.SUCCEEDED, recent, createdAt);
+      insertJob(conn, PinLaterJobState.FAILED, createdAt, createdAt);
+      List<Long> upperBounds = partitioner.getPartitionUpperBounds(conn, JOBS_TABLE_NAME);
+      Assert.assertEquals(3, upperBounds.size());
+
+      // With room for 2 jobs only, the first partition cannot be dropped yet.
+      MySQLJobsTablePartitioner.Result result = partitioner.managePartitions(
+          conn, "test", JOBS_TABLE_NAME, upperBounds, currentTimeMillis, gcTimestamp,
+          gcTimestamp, 2);
+      Assert.assertEquals(0, result.getNumDropped());
+      Assert.assertTrue(result.hasMoreToMigrate());
+      Assert.assertEquals(5, getJobStates(conn).size());
+
+      // Then the remaining job is moved out, and every partition that is due for GC is dropped.
+      upperBounds = partitioner.getPartitionUpperBounds(conn, JOBS_TABLE_NAME);
+      result = partitioner.managePartitions(
+          conn, "test", JOBS_TABLE_NAME, upperBounds, currentTimeMillis, gcTimestamp,
+          gcTimestamp, 100);
+      Assert.assertEquals(3, result.getNumDropped());
+      Assert.assertFalse(result.hasMoreToMigrate());
+      Assert.assertEquals(
+          ImmutableMultiset.of(PinLaterJobState.PENDING.getValue(),
+              PinLaterJobState.IN_PROGRESS.getValue(), PinLaterJobState.SUCCEEDED.getValue()),
+          ImmutableMultiset.copyOf(getJobStates(conn)));
+      Assert.assertEquals(
+          partitioner.getUpperBoundsToAdd(null, TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis)),
+          partitioner.getPartitionUpperBounds(conn, JOBS_TABLE_NAME));
+
+      // Nothing left to do.
+      result = partitioner.managePartitions(
+          conn, "test", JOBS_TABLE_NAME,
+          partitioner.getPartitionUpperBounds(conn, JOBS_TABLE_NAME), currentTimeMillis,
+          gcTimestamp, gcTimestamp, 100);
+      Assert.assertEquals(0, result.getNumDropped());
+      Assert.assertFalse(result.hasMoreToMigrate());
+    } finally {
+      JdbcUtils.executeUpdate(conn, String.format(MySQLQueries.DROP_DATABASE, DB_NAME));
+      JdbcUtils.closeConnection(conn);
+    }
+  }
+
+  private static void insertJob(Connection conn, PinLaterJobState state, Timestamp runAfter,
+                                Timestamp partitionedAt) throws Exception {
+    JdbcUtils.executeUpdate(conn, String.format(INSERT_JOB, JOBS_TABLE_NAME),
+        state.getValue(), runAfter, runAfter, partitionedAt);
+  }
+
+  private static List<Integer> getJobStates(Connection conn) throws Exception {
+    return JdbcUtils.select(conn, "SELECT state FROM " + JOBS_TABLE_NAME,
+        new RowProcessor<Integer>() {
+          @Override
+          public Integer process(ResultSet rs) throws IOException, SQLException {
+            return rs.getInt(1);
+          }
+        });
+  }
+}
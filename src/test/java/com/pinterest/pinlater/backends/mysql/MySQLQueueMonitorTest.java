@@ -46,14 +46,15 @@ public class MySQLQueueMonitorTest extends BackendQueueMonitorBaseTest<PinLaterM
   }
 
   @Override
-  protected MySQLQueueMonitor createQueueMonitor(long jobClaimedTimeoutMillis,
+  protected MySQLQueueMonitor createQueueMonitor(int updateMaxSize,
+                                                 long jobClaimedTimeoutMillis,
                                                  long jobSucceededGCTimeoutMillis,
                                                  long jobFailedGCTimeoutMillis) {
     InputStream mysqlConfigStream = ClassLoader.getSystemResourceAsStream("mysql.local.json");
     ImmutableMap<String, MySQLDataSources> shardMap =
         MySQLBackendUtils.buildShardMap(mysqlConfigStream, configuration);
     return new MySQLQueueMonitor(shardMap,
-        1000,  // update max size
+        updateMaxSize,
         3,     // auto retries
         1,     // log interval
         jobClaimedTimeoutMillis,
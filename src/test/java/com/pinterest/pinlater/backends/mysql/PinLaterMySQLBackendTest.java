@@ -76,16 +76,20 @@ public class PinLaterMySQLBackendTest extends PinLaterBackendBaseTest<PinLaterMy
     // If there is no local MySQL, skip this test.
     boolean isLocalMySQLRunning = LocalMySQLChecker.isRunning();
     Assume.assumeTrue(isLocalMySQLRunning);
+    System.setProperty("backend_config", "mysql.local.json");
+
+    backend = new PinLaterMySQLBackend(
+        loadTestConfiguration(), "localhost", System.currentTimeMillis());
+  }
+
+  private static PropertiesConfiguration loadTestConfiguration() {
     PropertiesConfiguration configuration = new PropertiesConfiguration();
     try {
       configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.test.properties"));
     } catch (ConfigurationException e) {
       throw new RuntimeException(e);
     }
-    System.setProperty("backend_config", "mysql.local.json");
-
-    backend = new PinLaterMySQLBackend(
-        configuration, "localhost", System.currentTimeMillis());
+    return configuration;
   }
 
   @Before
@@ -210,6 +214,47 @@ public class PinLaterMySQLBackendTest extends PinLaterBackendBaseTest<PinLaterMy
     Assert.fail();
   }
 
+  @Test
+  public void testMultiStatementDequeue() throws Exception {
+    PropertiesConfiguration configuration = loadTestConfiguration();
+    configuration.setProperty("MYSQL_DEQUEUE_MULTI_STATEMENT", true);
+    PinLaterMySQLBackend multiStatementBackend = new PinLaterMySQLBackend(
+        configuration, "localhost", System.currentTimeMillis());
+
+    // Enqueue 5 jobs.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    for (int i = 0; i < 5; i++) {
+      enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap(("job_body_" + i).getBytes())));
+    }
+    List<String> jobDescriptors =
+        backend.enqueueJobs(enqueueRequest).get().getJobDescriptors();
+
+    // Claim all of them with the multi-statement query, which returns them along with the update.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, 10);
+    PinLaterDequeueResponse dequeueResponse =
+        multiStatementBackend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertEquals(ImmutableSet.copyOf(jobDescriptors), dequeueResponse.getJobs().keySet());
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("job_body_" + i,
+          new String(dequeueResponse.getJobs().get(jobDescriptors.get(i)).getBody()));
+    }
+    Assert.assertEquals(5, (int) backend.getJobCount(
+        new PinLaterGetJobCountRequest(QUEUE_NAME, PinLaterJobState.IN_PROGRESS)).get());
+
+    // Nothing left to claim: the update count is 0 and the select is skipped.
+    dequeueResponse = multiStatementBackend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertEquals(0, dequeueResponse.getJobsSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiStatementDequeueRequiresClaimDescriptorIndex() throws Exception {
+    PropertiesConfiguration configuration = loadTestConfiguration();
+    configuration.setProperty("MYSQL_DEQUEUE_MULTI_STATEMENT", true);
+    configuration.setProperty("MYSQL_JOBS_TABLE_CLAIM_DESCRIPTOR_INDEX", false);
+    new PinLaterMySQLBackend(configuration, "localhost", System.currentTimeMillis());
+  }
+
   // TODO (klo): move this to PinLaterBackendBaseTest. Feel free to either merge it with
   // testGetJobCount() and leave this as a standalone test if that feels too cluttered.
   @Test
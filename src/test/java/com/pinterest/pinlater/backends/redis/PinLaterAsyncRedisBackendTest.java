@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.pinlater.backends.redis;
+
+import com.pinterest.pinlater.backends.common.PinLaterBackendBaseTest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueRequest;
+import com.pinterest.pinlater.thrift.PinLaterDequeueResponse;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueRequest;
+import com.pinterest.pinlater.thrift.PinLaterEnqueueResponse;
+import com.pinterest.pinlater.thrift.PinLaterGetJobCountRequest;
+import com.pinterest.pinlater.thrift.PinLaterJob;
+import com.pinterest.pinlater.thrift.PinLaterJobAckInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobAckRequest;
+import com.pinterest.pinlater.thrift.PinLaterJobInfo;
+import com.pinterest.pinlater.thrift.PinLaterJobState;
+import com.pinterest.pinlater.thrift.PinLaterLookupJobRequest;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.Jedis;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class PinLaterAsyncRedisBackendTest
+    extends PinLaterBackendBaseTest<PinLaterAsyncRedisBackend> {
+
+  private static final String QUEUE_NAME = "pinlater_async_redis_backend_test";
+  private static final String LOCALHOST = "localhost";
+  private static final int REDIS_PORT = 6379;
+  private static PinLaterAsyncRedisBackend backend;
+
+  @Override
+  protected String getQueueName() {
+    return QUEUE_NAME;
+  }
+
+  @Override
+  protected PinLaterAsyncRedisBackend getBackend() {
+    return backend;
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // If there is no local Redis, skip this test.
+    Assume.assumeTrue(LocalRedisChecker.isRunning(REDIS_PORT));
+
+    PropertiesConfiguration configuration = new PropertiesConfiguration();
+    try {
+      configuration.load(ClassLoader.getSystemResourceAsStream("pinlater.redis.test.properties"));
+    } catch (ConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    InputStream redisConfigStream = ClassLoader.getSystemResourceAsStream("redis.local.json");
+
+    backend = new PinLaterAsyncRedisBackend(
+        configuration, redisConfigStream, LOCALHOST, System.currentTimeMillis());
+  }
+
+  @Before
+  public void beforeTest() {
+    if (LocalRedisChecker.isRunning(REDIS_PORT)) {
+      // Clean up redis.
+      backend.cleanUpAllShards().get();
+    }
+
+    // Create the test queue.
+    backend.createQueue(QUEUE_NAME).get();
+  }
+
+  @After
+  public void afterTest() {
+    if (LocalRedisChecker.isRunning(REDIS_PORT)) {
+      // Clean up redis.
+      backend.cleanUpAllShards().get();
+    }
+  }
+
+  @Test
+  public void testScriptCacheFlushed() {
+    // Drop all the cached scripts, as happens after a redis restart or failover.
+    Jedis conn = new Jedis(LOCALHOST, REDIS_PORT);
+    try {
+      conn.scriptFlush();
+    } finally {
+      conn.disconnect();
+    }
+
+    // The async client should reload the scripts transparently on enqueue, dequeue and ack.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap("job_body".getBytes())));
+    String jobDesc = backend.enqueueJobs(enqueueRequest).get().getJobDescriptors().get(0);
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, 1);
+    PinLaterDequeueResponse dequeueResponse = backend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    ackRequest.addToJobsSucceeded(new PinLaterJobAckInfo(jobDesc));
+    backend.ackDequeuedJobs(ackRequest).get();
+    Assert.assertEquals(1, (int) backend.getJobCount(
+        new PinLaterGetJobCountRequest(QUEUE_NAME, PinLaterJobState.SUCCEEDED)).get());
+  }
+
+  @Test
+  public void testLookupJobHashEvicted() {
+    // Enqueue 2 jobs and remove the hash of the first one.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    for (int i = 0; i < 2; i++) {
+      enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap("job_body".getBytes())));
+    }
+    PinLaterEnqueueResponse enqueueResponse = backend.enqueueJobs(enqueueRequest).get();
+    Assert.assertEquals(2, enqueueResponse.getJobDescriptorsSize());
+    backend.removeJobHash(enqueueResponse.getJobDescriptors().get(0)).get();
+
+    // The evicted job should be left out of the lookup, the other one should be found.
+    PinLaterLookupJobRequest lookupJobRequest = new PinLaterLookupJobRequest();
+    lookupJobRequest.setIncludeBody(true);
+    lookupJobRequest.setJobDescriptors(enqueueResponse.getJobDescriptors());
+    Map<String, PinLaterJobInfo> jobInfoMap = backend.lookupJobs(lookupJobRequest).get();
+    Assert.assertEquals(1, jobInfoMap.size());
+    PinLaterJobInfo jobInfo = jobInfoMap.get(enqueueResponse.getJobDescriptors().get(1));
+    Assert.assertEquals(PinLaterJobState.PENDING, jobInfo.getJobState());
+    Assert.assertEquals("job_body", new String(jobInfo.getBody()));
+  }
+}
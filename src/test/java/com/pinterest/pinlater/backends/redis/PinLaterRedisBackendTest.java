@@ -48,6 +48,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import redis.clients.jedis.Jedis;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -180,6 +181,26 @@ public class PinLaterRedisBackendTest extends PinLaterBackendBaseTest<PinLaterRe
     Assert.assertTrue(queueNames.containsAll(testQueueNames));
   }
 
+  @Test
+  public void testScriptCacheFlushed() {
+    // Drop all the cached scripts, as happens after a redis restart or failover.
+    Jedis conn = new Jedis(LOCALHOST, REDIS_PORT);
+    try {
+      conn.scriptFlush();
+    } finally {
+      conn.disconnect();
+    }
+
+    // Scripts should be reloaded transparently on enqueue and dequeue.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(QUEUE_NAME);
+    enqueueRequest.addToJobs(new PinLaterJob(ByteBuffer.wrap("job_body".getBytes())));
+    String jobDesc = backend.enqueueJobs(enqueueRequest).get().getJobDescriptors().get(0);
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(QUEUE_NAME, 1);
+    PinLaterDequeueResponse dequeueResponse = backend.dequeueJobs("test", dequeueRequest).get();
+    Assert.assertTrue(dequeueResponse.getJobs().containsKey(jobDesc));
+  }
+
   @Test
   public void testDeleteQueueNotDeleteAllZsets() {
     // Make sure we only delete all the jobs in the pending and in_progress queues.
@@ -327,6 +348,48 @@ public class PinLaterRedisBackendTest extends PinLaterBackendBaseTest<PinLaterRe
         new PinLaterGetJobCountRequest(getQueueName(), PinLaterJobState.FAILED)).get());
   }
 
+  @Test
+  public void testAckFailedJobsBatch() {
+    // Ensure that a batch of failed acks handles each job on its own: retried, failed and evicted
+    // jobs can all be acked in the same request.
+    Assert.assertTrue(getBackend().getQueueNames().get().contains(getQueueName()));
+
+    // Enqueue 4 jobs, the last one without any retries left.
+    PinLaterEnqueueRequest enqueueRequest = new PinLaterEnqueueRequest();
+    enqueueRequest.setQueueName(getQueueName());
+    for (int i = 0; i < 4; i++) {
+      PinLaterJob job = new PinLaterJob(ByteBuffer.wrap(("job_body_" + i).getBytes()));
+      job.setNumAttemptsAllowed(i == 3 ? 1 : 2);
+      enqueueRequest.addToJobs(job);
+    }
+    PinLaterEnqueueResponse enqueueResponse = getBackend().enqueueJobs(enqueueRequest).get();
+    Assert.assertEquals(4, enqueueResponse.getJobDescriptorsSize());
+
+    // Dequeue 4 jobs.
+    PinLaterDequeueRequest dequeueRequest = new PinLaterDequeueRequest(getQueueName(), 4);
+    PinLaterDequeueResponse dequeueResponse =
+        getBackend().dequeueJobs("test", dequeueRequest).get();
+    Assert.assertEquals(4, dequeueResponse.getJobsSize());
+
+    // Remove the job hash for the first job.
+    getBackend().removeJobHash(enqueueResponse.getJobDescriptors().get(0)).get();
+
+    // Ack all 4 jobs as failed in a single request.
+    PinLaterJobAckRequest ackRequest = new PinLaterJobAckRequest(QUEUE_NAME);
+    for (int i = 0; i < 4; i++) {
+      ackRequest.addToJobsFailed(new PinLaterJobAckInfo(
+          enqueueResponse.getJobDescriptors().get(i)));
+    }
+    getBackend().ackDequeuedJobs(ackRequest).get();
+
+    Assert.assertEquals(0, (int) getBackend().getJobCount(
+        new PinLaterGetJobCountRequest(getQueueName(), PinLaterJobState.IN_PROGRESS)).get());
+    Assert.assertEquals(2, (int) getBackend().getJobCount(
+        new PinLaterGetJobCountRequest(getQueueName(), PinLaterJobState.PENDING)).get());
+    Assert.assertEquals(1, (int) getBackend().getJobCount(
+        new PinLaterGetJobCountRequest(getQueueName(), PinLaterJobState.FAILED)).get());
+  }
+
   @Test
   public void testScanJobHashEvicted() {
     // Ensure that redis backend handles gracefully when the hash of the job to scan has been
@@ -65,7 +65,8 @@ public class RedisQueueMonitorTest extends BackendQueueMonitorBaseTest<PinLaterR
   }
 
   @Override
-  protected RedisQueueMonitor createQueueMonitor(long jobClaimedTimeoutMillis,
+  protected RedisQueueMonitor createQueueMonitor(int updateMaxSize,
+                                                 long jobClaimedTimeoutMillis,
                                                  long jobSucceededGCTimeoutMillis,
                                                  long jobFailedGCTimeoutMillis) {
     HealthChecker dummyHealthChecker = new HealthChecker("pinlater_redis_test");
@@ -82,7 +83,7 @@ public class RedisQueueMonitorTest extends BackendQueueMonitorBaseTest<PinLaterR
     ImmutableMap<String, RedisPools> shardMap =
         RedisBackendUtils.buildShardMap(redisConfigStream, configuration);
     return new RedisQueueMonitor(shardMap,
-        1000,  // update max size
+        updateMaxSize,
         3,     // auto retries
         1,     // log interval
         jobClaimedTimeoutMillis,